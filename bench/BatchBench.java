@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import repository.CustomerRepository;
+import repository.Database;
+import storage.WriteAheadLog.SyncPolicy;
+
+/**
+ * BatchBench - Customer creates through the single-row create() against
+ * createAll() in batches of BATCH rows without per-row responses, on one
+ * thread. - Three setups: in memory, a durable Database with INTERVAL sync
+ * and one with EVERY_WRITE sync (fewer rows there, one fsync per single-row
+ * create). - Each setup runs ROUNDS times on a fresh Database and prints the
+ * median rows/s of each path.
+ *
+ * Run from the repository root:
+ *   javac -d out $(find src bench -name '*.java')
+ *   java -cp out BatchBench
+ */
+public class BatchBench {
+    private static final int ROWS = 100_000;
+    private static final int SYNCED_ROWS = 5_000;
+    private static final int BATCH = 1_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        report("in memory", null, ROWS);
+        report("INTERVAL log", SyncPolicy.INTERVAL, ROWS);
+        report("EVERY_WRITE log", SyncPolicy.EVERY_WRITE, SYNCED_ROWS);
+    }
+
+    private static void report(String name, SyncPolicy policy, int rows)
+            throws IOException {
+        double[] single = new double[ROUNDS];
+        double[] batch = new double[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            single[i] = run(policy, rows, false);
+            batch[i] = run(policy, rows, true);
+        }
+        System.out.printf("%-16s %,7d rows: single-row %,9.0f rows/s, batch %,9.0f rows/s%n",
+                name, rows, median(single), median(batch));
+    }
+
+    // rows/s for rows creates on a fresh Database
+    private static double run(SyncPolicy policy, int rows, boolean batched)
+            throws IOException {
+        Path dir = (policy == null) ? null : Files.createTempDirectory("batchbench");
+        Database db = (policy == null) ? Database.inMemory() : Database.open(dir, policy, 5);
+        CustomerRepository customers = db.customers();
+        long start = System.nanoTime();
+        if (batched) {
+            List<String[]> chunk = new ArrayList<>(BATCH);
+            for (int i = 0; i < rows; i++) {
+                chunk.add(row(i));
+                if (chunk.size() == BATCH || i + 1 == rows) {
+                    customers.createAll(chunk, false);
+                    chunk.clear();
+                }
+            }
+        } else {
+            for (int i = 0; i < rows; i++) {
+                String[] r = row(i);
+                customers.create(r[0], r[1], r[2], r[3], r[4], r[5], r[6], r[7]);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        db.close();
+        if (dir != null) {
+            delete(dir);
+        }
+        return rows / seconds;
+    }
+
+    // ====================== Helpers ======================
+
+    private static String[] row(int i) {
+        return new String[] { "2024-01-01", "City" + (i % 50), "4321" + (i % 10),
+                "Street " + i, "c" + i + "@example.com", "555-0100", "Customer " + i,
+                (i % 2 == 0) ? "A" : "B" };
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
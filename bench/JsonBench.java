@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import repository.CustomerRepository;
+import repository.EmployeeRepository;
+import repository.OrderRepository;
+import repository.WarehouseRepository;
+
+/**
+ * JsonBench - Bytes allocated and time per call of the JSON paths, for each
+ * entity type: getById() (one row), writeAll() into a sink that keeps
+ * nothing (serialization only) and getAll() (the whole table as a String).
+ * - Allocation is read from the JVM's per-thread allocation counter
+ * (com.sun.management.ThreadMXBean), so no profiler or JMH is needed. - Each
+ * table gets ROWS rows; every measurement runs WARMUP calls first.
+ *
+ * The same class compiles against the tree before JsonWriter (commit
+ * b186085), so before/after numbers come from running it on both:
+ *   javac -d out $(find src bench -name '*.java')
+ *   java -cp out JsonBench
+ */
+public class JsonBench {
+    private static final int ROWS = 1_000;
+    private static final int WARMUP = 20_000;
+    private static final int GET_CALLS = 200_000;
+    private static final int ALL_CALLS = 500;
+
+    // The calls measured on one table
+    private interface Table {
+        String getById(String key);
+
+        String getAll();
+
+        void writeAll(Appendable out) throws IOException;
+    }
+
+    // Appendable that only counts, so writeAll() measures the serializer alone
+    private static final class Discard implements Appendable {
+        long chars;
+
+        @Override
+        public Appendable append(CharSequence s) {
+            this.chars += s.length();
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence s, int start, int end) {
+            this.chars += end - start;
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            this.chars++;
+            return this;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        System.out.printf("%-10s %14s %14s %14s %14s%n", "table", "getById B/op",
+                "writeAll B/op", "getAll B/op", "getAll us/op");
+        run("customer", customers(new CustomerRepository()));
+        run("order", orders(new OrderRepository()));
+        run("employee", employees(new EmployeeRepository()));
+        run("warehouse", warehouses(new WarehouseRepository()));
+    }
+
+    private static void run(String name, Table t) throws IOException {
+        Discard sink = new Discard();
+        long blackhole = 0;
+
+        for (int i = 0; i < WARMUP; i++) {
+            blackhole += t.getById(Integer.toString(i % ROWS)).length();
+        }
+        long before = allocated();
+        for (int i = 0; i < GET_CALLS; i++) {
+            blackhole += t.getById(Integer.toString(i % ROWS)).length();
+        }
+        // Integer.toString() of the key is part of the loop; subtract it
+        long keys = keyBytes(GET_CALLS);
+        double getById = (allocated() - before - keys) / (double) GET_CALLS;
+
+        for (int i = 0; i < ALL_CALLS; i++) {
+            t.writeAll(sink);
+        }
+        before = allocated();
+        for (int i = 0; i < ALL_CALLS; i++) {
+            t.writeAll(sink);
+        }
+        double writeAll = (allocated() - before) / (double) ALL_CALLS;
+
+        for (int i = 0; i < ALL_CALLS; i++) {
+            blackhole += t.getAll().length();
+        }
+        before = allocated();
+        long start = System.nanoTime();
+        for (int i = 0; i < ALL_CALLS; i++) {
+            blackhole += t.getAll().length();
+        }
+        double micros = (System.nanoTime() - start) / 1000.0 / ALL_CALLS;
+        double getAll = (allocated() - before) / (double) ALL_CALLS;
+
+        System.out.printf("%-10s %14.0f %14.0f %14.0f %14.1f%n", name, getById, writeAll,
+                getAll, micros);
+        if (blackhole + sink.chars == 42) {
+            System.out.println();
+        }
+    }
+
+    // ====================== Tables ======================
+
+    private static Table customers(CustomerRepository r) {
+        for (int i = 0; i < ROWS; i++) {
+            r.create("2024-01-01", "Columbus", "43210", "12 \"Main\" St", "c" + i + "@x.com",
+                    "555-0100", "Customer " + i, "A");
+        }
+        return new Table() {
+            public String getById(String key) {
+                return r.getById(key);
+            }
+
+            public String getAll() {
+                return r.getAll();
+            }
+
+            public void writeAll(Appendable out) throws IOException {
+                r.writeAll(out);
+            }
+        };
+    }
+
+    private static Table orders(OrderRepository r) {
+        for (int i = 0; i < ROWS; i++) {
+            r.create("2024-01-01", "2024-01-05", "2024-01-04", "2024-02-01", null, null);
+        }
+        return new Table() {
+            public String getById(String key) {
+                return r.getById(key);
+            }
+
+            public String getAll() {
+                return r.getAll();
+            }
+
+            public void writeAll(Appendable out) throws IOException {
+                r.writeAll(out);
+            }
+        };
+    }
+
+    private static Table employees(EmployeeRepository r) {
+        for (int i = 0; i < ROWS; i++) {
+            r.create(Integer.toString(i), "Employee\t" + i, "555-0100", "F", 50_000 + i);
+        }
+        return new Table() {
+            public String getById(String key) {
+                return r.getById(key);
+            }
+
+            public String getAll() {
+                return r.getAll();
+            }
+
+            public void writeAll(Appendable out) throws IOException {
+                r.writeAll(out);
+            }
+        };
+    }
+
+    private static Table warehouses(WarehouseRepository r) {
+        for (int i = 0; i < ROWS; i++) {
+            r.create("555-0100", "Columbus", "43210", "Dock \\" + i, 100 + i, 10, null);
+        }
+        return new Table() {
+            public String getById(String key) {
+                return r.getById(key);
+            }
+
+            public String getAll() {
+                return r.getAll();
+            }
+
+            public void writeAll(Appendable out) throws IOException {
+                r.writeAll(out);
+            }
+        };
+    }
+
+    // ====================== Helpers ======================
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Bytes the key strings of calls getById() calls allocate by themselves
+    private static long keyBytes(int calls) {
+        long before = allocated();
+        long sum = 0;
+        for (int i = 0; i < calls; i++) {
+            sum += Integer.toString(i % ROWS).length();
+        }
+        long bytes = allocated() - before;
+        return (sum == 0) ? 0 : bytes;
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import repository.CustomerRepository;
+import repository.Database;
+import repository.OrderRepository;
+import repository.Query;
+import storage.WriteAheadLog.SyncPolicy;
+
+/**
+ * ParallelScanBench - Scaling of the parallel full-table scan with cores. -
+ * Two unindexed queries: street = .. over CUSTOMERS heap customers, and
+ * dueDate = "soon" (not a date, so DayRangeIndex cannot answer it) over
+ * ORDERS memory-mapped orders, each matching about 1% of the rows. - The
+ * common ForkJoinPool's size is fixed when a JVM starts, so every setting
+ * runs in a child JVM: sequential (parallelThreshold = Integer.MAX_VALUE),
+ * then java.util.concurrent.ForkJoinPool.common.parallelism = 2, 4, .. up to
+ * the machine's processors. - Prints the median ms per query of ROUNDS runs
+ * and the speedup over sequential.
+ *
+ * Run from the repository root:
+ *   javac -d out $(find src bench -name '*.java')
+ *   java -cp out ParallelScanBench
+ */
+public class ParallelScanBench {
+    private static final int CUSTOMERS = 300_000;
+    private static final int ORDERS = 1_000_000;
+    private static final int BATCH = 10_000;
+    private static final int ROUNDS = 9;
+    private static final String SEQUENTIAL = "sequential";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("child")) {
+            child(args[1]);
+            return;
+        }
+        List<String> settings = new ArrayList<>();
+        settings.add(SEQUENTIAL);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int p = 2; p <= Math.max(2, cores); p *= 2) {
+            settings.add(String.valueOf(p));
+        }
+        if (cores > 2 && Integer.bitCount(cores) != 1) {
+            settings.add(String.valueOf(cores));
+        }
+        System.out.println(cores + " processor(s)");
+
+        double[] base = null;
+        for (String setting : settings) {
+            double[] ms = spawn(setting);
+            if (base == null) {
+                base = ms;
+            }
+            System.out.printf("%-10s customers %8.1f ms (%4.2fx)   mapped orders %8.1f ms"
+                    + " (%4.2fx)%n", setting, ms[0], base[0] / ms[0], ms[1], base[1] / ms[1]);
+        }
+    }
+
+    // Runs one setting in a fresh JVM; returns its {customers, orders} ms
+    private static double[] spawn(String setting) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        cmd.add("-Xmx2g");
+        if (!setting.equals(SEQUENTIAL)) {
+            cmd.add("-Djava.util.concurrent.ForkJoinPool.common.parallelism=" + setting);
+        }
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(ParallelScanBench.class.getName());
+        cmd.add("child");
+        cmd.add(setting);
+        Process child = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        String last = null;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(child.getInputStream()))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                last = line;
+            }
+        }
+        if (child.waitFor() != 0 || last == null || !last.startsWith("ms ")) {
+            throw new IllegalStateException(setting + " failed: " + last);
+        }
+        String[] parts = last.split(" ");
+        return new double[] { Double.parseDouble(parts[1]), Double.parseDouble(parts[2]) };
+    }
+
+    // In the child JVM: load both tables, time both queries, print "ms <c> <o>"
+    private static void child(String setting) throws IOException {
+        int threshold = setting.equals(SEQUENTIAL) ? Integer.MAX_VALUE : 1;
+        Path dir = Files.createTempDirectory("scanbench");
+        Database db = Database.open(dir, SyncPolicy.OS, 1000, true);
+        try {
+            CustomerRepository customers = db.customers();
+            OrderRepository orders = db.orders();
+            customers.setParallelScanThreshold(threshold);
+            orders.setParallelScanThreshold(threshold);
+            load(customers, orders);
+
+            Query street = Query.eq("street", "Street 7");
+            Query soon = Query.eq("dueDate", "soon");
+            check(customers.explain(street));
+            check(orders.explain(soon));
+            double c = median(() -> customers.query(street));
+            double o = median(() -> orders.query(soon));
+            System.out.println("ms " + c + " " + o);
+        } finally {
+            db.close();
+            delete(dir);
+        }
+    }
+
+    // ====================== Helpers ======================
+
+    private static void load(CustomerRepository customers, OrderRepository orders) {
+        List<String[]> chunk = new ArrayList<>(BATCH);
+        for (int i = 0; i < CUSTOMERS; i++) {
+            chunk.add(new String[] { "2024-01-01", "City" + (i % 50), "4321" + (i % 10),
+                "Street " + (i % 100), "c" + i + "@example.com", "555-0100",
+                "Customer " + i, "A" });
+            if (chunk.size() == BATCH) {
+                customers.createAll(chunk, false);
+                chunk.clear();
+            }
+        }
+        customers.createAll(chunk, false);
+        chunk.clear();
+        for (int i = 0; i < ORDERS; i++) {
+            String day = "2024-01-" + (10 + i % 20);
+            chunk.add(new String[] { day, day, null, (i % 100 == 7) ? "soon" : day, null,
+                null });
+            if (chunk.size() == BATCH) {
+                orders.createAll(chunk, false);
+                chunk.clear();
+            }
+        }
+        orders.createAll(chunk, false);
+    }
+
+    // The benchmark is only meaningful if the plan is a full scan
+    private static void check(String explain) {
+        if (!explain.contains("\"access\":\"scan\"")) {
+            throw new IllegalStateException("expected a scan: " + explain);
+        }
+    }
+
+    private static double median(Runnable query) {
+        query.run(); // warm-up
+        double[] ms = new double[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            query.run();
+            ms[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(ms);
+        return ms[ROUNDS / 2];
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import repository.Database;
+import repository.OrderRepository;
+import repository.Query;
+
+/**
+ * PlannerCheck - Checks the access paths QueryPlanner picks for date
+ * predicates on orders, through explain(), and that the indexed answers
+ * have the expected row counts. - Ranges open at either end and closed
+ * ranges must use DayRangeIndex; an equality on a value that is not a date
+ * must fall back to a scan. Any mismatch exits with status 1.
+ *
+ * Run from the repository root:
+ *   javac -d out $(find src bench -name '*.java')
+ *   java -cp out PlannerCheck
+ */
+public class PlannerCheck {
+    // Orders per due date; due dates are 2024-01-10 .. 2024-01-29
+    private static final int PER_DAY = 100;
+    private static final int DAYS = 20;
+    private static final String INDEX = "\"index\":\"DayRangeIndex(dueDate)\"";
+    private static final String SCAN = "\"access\":\"scan\"";
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        OrderRepository orders = Database.inMemory().orders();
+        for (int i = 0; i < PER_DAY * DAYS; i++) {
+            String day = "2024-01-" + (10 + i % DAYS);
+            orders.create(day, day, null, day, null, null);
+        }
+
+        check(orders, "dueDate <= 2024-01-12", Query.range("dueDate", null, "2024-01-12"),
+                INDEX, 3 * PER_DAY);
+        check(orders, "dueDate >= 2024-01-28", Query.range("dueDate", "2024-01-28", null),
+                INDEX, 2 * PER_DAY);
+        check(orders, "dueDate in [01-15, 01-16]",
+                Query.range("dueDate", "2024-01-15", "2024-01-16"), INDEX, 2 * PER_DAY);
+        check(orders, "dueDate = 2024-01-12", Query.eq("dueDate", "2024-01-12"), INDEX,
+                PER_DAY);
+        check(orders, "dueDate = not a date", Query.eq("dueDate", "soon"), SCAN, 0);
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static void check(OrderRepository orders, String name, Query q, String plan,
+            int rows) {
+        String explain = orders.explain(q);
+        int found = count(orders.query(q), "\"orderId\":");
+        boolean ok = explain.contains(plan) && found == rows;
+        System.out.printf("%-4s %-28s %s, %d rows%n", ok ? "ok" : "FAIL", name,
+                explain.contains(INDEX) ? "DayRangeIndex" : "scan", found);
+        if (!ok) {
+            System.out.println("     expected " + plan + " and " + rows + " rows: " + explain);
+            failures++;
+        }
+    }
+
+    private static int count(String json, String needle) {
+        int n = 0;
+        for (int at = json.indexOf(needle); at >= 0; at = json.indexOf(needle, at + 1)) {
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import repository.CustomerRepository;
+import repository.Database;
+import repository.EmployeeRepository;
+
+/**
+ * StressTest - Concurrent writers and readers on the customer and employee
+ * repositories, checking the read-write locking. - WRITERS threads create
+ * customers and employees and delete some of them again; READERS threads run
+ * getAll(), queryByCity() and queryBySalaryRange() at the same time. - Every
+ * read must be one consistent state: the rows of a city query all have that
+ * city, the rows of a salary range are all inside it. - At the end the city
+ * index and the salary index must account for exactly the rows getAll()
+ * returns. Any exception or mismatch fails the run (exit code 1).
+ *
+ * Run from the repository root:
+ *   javac -d out $(find src bench -name '*.java')
+ *   java -cp out StressTest
+ */
+public class StressTest {
+    private static final int WRITERS = 3;
+    private static final int READERS = 5;
+    private static final int CREATES_PER_WRITER = 10_000;
+    private static final int QUERY_ROUNDS_PER_READER = 2_000;
+    private static final int CITIES = 10;
+    private static final int MAX_SALARY = 999;
+
+    public static void main(String[] args) throws InterruptedException {
+        Database db = Database.inMemory();
+        CustomerRepository customers = db.customers();
+        EmployeeRepository employees = db.employees();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger writersLeft = new AtomicInteger(WRITERS);
+        AtomicInteger deletes = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                try {
+                    write(customers, employees, writer, deletes);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    writersLeft.decrementAndGet();
+                }
+            }, "writer-" + w));
+        }
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(() -> {
+                try {
+                    read(customers, employees, writersLeft);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }, "reader-" + r));
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        if (failure.get() == null) {
+            try {
+                checkFinal(customers, employees);
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }
+        System.out.printf("%d writers, %d readers: %,d creates, %,d deletes in %d ms%n",
+                WRITERS, READERS, 2 * WRITERS * CREATES_PER_WRITER, deletes.get(), millis);
+        if (failure.get() != null) {
+            System.out.println("FAILED");
+            failure.get().printStackTrace(System.out);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    // ====================== Workers ======================
+
+    private static void write(CustomerRepository customers, EmployeeRepository employees,
+            int writer, AtomicInteger deletes) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < CREATES_PER_WRITER; i++) {
+            String json = customers.create("2024-01-01", city(rnd.nextInt(CITIES)), "12345",
+                    "Street " + i, "w" + writer + "c" + i + "@example.com", "555",
+                    "Name " + i, "A");
+            String ssn = "w" + writer + "-" + i;
+            employees.create(ssn, "Name " + i, "555", (i % 2 == 0) ? "F" : "M",
+                    rnd.nextInt(MAX_SALARY + 1));
+            // Delete every third row of each table again
+            if (i % 3 == 0) {
+                customers.delete(field(json, "userId"));
+                employees.delete(ssn);
+                deletes.addAndGet(2);
+            }
+        }
+    }
+
+    private static void read(CustomerRepository customers, EmployeeRepository employees,
+            AtomicInteger writersLeft) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < QUERY_ROUNDS_PER_READER || writersLeft.get() > 0; i++) {
+            String city = city(rnd.nextInt(CITIES));
+            String rows = customers.queryByCity(city);
+            check(count(rows, "\"city\":") == count(rows, "\"city\":\"" + city + "\""),
+                    "queryByCity returned a row of another city");
+
+            int lo = rnd.nextInt(MAX_SALARY + 1);
+            int hi = lo + rnd.nextInt(50);
+            for (String salary : values(employees.queryBySalaryRange(lo, hi), "salary")) {
+                int s = Integer.parseInt(salary);
+                check(s >= lo && s <= hi, "salary " + s + " outside [" + lo + ", " + hi + "]");
+            }
+
+            if (i % 500 == 0) {
+                String all = customers.getAll();
+                check(all.startsWith("[") && all.endsWith("]"), "getAll() is not an array");
+            }
+        }
+    }
+
+    // Indexes and store agree once the writers are done
+    private static void checkFinal(CustomerRepository customers,
+            EmployeeRepository employees) {
+        int stored = count(customers.getAll(), "\"userId\":");
+        int indexed = 0;
+        for (int c = 0; c < CITIES; c++) {
+            indexed += count(customers.queryByCity(city(c)), "\"userId\":");
+        }
+        check(stored == indexed, "city index holds " + indexed + " customers, store " + stored);
+        check(stored == WRITERS * (CREATES_PER_WRITER - (CREATES_PER_WRITER + 2) / 3),
+                "unexpected customer count " + stored);
+
+        int employeesStored = count(employees.getAll(), "\"ssn\":");
+        int employeesIndexed = count(employees.queryBySalaryRange(0, MAX_SALARY), "\"ssn\":");
+        check(employeesStored == employeesIndexed, "salary index holds " + employeesIndexed
+                + " employees, store " + employeesStored);
+        check(employeesStored == stored, "unexpected employee count " + employeesStored);
+    }
+
+    // ====================== Helpers ======================
+
+    private static String city(int i) {
+        return "City" + i;
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private static int count(String json, String needle) {
+        int n = 0;
+        for (int at = json.indexOf(needle); at >= 0; at = json.indexOf(needle, at + 1)) {
+            n++;
+        }
+        return n;
+    }
+
+    // First "name":"value" (or "name":number) in json
+    private static String field(String json, String name) {
+        List<String> all = values(json, name);
+        return all.isEmpty() ? null : all.get(0);
+    }
+
+    private static List<String> values(String json, String name) {
+        List<String> out = new ArrayList<>();
+        String needle = "\"" + name + "\":";
+        for (int at = json.indexOf(needle); at >= 0; at = json.indexOf(needle, at + 1)) {
+            int from = at + needle.length();
+            boolean quoted = json.charAt(from) == '"';
+            if (quoted) {
+                from++;
+            }
+            int to = from;
+            while (to < json.length() && json.charAt(to) != (quoted ? '"' : ',')
+                    && json.charAt(to) != '}') {
+                to++;
+            }
+            out.add(json.substring(from, to));
+        }
+        return out;
+    }
+}
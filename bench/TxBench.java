@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import repository.Database;
+import repository.Transaction;
+
+/**
+ * TxBench - Transaction throughput under contention. - WRITERS threads run
+ * read-modify-write transactions that update two random customers each;
+ * READERS threads run read-only transactions of ten snapshot reads at the
+ * same time. - Two key sets: a uniform one (UNIFORM_KEYS customers, few
+ * conflicts) and a hot one (HOT_KEYS customers, many). - Prints commits/s,
+ * the share of commits refused with a conflict, snapshot reads/s and the
+ * manager's counters (Database.transactionStats()).
+ *
+ * Run from the repository root:
+ *   javac -d out $(find src bench -name '*.java')
+ *   java -cp out TxBench [seconds]
+ */
+public class TxBench {
+    private static final int WRITERS = 8;
+    private static final int READERS = 2;
+    private static final int UNIFORM_KEYS = 20_000;
+    private static final int HOT_KEYS = 16;
+    private static final int SECONDS = 2;
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : SECONDS;
+        run("uniform", UNIFORM_KEYS, seconds);
+        run("hot", HOT_KEYS, seconds);
+    }
+
+    private static void run(String name, int keys, int seconds) throws InterruptedException {
+        Database db = Database.inMemory();
+        List<String> ids = new ArrayList<>(keys);
+        for (int i = 0; i < keys; i++) {
+            String json = db.customers().create("2024-01-01", "Columbus", "43210", "Main St",
+                    "c" + i + "@example.com", "555-0100", "Customer " + i, "A");
+            ids.add(userId(json));
+        }
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong commits = new AtomicLong();
+        AtomicLong conflicts = new AtomicLong();
+        AtomicLong reads = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                while (!stop.get()) {
+                    try (Transaction tx = db.begin()) {
+                        for (int j = 0; j < 2; j++) {
+                            String id = ids.get(rnd.nextInt(ids.size()));
+                            tx.get("customer", id);
+                            tx.update("customer", new String[] { id, "2024-01-01", "Columbus",
+                                "43210", "Main St", "x@example.com", "555-0100",
+                                "Renamed " + rnd.nextInt(), "A" });
+                        }
+                        if (tx.commit().contains("\"conflict\"")) {
+                            conflicts.incrementAndGet();
+                        } else {
+                            commits.incrementAndGet();
+                        }
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                while (!stop.get()) {
+                    try (Transaction tx = db.begin()) {
+                        for (int j = 0; j < 10; j++) {
+                            tx.get("customer", ids.get(rnd.nextInt(ids.size())));
+                        }
+                    }
+                    reads.addAndGet(10);
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread t : threads) {
+            t.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long attempts = commits.get() + conflicts.get();
+        System.out.printf("%-8s %,6d keys: %,9.0f commits/s, %5.1f%% conflicts,"
+                + " %,11.0f snapshot reads/s%n", name, keys, commits.get() / elapsed,
+                (attempts == 0) ? 0.0 : 100.0 * conflicts.get() / attempts,
+                reads.get() / elapsed);
+        System.out.println("  " + db.transactionStats());
+    }
+
+    private static String userId(String json) {
+        String needle = "\"userId\":\"";
+        int from = json.indexOf(needle) + needle.length();
+        return json.substring(from, json.indexOf('"', from));
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import repository.CustomerRepository;
+import repository.Database;
+import storage.WriteAheadLog.SyncPolicy;
+
+/**
+ * WalBench - customer create() throughput on a durable Database, for each
+ * sync policy (EVERY_WRITE, INTERVAL every INTERVAL_MILLIS ms, OS) with 1 and
+ * with THREADS writer threads. - Each run gets a fresh directory under the
+ * system temp dir, runs for SECONDS seconds and prints ops/s. - Numbers
+ * depend mostly on the disk's fsync latency, so compare policies on one
+ * machine rather than across machines.
+ *
+ * Run from the repository root:
+ *   javac -d out $(find src bench -name '*.java')
+ *   java -cp out WalBench [seconds]
+ */
+public class WalBench {
+    private static final int THREADS = 8;
+    private static final long INTERVAL_MILLIS = 5;
+    private static final int SECONDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : SECONDS;
+        for (SyncPolicy policy : SyncPolicy.values()) {
+            for (int threads : new int[] { 1, THREADS }) {
+                double ops = run(policy, threads, seconds);
+                System.out.printf("%-12s %d thread(s) %,12.0f ops/s%n", policy, threads, ops);
+            }
+        }
+    }
+
+    private static double run(SyncPolicy policy, int threads, int seconds)
+            throws Exception {
+        Path dir = Files.createTempDirectory("walbench");
+        Database db = Database.open(dir, policy, INTERVAL_MILLIS);
+        CustomerRepository customers = db.customers();
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong ops = new AtomicLong();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            writers.add(new Thread(() -> {
+                long n = 0;
+                while (!stop.get()) {
+                    customers.create("2024-01-01", "Columbus", "43210", "Main St",
+                            "c" + n + "@example.com", "555-0100", "Customer " + n, "A");
+                    n++;
+                }
+                ops.addAndGet(n);
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread w : writers) {
+            w.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread w : writers) {
+            w.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        db.close();
+        delete(dir);
+        return ops.get() / elapsed;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -1,30 +1,66 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
+import repository.BulkExporter;
+import repository.BulkImporter;
 import repository.CustomerRepository;
+import repository.Database;
 import repository.EmployeeRepository;
 import repository.EquipmentManagement;
 import repository.OrderRepository;
+import repository.Query;
+import repository.Transaction;
 import repository.WarehouseRepository;
+import storage.WriteAheadLog.SyncPolicy;
 
 /**
  * TextInterface - Console-based entrypoint. - Hosts repositories and presents
  * text menus. - Warehouse and Equipment parts keep original behavior; we only
  * ADD menus for Customer, Employee, and Order in the same style as Warehouse. -
  * Uses JSON strings returned by repositories for display. - No lambdas/streams;
- * Allman brace style.
+ * Allman brace style. - Data is kept in a write-ahead log under the directory
+ * given by -Ddb.dir (default "data"); -Ddb.sync picks EVERY_WRITE, INTERVAL
+ * (default, every -Ddb.syncMillis ms) or OS. - A checkpoint (snapshot + log
+ * compaction) runs every -Ddb.checkpointMinutes minutes (default 10, 0 = off)
+ * and on exit. - -Ddb.orders=mapped keeps orders in memory-mapped column
+ * files instead of on the heap (default heap). - Main menu 6 bulk-loads a CSV
+ * or NDJSON file into a table (see BulkImporter); 7 streams a table out to
+ * one (see BulkExporter). - Table screens and query results are shown
+ * PAGE_SIZE rows at a time; 6 / 7 turn to the next / previous page (keyset
+ * cursors, see getPage()/queryPage()). - 8 on the Warehouse, Customer and
+ * Employee screens prints a group-by report (see aggregate()). - Main menu 8
+ * joins orders with customers or warehouses with managers (see Database). -
+ * Main menu 9 runs a transaction: several changes to any tables, committed
+ * together or not at all (see Database.begin()).
  */
 public class TextInterface {
-    private final WarehouseRepository warehouseRepo = new WarehouseRepository();
-    private final EquipmentManagement equipmentRepo = new EquipmentManagement();
-    private final CustomerRepository customerRepo = new CustomerRepository();
-    private final EmployeeRepository employeeRepo = new EmployeeRepository();
-    private final OrderRepository orderRepo = new OrderRepository();
+    // Rows per page on the table screens and query results
+    private static final int PAGE_SIZE = 20;
+
+    private final Database db;
+    private final WarehouseRepository warehouseRepo;
+    private final EquipmentManagement equipmentRepo;
+    private final CustomerRepository customerRepo;
+    private final EmployeeRepository employeeRepo;
+    private final OrderRepository orderRepo;
 
     // Console scanner
     private final Scanner in = new Scanner(System.in);
 
+    public TextInterface() {
+        this.db = this.openDatabase();
+        this.warehouseRepo = this.db.warehouses();
+        this.equipmentRepo = this.db.equipment();
+        this.customerRepo = this.db.customers();
+        this.employeeRepo = this.db.employees();
+        this.orderRepo = this.db.orders();
+    }
+
     public static void main(String[] args) {
         new TextInterface().run();
     }
@@ -48,7 +84,16 @@ public class TextInterface {
                 this.employeeMenu();
             } else if ("5".equals(choice)) {
                 this.orderMenu();
+            } else if ("6".equals(choice)) {
+                this.handleBulkImport();
+            } else if ("7".equals(choice)) {
+                this.handleBulkExport();
+            } else if ("8".equals(choice)) {
+                this.handleJoinReport();
+            } else if ("9".equals(choice)) {
+                this.handleTransaction();
             } else if ("0".equals(choice)) {
+                this.closeDatabase();
                 this.println("Bye!");
                 break;
             } else {
@@ -68,6 +113,10 @@ public class TextInterface {
         this.println("3. Customer");
         this.println("4. Employee");
         this.println("5. Order");
+        this.println("6. Bulk import (CSV / NDJSON file)");
+        this.println("7. Bulk export (CSV / NDJSON file)");
+        this.println("8. Join report (orders + customers, warehouses + managers)");
+        this.println("9. Transaction (several changes, all or nothing)");
         this.println("0. Exit");
     }
 
@@ -78,11 +127,13 @@ public class TextInterface {
      * CRUD + query options.
      */
     private void warehouseMenu() {
+        String cursor = null; // page on screen (null = first)
         while (true) {
             this.println("");
             this.println("=== Warehouse Table ===");
-            this.println("Current data:");
-            this.println(this.warehouseRepo.getAll()); // JSON array string
+            this.println("Current data (" + PAGE_SIZE + " rows per page):");
+            String page = this.page("warehouse", null, cursor);
+            this.println(page);
 
             this.println("");
             this.println("Operations:");
@@ -91,8 +142,11 @@ public class TextInterface {
             this.println("3. Query");
             this.println("4. Delete");
             this.println("5. Return to Main menu");
+            this.println("6. Next page");
+            this.println("7. Previous page");
+            this.println("8. Group-by report");
 
-            String op = this.readLine("Enter 1/2/3/4/5: ");
+            String op = this.readLine("Enter 1/2/3/4/5/6/7/8: ");
 
             if ("1".equals(op)) {
                 this.handleWarehouseCreate();
@@ -104,6 +158,12 @@ public class TextInterface {
                 this.handleWarehouseDelete();
             } else if ("5".equals(op)) {
                 return; // back to main menu
+            } else if ("6".equals(op)) {
+                cursor = this.turnPage(page, "next", cursor);
+            } else if ("7".equals(op)) {
+                cursor = this.turnPage(page, "prev", cursor);
+            } else if ("8".equals(op)) {
+                this.handleAggregate("warehouse");
             } else {
                 this.println("[Input Error] Unknown operation: " + op);
             }
@@ -229,23 +289,23 @@ public class TextInterface {
                 return; // back to Warehouse menu
             }
 
-            String resultJson = null;
+            Query q = null;
 
             if ("city".equals(field)) {
                 String val = this.readLine("Enter city: ");
-                resultJson = this.warehouseRepo.queryByCity(val);
+                q = Query.eq("city", val);
             } else if ("zipCode".equals(field)) {
                 String val = this.readLine("Enter zipCode: ");
-                resultJson = this.warehouseRepo.queryByZipCode(val);
+                q = Query.eq("zipCode", val);
             } else if ("managerSSN".equals(field)) {
                 String val = this.readLine("Enter managerSSN: ");
-                resultJson = this.warehouseRepo.queryByManagerSSN(val);
+                q = Query.eq("managerSSN", val);
             } else if ("phoneNumber".equals(field)) {
                 String val = this.readLine("Enter phoneNumber: ");
-                resultJson = this.warehouseRepo.queryByPhoneNumber(val);
+                q = Query.eq("phoneNumber", val);
             } else if ("street".equals(field)) {
                 String val = this.readLine("Enter street: ");
-                resultJson = this.warehouseRepo.queryByStreet(val);
+                q = Query.eq("street", val);
             } else if ("equipmentCapacity".equals(field)) {
                 String val = this.readLine("Enter equipmentCapacity (int): ");
                 Integer num = this.parseInt(val);
@@ -253,7 +313,7 @@ public class TextInterface {
                     this.println("[Input Error] equipmentCapacity must be an integer.");
                     continue;
                 }
-                resultJson = this.warehouseRepo.queryByEquipmentCapacity(num);
+                q = Query.eq("equipmentCapacity", String.valueOf(num));
             } else if ("droneCapacity".equals(field)) {
                 String val = this.readLine("Enter droneCapacity (int): ");
                 Integer num = this.parseInt(val);
@@ -261,21 +321,16 @@ public class TextInterface {
                     this.println("[Input Error] droneCapacity must be an integer.");
                     continue;
                 }
-                resultJson = this.warehouseRepo.queryByDroneCapacity(num);
+                q = Query.eq("droneCapacity", String.valueOf(num));
             } else {
                 this.println("[Input Error] Unknown field: " + field);
                 continue;
             }
 
-            this.println("Query result:");
-            this.println(resultJson);
-
-            // Next-step menu for convenience
-            this.println("");
-            this.println("Next step:");
-            this.println(
+            // Result pages, then the next-step menu for convenience
+            String resultJson = this.page("warehouse", q, null);
+            String next = this.pagedNextStep("warehouse", q, resultJson,
                     "1. Create   2. Update   3. Query   4. Delete   5. Back to Warehouse menu");
-            String next = this.readLine("Enter 1/2/3/4/5: ");
             if ("1".equals(next)) {
                 this.handleWarehouseCreate();
             } else if ("2".equals(next)) {
@@ -404,11 +459,13 @@ public class TextInterface {
     // ============================== CUSTOMER MENU ==============================
 
     private void customerMenu() {
+        String cursor = null; // page on screen (null = first)
         while (true) {
             this.println("");
             this.println("=== Customer Table ===");
-            this.println("Current data:");
-            this.println(this.customerRepo.getAll());
+            this.println("Current data (" + PAGE_SIZE + " rows per page):");
+            String page = this.page("customer", null, cursor);
+            this.println(page);
 
             this.println("");
             this.println("Operations:");
@@ -417,8 +474,11 @@ public class TextInterface {
             this.println("3. Query");
             this.println("4. Delete");
             this.println("5. Return to Main menu");
+            this.println("6. Next page");
+            this.println("7. Previous page");
+            this.println("8. Group-by report");
 
-            String op = this.readLine("Enter 1/2/3/4/5: ");
+            String op = this.readLine("Enter 1/2/3/4/5/6/7/8: ");
 
             if ("1".equals(op)) {
                 this.handleCustomerCreate();
@@ -430,6 +490,12 @@ public class TextInterface {
                 this.handleCustomerDelete();
             } else if ("5".equals(op)) {
                 return;
+            } else if ("6".equals(op)) {
+                cursor = this.turnPage(page, "next", cursor);
+            } else if ("7".equals(op)) {
+                cursor = this.turnPage(page, "prev", cursor);
+            } else if ("8".equals(op)) {
+                this.handleAggregate("customer");
             } else {
                 this.println("[Input Error] Unknown operation: " + op);
             }
@@ -482,6 +548,8 @@ public class TextInterface {
             this.println("Query by which field?");
             this.println(
                     "Options: city | zipCode | email | phoneNumber | custName | type | custStartDate");
+            this.println("Name search (any case): custNamePrefix | custNameIgnoreCase");
+            this.println("Fuzzy search over name, street and email: fuzzy");
             this.println("Or enter 9 to return to Customer menu.");
             String field = this.readLine("Field: ");
 
@@ -489,37 +557,31 @@ public class TextInterface {
                 return;
             }
 
+            // Name and fuzzy searches come back whole (q stays null)
+            Query q = null;
             String res = null;
-            if ("city".equals(field)) {
-                res = this.customerRepo.queryByCity(this.readLine("Enter city: "));
-            } else if ("zipCode".equals(field)) {
-                res = this.customerRepo.queryByZipCode(this.readLine("Enter zipCode: "));
-            } else if ("email".equals(field)) {
-                res = this.customerRepo.queryByEmail(this.readLine("Enter email: "));
-            } else if ("phoneNumber".equals(field)) {
-                res = this.customerRepo
-                        .queryByPhoneNumber(this.readLine("Enter phoneNumber: "));
-            } else if ("custName".equals(field)) {
+            if ("custNamePrefix".equals(field)) {
                 res = this.customerRepo
-                        .queryByCustName(this.readLine("Enter custName: "));
-            } else if ("type".equals(field)) {
-                res = this.customerRepo.queryByType(this.readLine("Enter type: "));
-            } else if ("custStartDate".equals(field)) {
+                        .queryByCustNamePrefix(this.readLine("Enter start of custName: "));
+            } else if ("custNameIgnoreCase".equals(field)) {
                 res = this.customerRepo
-                        .queryByCustStartDate(this.readLine("Enter custStartDate: "));
+                        .queryByCustNameIgnoreCase(this.readLine("Enter custName: "));
+            } else if ("fuzzy".equals(field)) {
+                res = this.customerRepo.searchFuzzy(
+                        this.readLine("Enter words (typos and partial words are ok): "));
+            } else if ("city".equals(field) || "zipCode".equals(field)
+                    || "email".equals(field) || "phoneNumber".equals(field)
+                    || "custName".equals(field) || "type".equals(field)
+                    || "custStartDate".equals(field)) {
+                q = Query.eq(field, this.readLine("Enter " + field + ": "));
+                res = this.page("customer", q, null);
             } else {
                 this.println("[Input Error] Unknown field: " + field);
                 continue;
             }
 
-            this.println("Query result:");
-            this.println(res);
-
-            this.println("");
-            this.println("Next step:");
-            this.println(
+            String next = this.pagedNextStep("customer", q, res,
                     "1. Create   2. Update   3. Query   4. Delete   5. Back to Customer menu");
-            String next = this.readLine("Enter 1/2/3/4/5: ");
             if ("1".equals(next)) {
                 this.handleCustomerCreate();
             } else if ("2".equals(next)) {
@@ -548,11 +610,13 @@ public class TextInterface {
     // ============================== EMPLOYEE MENU ==============================
 
     private void employeeMenu() {
+        String cursor = null; // page on screen (null = first)
         while (true) {
             this.println("");
             this.println("=== Employee Table ===");
-            this.println("Current data:");
-            this.println(this.employeeRepo.getAll());
+            this.println("Current data (" + PAGE_SIZE + " rows per page):");
+            String page = this.page("employee", null, cursor);
+            this.println(page);
 
             this.println("");
             this.println("Operations:");
@@ -561,8 +625,11 @@ public class TextInterface {
             this.println("3. Query");
             this.println("4. Delete");
             this.println("5. Return to Main menu");
+            this.println("6. Next page");
+            this.println("7. Previous page");
+            this.println("8. Group-by report");
 
-            String op = this.readLine("Enter 1/2/3/4/5: ");
+            String op = this.readLine("Enter 1/2/3/4/5/6/7/8: ");
 
             if ("1".equals(op)) {
                 this.handleEmployeeCreate();
@@ -574,6 +641,12 @@ public class TextInterface {
                 this.handleEmployeeDelete();
             } else if ("5".equals(op)) {
                 return;
+            } else if ("6".equals(op)) {
+                cursor = this.turnPage(page, "next", cursor);
+            } else if ("7".equals(op)) {
+                cursor = this.turnPage(page, "prev", cursor);
+            } else if ("8".equals(op)) {
+                this.handleAggregate("employee");
             } else {
                 this.println("[Input Error] Unknown operation: " + op);
             }
@@ -636,6 +709,7 @@ public class TextInterface {
             this.println("");
             this.println("Query by which field?");
             this.println("Options: name | phoneNumber | sex | salary | salaryRange");
+            this.println("Name search (any case): namePrefix | nameIgnoreCase");
             this.println("Or enter 9 to return to Employee menu.");
             String field = this.readLine("Field: ");
 
@@ -643,21 +717,27 @@ public class TextInterface {
                 return;
             }
 
+            Query q = null;
             String res = null;
-            if ("name".equals(field)) {
-                res = this.employeeRepo.queryByName(this.readLine("Enter name: "));
-            } else if ("phoneNumber".equals(field)) {
+            if ("namePrefix".equals(field)) {
+                res = this.employeeRepo
+                        .queryByNamePrefix(this.readLine("Enter start of name: "));
+            } else if ("nameIgnoreCase".equals(field)) {
                 res = this.employeeRepo
-                        .queryByPhoneNumber(this.readLine("Enter phoneNumber: "));
+                        .queryByNameIgnoreCase(this.readLine("Enter name: "));
+            } else if ("name".equals(field)) {
+                q = Query.eq("name", this.readLine("Enter name: "));
+            } else if ("phoneNumber".equals(field)) {
+                q = Query.eq("phoneNumber", this.readLine("Enter phoneNumber: "));
             } else if ("sex".equals(field)) {
-                res = this.employeeRepo.queryBySex(this.readLine("Enter sex: "));
+                q = Query.eq("sex", this.readLine("Enter sex: "));
             } else if ("salary".equals(field)) {
                 Integer s = this.parseInt(this.readLine("Enter salary (int): "));
                 if (s == null) {
                     this.println("[Input Error] salary must be an integer.");
                     continue;
                 }
-                res = this.employeeRepo.queryBySalary(s);
+                q = Query.eq("salary", String.valueOf(s));
             } else if ("salaryRange".equals(field)) {
                 Integer min = this.parseInt(this.readLine("Enter min salary (int): "));
                 Integer max = this.parseInt(this.readLine("Enter max salary (int): "));
@@ -665,20 +745,17 @@ public class TextInterface {
                     this.println("[Input Error] min/max must be integers.");
                     continue;
                 }
-                res = this.employeeRepo.queryBySalaryRange(min, max);
+                q = Query.range("salary", String.valueOf(min), String.valueOf(max));
             } else {
                 this.println("[Input Error] Unknown field: " + field);
                 continue;
             }
 
-            this.println("Query result:");
-            this.println(res);
-
-            this.println("");
-            this.println("Next step:");
-            this.println(
+            if (q != null) {
+                res = this.page("employee", q, null);
+            }
+            String next = this.pagedNextStep("employee", q, res,
                     "1. Create   2. Update   3. Query   4. Delete   5. Back to Employee menu");
-            String next = this.readLine("Enter 1/2/3/4/5: ");
             if ("1".equals(next)) {
                 this.handleEmployeeCreate();
             } else if ("2".equals(next)) {
@@ -707,11 +784,13 @@ public class TextInterface {
     // ============================== ORDER MENU ==============================
 
     private void orderMenu() {
+        String cursor = null; // page on screen (null = first)
         while (true) {
             this.println("");
             this.println("=== Order Table ===");
-            this.println("Current data:");
-            this.println(this.orderRepo.getAll());
+            this.println("Current data (" + PAGE_SIZE + " rows per page):");
+            String page = this.page("order", null, cursor);
+            this.println(page);
 
             this.println("");
             this.println("Operations:");
@@ -720,8 +799,10 @@ public class TextInterface {
             this.println("3. Query");
             this.println("4. Delete");
             this.println("5. Return to Main menu");
+            this.println("6. Next page");
+            this.println("7. Previous page");
 
-            String op = this.readLine("Enter 1/2/3/4/5: ");
+            String op = this.readLine("Enter 1/2/3/4/5/6/7: ");
 
             if ("1".equals(op)) {
                 this.handleOrderCreate();
@@ -733,6 +814,10 @@ public class TextInterface {
                 this.handleOrderDelete();
             } else if ("5".equals(op)) {
                 return;
+            } else if ("6".equals(op)) {
+                cursor = this.turnPage(page, "next", cursor);
+            } else if ("7".equals(op)) {
+                cursor = this.turnPage(page, "prev", cursor);
             } else {
                 this.println("[Input Error] Unknown operation: " + op);
             }
@@ -785,6 +870,7 @@ public class TextInterface {
             this.println("Query by which field?");
             this.println(
                     "Options: custUserId | orderStartDate | estimatedArrivalDate | actualArrivalDate | dueDate | actualReturnDate");
+            this.println("Ranges: dueBetween | arrivedAfter | overdue (dates as yyyy-MM-dd or MM/dd/yyyy)");
             this.println("Or enter 9 to return to Order menu.");
             String field = this.readLine("Field: ");
 
@@ -792,37 +878,33 @@ public class TextInterface {
                 return;
             }
 
+            // arrivedAfter and overdue come back whole (q stays null)
+            Query q = null;
             String res = null;
-            if ("custUserId".equals(field)) {
+            if ("custUserId".equals(field) || "orderStartDate".equals(field)
+                    || "estimatedArrivalDate".equals(field)
+                    || "actualArrivalDate".equals(field) || "dueDate".equals(field)
+                    || "actualReturnDate".equals(field)) {
+                q = Query.eq(field, this.readLine("Enter " + field + ": "));
+            } else if ("dueBetween".equals(field)) {
+                String from = this.readLine("Due from (blank = no lower bound): ");
+                String to = this.readLine("Due to (blank = no upper bound): ");
+                q = Query.range("dueDate", from, to);
+            } else if ("arrivedAfter".equals(field)) {
+                res = this.orderRepo.queryArrivedAfter(this.readLine("Arrived after: "));
+            } else if ("overdue".equals(field)) {
                 res = this.orderRepo
-                        .queryByCustUserId(this.readLine("Enter custUserId: "));
-            } else if ("orderStartDate".equals(field)) {
-                res = this.orderRepo
-                        .queryByOrderStartDate(this.readLine("Enter orderStartDate: "));
-            } else if ("estimatedArrivalDate".equals(field)) {
-                res = this.orderRepo.queryByEstimatedArrivalDate(
-                        this.readLine("Enter estimatedArrivalDate: "));
-            } else if ("actualArrivalDate".equals(field)) {
-                res = this.orderRepo.queryByActualArrivalDate(
-                        this.readLine("Enter actualArrivalDate: "));
-            } else if ("dueDate".equals(field)) {
-                res = this.orderRepo.queryByDueDate(this.readLine("Enter dueDate: "));
-            } else if ("actualReturnDate".equals(field)) {
-                res = this.orderRepo.queryByActualReturnDate(
-                        this.readLine("Enter actualReturnDate: "));
+                        .queryOverdue(this.readLine("As of date (blank = today): "));
             } else {
                 this.println("[Input Error] Unknown field: " + field);
                 continue;
             }
 
-            this.println("Query result:");
-            this.println(res);
-
-            this.println("");
-            this.println("Next step:");
-            this.println(
+            if (q != null) {
+                res = this.page("order", q, null);
+            }
+            String next = this.pagedNextStep("order", q, res,
                     "1. Create   2. Update   3. Query   4. Delete   5. Back to Order menu");
-            String next = this.readLine("Enter 1/2/3/4/5: ");
             if ("1".equals(next)) {
                 this.handleOrderCreate();
             } else if ("2".equals(next)) {
@@ -848,6 +930,352 @@ public class TextInterface {
         this.println(json);
     }
 
+    // ============================== Bulk import ==============================
+
+    /**
+     * Loads a CSV (with a header line) or NDJSON file into one table and prints
+     * the import report (row counts, rows/sec, stage timings, rejected lines).
+     */
+    private void handleBulkImport() {
+        this.println("");
+        this.println("=== Bulk Import ===");
+        this.println("Table: customer | order | employee | warehouse");
+        String table = this.readLine("Table: ");
+        String file = this.readLine("File (.csv with header, or .ndjson): ");
+        Path path = Paths.get(file);
+        if (!Files.isRegularFile(path)) {
+            this.println("[Input Error] No such file: " + file);
+            return;
+        }
+
+        BulkImporter importer = new BulkImporter();
+        String report = null;
+        try {
+            if ("customer".equals(table)) {
+                report = importer.importCustomers(this.customerRepo, path);
+            } else if ("order".equals(table)) {
+                report = importer.importOrders(this.orderRepo, path);
+            } else if ("employee".equals(table)) {
+                report = importer.importEmployees(this.employeeRepo, path);
+            } else if ("warehouse".equals(table)) {
+                report = importer.importWarehouses(this.warehouseRepo, path);
+            } else {
+                this.println("[Input Error] Unknown table: " + table);
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            this.println("[Input Error] " + e.getMessage());
+            return;
+        } catch (IOException e) {
+            this.println("[Storage Error] " + e.getMessage());
+            return;
+        }
+        this.println("Import report:");
+        this.println(report);
+    }
+
+    /**
+     * Streams one table to a CSV or NDJSON file (optionally split into files
+     * of at most N MB) and prints the export report.
+     */
+    private void handleBulkExport() {
+        this.println("");
+        this.println("=== Bulk Export ===");
+        this.println("Table: customer | order | employee | warehouse");
+        String table = this.readLine("Table: ");
+        String format = this.readLine("Format (csv / ndjson): ");
+        String file = this.readLine("File: ");
+        String maxMb = this.readLine("Max MB per file (blank = one file): ");
+
+        BulkExporter.Format fmt = null;
+        if ("csv".equals(format)) {
+            fmt = BulkExporter.Format.CSV;
+        } else if ("ndjson".equals(format)) {
+            fmt = BulkExporter.Format.NDJSON;
+        } else {
+            this.println("[Input Error] Unknown format: " + format);
+            return;
+        }
+        Integer mb = maxMb.isEmpty() ? Integer.valueOf(0) : this.parseInt(maxMb);
+        if (mb == null || mb < 0) {
+            this.println("[Input Error] Max MB must be a non-negative integer.");
+            return;
+        }
+
+        BulkExporter exporter = new BulkExporter(fmt, mb * 1024L * 1024L);
+        Path path = Paths.get(file);
+        String report = null;
+        try {
+            if ("customer".equals(table)) {
+                report = exporter.exportCustomers(this.customerRepo, path);
+            } else if ("order".equals(table)) {
+                report = exporter.exportOrders(this.orderRepo, path);
+            } else if ("employee".equals(table)) {
+                report = exporter.exportEmployees(this.employeeRepo, path);
+            } else if ("warehouse".equals(table)) {
+                report = exporter.exportWarehouses(this.warehouseRepo, path);
+            } else {
+                this.println("[Input Error] Unknown table: " + table);
+                return;
+            }
+        } catch (IOException e) {
+            this.println("[Storage Error] " + e.getMessage());
+            return;
+        }
+        this.println("Export report:");
+        this.println(report);
+    }
+
+    // ============================== Storage ==============================
+
+    /**
+     * Opens the durable database (recovering from its snapshot and log) and
+     * starts periodic checkpoints; falls back to an in-memory database if the
+     * log cannot be opened.
+     */
+    private Database openDatabase() {
+        String dir = System.getProperty("db.dir", "data");
+        try {
+            SyncPolicy policy = SyncPolicy
+                    .valueOf(System.getProperty("db.sync", "INTERVAL"));
+            Integer millis = this.parseInt(System.getProperty("db.syncMillis", "10"));
+            Integer minutes = this.parseInt(
+                    System.getProperty("db.checkpointMinutes", "10"));
+            boolean mapped = "mapped".equals(System.getProperty("db.orders", "heap"));
+            Database opened = Database.open(Paths.get(dir), policy,
+                    millis == null ? 10 : millis, mapped);
+            opened.scheduleCheckpoints(minutes == null ? 10 : minutes);
+            return opened;
+        } catch (IOException | IllegalArgumentException e) {
+            this.println("[Storage Error] " + e.getMessage()
+                    + " - running in memory only, changes will not be saved.");
+            return Database.inMemory();
+        }
+    }
+
+    /**
+     * Checkpoints and flushes outstanding log records before exit.
+     */
+    private void closeDatabase() {
+        try {
+            this.db.close();
+        } catch (IOException e) {
+            this.println("[Storage Error] " + e.getMessage());
+        }
+    }
+
+    // ============================== Reports ==============================
+
+    /**
+     * Group-by report on one table: count per value of a field, plus sum /
+     * min / max / avg of a numeric column if one is given. Registered
+     * aggregates (see Database) answer at once; others scan the table.
+     */
+    private void handleAggregate(String table) {
+        if ("warehouse".equals(table)) {
+            this.println("Group by: id | phoneNumber | city | zipCode | street | managerSSN"
+                    + " | equipmentCapacity | droneCapacity");
+            this.println("Column (optional): equipmentCapacity | droneCapacity");
+        } else if ("employee".equals(table)) {
+            this.println("Group by: ssn | name | phoneNumber | sex | salary");
+            this.println("Column (optional): salary");
+        } else {
+            this.println("Group by: userId | city | zipCode | street | email | phoneNumber"
+                    + " | custName | type | custStartDate");
+            this.println("Customers are counted only (no numeric column).");
+        }
+        String groupBy = this.readLine("Group by: ");
+        String column = null;
+        if (!"customer".equals(table)) {
+            column = this.readLine("Column (Enter for count only): ");
+            if (column.isEmpty()) {
+                column = null;
+            }
+        }
+
+        String res;
+        try {
+            if ("warehouse".equals(table)) {
+                res = this.warehouseRepo.aggregate(groupBy, column);
+            } else if ("employee".equals(table)) {
+                res = this.employeeRepo.aggregate(groupBy, column);
+            } else {
+                res = this.customerRepo.aggregate(groupBy, column);
+            }
+        } catch (IllegalArgumentException e) {
+            this.println("[Input Error] " + e.getMessage());
+            return;
+        }
+        this.println("Report:");
+        this.println(res);
+    }
+
+    /**
+     * Joined rows of two tables (see Database.ordersWithCustomers()).
+     */
+    private void handleJoinReport() {
+        this.println("1. Orders with their customers");
+        this.println("2. Warehouses with their managers");
+        String which = this.readLine("Enter 1/2: ");
+        if (!"1".equals(which) && !"2".equals(which)) {
+            this.println("[Input Error] Unknown report: " + which);
+            return;
+        }
+        String keep = this.readLine("Keep rows without a match? (y/n): ");
+        boolean outer = "y".equalsIgnoreCase(keep);
+
+        String res;
+        if ("1".equals(which)) {
+            res = this.db.ordersWithCustomers(outer);
+        } else {
+            res = this.db.warehousesWithManagers(outer);
+        }
+        this.println("Report:");
+        this.println(res);
+    }
+
+    // ============================== Transactions ==============================
+
+    /**
+     * Reads and changes on any tables inside one transaction; nothing is
+     * applied until Commit, and Abort drops every change. Reads see the
+     * database as it was when the transaction started.
+     */
+    private void handleTransaction() {
+        Transaction tx = this.db.begin();
+        this.println("Transaction started (snapshot version " + tx.snapshot() + ").");
+        while (true) {
+            this.println("");
+            this.println("Transaction:");
+            this.println("1. Read a row");
+            this.println("2. Create a row");
+            this.println("3. Update a row");
+            this.println("4. Delete a row");
+            this.println("5. Commit");
+            this.println("0. Abort");
+            String choice = this.readLine("Please enter a number: ");
+            if ("5".equals(choice)) {
+                this.println("Commit result:");
+                this.println(tx.commit());
+                return;
+            } else if ("0".equals(choice)) {
+                tx.abort();
+                this.println("Transaction aborted; nothing was changed.");
+                return;
+            } else if (!"1".equals(choice) && !"2".equals(choice) && !"3".equals(choice)
+                    && !"4".equals(choice)) {
+                this.println("[Input Error] Unknown choice: " + choice);
+                continue;
+            }
+
+            String table = this.readLine(
+                    "Table (customer / order / employee / warehouse / equipment): ");
+            String res;
+            try {
+                if ("1".equals(choice)) {
+                    res = tx.get(table, this.readLine("Key: "));
+                } else if ("4".equals(choice)) {
+                    res = tx.delete(table, this.readLine("Key: "));
+                } else {
+                    this.println("Values in the order of the table's Create screen;"
+                            + " an update starts with the key. Equipment: {id, name}.");
+                    List<String> values = this.parseBraceList(
+                            this.readLine("Row {v1, v2, ...}: "));
+                    if (values == null) {
+                        this.println("[Input Error] Expected {v1, v2, ...}");
+                        continue;
+                    }
+                    String[] row = values.toArray(new String[0]);
+                    if ("2".equals(choice)) {
+                        res = tx.create(table, row);
+                    } else {
+                        res = tx.update(table, row);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                this.println("[Input Error] " + e.getMessage());
+                continue;
+            }
+            this.println(res);
+        }
+    }
+
+    // ============================== Paging ==============================
+
+    /**
+     * One page of a table (q == null) or of a query on it, by table name.
+     */
+    private String page(String table, Query q, String cursor) {
+        if ("warehouse".equals(table)) {
+            return this.warehouseRepo.queryPage(q, cursor, PAGE_SIZE);
+        } else if ("customer".equals(table)) {
+            return this.customerRepo.queryPage(q, cursor, PAGE_SIZE);
+        } else if ("employee".equals(table)) {
+            return this.employeeRepo.queryPage(q, cursor, PAGE_SIZE);
+        } else {
+            return this.orderRepo.queryPage(q, cursor, PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Prints a query result with the "Next step" menu; 6 / 7 turn the page and
+     * print it again. Returns the first other choice. q == null means res is
+     * a whole, unpaged result.
+     */
+    private String pagedNextStep(String table, Query q, String res, String menu) {
+        while (true) {
+            this.println("Query result:");
+            this.println(res);
+
+            this.println("");
+            this.println("Next step:");
+            this.println(menu);
+            if (q == null) {
+                return this.readLine("Enter 1/2/3/4/5: ");
+            }
+            this.println("6. Next page   7. Previous page");
+            String next = this.readLine("Enter 1/2/3/4/5/6/7: ");
+            if (!"6".equals(next) && !"7".equals(next)) {
+                return next;
+            }
+            String cursor = this.cursorOf(res, "6".equals(next) ? "next" : "prev");
+            if (cursor == null) {
+                this.println("[Info] No page in that direction.");
+            } else {
+                res = this.page(table, q, cursor);
+            }
+        }
+    }
+
+    /**
+     * Cursor of the page in the given direction, or the current one (with a
+     * note) when there is no such page.
+     */
+    private String turnPage(String page, String direction, String current) {
+        String cursor = this.cursorOf(page, direction);
+        if (cursor == null) {
+            this.println("[Info] No page in that direction.");
+            return current;
+        }
+        return cursor;
+    }
+
+    /**
+     * The "next" / "prev" cursor of a page, or null. Cursors are written
+     * before the rows, so a row value can never be mistaken for one.
+     */
+    private String cursorOf(String page, String name) {
+        String key = "\"" + name + "\":\"";
+        int at = page.indexOf(key);
+        int rows = page.indexOf("\"rows\":");
+        if (at < 0 || rows < 0 || at > rows) {
+            return null;
+        }
+        int start = at + key.length();
+        int end = page.indexOf('"', start);
+        return (end < 0) ? null : page.substring(start, end);
+    }
+
     // ============================== Helpers ==============================
 
     /**
@@ -0,0 +1,287 @@
+package repository;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates - Group-by aggregation over one repository's table: count, and
+ * for an INT column also sum, min, max and avg, per distinct value of a
+ * grouping field. - Aggregates registered with register() are kept current
+ * by the repository on every create/update/delete (add/update/remove), so
+ * reading one costs O(groups), not O(rows). - Any other (groupBy, column)
+ * pair is still answered, by one scan of the table. - Columns are read
+ * through the repository's QueryPlanner.Table, so field names and kinds are
+ * the same as in query(Query). - Groups come back sorted by value (numbers
+ * numerically), the null group first.
+ *
+ * min / max survive deletes because each group keeps a count per distinct
+ * column value (a sorted multiset), not just the current extremes.
+ *
+ * Not thread-safe on its own: the repository keeps it under its lock.
+ */
+final class Aggregates<E> {
+    private final String table;
+    private final QueryPlanner.Table<E> source;
+
+    // "groupBy/column" -> maintained groups
+    private final Map<String, Groups<E>> registered = new LinkedHashMap<>();
+
+    Aggregates(String table, QueryPlanner.Table<E> source) {
+        this.table = table;
+        this.source = source;
+    }
+
+    // --- Registration (repository write lock) ---
+
+    // Start maintaining (groupBy, column); column null = count only. Built
+    // from the current rows once; registering twice is a no-op.
+    void register(String groupBy, String column) {
+        String name = name(groupBy, column);
+        if (!this.registered.containsKey(name)) {
+            this.registered.put(name, this.build(groupBy, column));
+        }
+    }
+
+    boolean unregister(String groupBy, String column) {
+        return this.registered.remove(name(groupBy, column)) != null;
+    }
+
+    // --- Maintenance (called by the repository under its write lock) ---
+
+    void add(E row) {
+        for (Groups<E> g : this.registered.values()) {
+            g.add(row);
+        }
+    }
+
+    void remove(E row) {
+        for (Groups<E> g : this.registered.values()) {
+            g.remove(row);
+        }
+    }
+
+    void update(E oldRow, E newRow) {
+        for (Groups<E> g : this.registered.values()) {
+            g.update(oldRow, newRow);
+        }
+    }
+
+    // --- Reading (repository read lock) ---
+
+    // {"table":..,"groupBy":..,"column":..,"maintained":bool,"groups":[
+    // {"group":..,"count":n,"sum":..,"min":..,"max":..,"avg":..},...]}
+    void write(String groupBy, String column, Appendable out) throws IOException {
+        Groups<E> g = this.registered.get(name(groupBy, column));
+        boolean maintained = g != null;
+        if (!maintained) {
+            g = this.build(groupBy, column);
+        }
+        out.append("{\"table\":");
+        JsonWriter.string(out, this.table);
+        out.append(",\"groupBy\":");
+        JsonWriter.string(out, groupBy);
+        out.append(",\"column\":");
+        nullable(out, column);
+        out.append(",\"maintained\":").append(maintained ? "true" : "false");
+        out.append(",\"groups\":");
+        g.writeJson(out);
+        out.append('}');
+    }
+
+    // Registered (groupBy, column) pairs as a JSON array of objects
+    void writeRegistered(Appendable out) throws IOException {
+        out.append('[');
+        boolean first = true;
+        for (Groups<E> g : this.registered.values()) {
+            if (!first) {
+                out.append(',');
+            }
+            out.append("{\"groupBy\":");
+            JsonWriter.string(out, g.groupBy);
+            out.append(",\"column\":");
+            nullable(out, g.column);
+            out.append(",\"groups\":");
+            JsonWriter.number(out, g.groups.size());
+            out.append('}');
+            first = false;
+        }
+        out.append(']');
+    }
+
+    // ====================== Helpers ======================
+
+    private Groups<E> build(String groupBy, String column) {
+        QueryPlanner.Kind groupKind = this.source.kind(groupBy);
+        if (groupKind == null) {
+            throw new IllegalArgumentException("unknown " + this.table + " field: " + groupBy);
+        }
+        if (column != null && this.source.kind(column) != QueryPlanner.Kind.INT) {
+            throw new IllegalArgumentException(
+                    "no numeric " + this.table + " field: " + column);
+        }
+        Groups<E> g = new Groups<>(this.source, groupBy, groupKind, column);
+        SlotStore<E> rows = this.source.slots();
+        for (int slot = 0; slot < rows.slots(); slot++) {
+            E row = rows.row(slot);
+            if (row != null) {
+                g.add(row);
+            }
+        }
+        return g;
+    }
+
+    // JSON null for null, so the null group and "" stay apart
+    private static void nullable(Appendable out, String s) throws IOException {
+        if (s == null) {
+            out.append("null");
+        } else {
+            JsonWriter.string(out, s);
+        }
+    }
+
+    private static String name(String groupBy, String column) {
+        return groupBy + "/" + column;
+    }
+
+    // Text values sort as text, INT values as numbers; null first
+    private static final Comparator<Object> GROUP_ORDER = Comparator
+            .nullsFirst(Aggregates::compareValues);
+
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    // One maintained aggregate: group value -> stats
+    private static final class Groups<E> {
+        private final QueryPlanner.Table<E> source;
+        private final String groupBy;
+        private final QueryPlanner.Kind groupKind;
+        private final String column; // null = count only
+        private final TreeMap<Object, Stats> groups = new TreeMap<>(GROUP_ORDER);
+
+        Groups(QueryPlanner.Table<E> source, String groupBy, QueryPlanner.Kind groupKind,
+                String column) {
+            this.source = source;
+            this.groupBy = groupBy;
+            this.groupKind = groupKind;
+            this.column = column;
+        }
+
+        void add(E row) {
+            Object key = this.group(row);
+            Stats s = this.groups.get(key);
+            if (s == null) {
+                s = new Stats(this.column != null);
+                this.groups.put(key, s);
+            }
+            s.add(this.value(row));
+        }
+
+        void remove(E row) {
+            Object key = this.group(row);
+            Stats s = this.groups.get(key);
+            if (s != null && s.remove(this.value(row)) && s.count == 0) {
+                this.groups.remove(key);
+            }
+        }
+
+        // Skipped when neither the group nor the value changed
+        void update(E oldRow, E newRow) {
+            Object a = this.group(oldRow);
+            Object b = this.group(newRow);
+            if ((a == null ? b == null : a.equals(b))
+                    && this.value(oldRow) == this.value(newRow)) {
+                return;
+            }
+            this.remove(oldRow);
+            this.add(newRow);
+        }
+
+        private Object group(E row) {
+            return (this.groupKind == QueryPlanner.Kind.INT)
+                    ? (Object) this.source.number(row, this.groupBy)
+                    : this.source.text(row, this.groupBy);
+        }
+
+        private int value(E row) {
+            return (this.column == null) ? 0 : this.source.number(row, this.column);
+        }
+
+        void writeJson(Appendable out) throws IOException {
+            out.append('[');
+            boolean first = true;
+            for (Map.Entry<Object, Stats> e : this.groups.entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                out.append("{\"group\":");
+                if (e.getKey() instanceof Integer) {
+                    JsonWriter.number(out, (Integer) e.getKey());
+                } else {
+                    nullable(out, (String) e.getKey());
+                }
+                e.getValue().writeJson(out);
+                out.append('}');
+                first = false;
+            }
+            out.append(']');
+        }
+    }
+
+    // count, sum and a multiset of values (for min / max) of one group
+    private static final class Stats {
+        private long count;
+        private long sum;
+        private final TreeMap<Integer, Integer> values; // null = count only
+
+        Stats(boolean numeric) {
+            this.values = numeric ? new TreeMap<>() : null;
+        }
+
+        void add(int v) {
+            this.count++;
+            if (this.values != null) {
+                this.sum += v;
+                this.values.merge(v, 1, Integer::sum);
+            }
+        }
+
+        // False if v was not counted here (nothing changes)
+        boolean remove(int v) {
+            if (this.values != null) {
+                Integer n = this.values.get(v);
+                if (n == null) {
+                    return false;
+                }
+                if (n == 1) {
+                    this.values.remove(v);
+                } else {
+                    this.values.put(v, n - 1);
+                }
+                this.sum -= v;
+            } else if (this.count == 0) {
+                return false;
+            }
+            this.count--;
+            return true;
+        }
+
+        // ,"count":n[,"sum":..,"min":..,"max":..,"avg":..]
+        void writeJson(Appendable out) throws IOException {
+            out.append(",\"count\":").append(Long.toString(this.count));
+            if (this.values == null) {
+                return;
+            }
+            out.append(",\"sum\":").append(Long.toString(this.sum));
+            out.append(",\"min\":");
+            JsonWriter.number(out, this.values.firstKey());
+            out.append(",\"max\":");
+            JsonWriter.number(out, this.values.lastKey());
+            out.append(",\"avg\":").append(Double.toString((double) this.sum / this.count));
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import model.Customer;
+import model.Employee;
+import model.Order;
+import model.Warehouse;
+
+/**
+ * BulkExporter - Streams a whole repository to CSV or NDJSON files without
+ * building the output in memory (unlike getAll()).
+ *
+ * - Rows come from a RowSnapshot, so the export sees one point in time while
+ *   writers carry on: the repository lock is held only while the snapshot is
+ *   taken (copying row references, or the order column files).
+ * - Each row is rendered into a reused buffer, encoded as UTF-8 and written
+ *   through a 64 KB buffer to a FileChannel; memory use does not depend on the
+ *   row count.
+ * - With a size cap, output is split into numbered files (customers.csv ->
+ *   customers-0001.csv, customers-0002.csv, ...), each under the cap unless a
+ *   single row is larger. Every CSV file starts with the header line.
+ *
+ * CSV columns are the key followed by the other fields in schema order, so an
+ * export can be fed back to BulkImporter (except values with a line break:
+ * CSV quotes them across lines, which the importer does not read; NDJSON
+ * escapes them). NDJSON lines are the same objects getAll() returns. Each
+ * export returns a JSON report (rows, bytes, files, timings).
+ */
+public final class BulkExporter {
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    // Output buffer between the encoder and the file
+    private static final int BUFFER_BYTES = 64 << 10;
+
+    private final Format format;
+    private final long maxFileBytes; // 0 = one file, no cap
+
+    // --- Export into a single file ---
+    public BulkExporter(Format format) {
+        this(format, 0);
+    }
+
+    // --- Export into files of at most maxFileBytes each (0 = no cap) ---
+    public BulkExporter(Format format, long maxFileBytes) {
+        if (maxFileBytes < 0) {
+            throw new IllegalArgumentException("maxFileBytes must be non-negative");
+        }
+        this.format = format;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    // ====================== Tables ======================
+
+    public String exportCustomers(CustomerRepository repo, Path file) throws IOException {
+        long t = System.nanoTime();
+        try (RowSnapshot<Customer> rows = repo.snapshot()) {
+            return this.run("customers", file, rows, System.nanoTime() - t,
+                    new String[] { "userId", "custStartDate", "city", "zipCode", "street",
+                            "email", "phoneNumber", "custName", "type" },
+                    (c, out) -> csv(out, c.getUserId(), c.getCustStartDate(), c.getCity(),
+                            c.getZipCode(), c.getStreet(), c.getEmail(),
+                            c.getPhoneNumber(), c.getCustName(), c.getType()),
+                    repo::writeJson);
+        }
+    }
+
+    public String exportOrders(OrderRepository repo, Path file) throws IOException {
+        long t = System.nanoTime();
+        try (RowSnapshot<Order> rows = repo.snapshot()) {
+            return this.run("orders", file, rows, System.nanoTime() - t,
+                    new String[] { "orderId", "orderStartDate", "estimatedArrivalDate",
+                            "actualArrivalDate", "dueDate", "actualReturnDate",
+                            "custUserId" },
+                    (o, out) -> csv(out, o.getOrderId(), o.getOrderStartDate(),
+                            o.getEstimatedArrivalDate(), o.getActualArrivalDate(),
+                            o.getDueDate(), o.getActualReturnDate(), o.getCustUserId()),
+                    repo::writeJson);
+        }
+    }
+
+    public String exportEmployees(EmployeeRepository repo, Path file) throws IOException {
+        long t = System.nanoTime();
+        try (RowSnapshot<Employee> rows = repo.snapshot()) {
+            return this.run("employees", file, rows, System.nanoTime() - t,
+                    new String[] { "ssn", "name", "phoneNumber", "sex", "salary" },
+                    (e, out) -> csv(out, e.getSsn(), e.getName(), e.getPhoneNumber(),
+                            e.getSex(), Integer.toString(e.getSalary())),
+                    repo::writeJson);
+        }
+    }
+
+    public String exportWarehouses(WarehouseRepository repo, Path file)
+            throws IOException {
+        long t = System.nanoTime();
+        try (RowSnapshot<Warehouse> rows = repo.snapshot()) {
+            return this.run("warehouses", file, rows, System.nanoTime() - t,
+                    new String[] { "id", "phoneNumber", "city", "zipCode", "street",
+                            "equipmentCapacity", "droneCapacity", "managerSSN" },
+                    (w, out) -> csv(out, w.getId(), w.getPhoneNumber(), w.getCity(),
+                            w.getZipCode(), w.getStreet(),
+                            Integer.toString(w.getEquipmentCapacity()),
+                            Integer.toString(w.getDroneCapacity()), w.getManagerSSN()),
+                    repo::writeJson);
+        }
+    }
+
+    // ====================== Pipeline ======================
+
+    // How one row is written in a given format
+    private interface RowWriter<E> {
+        void write(E row, Appendable out) throws IOException;
+    }
+
+    private <E> String run(String table, Path file, RowSnapshot<E> rows,
+            long snapshotNanos, String[] header, RowWriter<E> csvRow,
+            RowWriter<E> jsonRow) throws IOException {
+        long started = System.nanoTime();
+        boolean csv = this.format == Format.CSV;
+        RowWriter<E> writer = csv ? csvRow : jsonRow;
+        StringBuilder line = new StringBuilder(256);
+        ByteBuffer headerBytes = null;
+        if (csv) {
+            csv(line, header);
+            line.append('\n');
+            headerBytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(line));
+        }
+
+        long count = 0;
+        try (SplitOutput out = new SplitOutput(file, this.maxFileBytes, headerBytes)) {
+            for (E row : rows) {
+                line.setLength(0);
+                writer.write(row, line);
+                line.append('\n');
+                out.writeRow(line);
+                count++;
+            }
+            out.finish();
+            long millis = (System.nanoTime() - started) / 1_000_000;
+            return report(table, csv ? "csv" : "ndjson", count, out, snapshotNanos,
+                    millis);
+        }
+    }
+
+    // ====================== Helpers ======================
+
+    // One CSV record: fields quoted only when they need it, null as empty
+    private static void csv(Appendable out, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            String f = fields[i];
+            if (f == null) {
+                continue;
+            }
+            if (!needsQuotes(f)) {
+                out.append(f);
+                continue;
+            }
+            out.append('"');
+            for (int k = 0; k < f.length(); k++) {
+                char c = f.charAt(k);
+                if (c == '"') {
+                    out.append('"');
+                }
+                out.append(c);
+            }
+            out.append('"');
+        }
+    }
+
+    private static boolean needsQuotes(String f) {
+        for (int k = 0; k < f.length(); k++) {
+            char c = f.charAt(k);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String report(String table, String format, long rows,
+            SplitOutput out, long snapshotNanos, long millis) {
+        return JsonWriter.render(sb -> {
+            sb.append("{\"table\":");
+            JsonWriter.string(sb, table);
+            sb.append(",\"format\":");
+            JsonWriter.string(sb, format);
+            sb.append(",\"rows\":").append(Long.toString(rows));
+            sb.append(",\"bytes\":").append(Long.toString(out.totalBytes));
+            sb.append(",\"snapshotMillis\":")
+                    .append(Long.toString(snapshotNanos / 1_000_000));
+            sb.append(",\"writeMillis\":").append(Long.toString(millis));
+            sb.append(",\"files\":[");
+            for (int i = 0; i < out.files.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                JsonWriter.string(sb, out.files.get(i).toString());
+            }
+            sb.append("]}");
+        });
+    }
+
+    // ====================== Output ======================
+
+    // Buffered UTF-8 output that starts a new numbered file whenever the next
+    // row would push the current one over the cap
+    private static final class SplitOutput implements Closeable {
+        private final Path file;
+        private final long cap;
+        private final ByteBuffer header; // written at the top of every file, or null
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private ByteBuffer row = ByteBuffer.allocate(1024);
+        private final List<Path> files = new ArrayList<>();
+        private FileChannel channel;
+        private long fileBytes; // bytes in the current file
+        private boolean fileHasRows;
+        private long totalBytes;
+
+        SplitOutput(Path file, long cap, ByteBuffer header) throws IOException {
+            this.file = file;
+            this.cap = cap;
+            this.header = header;
+            this.next();
+        }
+
+        void writeRow(CharSequence line) throws IOException {
+            ByteBuffer bytes = this.encode(line);
+            if (this.cap > 0 && this.fileHasRows
+                    && this.fileBytes + bytes.remaining() > this.cap) {
+                this.next();
+            }
+            this.put(bytes);
+            this.fileHasRows = true;
+        }
+
+        void finish() throws IOException {
+            this.drain();
+            this.channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+
+        // Close the current file (if any) and start the next one
+        private void next() throws IOException {
+            if (this.channel != null) {
+                this.drain();
+                this.channel.close();
+            }
+            Path target = (this.cap == 0) ? this.file : numbered(this.file,
+                    this.files.size() + 1);
+            this.channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.files.add(target);
+            this.fileBytes = 0;
+            this.fileHasRows = false;
+            if (this.header != null) {
+                this.put(this.header.duplicate());
+            }
+        }
+
+        // UTF-8 bytes of one line in the reused row buffer (grown as needed)
+        private ByteBuffer encode(CharSequence line) {
+            CharBuffer in = CharBuffer.wrap(line);
+            this.encoder.reset();
+            this.row.clear();
+            while (true) {
+                CoderResult r = this.encoder.encode(in, this.row, true);
+                if (!r.isOverflow()) {
+                    r = this.encoder.flush(this.row);
+                }
+                if (!r.isOverflow()) {
+                    break;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(this.row.capacity() * 2);
+                this.row.flip();
+                bigger.put(this.row);
+                this.row = bigger;
+            }
+            this.row.flip();
+            return this.row;
+        }
+
+        private void put(ByteBuffer bytes) throws IOException {
+            int n = bytes.remaining();
+            while (bytes.hasRemaining()) {
+                if (!this.buf.hasRemaining()) {
+                    this.drain();
+                }
+                int take = Math.min(this.buf.remaining(), bytes.remaining());
+                ByteBuffer slice = bytes.duplicate();
+                slice.limit(slice.position() + take);
+                this.buf.put(slice);
+                bytes.position(bytes.position() + take);
+            }
+            this.fileBytes += n;
+            this.totalBytes += n;
+        }
+
+        private void drain() throws IOException {
+            this.buf.flip();
+            while (this.buf.hasRemaining()) {
+                this.channel.write(this.buf);
+            }
+            this.buf.clear();
+        }
+
+        // customers.csv -> customers-0003.csv
+        private static Path numbered(Path file, int n) {
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            String stem = (dot > 0) ? name.substring(0, dot) : name;
+            String ext = (dot > 0) ? name.substring(dot) : "";
+            return file.resolveSibling(String.format("%s-%04d%s", stem, n, ext));
+        }
+    }
+}
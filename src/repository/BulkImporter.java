@@ -0,0 +1,635 @@
+package repository;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * BulkImporter - Loads CSV or NDJSON files with millions of rows into a
+ * repository without calling create() once per row.
+ *
+ * Pipeline:
+ * - split: the file is memory-mapped and cut into ~4 MB chunks that end on a
+ *   line boundary (only the bytes around each cut are read);
+ * - parse: chunks are decoded, parsed and validated in parallel on a
+ *   ForkJoinPool, each into String[] rows in the table's column order;
+ * - insert: the calling thread takes the parsed chunks in file order and
+ *   feeds them to the repository's createAll() in batches while later chunks
+ *   are still being parsed. At most 2 x parallelism chunks are in flight, so
+ *   memory stays bounded whatever the file size.
+ *
+ * Formats (picked by file extension):
+ * - .csv: a header line naming the columns (any order; unknown columns such
+ *   as an id are ignored), then one record per line. Fields may be
+ *   double-quoted, with "" for a quote, but a record cannot span lines.
+ * - anything else (.ndjson, .jsonl): one flat JSON object per line; keys name
+ *   the columns, a missing key or null becomes null, numbers and booleans are
+ *   taken as text.
+ *
+ * Rows that fail validation (field count, a number that does not parse, a
+ * blank key) are skipped and reported with their line number; the others are
+ * imported. Imported rows go through createAll(), so they are logged and
+ * indexed like any other write, and auto-increment tables hand out fresh ids.
+ * Each import returns a JSON report with row counts, rows/sec and per-stage
+ * timings.
+ *
+ * Orders and warehouses reference customers / employees. Their batches skip
+ * the per-row reference check; once the last batch is in, one pass
+ * (checkReferences()) counts the dangling custUserIds / managerSSNs and
+ * lists the first of them under "references". Those rows stay imported.
+ */
+public final class BulkImporter {
+    // Target chunk size; a chunk runs on to the end of the line it cuts
+    private static final int CHUNK_BYTES = 4 << 20;
+
+    // Bytes read at a time while looking for the end of a line
+    private static final int PROBE_BYTES = 64 << 10;
+
+    // Rows per createAll() call (one write-lock hold each)
+    private static final int BATCH_ROWS = 10_000;
+
+    // Rejected rows listed in the report; the rest are only counted
+    private static final int MAX_ERRORS = 20;
+
+    private static final int[] NO_INTS = new int[0];
+
+    private final int parallelism;
+
+    // --- One parse thread per available processor ---
+    public BulkImporter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    // --- Parse on the given number of threads ---
+    public BulkImporter(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    // ====================== Tables ======================
+
+    public String importCustomers(CustomerRepository repo, Path file) throws IOException {
+        return this.run(new Table("customers",
+                new String[] { "custStartDate", "city", "zipCode", "street", "email",
+                        "phoneNumber", "custName", "type" },
+                -1, NO_INTS, false, rows -> repo.createAll(rows, false)), file);
+    }
+
+    public String importOrders(OrderRepository repo, Path file) throws IOException {
+        return this.run(new Table("orders",
+                new String[] { "orderStartDate", "estimatedArrivalDate",
+                        "actualArrivalDate", "dueDate", "actualReturnDate",
+                        "custUserId" },
+                -1, NO_INTS, false, rows -> repo.createAll(rows, false, false))
+                        .checkAfter(repo::checkReferences), file);
+    }
+
+    public String importEmployees(EmployeeRepository repo, Path file) throws IOException {
+        return this.run(new Table("employees",
+                new String[] { "ssn", "name", "phoneNumber", "sex", "salary" },
+                0, new int[] { 4 }, false, rows -> repo.createAll(rows, false)), file);
+    }
+
+    public String importWarehouses(WarehouseRepository repo, Path file)
+            throws IOException {
+        return this.run(new Table("warehouses",
+                new String[] { "phoneNumber", "city", "zipCode", "street",
+                        "equipmentCapacity", "droneCapacity", "managerSSN" },
+                -1, new int[] { 4, 5 }, true, rows -> repo.createAll(rows, false, false))
+                        .checkAfter(repo::checkReferences), file);
+    }
+
+    // ====================== Pipeline ======================
+
+    private String run(Table table, Path file) throws IOException {
+        long started = System.nanoTime();
+        boolean csv = file.getFileName().toString().toLowerCase(Locale.ROOT)
+                .endsWith(".csv");
+        Report report = new Report(table.name, file, csv ? "csv" : "ndjson",
+                this.parallelism);
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Split: header (CSV) and chunk boundaries
+            long size = ch.size();
+            long bodyStart = 0;
+            int[] layout = null;
+            if (csv && size > 0) {
+                bodyStart = lineEnd(ch, 0, size);
+                layout = table.layout(parseCsv(header(ch, bodyStart)));
+                report.firstLine = 2;
+            }
+            List<long[]> chunks = new ArrayList<>();
+            for (long s = bodyStart; s < size;) {
+                long e = lineEnd(ch, Math.min(size, s + CHUNK_BYTES), size);
+                chunks.add(new long[] { s, e });
+                s = e;
+            }
+            report.chunks = chunks.size();
+            report.splitNanos = System.nanoTime() - started;
+
+            // Parse in parallel, insert in file order as chunks complete
+            Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+            int submitted = 0;
+            int window = 2 * this.parallelism;
+            while (submitted < chunks.size() || !inFlight.isEmpty()) {
+                while (submitted < chunks.size() && inFlight.size() < window) {
+                    long[] c = chunks.get(submitted++);
+                    int[] columns = layout;
+                    inFlight.add(pool.submit(
+                            () -> parse(ch, c[0], c[1], table, columns)));
+                }
+                long t = System.nanoTime();
+                Chunk chunk = await(inFlight.poll());
+                report.waitNanos += System.nanoTime() - t;
+                report.parseNanos += chunk.nanos;
+
+                t = System.nanoTime();
+                for (int i = 0; i < chunk.rows.size(); i += BATCH_ROWS) {
+                    table.load.apply(chunk.rows.subList(i,
+                            Math.min(chunk.rows.size(), i + BATCH_ROWS)));
+                }
+                report.insertNanos += System.nanoTime() - t;
+                report.add(chunk);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (table.check != null) {
+            long t = System.nanoTime();
+            report.references = table.check.get();
+            report.checkNanos = System.nanoTime() - t;
+        }
+        report.totalNanos = System.nanoTime() - started;
+        return report.toJson();
+    }
+
+    // Parse and validate one chunk [start, end) of whole lines (runs on the pool)
+    private static Chunk parse(FileChannel ch, long start, long end, Table table,
+            int[] layout) {
+        long t = System.nanoTime();
+        String text;
+        try {
+            text = decode(ch, start, end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Chunk chunk = new Chunk();
+        int line = 0;
+        for (int at = 0; at < text.length(); line++) {
+            int nl = text.indexOf('\n', at);
+            int stop = (nl < 0) ? text.length() : nl;
+            int next = (nl < 0) ? text.length() : nl + 1;
+            if (stop > at && text.charAt(stop - 1) == '\r') {
+                stop--;
+            }
+            if (stop > at) {
+                String s = text.substring(at, stop);
+                try {
+                    String[] row = (layout != null) ? pick(parseCsv(s), layout)
+                            : table.fromJson(s);
+                    table.check(row);
+                    chunk.rows.add(row);
+                } catch (IllegalArgumentException e) {
+                    chunk.reject(line, e.getMessage());
+                }
+            }
+            at = next;
+        }
+        chunk.lines = line;
+        chunk.nanos = System.nanoTime() - t;
+        return chunk;
+    }
+
+    // Result of a parse task, rethrowing what the task threw
+    private static Chunk await(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("import interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // ====================== Helpers ======================
+
+    // Position just past the first '\n' at or after from (or size)
+    private static long lineEnd(FileChannel ch, long from, long size) throws IOException {
+        for (long at = from; at < size; at += PROBE_BYTES) {
+            int len = (int) Math.min(PROBE_BYTES, size - at);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, at, len);
+            for (int i = 0; i < len; i++) {
+                if (buf.get(i) == '\n') {
+                    return at + i + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    // UTF-8 text of the mapped byte range [start, end)
+    private static String decode(FileChannel ch, long start, long end)
+            throws IOException {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("line longer than 2 GB at byte " + start);
+        }
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        return StandardCharsets.UTF_8.decode(buf).toString();
+    }
+
+    // The CSV header line (bytes [0, end)) without its line break or a BOM
+    private static String header(FileChannel ch, long end) throws IOException {
+        String s = decode(ch, 0, end);
+        int from = s.startsWith("\uFEFF") ? 1 : 0;
+        int to = s.length();
+        while (to > from && (s.charAt(to - 1) == '\n' || s.charAt(to - 1) == '\r')) {
+            to--;
+        }
+        return s.substring(from, to);
+    }
+
+    // One CSV record: comma-separated, "quoted" fields with "" as a quote
+    private static List<String> parseCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (true) {
+            sb.setLength(0);
+            if (i < line.length() && line.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    if (i >= line.length()) {
+                        throw new IllegalArgumentException("unterminated quoted field");
+                    }
+                    char c = line.charAt(i++);
+                    if (c != '"') {
+                        sb.append(c);
+                    } else if (i < line.length() && line.charAt(i) == '"') {
+                        sb.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (i < line.length() && line.charAt(i) != ',') {
+                    throw new IllegalArgumentException("text after closing quote");
+                }
+            } else {
+                int comma = line.indexOf(',', i);
+                int stop = (comma < 0) ? line.length() : comma;
+                sb.append(line, i, stop);
+                i = stop;
+            }
+            fields.add(sb.toString());
+            if (i >= line.length()) {
+                return fields;
+            }
+            i++; // skip the comma
+        }
+    }
+
+    // Table columns out of a CSV record, by the positions the header gave
+    private static String[] pick(List<String> fields, int[] layout) {
+        if (fields.size() != layout[layout.length - 1]) {
+            throw new IllegalArgumentException("expected " + layout[layout.length - 1]
+                    + " fields, got " + fields.size());
+        }
+        String[] row = new String[layout.length - 1];
+        for (int c = 0; c < row.length; c++) {
+            row[c] = fields.get(layout[c]);
+        }
+        return row;
+    }
+
+    // ====================== Types ======================
+
+    // What an import needs to know about its target table
+    private static final class Table {
+        private final String name;
+        private final String[] columns;
+        private final Map<String, Integer> positions = new HashMap<>();
+        private final int key; // column that must not be blank, or -1
+        private final int[] ints; // columns that must hold an int
+        private final boolean nonNegative;
+        private final Function<List<String[]>, String> load;
+        private Supplier<String> check; // foreign-key pass after the load, or null
+
+        Table(String name, String[] columns, int key, int[] ints, boolean nonNegative,
+                Function<List<String[]>, String> load) {
+            this.name = name;
+            this.columns = columns;
+            this.key = key;
+            this.ints = ints;
+            this.nonNegative = nonNegative;
+            this.load = load;
+            for (int c = 0; c < columns.length; c++) {
+                this.positions.put(columns[c], c);
+            }
+        }
+
+        // Verify references once after the last batch instead of per batch
+        Table checkAfter(Supplier<String> check) {
+            this.check = check;
+            return this;
+        }
+
+        // Header -> record position of each column, plus the header width last
+        int[] layout(List<String> header) {
+            int[] layout = new int[this.columns.length + 1];
+            for (int c = 0; c < this.columns.length; c++) {
+                layout[c] = header.indexOf(this.columns[c]);
+                if (layout[c] < 0) {
+                    throw new IllegalArgumentException(
+                            this.name + " CSV header has no column " + this.columns[c]);
+                }
+            }
+            layout[this.columns.length] = header.size();
+            return layout;
+        }
+
+        void check(String[] row) {
+            if (this.key >= 0 && (row[this.key] == null || row[this.key].isBlank())) {
+                throw new IllegalArgumentException(this.columns[this.key] + " is blank");
+            }
+            for (int c : this.ints) {
+                int v;
+                try {
+                    v = Integer.parseInt(row[c]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(
+                            this.columns[c] + " is not an integer: " + row[c]);
+                }
+                if (this.nonNegative && v < 0) {
+                    throw new IllegalArgumentException(this.columns[c] + " is negative");
+                }
+            }
+        }
+
+        // One flat JSON object -> row in column order (unknown keys ignored)
+        String[] fromJson(String line) {
+            String[] row = new String[this.columns.length];
+            JsonLine p = new JsonLine(line);
+            p.expect('{');
+            if (!p.skip('}')) {
+                do {
+                    String k = p.string();
+                    p.expect(':');
+                    String v = p.value();
+                    Integer c = this.positions.get(k);
+                    if (c != null) {
+                        row[c] = v;
+                    }
+                } while (p.skip(','));
+                p.expect('}');
+            }
+            p.end();
+            return row;
+        }
+    }
+
+    // Cursor over one NDJSON line; errors are IllegalArgumentExceptions
+    private static final class JsonLine {
+        private final String s;
+        private int i = 0;
+
+        JsonLine(String s) {
+            this.s = s;
+        }
+
+        void expect(char c) {
+            if (!this.skip(c)) {
+                throw new IllegalArgumentException("expected '" + c + "' at column "
+                        + (this.i + 1));
+            }
+        }
+
+        boolean skip(char c) {
+            this.blanks();
+            if (this.i < this.s.length() && this.s.charAt(this.i) == c) {
+                this.i++;
+                return true;
+            }
+            return false;
+        }
+
+        void end() {
+            this.blanks();
+            if (this.i < this.s.length()) {
+                throw new IllegalArgumentException("text after the object");
+            }
+        }
+
+        // A string, number, true/false (as text) or null
+        String value() {
+            this.blanks();
+            if (this.i < this.s.length() && this.s.charAt(this.i) == '"') {
+                return this.string();
+            }
+            int from = this.i;
+            while (this.i < this.s.length()
+                    && ",}] \t".indexOf(this.s.charAt(this.i)) < 0) {
+                this.i++;
+            }
+            String word = this.s.substring(from, this.i);
+            if (word.isEmpty() || word.charAt(0) == '{' || word.charAt(0) == '[') {
+                throw new IllegalArgumentException("unsupported value at column "
+                        + (from + 1));
+            }
+            return "null".equals(word) ? null : word;
+        }
+
+        String string() {
+            this.expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (this.i >= this.s.length()) {
+                    throw new IllegalArgumentException("unterminated string");
+                }
+                char c = this.s.charAt(this.i++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (this.i >= this.s.length()) {
+                    throw new IllegalArgumentException("unterminated string");
+                }
+                char e = this.s.charAt(this.i++);
+                switch (e) {
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (this.i + 4 > this.s.length()) {
+                            throw new IllegalArgumentException("bad \\u escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(
+                                    this.s.substring(this.i, this.i + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw new IllegalArgumentException("bad \\u escape");
+                        }
+                        this.i += 4;
+                        break;
+                    default:
+                        sb.append(e); // \" \\ \/
+                }
+            }
+        }
+
+        private void blanks() {
+            while (this.i < this.s.length()
+                    && (this.s.charAt(this.i) == ' ' || this.s.charAt(this.i) == '\t')) {
+                this.i++;
+            }
+        }
+    }
+
+    // Parsed rows of one chunk, plus the lines it rejected
+    private static final class Chunk {
+        private final List<String[]> rows = new ArrayList<>();
+        private final List<Integer> errorLines = new ArrayList<>();
+        private final List<String> errorReasons = new ArrayList<>();
+        private int rejected;
+        private int lines;
+        private long nanos;
+
+        void reject(int line, String reason) {
+            this.rejected++;
+            if (this.errorLines.size() < MAX_ERRORS) {
+                this.errorLines.add(line);
+                this.errorReasons.add(reason);
+            }
+        }
+    }
+
+    // Counters and stage timings of one import, rendered as JSON at the end
+    private static final class Report {
+        private final String table;
+        private final Path file;
+        private final String format;
+        private final int threads;
+        private int firstLine = 1; // file line number of the first body line
+        private int chunks;
+        private long imported;
+        private long rejected;
+        private final List<Long> errorLines = new ArrayList<>();
+        private final List<String> errorReasons = new ArrayList<>();
+        private long splitNanos;
+        private long parseNanos; // summed over the parse threads
+        private long waitNanos; // insert thread idle, waiting for a parsed chunk
+        private long insertNanos;
+        private long checkNanos;
+        private String references; // checkReferences() JSON, or null
+        private long totalNanos;
+
+        Report(String table, Path file, String format, int threads) {
+            this.table = table;
+            this.file = file;
+            this.format = format;
+            this.threads = threads;
+        }
+
+        // Count a chunk that was just inserted (chunks arrive in file order)
+        void add(Chunk c) {
+            this.imported += c.rows.size();
+            this.rejected += c.rejected;
+            for (int i = 0; i < c.errorLines.size()
+                    && this.errorLines.size() < MAX_ERRORS; i++) {
+                this.errorLines.add(this.firstLine + (long) c.errorLines.get(i));
+                this.errorReasons.add(c.errorReasons.get(i));
+            }
+            this.firstLine += c.lines;
+        }
+
+        String toJson() {
+            return JsonWriter.render(out -> {
+                out.append("{\"table\":");
+                JsonWriter.string(out, this.table);
+                out.append(",\"file\":");
+                JsonWriter.string(out, this.file.toString());
+                out.append(",\"format\":");
+                JsonWriter.string(out, this.format);
+                out.append(",\"threads\":");
+                JsonWriter.number(out, this.threads);
+                out.append(",\"chunks\":");
+                JsonWriter.number(out, this.chunks);
+                out.append(",\"rowsImported\":").append(Long.toString(this.imported));
+                out.append(",\"rowsRejected\":").append(Long.toString(this.rejected));
+                double seconds = this.totalNanos / 1e9;
+                long perSecond = (seconds > 0) ? Math.round(this.imported / seconds) : 0;
+                out.append(",\"rowsPerSecond\":").append(Long.toString(perSecond));
+                out.append(",\"totalMillis\":").append(millis(this.totalNanos));
+                out.append(",\"stages\":{\"splitMillis\":")
+                        .append(millis(this.splitNanos));
+                out.append(",\"parseMillis\":").append(millis(this.parseNanos));
+                out.append(",\"parseWaitMillis\":").append(millis(this.waitNanos));
+                out.append(",\"insertMillis\":").append(millis(this.insertNanos));
+                if (this.references != null) {
+                    out.append(",\"checkMillis\":").append(millis(this.checkNanos));
+                }
+                out.append('}');
+                if (this.references != null) {
+                    out.append(",\"references\":").append(this.references);
+                }
+                out.append(",\"errors\":[");
+                for (int i = 0; i < this.errorLines.size(); i++) {
+                    if (i > 0) {
+                        out.append(',');
+                    }
+                    out.append("{\"line\":")
+                            .append(Long.toString(this.errorLines.get(i)));
+                    out.append(",\"reason\":");
+                    JsonWriter.string(out, this.errorReasons.get(i));
+                    out.append('}');
+                }
+                out.append("]}");
+            });
+        }
+
+        private static String millis(long nanos) {
+            return Long.toString(nanos / 1_000_000);
+        }
+    }
+}
@@ -1,10 +1,21 @@
 package repository;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import model.Customer;
+import storage.LogRecord;
+import storage.SnapshotFile;
+import storage.WriteAheadLog;
 
 /**
  * CustomerRepository - Stores Customer entities in a Map<String userId,
@@ -13,241 +24,1044 @@ import model.Customer;
  *
  * Fields (from schema): userId (PK), custStartDate, city, zipCode, street,
  * email, phoneNumber, custName, type
+ *
+ * Secondary indexes: exact-match queries on the INDEXABLE_FIELDS use a
+ * HashIndex when the field was configured at construction (all of them by
+ * default). create/update/delete keep the indexes current. custName also has
+ * a PrefixIndex for case-insensitive exact and prefix search, and a trigram
+ * FuzzyIndex over custName, street and email answers searchFuzzy().
+ *
+ * Streaming: writeAll()/writeQuery() write results straight to an Appendable
+ * one row at a time; getAll()/queryByX() are thin String wrappers over them.
+ *
+ * Persistence: when a WriteAheadLog is attached (see Database), every
+ * create/update/delete is logged before the map changes and the call returns
+ * once the log's SyncPolicy considers it durable.
+ *
+ * Batches: createAll/updateAll/deleteAll apply many rows under one write-lock
+ * hold and one log append, optionally without per-row JSON.
+ *
+ * Query cache: queryByX results are cached as JSON text (see QueryCache);
+ * every write drops only the cached results that contain, or would now
+ * contain, the changed row. configureCache() sets policy and bounds,
+ * cacheStats() reports hits / misses / evictions.
+ *
+ * Queries: query(Query) combines predicates on any fields; QueryPlanner picks
+ * the most selective index and explain(Query) shows its choice.
+ *
+ * Paging: getPage()/queryPage() return limit rows at a time in insertion
+ * order with opaque next / prev cursors (keyset on store slots), so a page
+ * costs the same at any depth.
+ *
+ * Aggregates: aggregate(groupBy, null) counts customers per value of a field;
+ * aggregates registered with registerAggregate() are maintained on every
+ * write, so reading them costs O(groups).
+ *
+ * References: linked by Database, a customer that orders still reference
+ * cannot be deleted (referenced error); see ForeignKey.
+ *
+ * Transactions: every change is also recorded in Versions while a snapshot
+ * is open, and txTable() lets a Transaction read and write this table
+ * together with the others (see TransactionManager).
+ *
+ * Concurrency: readers share a read lock and never block each other; writers
+ * are exclusive, so every read sees a consistent store + index state.
  */
 public class CustomerRepository {
+    // Fields that can carry a secondary hash index (see indexStats())
+    public static final String[] INDEXABLE_FIELDS = { "city", "zipCode", "email",
+            "phoneNumber", "custName", "type", "custStartDate" };
+
     // --- Storage (keeps insertion order for predictable listing) ---
-    private final Map<String, Customer> store = new LinkedHashMap<>();
+    private final RowStore<Customer> store = new RowStore<>();
+
+    // --- Id allocation: O(1) counter instead of scanning keys ---
+    private final IdSequence ids = new IdSequence();
+
+    // --- Concurrency: queries share the read lock; writes take the write lock ---
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // --- Write-ahead log (null = in-memory only); see Database ---
+    private volatile WriteAheadLog log;
+
+    // --- order.custUserId -> userId (unlinked = deletes unchecked); see Database ---
+    private volatile ForeignKey orderKey = ForeignKey.unlinked("custUserId", "userId");
+
+    // --- Row history for transactions' snapshot reads (see Versions) ---
+    private final Versions<Customer> versions = new Versions<>(this.lock,
+            this.store::get);
+
+    // --- Secondary hash indexes (field name -> index), chosen at construction ---
+    private final Map<String, HashIndex<Customer>> indexes = new LinkedHashMap<>();
+
+    // --- Unindexed scans of at least this many rows use ParallelScan ---
+    private volatile int parallelThreshold = ParallelScan.DEFAULT_THRESHOLD;
+
+    // --- Lower-cased custName -> userIds, for name search (always on) ---
+    private final PrefixIndex<Customer> nameIndex = new PrefixIndex<>("custName",
+            Customer::getCustName);
+
+    // --- Words of custName / street / email, for typo-tolerant search ---
+    private final FuzzyIndex<Customer> fuzzyIndex = new FuzzyIndex<>(List.of(
+            Customer::getCustName, Customer::getStreet, Customer::getEmail));
+
+    // --- Plans query(Query) over the store and the indexes above ---
+    private final QueryPlanner<Customer> planner;
+
+    // --- Serialized queryByX results; guarded by lock like the store ---
+    private QueryCache<Customer> cache = QueryCache.defaults();
+
+    // --- Registered group-by aggregates, kept current with the indexes ---
+    private final Aggregates<Customer> aggregates;
+
+    // --- Construction: index every indexable field ---
+    public CustomerRepository() {
+        this(INDEXABLE_FIELDS);
+    }
+
+    // --- Construction: index only the given fields (others are scanned) ---
+    public CustomerRepository(String... indexedFields) {
+        for (String field : indexedFields) {
+            if (!Arrays.asList(INDEXABLE_FIELDS).contains(field)) {
+                throw new IllegalArgumentException("unknown customer field: " + field);
+            }
+            this.indexes.put(field, new HashIndex<>(field, c -> column(c, field)));
+        }
+        this.planner = new QueryPlanner<>("customer", this.queryTable());
+        this.aggregates = new Aggregates<>("customer", this.queryTable());
+    }
 
     // --- Create: add a new Customer with auto-increment userId (as String) ---
-    // The id is generated from existing numeric ids, starting at "0".
-    public synchronized String create(String custStartDate, String city, String zipCode,
+    // The id comes from the shared O(1) IdSequence, starting at "0".
+    public String create(String custStartDate, String city, String zipCode,
             String street, String email, String phoneNumber, String custName,
             String type) {
-        String userId = this.nextId();
-        Customer c = new Customer(userId, custStartDate, city, zipCode, street, email,
-                phoneNumber, custName, type);
-        this.store.put(userId, c);
-        return this.toJson(c);
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            String userId = this.ids.next();
+            Customer c = new Customer(userId, custStartDate, city, zipCode, street, email,
+                    phoneNumber, custName, type);
+            lsn = this.logWrite(LogRecord.CREATE, c);
+            this.putRow(c);
+            json = this.toJson(c);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
     // --- Read one: get a customer by userId as JSON ---
-    public synchronized String getById(String userId) {
-        Customer c = this.store.get(userId);
-        return (c == null) ? this.errorJson("not_found", "userId", userId)
-                : this.toJson(c);
+    public String getById(String userId) {
+        this.lock.readLock().lock();
+        try {
+            Customer c = this.store.get(userId);
+            return (c == null) ? this.errorJson("not_found", "userId", userId)
+                    : this.toJson(c);
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     // --- Read all: return all customers as a JSON array ---
-    public synchronized String getAll() {
-        String arr = this.store.values().stream().map(this::toJson)
-                .collect(Collectors.joining(","));
-        return "[" + arr + "]";
+    public String getAll() {
+        return JsonWriter.render(this::writeAll);
+    }
+
+    // --- Streaming read all: writes the JSON array to out one row at a time ---
+    public void writeAll(Appendable out) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            out.append('[');
+            boolean first = true;
+            for (Customer c : this.store.values()) {
+                if (!first) {
+                    out.append(',');
+                }
+                this.writeJson(c, out);
+                first = false;
+            }
+            out.append(']');
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     // --- Update: set all attributes (except userId) for the given userId ---
     // Returns the updated customer as JSON; if not found, returns an error JSON.
-    public synchronized String update(String userId, String custStartDate, String city,
+    public String update(String userId, String custStartDate, String city,
             String zipCode, String street, String email, String phoneNumber,
             String custName, String type) {
-        Customer existing = this.store.get(userId);
-        if (existing == null) {
-            return this.errorJson("not_found", "userId", userId);
-        }
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            Customer existing = this.store.get(userId);
+            if (existing == null) {
+                return this.errorJson("not_found", "userId", userId);
+            }
 
-        Customer updated = new Customer(userId, custStartDate, city, zipCode, street,
-                email, phoneNumber, custName, type);
-        this.store.put(userId, updated);
-        return this.toJson(updated);
+            Customer updated = new Customer(userId, custStartDate, city, zipCode, street,
+                    email, phoneNumber, custName, type);
+            lsn = this.logWrite(LogRecord.UPDATE, updated);
+            this.putRow(updated);
+            json = this.toJson(updated);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
     // --- Delete: remove by userId and return the deleted entity as JSON ---
-    public synchronized String delete(String userId) {
-        Customer removed = this.store.remove(userId);
-        return (removed == null) ? this.errorJson("not_found", "userId", userId)
-                : this.toJson(removed);
+    public String delete(String userId) {
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            if (!this.store.containsKey(userId)) {
+                return this.errorJson("not_found", "userId", userId);
+            }
+            if (this.orderKey.referenced(userId)) {
+                return this.errorJson("referenced", "userId", userId);
+            }
+            lsn = this.logDelete(userId);
+            json = this.toJson(this.removeRow(userId));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
-    // ====================== Helpers ======================
+    // ================== Batch writes ==================
+    // createAll/updateAll/deleteAll take the write lock once per batch, hand
+    // the log all of their records in one append and wait for durability once.
+    // Rows are text, one String[] per row holding the single-row method's
+    // arguments in order. withResponse = true returns a JSON array with one
+    // entry per input (the row, or not_found); false skips building the rows
+    // and returns only {"count":n,"notFound":m}. deleteAll fails as a whole,
+    // with a referenced error, if an order still references one of its rows.
+
+    // --- Batch create: userIds are reserved as one contiguous range ---
+    // Every row is checked and built before anything is logged, so a
+    // malformed row fails the whole batch without changing the store.
+    public String createAll(List<String[]> rows, boolean withResponse) {
+        List<Customer> created = new ArrayList<>(rows.size());
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            for (String[] r : rows) {
+                checkWidth(r, 8);
+            }
+            long first = this.ids.reserve(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                String[] r = rows.get(i);
+                created.add(new Customer(String.valueOf(first + i), r[0], r[1], r[2],
+                        r[3], r[4], r[5], r[6], r[7]));
+            }
+            lsn = this.logWriteAll(LogRecord.CREATE, created);
+            this.cache.beforeBatch(created.size());
+            for (Customer c : created) {
+                this.putRow(c);
+            }
+            json = this.batchJson(null, created, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(lsn);
+        return json;
+    }
 
-    // Generate the next numeric String id based on current keys.
-    // If store is empty -> "0"; otherwise max(existing) + 1.
-    private String nextId() {
-        if (this.store.isEmpty()) {
-            return "0";
-        }
-        int max = -1;
-        for (String k : this.store.keySet()) {
-            try {
-                int v = Integer.parseInt(k);
-                if (v > max) {
-                    max = v;
+    // --- Batch update: row[0] is the userId, then update()'s other arguments ---
+    public String updateAll(List<String[]> rows, boolean withResponse) {
+        List<String> keys = new ArrayList<>(rows.size());
+        List<Customer> updated = new ArrayList<>(rows.size());
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            for (String[] r : rows) {
+                checkWidth(r, 9);
+            }
+            for (String[] r : rows) {
+                keys.add(r[0]);
+                updated.add(!this.store.containsKey(r[0]) ? null
+                        : new Customer(r[0], r[1], r[2], r[3], r[4], r[5], r[6], r[7],
+                                r[8]));
+            }
+            lsn = this.logWriteAll(LogRecord.UPDATE, updated);
+            this.cache.beforeBatch(updated.size() - Collections.frequency(updated, null));
+            for (Customer c : updated) {
+                if (c != null) {
+                    this.putRow(c);
                 }
-            } catch (NumberFormatException ignore) {
-                // ignore non-numeric keys
             }
+            json = this.batchJson(keys, updated, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
         }
-        return String.valueOf(max + 1);
+        this.awaitDurable(lsn);
+        return json;
     }
 
-    // Convert one Customer to a JSON object string.
-    private String toJson(Customer c) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{").append("\"userId\":\"").append(this.esc(c.getUserId()))
-                .append("\",").append("\"custStartDate\":\"")
-                .append(this.esc(c.getCustStartDate())).append("\",")
-                .append("\"city\":\"").append(this.esc(c.getCity())).append("\",")
-                .append("\"zipCode\":\"").append(this.esc(c.getZipCode())).append("\",")
-                .append("\"street\":\"").append(this.esc(c.getStreet())).append("\",")
-                .append("\"email\":\"").append(this.esc(c.getEmail())).append("\",")
-                .append("\"phoneNumber\":\"").append(this.esc(c.getPhoneNumber()))
-                .append("\",").append("\"custName\":\"").append(this.esc(c.getCustName()))
-                .append("\",").append("\"type\":\"").append(this.esc(c.getType()))
-                .append("\"").append("}");
-        return sb.toString();
+    // --- Batch delete; a userId listed twice is not_found the second time ---
+    public String deleteAll(List<String> userIds, boolean withResponse) {
+        List<Customer> removed = new ArrayList<>(userIds.size());
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            for (String userId : userIds) {
+                if (this.store.containsKey(userId) && this.orderKey.referenced(userId)) {
+                    return this.errorJson("referenced", "userId", userId);
+                }
+            }
+            Set<String> found = new LinkedHashSet<>();
+            for (String userId : userIds) {
+                if (this.store.containsKey(userId)) {
+                    found.add(userId);
+                }
+            }
+            lsn = this.logDeleteAll(found);
+            this.cache.beforeBatch(found.size());
+            for (String userId : userIds) {
+                removed.add(this.removeRow(userId));
+            }
+            json = this.batchJson(userIds, removed, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
-    // Simple error JSON helper
-    private String errorJson(String code, String field, String value) {
-        return "{" + "\"error\":\"" + this.esc(code) + "\"," + "\"field\":\""
-                + this.esc(field) + "\"," + "\"value\":\"" + this.esc(value) + "\"" + "}";
+    // ================== Referential integrity ==================
+
+    // --- Link to the orders that reference customers (see Database) ---
+    void attachOrderKey(ForeignKey fk) {
+        this.orderKey = fk;
     }
 
-    // Minimal JSON string escape (quotes and backslashes)
-    private String esc(String s) {
-        if (s == null) {
-            return "";
-        }
-        StringBuilder out = new StringBuilder(s.length() + 8);
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (c == '\\' || c == '\"') {
-                out.append('\\').append(c);
+    // --- For ForeignKey: the lock guarding this table ---
+    ReentrantReadWriteLock lock() {
+        return this.lock;
+    }
+
+    // --- O(1) primary-key probe (caller holds the lock) ---
+    boolean containsKey(String userId) {
+        return this.store.containsKey(userId);
+    }
+
+    // ================== Transactions ==================
+
+    // --- This table as TransactionManager sees it (see Database) ---
+    TransactionManager.Table<Customer> txTable() {
+        return new TransactionManager.Table<Customer>() {
+            @Override
+            public String name() {
+                return "customer";
+            }
+
+            @Override
+            public String keyField() {
+                return "userId";
+            }
+
+            @Override
+            public ReentrantReadWriteLock lock() {
+                return CustomerRepository.this.lock;
+            }
+
+            @Override
+            public Versions<Customer> versions() {
+                return CustomerRepository.this.versions;
+            }
+
+            @Override
+            public Customer created(String[] r) {
+                checkWidth(r, 8);
+                return new Customer(CustomerRepository.this.ids.next(), r[0], r[1], r[2],
+                        r[3], r[4], r[5], r[6], r[7]);
+            }
+
+            @Override
+            public Customer updated(String[] r) {
+                checkWidth(r, 9);
+                return new Customer(r[0], r[1], r[2], r[3], r[4], r[5], r[6], r[7], r[8]);
+            }
+
+            @Override
+            public String key(Customer c) {
+                return c.getUserId();
+            }
+
+            @Override
+            public String normalizeKey(String key) {
+                return key;
+            }
+
+            @Override
+            public void writeJson(Customer c, Appendable out) throws IOException {
+                CustomerRepository.this.writeJson(c, out);
+            }
+
+            @Override
+            public LogRecord record(byte op, String key, Customer c) {
+                return (c == null) ? new LogRecord(TABLE, LogRecord.DELETE, key)
+                        : CustomerRepository.record(op, c);
+            }
+
+            @Override
+            public void apply(String key, Customer c) {
+                if (c == null) {
+                    CustomerRepository.this.removeRow(key);
+                } else {
+                    CustomerRepository.this.putRow(c);
+                }
+            }
+        };
+    }
+
+    // ================== Persistence (write-ahead log) ==================
+
+    // Table id of customers inside the write-ahead log
+    static final byte TABLE = 3;
+
+    // Attach a log: from now on every write is logged before it is applied.
+    void attachLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    // Re-apply one logged change during startup recovery (not logged again).
+    void replay(LogRecord r) {
+        this.lock.writeLock().lock();
+        try {
+            if (r.getOp() == LogRecord.DELETE) {
+                this.removeRow(r.getKey());
             } else {
-                out.append(c);
+                this.putRow(new Customer(r.getKey(), r.getString(0), r.getString(1),
+                        r.getString(2), r.getString(3), r.getString(4), r.getString(5),
+                        r.getString(6), r.getString(7)));
+                this.ids.observe(r.getKey());
             }
+        } finally {
+            this.lock.writeLock().unlock();
         }
-        return out.toString();
     }
 
-    // ================== Single-attribute query methods (exact match) ==================
+    // Write every row as a CREATE record for a checkpoint. Only the copy of the
+    // row references happens under the read lock; encoding runs after it.
+    void writeSnapshot(SnapshotFile.Writer out) throws IOException {
+        for (Customer c : this.snapshot()) {
+            out.write(record(LogRecord.CREATE, c));
+        }
+    }
 
-    public String queryByCity(String city) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Customer c : this.store.values()) {
-            if (this.equalsSafe(c.getCity(), city)) {
-                if (!first) {
-                    sb.append(",");
-                }
-                sb.append(this.toJson(c));
-                first = false;
+    // Point-in-time copy of every row for a long read (checkpoint, export).
+    // Rows are never modified in place, so copying the references is enough
+    // and the read lock is held only for that copy.
+    RowSnapshot<Customer> snapshot() {
+        this.lock.readLock().lock();
+        try {
+            return RowSnapshot.of(this.store.values().toArray(new Customer[0]));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Append the new row to the log (before the map changes); returns the LSN.
+    private long logWrite(byte op, Customer c) {
+        WriteAheadLog wal = this.log;
+        return (wal == null) ? 0 : wal.append(record(op, c));
+    }
+
+    private long logDelete(String userId) {
+        WriteAheadLog wal = this.log;
+        return (wal == null) ? 0
+                : wal.append(new LogRecord(TABLE, LogRecord.DELETE, userId));
+    }
+
+    // Append one record per non-null row in a single log call; returns the
+    // LSN of the last one (0 without a log or for an empty batch).
+    private long logWriteAll(byte op, List<Customer> rows) {
+        WriteAheadLog wal = this.log;
+        if (wal == null) {
+            return 0;
+        }
+        List<LogRecord> records = new ArrayList<>(rows.size());
+        for (Customer c : rows) {
+            if (c != null) {
+                records.add(record(op, c));
             }
         }
-        sb.append("]");
-        return sb.toString();
+        return wal.appendAll(records);
     }
 
-    public String queryByZipCode(String zipCode) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Customer c : this.store.values()) {
-            if (this.equalsSafe(c.getZipCode(), zipCode)) {
-                if (!first) {
-                    sb.append(",");
+    private long logDeleteAll(Collection<String> userIds) {
+        WriteAheadLog wal = this.log;
+        if (wal == null) {
+            return 0;
+        }
+        List<LogRecord> records = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            records.add(new LogRecord(TABLE, LogRecord.DELETE, userId));
+        }
+        return wal.appendAll(records);
+    }
+
+    // The log / snapshot record for a row: its key plus every other column
+    private static LogRecord record(byte op, Customer c) {
+        return new LogRecord(TABLE, op, c.getUserId(), c.getCustStartDate(), c.getCity(),
+                c.getZipCode(), c.getStreet(), c.getEmail(), c.getPhoneNumber(),
+                c.getCustName(), c.getType());
+    }
+
+    // Wait (outside the lock) until the logged change is durable.
+    private void awaitDurable(long lsn) {
+        WriteAheadLog wal = this.log;
+        if (wal != null) {
+            wal.sync(lsn);
+        }
+    }
+
+    // --- Apply a row to the store and every index (insert or replace) ---
+    private void putRow(Customer c) {
+        Customer old = this.store.put(c.getUserId(), c);
+        this.versions.record(c.getUserId(), old, c);
+        this.cache.invalidate(old, c);
+        if (old == null) {
+            this.indexAdd(c);
+        } else {
+            this.indexUpdate(old, c);
+        }
+    }
+
+    // --- Remove a row from the store and every index; returns it (or null) ---
+    private Customer removeRow(String userId) {
+        Customer removed = this.store.remove(userId);
+        if (removed != null) {
+            this.versions.record(userId, removed, null);
+            this.cache.invalidate(removed, null);
+            this.indexRemove(removed);
+        }
+        return removed;
+    }
+
+    // ====================== Helpers ======================
+
+    // Convert one Customer to a JSON object string.
+    private String toJson(Customer c) {
+        return JsonWriter.render(out -> this.writeJson(c, out));
+    }
+
+    // Stream one Customer as a JSON object, field by field (also BulkExporter).
+    void writeJson(Customer c, Appendable out) throws IOException {
+        out.append("{\"userId\":");
+        JsonWriter.string(out, c.getUserId());
+        out.append(",\"custStartDate\":");
+        JsonWriter.string(out, c.getCustStartDate());
+        out.append(",\"city\":");
+        JsonWriter.string(out, c.getCity());
+        out.append(",\"zipCode\":");
+        JsonWriter.string(out, c.getZipCode());
+        out.append(",\"street\":");
+        JsonWriter.string(out, c.getStreet());
+        out.append(",\"email\":");
+        JsonWriter.string(out, c.getEmail());
+        out.append(",\"phoneNumber\":");
+        JsonWriter.string(out, c.getPhoneNumber());
+        out.append(",\"custName\":");
+        JsonWriter.string(out, c.getCustName());
+        out.append(",\"type\":");
+        JsonWriter.string(out, c.getType());
+        out.append('}');
+    }
+
+    // Result of a batch write: rows.get(i) answers input i (null = not found,
+    // keys.get(i) says which key). Only the summary when !withResponse.
+    private String batchJson(List<String> keys, List<Customer> rows,
+            boolean withResponse) {
+        int missing = 0;
+        for (Customer c : rows) {
+            if (c == null) {
+                missing++;
+            }
+        }
+        if (!withResponse) {
+            return JsonWriter.summary(rows.size() - missing, missing);
+        }
+        return JsonWriter.render(out -> {
+            out.append('[');
+            for (int i = 0; i < rows.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                Customer c = rows.get(i);
+                if (c == null) {
+                    out.append(this.errorJson("not_found", "userId", keys.get(i)));
+                } else {
+                    this.writeJson(c, out);
                 }
-                sb.append(this.toJson(c));
-                first = false;
             }
+            out.append(']');
+        });
+    }
+
+    // A batch row must carry exactly the expected number of values
+    private static void checkWidth(String[] row, int width) {
+        if (row == null || row.length != width) {
+            throw new IllegalArgumentException("customer row needs " + width
+                    + " values, got " + (row == null ? 0 : row.length));
         }
-        sb.append("]");
-        return sb.toString();
+    }
+
+    // Simple error JSON helper
+    private String errorJson(String code, String field, String value) {
+        return JsonWriter.error(code, field, value);
+    }
+
+
+    // ================== Single-attribute query methods (exact match) ==================
+    // Indexed fields are answered from their HashIndex in O(1 + matches);
+    // fields without an index fall back to a full scan.
+
+    public String queryByCity(String city) {
+        return this.queryByField("city", city);
+    }
+
+    public String queryByZipCode(String zipCode) {
+        return this.queryByField("zipCode", zipCode);
     }
 
     public String queryByEmail(String email) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Customer c : this.store.values()) {
-            if (this.equalsSafe(c.getEmail(), email)) {
-                if (!first) {
-                    sb.append(",");
+        return this.queryByField("email", email);
+    }
+
+    public String queryByPhoneNumber(String phoneNumber) {
+        return this.queryByField("phoneNumber", phoneNumber);
+    }
+
+    public String queryByCustName(String custName) {
+        return this.queryByField("custName", custName);
+    }
+
+    public String queryByType(String type) {
+        return this.queryByField("type", type);
+    }
+
+    public String queryByCustStartDate(String custStartDate) {
+        return this.queryByField("custStartDate", custStartDate);
+    }
+
+    // Generic helper shared by the queryByX methods above; answered from the
+    // query cache when an unchanged result is there
+    private String queryByField(String field, String value) {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.get(QueryCache.key(field, value),
+                    c -> this.equalsSafe(column(c, field), value),
+                    out -> this.writeQuery(field, value, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Streaming query: writes the exact-match result array to out ---
+    // field is one of INDEXABLE_FIELDS (street is always scanned).
+    public void writeQuery(String field, String value, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            out.append('[');
+            boolean[] first = { true };
+            QueryPlanner.Sink<Customer> rowJson = c -> {
+                if (!first[0]) {
+                    out.append(',');
                 }
-                sb.append(this.toJson(c));
-                first = false;
+                this.writeJson(c, out);
+                first[0] = false;
+            };
+            HashIndex<Customer> index = this.indexes.get(field);
+            if (index != null) {
+                for (String userId : index.lookup(value)) {
+                    rowJson.accept(this.store.get(userId));
+                }
+            } else {
+                ParallelScan.scan(this.store, this.store.size(),
+                        this.parallelThreshold,
+                        c -> this.equalsSafe(column(c, field), value), rowJson);
             }
+            out.append(']');
+        } finally {
+            this.lock.readLock().unlock();
         }
-        sb.append("]");
-        return sb.toString();
     }
 
-    public String queryByPhoneNumber(String phoneNumber) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Customer c : this.store.values()) {
-            if (this.equalsSafe(c.getPhoneNumber(), phoneNumber)) {
+    // ================== Name search (case-insensitive) ==================
+    // Answered from the custName PrefixIndex in O(log n + prefix + matches),
+    // ordered by lower-cased name; cached like the queryByX methods.
+
+    public String queryByCustNameIgnoreCase(String custName) {
+        return this.nameSearch(custName, false);
+    }
+
+    public String queryByCustNamePrefix(String prefix) {
+        return this.nameSearch(prefix, true);
+    }
+
+    // --- Streaming name search: prefix = true matches names starting with name ---
+    public void writeNameSearch(String name, boolean prefix, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            Iterable<String> keys = prefix ? this.nameIndex.prefix(name)
+                    : this.nameIndex.lookupIgnoreCase(name);
+            out.append('[');
+            boolean first = true;
+            for (String userId : keys) {
                 if (!first) {
-                    sb.append(",");
+                    out.append(',');
                 }
-                sb.append(this.toJson(c));
+                this.writeJson(this.store.get(userId), out);
                 first = false;
             }
+            out.append(']');
+        } finally {
+            this.lock.readLock().unlock();
         }
-        sb.append("]");
-        return sb.toString();
     }
 
-    public String queryByCustName(String custName) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Customer c : this.store.values()) {
-            if (this.equalsSafe(c.getCustName(), custName)) {
+    private String nameSearch(String name, boolean prefix) {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.get(
+                    QueryCache.key(prefix ? "custNamePrefix" : "custNameIgnoreCase", name),
+                    c -> PrefixIndex.matches(c.getCustName(), name, prefix),
+                    out -> this.writeNameSearch(name, prefix, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ================== Fuzzy search ==================
+    // Typo-tolerant search over custName, street and email (see FuzzyIndex):
+    // every word of text must be within maxEdits of a word of one of those
+    // fields, or of its start. Best matches first.
+
+    // Default result count of searchFuzzy(text)
+    public static final int FUZZY_LIMIT = 50;
+
+    public String searchFuzzy(String text) {
+        return this.searchFuzzy(text, FuzzyIndex.MAX_EDITS, FUZZY_LIMIT);
+    }
+
+    // maxEdits: 0..2; limit: most rows returned
+    public String searchFuzzy(String text, int maxEdits, int limit) {
+        return JsonWriter.render(out -> this.writeFuzzy(text, maxEdits, limit, out));
+    }
+
+    // --- Streaming fuzzy search: writes the ranked rows to out ---
+    public void writeFuzzy(String text, int maxEdits, int limit, Appendable out)
+            throws IOException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        this.lock.readLock().lock();
+        try {
+            out.append('[');
+            boolean first = true;
+            for (FuzzyIndex.Hit h : this.fuzzyIndex.search(text, maxEdits, limit,
+                    this.store::get)) {
                 if (!first) {
-                    sb.append(",");
+                    out.append(',');
                 }
-                sb.append(this.toJson(c));
+                this.writeJson(this.store.get(h.key), out);
                 first = false;
             }
+            out.append(']');
+        } finally {
+            this.lock.readLock().unlock();
         }
-        sb.append("]");
-        return sb.toString();
     }
 
-    public String queryByType(String type) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Customer c : this.store.values()) {
-            if (this.equalsSafe(c.getType(), type)) {
-                if (!first) {
-                    sb.append(",");
+    // ================== Multi-predicate queries ==================
+    // Any field, combined with AND / OR; see Query and QueryPlanner.
+    // userId and the indexed fields can drive the plan; custStartDate ranges
+    // compare as dates, other ranges as text. Unknown fields throw
+    // IllegalArgumentException; a bad date bound returns an error JSON.
+
+    public String query(Query q) {
+        return JsonWriter.render(out -> this.writeQuery(q, out));
+    }
+
+    // --- Streaming query: writes the matching rows to out ---
+    public void writeQuery(Query q, Appendable out) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.planner.write(q, out, c -> this.writeJson(c, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- The plan query(q) would use, as JSON ---
+    public String explain(Query q) {
+        this.lock.readLock().lock();
+        try {
+            return this.planner.explain(q);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ================== Group-by aggregates ==================
+    // Customers have no INT column, so column is always null (count only):
+    // "customers per city" is aggregate("city", null). See Aggregates.
+
+    // --- Maintain (groupBy, column) on every write from now on ---
+    public void registerAggregate(String groupBy, String column) {
+        this.lock.writeLock().lock();
+        try {
+            this.aggregates.register(groupBy, column);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public boolean dropAggregate(String groupBy, String column) {
+        this.lock.writeLock().lock();
+        try {
+            return this.aggregates.unregister(groupBy, column);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // --- Groups as JSON: O(groups) when registered, one table scan otherwise ---
+    public String aggregate(String groupBy, String column) {
+        return JsonWriter.render(out -> this.writeAggregate(groupBy, column, out));
+    }
+
+    public void writeAggregate(String groupBy, String column, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.aggregates.write(groupBy, column, out);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Registered aggregates and their group counts as JSON ---
+    public String aggregateStats() {
+        this.lock.readLock().lock();
+        try {
+            return JsonWriter.render(this.aggregates::writeRegistered);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ================== Keyset pagination ==================
+    // Pages follow insertion order, the order of getAll(). A page is
+    // {"next":cursor,"prev":cursor,"rows":[...]}; pass either cursor back to
+    // get the neighbouring page (null = none). Every queryByX has a paged form
+    // as queryPage(Query.eq(...)) or queryPage(Query.range(...)).
+
+    // --- One page of getAll(): up to limit rows from cursor (null = first page) ---
+    public String getPage(String cursor, int limit) {
+        return this.queryPage(null, cursor, limit);
+    }
+
+    // --- One page of query(q); a bad cursor returns an error JSON ---
+    // Cached like the queryByX methods: a page depends on the rows q matches
+    // (their positions never change), so only writes to those drop it.
+    public String queryPage(Query q, String cursor, int limit) {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.get(
+                    QueryCache.key("queryPage", (q == null) ? null : q.cacheKey(), cursor,
+                            limit),
+                    this.planner.dependsOn(q), out -> this.writePage(q, cursor, limit, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Streaming page: writes one page of query(q) (q == null: all rows) ---
+    public void writePage(Query q, String cursor, int limit, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.planner.writePage(q, cursor, limit, out,
+                    c -> this.writeJson(c, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Columns and indexes as the planner sees them
+    private QueryPlanner.Table<Customer> queryTable() {
+        return new QueryPlanner.Table<Customer>() {
+            @Override
+            public QueryPlanner.Kind kind(String field) {
+                if ("custStartDate".equals(field)) {
+                    return QueryPlanner.Kind.DATE;
                 }
-                sb.append(this.toJson(c));
-                first = false;
+                boolean known = "userId".equals(field) || "street".equals(field)
+                        || Arrays.asList(INDEXABLE_FIELDS).contains(field);
+                return known ? QueryPlanner.Kind.TEXT : null;
+            }
+
+            @Override
+            public String text(Customer c, String field) {
+                return "userId".equals(field) ? c.getUserId() : column(c, field);
             }
+
+            @Override
+            public int number(Customer c, String field) {
+                throw new IllegalArgumentException("no numeric customer field: " + field);
+            }
+
+            @Override
+            public int size() {
+                return CustomerRepository.this.store.size();
+            }
+
+            @Override
+            public int parallelThreshold() {
+                return CustomerRepository.this.parallelThreshold;
+            }
+
+            @Override
+            public SlotStore<Customer> slots() {
+                return CustomerRepository.this.store;
+            }
+
+            @Override
+            public Customer get(String userId) {
+                return CustomerRepository.this.store.get(userId);
+            }
+
+            @Override
+            public QueryPlanner.Index index(String field) {
+                if ("userId".equals(field)) {
+                    return QueryPlanner.primaryKey(field, this);
+                }
+                HashIndex<Customer> index = CustomerRepository.this.indexes.get(field);
+                return (index == null) ? null : QueryPlanner.hash(index);
+            }
+        };
+    }
+
+    // --- Tables of at least this many rows scan in parallel (<= 0: never) ---
+    public void setParallelScanThreshold(int rows) {
+        this.parallelThreshold = rows;
+    }
+
+    // ================== Query cache ==================
+
+    // --- Replace the query cache (maxEntries = 0 disables it); drops its results ---
+    public void configureCache(QueryCache.Policy policy, int maxEntries, long maxChars) {
+        QueryCache<Customer> fresh = new QueryCache<>(policy, maxEntries, maxChars);
+        this.lock.writeLock().lock();
+        try {
+            this.cache = fresh;
+        } finally {
+            this.lock.writeLock().unlock();
         }
-        sb.append("]");
-        return sb.toString();
     }
 
-    public String queryByCustStartDate(String custStartDate) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Customer c : this.store.values()) {
-            if (this.equalsSafe(c.getCustStartDate(), custStartDate)) {
+    // --- Cache policy, bounds and hit / miss / eviction counters as JSON ---
+    public String cacheStats() {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.statsJson();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ================== Index maintenance & stats ==================
+
+    // Memory report: one JSON object per configured index
+    public String indexStats() {
+        this.lock.readLock().lock();
+        try {
+            StringBuilder sb = new StringBuilder();
+            sb.append("[");
+            boolean first = true;
+            for (HashIndex<Customer> index : this.indexes.values()) {
                 if (!first) {
                     sb.append(",");
                 }
-                sb.append(this.toJson(c));
+                sb.append("{").append("\"field\":\"").append(index.field()).append("\",")
+                        .append("\"distinctValues\":").append(index.distinctValues())
+                        .append(",").append("\"entries\":").append(index.entries())
+                        .append(",").append("\"estimatedBytes\":")
+                        .append(index.estimatedBytes()).append("}");
                 first = false;
             }
+            sb.append("]");
+            return sb.toString();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void indexAdd(Customer c) {
+        for (HashIndex<Customer> index : this.indexes.values()) {
+            index.add(c.getUserId(), c);
+        }
+        this.nameIndex.add(c.getUserId(), c);
+        this.fuzzyIndex.add(c.getUserId(), c);
+        this.aggregates.add(c);
+    }
+
+    private void indexUpdate(Customer oldRow, Customer newRow) {
+        for (HashIndex<Customer> index : this.indexes.values()) {
+            index.update(newRow.getUserId(), oldRow, newRow);
+        }
+        this.nameIndex.update(newRow.getUserId(), oldRow, newRow);
+        this.fuzzyIndex.update(newRow.getUserId(), oldRow, newRow);
+        this.aggregates.update(oldRow, newRow);
+    }
+
+    private void indexRemove(Customer c) {
+        for (HashIndex<Customer> index : this.indexes.values()) {
+            index.remove(c.getUserId(), c);
+        }
+        this.nameIndex.remove(c.getUserId(), c);
+        this.fuzzyIndex.remove(c.getUserId(), c);
+        this.aggregates.remove(c);
+    }
+
+    // Value of one queryable column by field name
+    private static String column(Customer c, String field) {
+        switch (field) {
+            case "city":
+                return c.getCity();
+            case "zipCode":
+                return c.getZipCode();
+            case "email":
+                return c.getEmail();
+            case "phoneNumber":
+                return c.getPhoneNumber();
+            case "custName":
+                return c.getCustName();
+            case "type":
+                return c.getType();
+            case "custStartDate":
+                return c.getCustStartDate();
+            case "street":
+                return c.getStreet();
+            default:
+                throw new IllegalArgumentException("unknown customer field: " + field);
         }
-        sb.append("]");
-        return sb.toString();
     }
 
     // ================== String helper ==================
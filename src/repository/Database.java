@@ -0,0 +1,347 @@
+package repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import model.Customer;
+import model.Employee;
+import model.Order;
+import model.Warehouse;
+import storage.LogRecord;
+import storage.SnapshotFile;
+import storage.WriteAheadLog;
+import storage.WriteAheadLog.SyncPolicy;
+
+/**
+ * Database - Owns the five repositories and (optionally) the write-ahead log
+ * they share. - inMemory(): plain in-memory repositories, nothing is persisted
+ * (the original behavior). - open(dir, ...): loads the newest snapshot in dir,
+ * replays the log segments written after it, then attaches the log so every
+ * later create/update/delete is recorded before it is applied.
+ *
+ * Checkpoints: checkpoint() starts a new log segment, snapshots every
+ * repository, and deletes the segments and snapshots the new snapshot covers,
+ * so restart time tracks the live data rather than the write history. Run it
+ * by hand or every N minutes via scheduleCheckpoints(); close() runs one too.
+ * Writers keep going during a checkpoint: each repository only holds its read
+ * lock while copying row references.
+ *
+ * Orders can live in memory-mapped columns under dir/orders instead of on the
+ * heap (open(..., true)); those files are rebuilt from snapshot + log on every
+ * open, so they never need recovering themselves.
+ *
+ * References: order.custUserId must name a customer and warehouse.managerSSN
+ * an employee, and a referenced customer / employee cannot be deleted (see
+ * ForeignKey, linkForeignKeys()).
+ *
+ * Joins: ordersWithCustomers() and warehousesWithManagers() return joined
+ * rows from one consistent snapshot of both tables (see HashJoin).
+ *
+ * Reports: customers per city, salary by sex and drone capacity per city are
+ * registered as maintained aggregates (see registerReports()).
+ *
+ * Transactions: begin() starts a Transaction over all five tables. Its reads
+ * see one snapshot without blocking writers; commit() applies its writes
+ * atomically, in one log frame, or fails on a conflicting commit (see
+ * TransactionManager).
+ */
+public final class Database implements Closeable {
+    // Subdirectory of the memory-mapped order columns
+    public static final String ORDER_COLUMNS_DIR = "orders";
+
+    private final WarehouseRepository warehouses = new WarehouseRepository();
+    private final EquipmentManagement equipment = new EquipmentManagement();
+    private final CustomerRepository customers = new CustomerRepository();
+    private final EmployeeRepository employees = new EmployeeRepository();
+    private final OrderRepository orders;
+    private final TransactionManager transactions = new TransactionManager();
+
+    private WriteAheadLog log; // null when in-memory
+    private Path dir;
+    private ScheduledExecutorService checkpointer;
+
+    private Database(OrderRepository orders) {
+        this.orders = orders;
+        this.linkForeignKeys();
+        this.registerReports();
+        this.linkTransactions();
+    }
+
+    // --- Volatile database: nothing survives a restart ---
+    public static Database inMemory() {
+        return new Database(new OrderRepository());
+    }
+
+    // --- Durable database: recover from dir (snapshot + log), then log every write ---
+    public static Database open(Path dir, SyncPolicy policy, long intervalMillis)
+            throws IOException {
+        return open(dir, policy, intervalMillis, false);
+    }
+
+    // --- Same, optionally keeping orders in memory-mapped columns off the heap ---
+    public static Database open(Path dir, SyncPolicy policy, long intervalMillis,
+            boolean mappedOrders) throws IOException {
+        Database db = new Database(mappedOrders
+                ? new OrderRepository(dir.resolve(ORDER_COLUMNS_DIR))
+                : new OrderRepository());
+        db.dir = dir;
+        db.log = WriteAheadLog.open(dir, policy, intervalMillis);
+
+        // Replay is idempotent (rows are full images), so a change that is in
+        // both the snapshot and the first replayed segment is harmless. A
+        // failed recovery releases the log (and its channel) and the order
+        // columns before the error goes up.
+        try {
+            long from = SnapshotFile.latest(dir);
+            if (from > 0) {
+                SnapshotFile.read(dir, from, db::replay);
+            }
+            db.log.replay(from, db::replay);
+        } catch (IOException | RuntimeException e) {
+            try {
+                db.log.close();
+            } catch (IOException | RuntimeException closing) {
+                e.addSuppressed(closing);
+            }
+            try {
+                db.orders.close();
+            } catch (IOException | RuntimeException closing) {
+                e.addSuppressed(closing);
+            }
+            throw e;
+        }
+
+        db.warehouses.attachLog(db.log);
+        db.equipment.attachLog(db.log);
+        db.customers.attachLog(db.log);
+        db.employees.attachLog(db.log);
+        db.orders.attachLog(db.log);
+        db.transactions.attachLog(db.log);
+        return db;
+    }
+
+    // --- Repositories ---
+    public WarehouseRepository warehouses() {
+        return this.warehouses;
+    }
+
+    public EquipmentManagement equipment() {
+        return this.equipment;
+    }
+
+    public CustomerRepository customers() {
+        return this.customers;
+    }
+
+    public EmployeeRepository employees() {
+        return this.employees;
+    }
+
+    public OrderRepository orders() {
+        return this.orders;
+    }
+
+    // --- Enforce order.custUserId -> customer and warehouse.managerSSN -> employee ---
+    // Recovery applies rows without these checks, so tables can be replayed
+    // in any order.
+    private void linkForeignKeys() {
+        ForeignKey customer = new ForeignKey("custUserId", "userId",
+                this.customers.lock(), this.customers::containsKey,
+                this.orders.lock(), this.orders::customerReferences);
+        this.orders.attachCustomerKey(customer);
+        this.customers.attachOrderKey(customer);
+
+        ForeignKey manager = new ForeignKey("managerSSN", "ssn",
+                this.employees.lock(), this.employees::containsKey,
+                this.warehouses.lock(), this.warehouses::managerReferences);
+        this.warehouses.attachEmployeeKey(manager);
+        this.employees.attachWarehouseKey(manager);
+    }
+
+    // --- Tables transactions span, parents first: that is the commit lock order ---
+    private void linkTransactions() {
+        TransactionManager.Table<Employee> employees = this.transactions
+                .add(this.employees.txTable());
+        TransactionManager.Table<Customer> customers = this.transactions
+                .add(this.customers.txTable());
+        TransactionManager.Table<Warehouse> warehouses = this.transactions
+                .add(this.warehouses.txTable());
+        TransactionManager.Table<Order> orders = this.transactions
+                .add(this.orders.txTable());
+        this.transactions.add(this.equipment.txTable());
+
+        this.transactions.reference(this.orders.customerKey(), customers, orders,
+                Order::getCustUserId);
+        this.transactions.reference(this.warehouses.employeeKey(), employees, warehouses,
+                Warehouse::getManagerSSN);
+    }
+
+    // --- Group-by aggregates every database maintains from the start ---
+    // Registered before recovery, so replay keeps them current row by row
+    // instead of a scan afterwards. More can be added with registerAggregate().
+    private void registerReports() {
+        this.customers.registerAggregate("city", null);
+        this.employees.registerAggregate("sex", "salary");
+        this.warehouses.registerAggregate("city", "droneCapacity");
+    }
+
+    // --- Transactions: a snapshot of every table plus buffered writes ---
+    // Close each one (commit, abort or try-with-resources): an open
+    // transaction keeps the row versions it might read alive.
+    public Transaction begin() {
+        return this.transactions.begin();
+    }
+
+    // {"version":..,"open":..,"oldestSnapshot":..,"committed":..,"conflicts":..,
+    // "rejected":..,"aborted":..,"versionChains":..}
+    public String transactionStats() {
+        return this.transactions.stats();
+    }
+
+    // --- Joins: orders with their customers (see HashJoin) ---
+    // [{"order":{...},"customer":{...}},...]; outer keeps orders whose
+    // custUserId names no customer, with "customer":null.
+    public String ordersWithCustomers(boolean outer) {
+        return JsonWriter.render(out -> this.writeOrdersWithCustomers(outer, out));
+    }
+
+    public void writeOrdersWithCustomers(boolean outer, Appendable out) throws IOException {
+        RowSnapshot<Customer> customers;
+        RowSnapshot<Order> orders;
+        // Parent before child, as for ForeignKey; both copies see one moment
+        this.customers.lock().readLock().lock();
+        this.orders.lock().readLock().lock();
+        try {
+            customers = this.customers.snapshot();
+            orders = this.orders.snapshot();
+        } finally {
+            this.orders.lock().readLock().unlock();
+            this.customers.lock().readLock().unlock();
+        }
+        try (RowSnapshot<Customer> c = customers; RowSnapshot<Order> o = orders) {
+            HashJoin.write(
+                    new HashJoin.Side<>("order", o, Order::getCustUserId,
+                            row -> this.orders.writeJson(row, out)),
+                    new HashJoin.Side<>("customer", c, Customer::getUserId,
+                            row -> this.customers.writeJson(row, out)),
+                    outer, out);
+        }
+    }
+
+    // --- Joins: warehouses with their managers ---
+    // [{"warehouse":{...},"manager":{...}},...]; outer keeps warehouses whose
+    // managerSSN names no employee, with "manager":null.
+    public String warehousesWithManagers(boolean outer) {
+        return JsonWriter.render(out -> this.writeWarehousesWithManagers(outer, out));
+    }
+
+    public void writeWarehousesWithManagers(boolean outer, Appendable out)
+            throws IOException {
+        RowSnapshot<Employee> employees;
+        RowSnapshot<Warehouse> warehouses;
+        this.employees.lock().readLock().lock();
+        this.warehouses.lock().readLock().lock();
+        try {
+            employees = this.employees.snapshot();
+            warehouses = this.warehouses.snapshot();
+        } finally {
+            this.warehouses.lock().readLock().unlock();
+            this.employees.lock().readLock().unlock();
+        }
+        try (RowSnapshot<Employee> e = employees; RowSnapshot<Warehouse> w = warehouses) {
+            HashJoin.write(
+                    new HashJoin.Side<>("warehouse", w, Warehouse::getManagerSSN,
+                            row -> this.warehouses.writeJson(row, out)),
+                    new HashJoin.Side<>("manager", e, Employee::getSsn,
+                            row -> this.employees.writeJson(row, out)),
+                    outer, out);
+        }
+    }
+
+    // --- Snapshot every repository and compact the log (no-op in memory) ---
+    public synchronized void checkpoint() throws IOException {
+        if (this.log == null) {
+            return;
+        }
+        // Every change logged before the rotate is applied before a repository
+        // hands out its read lock, so the snapshot covers all older segments.
+        long segment = this.log.rotate();
+        // Before the batched walk below, which compaction would disturb
+        this.orders.compact();
+        SnapshotFile.write(this.dir, segment, out -> {
+            this.warehouses.writeSnapshot(out);
+            this.equipment.writeSnapshot(out);
+            this.customers.writeSnapshot(out);
+            this.employees.writeSnapshot(out);
+            this.orders.writeSnapshot(out);
+        });
+        // write() returned, so the snapshot and its rename are on disk
+        this.log.deleteSegmentsBefore(segment);
+        SnapshotFile.deleteOlderThan(this.dir, segment);
+    }
+
+    // --- Run checkpoint() in the background every `minutes` minutes ---
+    public synchronized void scheduleCheckpoints(long minutes) {
+        if (this.log == null || this.checkpointer != null || minutes <= 0) {
+            return;
+        }
+        this.checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        this.checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                this.checkpoint();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[Database] checkpoint failed: " + e);
+            }
+        }, minutes, minutes, TimeUnit.MINUTES);
+    }
+
+    // --- Checkpoint, flush outstanding log records and release the files ---
+    @Override
+    public void close() throws IOException {
+        if (this.log == null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.checkpointer != null) {
+                this.checkpointer.shutdownNow();
+            }
+        }
+        try {
+            this.checkpoint();
+        } finally {
+            this.log.close();
+            this.orders.close();
+        }
+    }
+
+    // Route one logged change to the repository that owns its table.
+    private void replay(LogRecord r) {
+        switch (r.getTable()) {
+            case WarehouseRepository.TABLE:
+                this.warehouses.replay(r);
+                break;
+            case EquipmentManagement.TABLE:
+                this.equipment.replay(r);
+                break;
+            case CustomerRepository.TABLE:
+                this.customers.replay(r);
+                break;
+            case EmployeeRepository.TABLE:
+                this.employees.replay(r);
+                break;
+            case OrderRepository.TABLE:
+                this.orders.replay(r);
+                break;
+            default:
+                throw new IllegalStateException("unknown table in log: " + r.getTable());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package repository;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Dates - Converts the String date fields of the models to epoch-day ints and
+ * back. - Understands the two shapes the text menus use: ISO "yyyy-MM-dd" and
+ * US "MM/dd/yyyy". - format() records which shape (or null / "" / something
+ * else) a value had, so toString(day, format) rebuilds the exact original
+ * String; values of any other shape are kept as raw Strings by the caller.
+ */
+final class Dates {
+    // parse() result for anything that is not a real calendar date
+    static final int NONE = Integer.MIN_VALUE;
+
+    // --- Shape of a date String (fits in 3 bits) ---
+    static final int FMT_NULL = 0;
+    static final int FMT_EMPTY = 1;
+    static final int FMT_ISO = 2;
+    static final int FMT_US = 3;
+    static final int FMT_OTHER = 4;
+
+    private Dates() {
+    }
+
+    // --- Epoch day of an ISO or US date, or NONE ---
+    static int parse(String s) {
+        int fmt = format(s);
+        if (fmt == FMT_ISO) {
+            return toDay(digits(s, 0, 4), digits(s, 5, 2), digits(s, 8, 2));
+        }
+        if (fmt == FMT_US) {
+            return toDay(digits(s, 6, 4), digits(s, 0, 2), digits(s, 3, 2));
+        }
+        return NONE;
+    }
+
+    // --- Which shape s has; FMT_ISO / FMT_US only for real calendar dates ---
+    static int format(String s) {
+        if (s == null) {
+            return FMT_NULL;
+        }
+        if (s.isEmpty()) {
+            return FMT_EMPTY;
+        }
+        if (s.length() != 10) {
+            return FMT_OTHER;
+        }
+        int y;
+        int m;
+        int d;
+        int fmt;
+        if (s.charAt(4) == '-' && s.charAt(7) == '-') {
+            y = digits(s, 0, 4);
+            m = digits(s, 5, 2);
+            d = digits(s, 8, 2);
+            fmt = FMT_ISO;
+        } else if (s.charAt(2) == '/' && s.charAt(5) == '/') {
+            m = digits(s, 0, 2);
+            d = digits(s, 3, 2);
+            y = digits(s, 6, 4);
+            fmt = FMT_US;
+        } else {
+            return FMT_OTHER;
+        }
+        return (y < 0 || m < 0 || d < 0 || toDay(y, m, d) == NONE) ? FMT_OTHER : fmt;
+    }
+
+    // --- Rebuild the original String of a value stored as (day, fmt) ---
+    // FMT_OTHER values are not representable here; the caller keeps them.
+    static String toString(int day, int fmt) {
+        switch (fmt) {
+            case FMT_NULL:
+                return null;
+            case FMT_EMPTY:
+                return "";
+            case FMT_ISO:
+            case FMT_US:
+                LocalDate date = LocalDate.ofEpochDay(day);
+                char[] c = new char[10];
+                if (fmt == FMT_ISO) {
+                    put(c, 0, date.getYear(), 4);
+                    c[4] = '-';
+                    put(c, 5, date.getMonthValue(), 2);
+                    c[7] = '-';
+                    put(c, 8, date.getDayOfMonth(), 2);
+                } else {
+                    put(c, 0, date.getMonthValue(), 2);
+                    c[2] = '/';
+                    put(c, 3, date.getDayOfMonth(), 2);
+                    c[5] = '/';
+                    put(c, 6, date.getYear(), 4);
+                }
+                return new String(c);
+            default:
+                throw new IllegalArgumentException("no fixed form for format " + fmt);
+        }
+    }
+
+    // ====================== Helpers ======================
+
+    // Non-negative decimal of s[from, from+len), or -1 if any char is not a digit
+    private static int digits(String s, int from, int len) {
+        int v = 0;
+        for (int i = from; i < from + len; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            v = v * 10 + (ch - '0');
+        }
+        return v;
+    }
+
+    private static int toDay(int y, int m, int d) {
+        try {
+            return (int) LocalDate.of(y, m, d).toEpochDay();
+        } catch (DateTimeException e) {
+            return NONE; // e.g. 02/30 or month 13
+        }
+    }
+
+    private static void put(char[] c, int at, int v, int len) {
+        for (int i = at + len - 1; i >= at; i--) {
+            c[i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+    }
+}
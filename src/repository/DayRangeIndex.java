@@ -0,0 +1,178 @@
+package repository;
+
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+/**
+ * DayRangeIndex - Sorted secondary index on a date column (epoch days, see
+ * Dates) whose rows have long primary keys: a sorted int[] of distinct days
+ * with one ascending long[] posting list per day. - Same shape as
+ * IntRangeIndex, but with primitive postings, so an index over millions of
+ * orders costs about 8 bytes per row and no objects. - Exact and range lookups
+ * binary-search the day array: O(log n + k). - Rows whose date is missing or
+ * not a calendar date (column returns Dates.NONE) are not indexed. - The
+ * owning repository keeps it current on every create/update/delete.
+ */
+final class DayRangeIndex<E> {
+    private static final long[] NONE = new long[0];
+
+    private final String field;
+    private final ToIntFunction<E> column;
+
+    // Parallel arrays: days[i] is sorted ascending; postings[i] / counts[i] its rows
+    private int[] days = new int[16];
+    private long[][] postings = new long[16][];
+    private int[] counts = new int[16];
+    private int size = 0;
+
+    DayRangeIndex(String field, ToIntFunction<E> column) {
+        this.field = field;
+        this.column = column;
+    }
+
+    String field() {
+        return this.field;
+    }
+
+    // --- Maintenance (called by the repository under its write lock) ---
+
+    void add(long id, E row) {
+        int day = this.column.applyAsInt(row);
+        if (day == Dates.NONE) {
+            return;
+        }
+        int i = Arrays.binarySearch(this.days, 0, this.size, day);
+        if (i < 0) {
+            i = -(i + 1);
+            this.insertSlot(i, day);
+        }
+        long[] ids = this.postings[i];
+        int n = this.counts[i];
+        int at = (n == 0 || ids[n - 1] < id) ? n : Arrays.binarySearch(ids, 0, n, id);
+        if (at >= 0 && at < n) {
+            return; // already present
+        }
+        at = (at < 0) ? -(at + 1) : at;
+        if (n == ids.length) {
+            ids = Arrays.copyOf(ids, n * 2);
+            this.postings[i] = ids;
+        }
+        System.arraycopy(ids, at, ids, at + 1, n - at);
+        ids[at] = id;
+        this.counts[i] = n + 1;
+    }
+
+    void remove(long id, E row) {
+        int day = this.column.applyAsInt(row);
+        if (day == Dates.NONE) {
+            return;
+        }
+        int i = Arrays.binarySearch(this.days, 0, this.size, day);
+        if (i < 0) {
+            return;
+        }
+        long[] ids = this.postings[i];
+        int n = this.counts[i];
+        int at = Arrays.binarySearch(ids, 0, n, id);
+        if (at < 0) {
+            return;
+        }
+        System.arraycopy(ids, at + 1, ids, at, n - at - 1);
+        this.counts[i] = n - 1;
+        if (n == 1) {
+            this.removeSlot(i);
+        }
+    }
+
+    // Replace old row by new row; untouched when the day did not change.
+    void update(long id, E oldRow, E newRow) {
+        if (this.column.applyAsInt(oldRow) == this.column.applyAsInt(newRow)) {
+            return;
+        }
+        this.remove(id, oldRow);
+        this.add(id, newRow);
+    }
+
+    // --- Lookups ---
+
+    // Keys of the rows on day, ascending
+    long[] lookup(int day) {
+        return this.range(day, day);
+    }
+
+    // Keys of the rows whose day lies in [minInclusive, maxInclusive],
+    // ascending by day, then by key
+    long[] range(int minInclusive, int maxInclusive) {
+        int from = this.lowerBound(minInclusive);
+        int to = from;
+        int total = 0;
+        while (to < this.size && this.days[to] <= maxInclusive) {
+            total += this.counts[to++];
+        }
+        if (total == 0) {
+            return NONE;
+        }
+        long[] out = new long[total];
+        int at = 0;
+        for (int i = from; i < to; i++) {
+            System.arraycopy(this.postings[i], 0, out, at, this.counts[i]);
+            at += this.counts[i];
+        }
+        return out;
+    }
+
+    // Number of keys range(minInclusive, maxInclusive) would return, without
+    // copying them
+    long count(int minInclusive, int maxInclusive) {
+        long n = 0;
+        for (int i = this.lowerBound(minInclusive); i < this.size
+                && this.days[i] <= maxInclusive; i++) {
+            n += this.counts[i];
+        }
+        return n;
+    }
+
+    int distinctValues() {
+        return this.size;
+    }
+
+    // ====================== Helpers ======================
+
+    // First slot whose day is >= day
+    private int lowerBound(int day) {
+        int lo = 0;
+        int hi = this.size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.days[mid] < day) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void insertSlot(int i, int day) {
+        if (this.size == this.days.length) {
+            this.days = Arrays.copyOf(this.days, this.size * 2);
+            this.postings = Arrays.copyOf(this.postings, this.size * 2);
+            this.counts = Arrays.copyOf(this.counts, this.size * 2);
+        }
+        System.arraycopy(this.days, i, this.days, i + 1, this.size - i);
+        System.arraycopy(this.postings, i, this.postings, i + 1, this.size - i);
+        System.arraycopy(this.counts, i, this.counts, i + 1, this.size - i);
+        this.days[i] = day;
+        this.postings[i] = new long[4];
+        this.counts[i] = 0;
+        this.size++;
+    }
+
+    private void removeSlot(int i) {
+        System.arraycopy(this.days, i + 1, this.days, i, this.size - i - 1);
+        System.arraycopy(this.postings, i + 1, this.postings, i, this.size - i - 1);
+        System.arraycopy(this.counts, i + 1, this.counts, i, this.size - i - 1);
+        this.size--;
+        this.postings[this.size] = null;
+    }
+}
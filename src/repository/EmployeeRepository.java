@@ -1,182 +1,896 @@
 // ========================= repository/EmployeeRepository.java =========================
 package repository;
 
-import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import model.Employee;
+import storage.LogRecord;
+import storage.SnapshotFile;
+import storage.WriteAheadLog;
 
 /**
  * EmployeeRepository - Stores Employee entities in a Map<String ssn, Employee>.
  * - SSN is provided by caller (no auto-increment). - Returns JSON strings for
- * convenience.
+ * convenience. - Salary queries use a sorted IntRangeIndex kept current by
+ * create/update/delete; name has a PrefixIndex for case-insensitive exact and
+ * prefix search. - Thread-safe: readers share a read lock and never
+ * block each other; writers are exclusive. - writeAll()/writeQuery()/
+ * writeSalaryRange() stream JSON to an Appendable one row at a time. - With a
+ * WriteAheadLog attached (see Database) every write is logged before the map
+ * changes. - createAll/updateAll/deleteAll apply a batch under one write-lock
+ * hold and one log append. - query(Query) combines predicates on any fields;
+ * explain(Query) shows whether QueryPlanner used the ssn or salary index. -
+ * getPage()/queryPage() return one page at a time with keyset cursors. -
+ * queryByX results are kept in a QueryCache; a write drops only the results
+ * its old or new row belongs to (configureCache(), cacheStats()). -
+ * aggregate(groupBy, column) reports count / sum / min / max / avg per group;
+ * registered aggregates are maintained on every write. - Linked by Database,
+ * an employee who still manages a warehouse cannot be deleted (referenced
+ * error); see ForeignKey. - Changes are kept in Versions while a snapshot is
+ * open, and txTable() joins this table to transactions (see
+ * TransactionManager).
  */
 public class EmployeeRepository {
-    private final Map<String, Employee> store = new LinkedHashMap<>();
+    private final RowStore<Employee> store = new RowStore<>();
+
+    // Concurrency: queries share the read lock; create/update/delete take the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Write-ahead log (null = in-memory only); see Database
+    private volatile WriteAheadLog log;
+
+    // warehouse.managerSSN -> ssn (unlinked = deletes unchecked); see Database
+    private volatile ForeignKey warehouseKey = ForeignKey.unlinked("managerSSN", "ssn");
+
+    // Row history for transactions' snapshot reads (see Versions)
+    private final Versions<Employee> versions = new Versions<>(this.lock,
+            this.store::get);
+
+    // Sorted salary index for salary / salary-range queries (O(log n + k))
+    private final IntRangeIndex<Employee> salaryIndex = new IntRangeIndex<>("salary",
+            Employee::getSalary);
+
+    // Lower-cased name -> ssns, for name search
+    private final PrefixIndex<Employee> nameIndex = new PrefixIndex<>("name",
+            Employee::getName);
+
+    // Unindexed scans of at least this many rows use ParallelScan
+    private volatile int parallelThreshold = ParallelScan.DEFAULT_THRESHOLD;
+
+    // Plans query(Query) over the store and the salary index
+    private final QueryPlanner<Employee> planner = new QueryPlanner<>("employee",
+            this.queryTable());
+
+    // Serialized queryByX results; guarded by lock like the store
+    private QueryCache<Employee> cache = QueryCache.defaults();
+
+    // Registered group-by aggregates, kept current by putRow / removeRow
+    private final Aggregates<Employee> aggregates = new Aggregates<>("employee",
+            this.queryTable());
 
     // ---------- Create (caller provides SSN) ----------
-    public synchronized String create(String ssn, String name, String phoneNumber,
+    public String create(String ssn, String name, String phoneNumber,
             String sex, int salary) {
-        Employee e = new Employee(ssn, name, phoneNumber, sex, salary);
-        this.store.put(ssn, e);
-        return this.toJson(e);
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            Employee e = new Employee(ssn, name, phoneNumber, sex, salary);
+            lsn = this.logWrite(LogRecord.CREATE, e);
+            this.putRow(e);
+            json = this.toJson(e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
     // ---------- Read one ----------
-    public synchronized String getById(String ssn) {
-        Employee e = this.store.get(ssn);
-        return (e == null) ? this.errorJson("not_found", "ssn", ssn) : this.toJson(e);
+    public String getById(String ssn) {
+        this.lock.readLock().lock();
+        try {
+            Employee e = this.store.get(ssn);
+            return (e == null) ? this.errorJson("not_found", "ssn", ssn) : this.toJson(e);
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     // ---------- Read all ----------
-    public synchronized String getAll() {
-        String arr = this.store.values().stream().map(this::toJson)
-                .collect(Collectors.joining(","));
-        return "[" + arr + "]";
+    public String getAll() {
+        return JsonWriter.render(this::writeAll);
+    }
+
+    // ---------- Read all, streamed to out one row at a time ----------
+    public void writeAll(Appendable out) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.writeArray(this.store.values(), out);
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     // ---------- Update (except key) ----------
-    public synchronized String update(String ssn, String name, String phoneNumber,
+    public String update(String ssn, String name, String phoneNumber,
             String sex, int salary) {
-        Employee existing = this.store.get(ssn);
-        if (existing == null) {
-            return this.errorJson("not_found", "ssn", ssn);
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            Employee existing = this.store.get(ssn);
+            if (existing == null) {
+                return this.errorJson("not_found", "ssn", ssn);
+            }
+            Employee updated = new Employee(ssn, name, phoneNumber, sex, salary);
+            lsn = this.logWrite(LogRecord.UPDATE, updated);
+            this.putRow(updated);
+            json = this.toJson(updated);
+        } finally {
+            this.lock.writeLock().unlock();
         }
-        Employee updated = new Employee(ssn, name, phoneNumber, sex, salary);
-        this.store.put(ssn, updated);
-        return this.toJson(updated);
+        this.awaitDurable(lsn);
+        return json;
     }
 
     // ---------- Delete ----------
-    public synchronized String delete(String ssn) {
-        Employee removed = this.store.remove(ssn);
-        return (removed == null) ? this.errorJson("not_found", "ssn", ssn)
-                : this.toJson(removed);
+    public String delete(String ssn) {
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            if (!this.store.containsKey(ssn)) {
+                return this.errorJson("not_found", "ssn", ssn);
+            }
+            if (this.warehouseKey.referenced(ssn)) {
+                return this.errorJson("referenced", "ssn", ssn);
+            }
+            lsn = this.logDelete(ssn);
+            json = this.toJson(this.removeRow(ssn));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
-    // ================== Queries (exact match) ==================
+    // ================== Batch writes ==================
+    // createAll/updateAll/deleteAll take the write lock once per batch, hand
+    // the log all of their records in one append and wait for durability once.
+    // Rows are text, one String[] per row holding the single-row method's
+    // arguments in order (numbers as decimal strings). withResponse = true
+    // returns a JSON array with one entry per input (the row, or not_found);
+    // false skips building the rows and returns only {"count":n,"notFound":m}.
+    // deleteAll fails as a whole, with a referenced error, if a warehouse is
+    // still managed by one of its employees.
 
-    public String queryByName(String name) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Employee e : this.store.values()) {
-            if (this.equalsSafe(e.getName(), name)) {
-                if (!first) {
-                    sb.append(",");
-                }
-                sb.append(this.toJson(e));
-                first = false;
+    // --- Batch create: each row starts with the caller's ssn ---
+    // Every row is checked and built before anything is logged, so a
+    // malformed row fails the whole batch without changing the store.
+    public String createAll(List<String[]> rows, boolean withResponse) {
+        List<Employee> created = new ArrayList<>(rows.size());
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            for (String[] r : rows) {
+                checkWidth(r, 5);
+            }
+            for (String[] r : rows) {
+                created.add(new Employee(r[0], r[1], r[2], r[3], Integer.parseInt(r[4])));
             }
+            lsn = this.logWriteAll(LogRecord.CREATE, created);
+            this.cache.beforeBatch(created.size());
+            for (Employee e : created) {
+                this.putRow(e);
+            }
+            json = this.batchJson(null, created, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
         }
-        sb.append("]");
-        return sb.toString();
+        this.awaitDurable(lsn);
+        return json;
     }
 
-    public String queryByPhoneNumber(String phoneNumber) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Employee e : this.store.values()) {
-            if (this.equalsSafe(e.getPhoneNumber(), phoneNumber)) {
-                if (!first) {
-                    sb.append(",");
+    // --- Batch update: row[0] is the ssn, then update()'s other arguments ---
+    public String updateAll(List<String[]> rows, boolean withResponse) {
+        List<String> keys = new ArrayList<>(rows.size());
+        List<Employee> updated = new ArrayList<>(rows.size());
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            for (String[] r : rows) {
+                checkWidth(r, 5);
+            }
+            for (String[] r : rows) {
+                keys.add(r[0]);
+                updated.add(!this.store.containsKey(r[0]) ? null
+                        : new Employee(r[0], r[1], r[2], r[3], Integer.parseInt(r[4])));
+            }
+            lsn = this.logWriteAll(LogRecord.UPDATE, updated);
+            this.cache.beforeBatch(updated.size() - Collections.frequency(updated, null));
+            for (Employee e : updated) {
+                if (e != null) {
+                    this.putRow(e);
                 }
-                sb.append(this.toJson(e));
-                first = false;
             }
+            json = this.batchJson(keys, updated, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
         }
-        sb.append("]");
-        return sb.toString();
+        this.awaitDurable(lsn);
+        return json;
     }
 
-    public String queryBySex(String sex) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Employee e : this.store.values()) {
-            if (this.equalsSafe(e.getSex(), sex)) {
-                if (!first) {
-                    sb.append(",");
+    // --- Batch delete; an ssn listed twice is not_found the second time ---
+    public String deleteAll(List<String> ssns, boolean withResponse) {
+        List<Employee> removed = new ArrayList<>(ssns.size());
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            for (String ssn : ssns) {
+                if (this.store.containsKey(ssn) && this.warehouseKey.referenced(ssn)) {
+                    return this.errorJson("referenced", "ssn", ssn);
                 }
-                sb.append(this.toJson(e));
-                first = false;
             }
+            Set<String> found = new LinkedHashSet<>();
+            for (String ssn : ssns) {
+                if (this.store.containsKey(ssn)) {
+                    found.add(ssn);
+                }
+            }
+            lsn = this.logDeleteAll(found);
+            this.cache.beforeBatch(found.size());
+            for (String ssn : ssns) {
+                removed.add(this.removeRow(ssn));
+            }
+            json = this.batchJson(ssns, removed, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
         }
-        sb.append("]");
-        return sb.toString();
+        this.awaitDurable(lsn);
+        return json;
     }
 
-    public String queryBySalary(int salary) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[]");
-        sb.setLength(1); // keep '['
-        boolean first = true;
-        for (Employee e : this.store.values()) {
-            if (e.getSalary() == salary) {
-                if (!first) {
-                    sb.append(",");
+    // ================== Referential integrity ==================
+
+    // Link to the warehouses that reference employees (see Database)
+    void attachWarehouseKey(ForeignKey fk) {
+        this.warehouseKey = fk;
+    }
+
+    // For ForeignKey: the lock guarding this table
+    ReentrantReadWriteLock lock() {
+        return this.lock;
+    }
+
+    // O(1) primary-key probe (caller holds the lock)
+    boolean containsKey(String ssn) {
+        return this.store.containsKey(ssn);
+    }
+
+    // ================== Transactions ==================
+
+    // This table as TransactionManager sees it (see Database)
+    TransactionManager.Table<Employee> txTable() {
+        return new TransactionManager.Table<Employee>() {
+            @Override
+            public String name() {
+                return "employee";
+            }
+
+            @Override
+            public String keyField() {
+                return "ssn";
+            }
+
+            @Override
+            public ReentrantReadWriteLock lock() {
+                return EmployeeRepository.this.lock;
+            }
+
+            @Override
+            public Versions<Employee> versions() {
+                return EmployeeRepository.this.versions;
+            }
+
+            @Override
+            public Employee created(String[] r) {
+                checkWidth(r, 5);
+                return new Employee(r[0], r[1], r[2], r[3], Integer.parseInt(r[4]));
+            }
+
+            @Override
+            public Employee updated(String[] r) {
+                return this.created(r);
+            }
+
+            @Override
+            public String key(Employee e) {
+                return e.getSsn();
+            }
+
+            @Override
+            public String normalizeKey(String key) {
+                return key;
+            }
+
+            @Override
+            public void writeJson(Employee e, Appendable out) throws IOException {
+                EmployeeRepository.this.writeJson(e, out);
+            }
+
+            @Override
+            public LogRecord record(byte op, String key, Employee e) {
+                return (e == null) ? new LogRecord(TABLE, LogRecord.DELETE, key)
+                        : EmployeeRepository.record(op, e);
+            }
+
+            @Override
+            public void apply(String key, Employee e) {
+                if (e == null) {
+                    EmployeeRepository.this.removeRow(key);
+                } else {
+                    EmployeeRepository.this.putRow(e);
                 }
-                sb.append(this.toJson(e));
-                first = false;
             }
+        };
+    }
+
+    // ================== Persistence (write-ahead log) ==================
+
+    // Table id of employees inside the write-ahead log
+    static final byte TABLE = 4;
+
+    // Attach a log: from now on every write is logged before it is applied.
+    void attachLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    // Re-apply one logged change during startup recovery (not logged again).
+    void replay(LogRecord r) {
+        this.lock.writeLock().lock();
+        try {
+            if (r.getOp() == LogRecord.DELETE) {
+                this.removeRow(r.getKey());
+            } else {
+                this.putRow(new Employee(r.getKey(), r.getString(0), r.getString(1),
+                        r.getString(2), r.getInt(3)));
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // Write every row as a CREATE record for a checkpoint. Only the copy of the
+    // row references happens under the read lock; encoding runs after it.
+    void writeSnapshot(SnapshotFile.Writer out) throws IOException {
+        for (Employee e : this.snapshot()) {
+            out.write(record(LogRecord.CREATE, e));
+        }
+    }
+
+    // Point-in-time copy of every row for a long read (checkpoint, export).
+    // Rows are never modified in place, so copying the references is enough
+    // and the read lock is held only for that copy.
+    RowSnapshot<Employee> snapshot() {
+        this.lock.readLock().lock();
+        try {
+            return RowSnapshot.of(this.store.values().toArray(new Employee[0]));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Append the new row to the log (before the map changes); returns the LSN.
+    private long logWrite(byte op, Employee e) {
+        WriteAheadLog wal = this.log;
+        return (wal == null) ? 0 : wal.append(record(op, e));
+    }
+
+    private long logDelete(String ssn) {
+        WriteAheadLog wal = this.log;
+        return (wal == null) ? 0
+                : wal.append(new LogRecord(TABLE, LogRecord.DELETE, ssn));
+    }
+
+    // Append one record per non-null row in a single log call; returns the
+    // LSN of the last one (0 without a log or for an empty batch).
+    private long logWriteAll(byte op, List<Employee> rows) {
+        WriteAheadLog wal = this.log;
+        if (wal == null) {
+            return 0;
+        }
+        List<LogRecord> records = new ArrayList<>(rows.size());
+        for (Employee e : rows) {
+            if (e != null) {
+                records.add(record(op, e));
+            }
+        }
+        return wal.appendAll(records);
+    }
+
+    private long logDeleteAll(Collection<String> ssns) {
+        WriteAheadLog wal = this.log;
+        if (wal == null) {
+            return 0;
+        }
+        List<LogRecord> records = new ArrayList<>(ssns.size());
+        for (String ssn : ssns) {
+            records.add(new LogRecord(TABLE, LogRecord.DELETE, ssn));
+        }
+        return wal.appendAll(records);
+    }
+
+    // The log / snapshot record for a row: its key plus every other column
+    private static LogRecord record(byte op, Employee e) {
+        return new LogRecord(TABLE, op, e.getSsn(), e.getName(), e.getPhoneNumber(),
+                e.getSex(), e.getSalary());
+    }
+
+    // Wait (outside the lock) until the logged change is durable.
+    private void awaitDurable(long lsn) {
+        WriteAheadLog wal = this.log;
+        if (wal != null) {
+            wal.sync(lsn);
+        }
+    }
+
+    // Apply a row to the store and the salary index (insert or replace)
+    private void putRow(Employee e) {
+        Employee old = this.store.put(e.getSsn(), e);
+        this.versions.record(e.getSsn(), old, e);
+        this.cache.invalidate(old, e);
+        if (old == null) {
+            this.salaryIndex.add(e.getSsn(), e);
+            this.nameIndex.add(e.getSsn(), e);
+            this.aggregates.add(e);
+        } else {
+            this.salaryIndex.update(e.getSsn(), old, e);
+            this.nameIndex.update(e.getSsn(), old, e);
+            this.aggregates.update(old, e);
         }
-        sb.append("]");
-        return sb.toString();
+    }
+
+    // Remove a row from the store and the salary index; returns it (or null)
+    private Employee removeRow(String ssn) {
+        Employee removed = this.store.remove(ssn);
+        if (removed != null) {
+            this.versions.record(ssn, removed, null);
+            this.cache.invalidate(removed, null);
+            this.salaryIndex.remove(ssn, removed);
+            this.nameIndex.remove(ssn, removed);
+            this.aggregates.remove(removed);
+        }
+        return removed;
+    }
+
+    // ================== Queries (exact match) ==================
+
+    public String queryByName(String name) {
+        return this.queryByField("name", name);
+    }
+
+    public String queryByPhoneNumber(String phoneNumber) {
+        return this.queryByField("phoneNumber", phoneNumber);
+    }
+
+    public String queryBySex(String sex) {
+        return this.queryByField("sex", sex);
+    }
+
+    // Salary equality / range are answered from the sorted salary index;
+    // range results come back in ascending salary order.
+
+    public String queryBySalary(int salary) {
+        return this.queryBySalaryRange(salary, salary);
     }
 
     public String queryBySalaryRange(int minInclusive, int maxInclusive) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Employee e : this.store.values()) {
-            int v = e.getSalary();
-            if (v >= minInclusive && v <= maxInclusive) {
-                if (!first) {
-                    sb.append(",");
-                }
-                sb.append(this.toJson(e));
-                first = false;
+        this.lock.readLock().lock();
+        try {
+            return this.cache.get(QueryCache.key("salary", minInclusive, maxInclusive),
+                    e -> e.getSalary() >= minInclusive && e.getSalary() <= maxInclusive,
+                    out -> this.writeSalaryRange(minInclusive, maxInclusive, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Exact-match helper behind the queryByX methods, served from the cache
+    // while no write has touched a matching row
+    private String queryByField(String field, String value) {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.get(QueryCache.key(field, value),
+                    e -> this.equalsSafe(column(e, field), value),
+                    out -> this.writeQuery(field, value, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Case-insensitive name search from the name PrefixIndex, ordered by
+    // lower-cased name: O(log n + prefix + matches)
+
+    public String queryByNameIgnoreCase(String name) {
+        return this.nameSearch(name, false);
+    }
+
+    public String queryByNamePrefix(String prefix) {
+        return this.nameSearch(prefix, true);
+    }
+
+    // Streaming name search; prefix = true matches names starting with name
+    public void writeNameSearch(String name, boolean prefix, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            List<Employee> rows = new ArrayList<>();
+            for (String ssn : prefix ? this.nameIndex.prefix(name)
+                    : this.nameIndex.lookupIgnoreCase(name)) {
+                rows.add(this.store.get(ssn));
+            }
+            this.writeArray(rows, out);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private String nameSearch(String name, boolean prefix) {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.get(
+                    QueryCache.key(prefix ? "namePrefix" : "nameIgnoreCase", name),
+                    e -> PrefixIndex.matches(e.getName(), name, prefix),
+                    out -> this.writeNameSearch(name, prefix, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Streaming exact-match query on name, phoneNumber or sex
+    public void writeQuery(String field, String value, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            out.append('[');
+            boolean[] first = { true };
+            ParallelScan.scan(this.store, this.store.size(),
+                    this.parallelThreshold, e -> this.equalsSafe(column(e, field), value),
+                    e -> {
+                        if (!first[0]) {
+                            out.append(',');
+                        }
+                        this.writeJson(e, out);
+                        first[0] = false;
+                    });
+            out.append(']');
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Streaming salary range query (inclusive bounds)
+    public void writeSalaryRange(int minInclusive, int maxInclusive, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            List<Employee> rows = new ArrayList<>();
+            for (String ssn : this.salaryIndex.range(minInclusive, maxInclusive)) {
+                rows.add(this.store.get(ssn));
             }
+            this.writeArray(rows, out);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Tables of at least this many rows scan in parallel (<= 0: never) ---
+    public void setParallelScanThreshold(int rows) {
+        this.parallelThreshold = rows;
+    }
+
+    // ================== Query cache ==================
+
+    // --- Replace the query cache (maxEntries = 0 disables it); drops its results ---
+    public void configureCache(QueryCache.Policy policy, int maxEntries, long maxChars) {
+        QueryCache<Employee> fresh = new QueryCache<>(policy, maxEntries, maxChars);
+        this.lock.writeLock().lock();
+        try {
+            this.cache = fresh;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // --- Cache policy, bounds and hit / miss / eviction counters as JSON ---
+    public String cacheStats() {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.statsJson();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ================== Multi-predicate queries ==================
+    // Any field, combined with AND / OR; see Query and QueryPlanner. ssn
+    // equality and salary equality / ranges can drive the plan; salary
+    // compares as a number, the other fields as text.
+
+    public String query(Query q) {
+        return JsonWriter.render(out -> this.writeQuery(q, out));
+    }
+
+    // Streaming query: writes the matching rows to out
+    public void writeQuery(Query q, Appendable out) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.planner.write(q, out, e -> this.writeJson(e, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // The plan query(q) would use, as JSON
+    public String explain(Query q) {
+        this.lock.readLock().lock();
+        try {
+            return this.planner.explain(q);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ================== Group-by aggregates ==================
+    // count per value of groupBy, plus sum / min / max / avg of an INT column
+    // (column null: count only); see Aggregates.
+    // "average salary by sex" is aggregate("sex", "salary").
+
+    // --- Maintain (groupBy, column) on every write from now on ---
+    public void registerAggregate(String groupBy, String column) {
+        this.lock.writeLock().lock();
+        try {
+            this.aggregates.register(groupBy, column);
+        } finally {
+            this.lock.writeLock().unlock();
         }
-        sb.append("]");
-        return sb.toString();
+    }
+
+    public boolean dropAggregate(String groupBy, String column) {
+        this.lock.writeLock().lock();
+        try {
+            return this.aggregates.unregister(groupBy, column);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // --- Groups as JSON: O(groups) when registered, one table scan otherwise ---
+    public String aggregate(String groupBy, String column) {
+        return JsonWriter.render(out -> this.writeAggregate(groupBy, column, out));
+    }
+
+    public void writeAggregate(String groupBy, String column, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.aggregates.write(groupBy, column, out);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Registered aggregates and their group counts as JSON ---
+    public String aggregateStats() {
+        this.lock.readLock().lock();
+        try {
+            return JsonWriter.render(this.aggregates::writeRegistered);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ================== Keyset pagination ==================
+    // Same page shape and cursors as CustomerRepository.getPage(); salary
+    // queries page as queryPage(Query.range("salary", min, max), ...).
+
+    // --- One page of getAll(): up to limit rows from cursor (null = first page) ---
+    public String getPage(String cursor, int limit) {
+        return this.queryPage(null, cursor, limit);
+    }
+
+    // --- One page of query(q); a bad cursor returns an error JSON ---
+    // Cached like the queryByX methods: a page depends on the rows q matches
+    // (their positions never change), so only writes to those drop it.
+    public String queryPage(Query q, String cursor, int limit) {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.get(
+                    QueryCache.key("queryPage", (q == null) ? null : q.cacheKey(), cursor,
+                            limit),
+                    this.planner.dependsOn(q), out -> this.writePage(q, cursor, limit, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Streaming page: writes one page of query(q) (q == null: all rows) ---
+    public void writePage(Query q, String cursor, int limit, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.planner.writePage(q, cursor, limit, out,
+                    e -> this.writeJson(e, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Columns and indexes as the planner sees them
+    private QueryPlanner.Table<Employee> queryTable() {
+        return new QueryPlanner.Table<Employee>() {
+            @Override
+            public QueryPlanner.Kind kind(String field) {
+                switch (field) {
+                    case "ssn":
+                    case "name":
+                    case "phoneNumber":
+                    case "sex":
+                        return QueryPlanner.Kind.TEXT;
+                    case "salary":
+                        return QueryPlanner.Kind.INT;
+                    default:
+                        return null;
+                }
+            }
+
+            @Override
+            public String text(Employee e, String field) {
+                return "ssn".equals(field) ? e.getSsn() : column(e, field);
+            }
+
+            @Override
+            public int number(Employee e, String field) {
+                return e.getSalary();
+            }
+
+            @Override
+            public int size() {
+                return EmployeeRepository.this.store.size();
+            }
+
+            @Override
+            public int parallelThreshold() {
+                return EmployeeRepository.this.parallelThreshold;
+            }
+
+            @Override
+            public SlotStore<Employee> slots() {
+                return EmployeeRepository.this.store;
+            }
+
+            @Override
+            public Employee get(String ssn) {
+                return EmployeeRepository.this.store.get(ssn);
+            }
+
+            @Override
+            public QueryPlanner.Index index(String field) {
+                if ("ssn".equals(field)) {
+                    return QueryPlanner.primaryKey(field, this);
+                }
+                return "salary".equals(field)
+                        ? QueryPlanner.ints(EmployeeRepository.this.salaryIndex)
+                        : null;
+            }
+        };
     }
 
     // ================== Helpers ==================
 
+    // Value of one String column by field name
+    private static String column(Employee e, String field) {
+        switch (field) {
+            case "name":
+                return e.getName();
+            case "phoneNumber":
+                return e.getPhoneNumber();
+            case "sex":
+                return e.getSex();
+            default:
+                throw new IllegalArgumentException("unknown employee field: " + field);
+        }
+    }
+
     private String toJson(Employee e) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{").append("\"ssn\":\"").append(this.esc(e.getSsn())).append("\",")
-                .append("\"name\":\"").append(this.esc(e.getName())).append("\",")
-                .append("\"phoneNumber\":\"").append(this.esc(e.getPhoneNumber()))
-                .append("\",").append("\"sex\":\"").append(this.esc(e.getSex()))
-                .append("\",").append("\"salary\":").append(e.getSalary()).append("}");
-        return sb.toString();
+        return JsonWriter.render(out -> this.writeJson(e, out));
     }
 
-    private String errorJson(String code, String field, String value) {
-        return "{" + "\"error\":\"" + this.esc(code) + "\"," + "\"field\":\""
-                + this.esc(field) + "\"," + "\"value\":\"" + this.esc(value) + "\"" + "}";
+    // Stream one Employee as a JSON object, field by field (also BulkExporter)
+    void writeJson(Employee e, Appendable out) throws IOException {
+        out.append("{\"ssn\":");
+        JsonWriter.string(out, e.getSsn());
+        out.append(",\"name\":");
+        JsonWriter.string(out, e.getName());
+        out.append(",\"phoneNumber\":");
+        JsonWriter.string(out, e.getPhoneNumber());
+        out.append(",\"sex\":");
+        JsonWriter.string(out, e.getSex());
+        out.append(",\"salary\":");
+        JsonWriter.number(out, e.getSalary());
+        out.append('}');
     }
 
-    private String esc(String s) {
-        if (s == null) {
-            return "";
+    // Stream a JSON array of the given employees, in the given order
+    private void writeArray(Iterable<Employee> rows, Appendable out) throws IOException {
+        out.append('[');
+        boolean first = true;
+        for (Employee e : rows) {
+            if (!first) {
+                out.append(',');
+            }
+            this.writeJson(e, out);
+            first = false;
         }
-        StringBuilder out = new StringBuilder(s.length() + 8);
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (c == '\\' || c == '\"') {
-                out.append('\\').append(c);
-            } else {
-                out.append(c);
+        out.append(']');
+    }
+
+    // Result of a batch write: rows.get(i) answers input i (null = not found,
+    // keys.get(i) says which key). Only the summary when !withResponse.
+    private String batchJson(List<String> keys, List<Employee> rows,
+            boolean withResponse) {
+        int missing = 0;
+        for (Employee e : rows) {
+            if (e == null) {
+                missing++;
             }
         }
-        return out.toString();
+        if (!withResponse) {
+            return JsonWriter.summary(rows.size() - missing, missing);
+        }
+        return JsonWriter.render(out -> {
+            out.append('[');
+            for (int i = 0; i < rows.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                Employee e = rows.get(i);
+                if (e == null) {
+                    out.append(this.errorJson("not_found", "ssn", keys.get(i)));
+                } else {
+                    this.writeJson(e, out);
+                }
+            }
+            out.append(']');
+        });
     }
 
+    // A batch row must carry exactly the expected number of values
+    private static void checkWidth(String[] row, int width) {
+        if (row == null || row.length != width) {
+            throw new IllegalArgumentException("employee row needs " + width
+                    + " values, got " + (row == null ? 0 : row.length));
+        }
+    }
+
+    private String errorJson(String code, String field, String value) {
+        return JsonWriter.error(code, field, value);
+    }
+
+
     private boolean equalsSafe(String a, String b) {
         if (a == null && b == null) {
             return true;
@@ -1,42 +1,244 @@
 package repository;
 
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import storage.LogRecord;
+import storage.SnapshotFile;
+import storage.WriteAheadLog;
 
 public class EquipmentManagement {
 
     private final Map<Integer, String> store = new LinkedHashMap<>();
 
+    // Readers share the read lock; AddEquipment takes the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Table id inside the write-ahead log, and the log itself (null = in-memory only)
+    static final byte TABLE = 2;
+    private volatile WriteAheadLog log;
+
+    // Row history for transactions' snapshot reads (see Versions)
+    private final Versions<Item> versions = new Versions<>(lock, this::item);
+
+    // One item as a row, for transactions: {"id":..,"name":..}
+    static final class Item {
+        final int id;
+        final String name;
+
+        Item(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
     public void AddEquipment(int id, String name) {
-        store.put(id, name);
+        long lsn = 0;
+        lock.writeLock().lock();
+        try {
+            WriteAheadLog wal = log;
+            if (wal != null) {
+                lsn = wal.append(new LogRecord(TABLE, LogRecord.CREATE,
+                        String.valueOf(id), name));
+            }
+            putRow(id, name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (log != null) {
+            log.sync(lsn);
+        }
     }
     public String RentEquipment(int id) {
-        if (store.containsKey(id)) {
-            return store.get(id);
+        String name = get(id);
+        if (name != null) {
+            return name;
         } else {
             return "Invalid";
         }
        
     }
     public void ReturnEquipment(int id) {
-        if (store.containsKey(id)) {
+        if (contains(id)) {
             System.out.println("Equipment returned.");
         } else {
             System.out.println("This equipment is not in our system! Please try again.");
         }
     }
     public void DeliverEquipment(int id, int droneId, String date) {
-        if (store.containsKey(id)) {
+        if (contains(id)) {
             System.out.println("Equipment delivered by drone " + droneId + " on " + date);
         } else {
             System.out.println("This equipment is not in our system! Please try again.");
         }
     }
     public void PickupEquipment(int id, int droneId, String date) {
-        if (store.containsKey(id)) {
+        if (contains(id)) {
             System.out.println("Equipment scheduled to be picked up by drone " + droneId + " on " + date);
         } else {
             System.out.println("This equipment is not in our system! Please try again.");
         }
     }
-}
\ No newline at end of file
+
+    // Persistence: log every AddEquipment before it is applied (see Database)
+    void attachLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    // Re-apply one logged change during startup recovery
+    void replay(LogRecord r) {
+        lock.writeLock().lock();
+        try {
+            if (r.getOp() == LogRecord.DELETE) {
+                removeRow(Integer.parseInt(r.getKey()));
+            } else {
+                putRow(Integer.parseInt(r.getKey()), r.getString(0));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Write every item as a CREATE record for a checkpoint
+    void writeSnapshot(SnapshotFile.Writer out) throws IOException {
+        Map<Integer, String> copy;
+        lock.readLock().lock();
+        try {
+            copy = new LinkedHashMap<>(store);
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Map.Entry<Integer, String> e : copy.entrySet()) {
+            out.write(new LogRecord(TABLE, LogRecord.CREATE,
+                    String.valueOf(e.getKey()), e.getValue()));
+        }
+    }
+
+    // This table as TransactionManager sees it (see Database); rows are {id, name}
+    TransactionManager.Table<Item> txTable() {
+        return new TransactionManager.Table<Item>() {
+            @Override
+            public String name() {
+                return "equipment";
+            }
+
+            @Override
+            public String keyField() {
+                return "id";
+            }
+
+            @Override
+            public ReentrantReadWriteLock lock() {
+                return lock;
+            }
+
+            @Override
+            public Versions<Item> versions() {
+                return versions;
+            }
+
+            @Override
+            public Item created(String[] r) {
+                if (r == null || r.length != 2) {
+                    throw new IllegalArgumentException("equipment row needs 2 values, got "
+                            + (r == null ? 0 : r.length));
+                }
+                Integer id = parseId(r[0]);
+                return (id == null) ? null : new Item(id, r[1]);
+            }
+
+            @Override
+            public Item updated(String[] r) {
+                return created(r);
+            }
+
+            @Override
+            public String key(Item item) {
+                return String.valueOf(item.id);
+            }
+
+            @Override
+            public String normalizeKey(String key) {
+                Integer id = parseId(key);
+                return (id == null) ? key : String.valueOf(id);
+            }
+
+            @Override
+            public void writeJson(Item item, Appendable out) throws IOException {
+                out.append("{\"id\":");
+                JsonWriter.number(out, item.id);
+                out.append(",\"name\":");
+                JsonWriter.string(out, item.name);
+                out.append('}');
+            }
+
+            @Override
+            public LogRecord record(byte op, String key, Item item) {
+                return (item == null) ? new LogRecord(TABLE, LogRecord.DELETE, key)
+                        : new LogRecord(TABLE, op, key, item.name);
+            }
+
+            @Override
+            public void apply(String key, Item item) {
+                if (item == null) {
+                    Integer id = parseId(key);
+                    if (id != null) {
+                        removeRow(id);
+                    }
+                } else {
+                    putRow(item.id, item.name);
+                }
+            }
+        };
+    }
+
+    // Every change of the store goes through putRow / removeRow (write lock)
+    private void putRow(int id, String name) {
+        String old = store.put(id, name);
+        versions.record(String.valueOf(id), old == null ? null : new Item(id, old),
+                new Item(id, name));
+    }
+
+    private void removeRow(int id) {
+        String old = store.remove(id);
+        if (old != null) {
+            versions.record(String.valueOf(id), new Item(id, old), null);
+        }
+    }
+
+    // The current item with key id, or null (caller holds the lock)
+    private Item item(String key) {
+        Integer id = parseId(key);
+        String name = (id == null) ? null : store.get(id);
+        return (name == null) ? null : new Item(id, name);
+    }
+
+    // An item id from a transaction key, or null if it is not a number
+    private static Integer parseId(String key) {
+        try {
+            return (key == null) ? null : Integer.valueOf(key);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String get(int id) {
+        lock.readLock().lock();
+        try {
+            return store.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean contains(int id) {
+        lock.readLock().lock();
+        try {
+            return store.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
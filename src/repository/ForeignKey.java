@@ -0,0 +1,148 @@
+package repository;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * ForeignKey - One reference from a child table's column to a parent table's
+ * primary key (order.custUserId -> customer.userId, warehouse.managerSSN ->
+ * employee.ssn). Database links both repositories to the same ForeignKey;
+ * a repository used on its own keeps an unlinked one, which checks nothing.
+ * - Child create/update: the value must be a parent key, probed in O(1) in
+ *   the parent's primary-key map. A null or blank value is no reference.
+ * - Parent delete: refused while a child row still references the key,
+ *   counted through the child's index on the column.
+ * - Bulk loads may skip the per-row check and run check() once at the end.
+ *
+ * Locking, without any lock across unrelated tables: always parent lock
+ * before child lock. A child write holds the parent's read lock around its
+ * own write lock (lockParent()), so the parent row it found cannot be deleted
+ * before the child row is in; child writers share that read lock and do not
+ * block each other. A parent delete holds its own write lock and takes the
+ * child's read lock in referenced(). Nothing may take a parent lock while
+ * holding a child lock.
+ */
+final class ForeignKey {
+    // Rows listed by check(); the rest are only counted
+    private static final int MAX_SAMPLE = 20;
+
+    private final String field;
+    private final String parentField;
+    private final ReentrantReadWriteLock parentLock; // null = unlinked
+    private final Predicate<String> parentHas;
+    private final ReentrantReadWriteLock childLock;
+    private final ToIntFunction<String> childRows;
+
+    // parentHas / childRows run under the parent's / child's lock
+    ForeignKey(String field, String parentField, ReentrantReadWriteLock parentLock,
+            Predicate<String> parentHas, ReentrantReadWriteLock childLock,
+            ToIntFunction<String> childRows) {
+        this.field = field;
+        this.parentField = parentField;
+        this.parentLock = parentLock;
+        this.parentHas = parentHas;
+        this.childLock = childLock;
+        this.childRows = childRows;
+    }
+
+    // --- A key for a repository used on its own: every value is accepted ---
+    static ForeignKey unlinked(String field, String parentField) {
+        return new ForeignKey(field, parentField, null, null, null, null);
+    }
+
+    String field() {
+        return this.field;
+    }
+
+    String parentField() {
+        return this.parentField;
+    }
+
+    boolean linked() {
+        return this.parentLock != null;
+    }
+
+    // --- Child side: hold around the child's write lock ---
+
+    void lockParent() {
+        if (this.parentLock != null) {
+            this.parentLock.readLock().lock();
+        }
+    }
+
+    void unlockParent() {
+        if (this.parentLock != null) {
+            this.parentLock.readLock().unlock();
+        }
+    }
+
+    // Whether value may be stored in the child column (between lockParent()
+    // and unlockParent())
+    boolean accepts(String value) {
+        return this.parentLock == null || !isReference(value) || this.parentHas.test(value);
+    }
+
+    // --- Parent side: under the parent's write lock ---
+
+    // Whether some child row still references key
+    boolean referenced(String key) {
+        return this.references(key) > 0;
+    }
+
+    // Number of child rows referencing key
+    int references(String key) {
+        if (this.childLock == null) {
+            return 0;
+        }
+        this.childLock.readLock().lock();
+        try {
+            return this.childRows.applyAsInt(key);
+        } finally {
+            this.childLock.readLock().unlock();
+        }
+    }
+
+    // --- Batch check of every child row (caller: lockParent() + child read lock) ---
+    // {"field":..,"linked":bool,"checked":n,"violations":m,"sample":[{key:..,field:..}]}
+    <E> void check(Iterable<E> rows, String keyField, Function<E, String> key,
+            Function<E, String> column, Appendable out) throws IOException {
+        long checked = 0;
+        long violations = 0;
+        StringBuilder sample = new StringBuilder();
+        if (this.parentLock != null) {
+            for (E row : rows) {
+                checked++;
+                String value = column.apply(row);
+                if (this.accepts(value)) {
+                    continue;
+                }
+                if (violations++ < MAX_SAMPLE) {
+                    sample.append(sample.length() == 0 ? "{" : ",{");
+                    JsonWriter.string(sample, keyField);
+                    sample.append(':');
+                    JsonWriter.string(sample, key.apply(row));
+                    sample.append(',');
+                    JsonWriter.string(sample, this.field);
+                    sample.append(':');
+                    JsonWriter.string(sample, value);
+                    sample.append('}');
+                }
+            }
+        }
+        out.append("{\"field\":");
+        JsonWriter.string(out, this.field);
+        out.append(",\"linked\":").append(this.linked() ? "true" : "false");
+        out.append(",\"checked\":").append(Long.toString(checked));
+        out.append(",\"violations\":").append(Long.toString(violations));
+        out.append(",\"sample\":[").append(sample).append("]}");
+    }
+
+    // ====================== Helpers ======================
+
+    private static boolean isReference(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,334 @@
+package repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * FuzzyIndex - Trigram inverted index for typo-tolerant search over a few
+ * String columns. - Column values are split into lower-case words (runs of
+ * letters and digits). - Two levels: trigram -> distinct words, and word ->
+ * primary keys. Fuzzy matching runs over the vocabulary of distinct words,
+ * which grows far slower than the row count, and only then expands to rows.
+ * - A query word matches an indexed word within an edit distance, either as
+ * a whole word or, with one edit less, as a prefix of it ("mapl" finds
+ * "maple"). Every query word must match some word of the row; rows are
+ * ranked by the summed distance. - The owning repository keeps it current on
+ * every create/update/delete.
+ *
+ * Candidate words come from the q-gram bound: one edit destroys at most three
+ * trigrams, so a word within k edits shares at least grams - 3k trigrams with
+ * the query word; only those words are checked with a bounded edit distance.
+ */
+final class FuzzyIndex<E> {
+    // Highest edit distance a search may ask for
+    static final int MAX_EDITS = 2;
+
+    private final List<Function<E, String>> columns;
+
+    private final Map<String, Set<String>> gramWords = new HashMap<>();
+    private final Map<String, Set<String>> wordKeys = new HashMap<>();
+
+    // A term matching at most this many words is checked per row through the
+    // word postings instead of re-reading the row's words
+    private static final int FEW_WORDS = 8;
+
+    // One search result: a row's key, its summed score and when it was met
+    static final class Hit {
+        final String key;
+        final int score;
+        final long order;
+
+        Hit(String key, int score, long order) {
+            this.key = key;
+            this.score = score;
+            this.order = order;
+        }
+    }
+
+    FuzzyIndex(List<Function<E, String>> columns) {
+        this.columns = columns;
+    }
+
+    // --- Maintenance (called by the repository under its write lock) ---
+
+    void add(String key, E row) {
+        for (String w : this.words(row)) {
+            Set<String> keys = this.wordKeys.get(w);
+            if (keys == null) {
+                keys = new LinkedHashSet<>();
+                this.wordKeys.put(w, keys);
+                for (String g : grams(w, true)) {
+                    this.gramWords.computeIfAbsent(g, x -> new LinkedHashSet<>()).add(w);
+                }
+            }
+            keys.add(key);
+        }
+    }
+
+    void remove(String key, E row) {
+        for (String w : this.words(row)) {
+            Set<String> keys = this.wordKeys.get(w);
+            if (keys == null || !keys.remove(key) || !keys.isEmpty()) {
+                continue;
+            }
+            this.wordKeys.remove(w);
+            for (String g : grams(w, true)) {
+                Set<String> ws = this.gramWords.get(g);
+                if (ws != null && ws.remove(w) && ws.isEmpty()) {
+                    this.gramWords.remove(g);
+                }
+            }
+        }
+    }
+
+    void update(String key, E oldRow, E newRow) {
+        if (this.words(oldRow).equals(this.words(newRow))) {
+            return;
+        }
+        this.remove(key, oldRow);
+        this.add(key, newRow);
+    }
+
+    // --- Search ---
+
+    // Rows matching every word of text, best (lowest score) first. Each word
+    // may be off by at most maxEdits, fewer for short words (see editsFor).
+    // Ties keep the order rows are met in: by the score of the driving word,
+    // then the order rows were indexed under it. Words of one character are
+    // ignored; a text without usable words matches nothing.
+    List<Hit> search(String text, int maxEdits, int limit, Function<String, E> rows) {
+        if (maxEdits < 0 || maxEdits > MAX_EDITS) {
+            throw new IllegalArgumentException("maxEdits must be 0.." + MAX_EDITS);
+        }
+        List<Map<String, Integer>> terms = new ArrayList<>();
+        for (String t : tokens(text)) {
+            if (t.length() > 1) {
+                terms.add(this.matchWords(t, Math.min(maxEdits, editsFor(t))));
+            }
+        }
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // Expand the term with the fewest rows; check the others per row
+        Map<String, Integer> driver = terms.get(0);
+        long fewest = Long.MAX_VALUE;
+        for (Map<String, Integer> t : terms) {
+            long n = 0;
+            for (String w : t.keySet()) {
+                n += this.wordKeys.get(w).size();
+            }
+            if (n < fewest) {
+                fewest = n;
+                driver = t;
+            }
+        }
+        List<Map.Entry<String, Integer>> words = new ArrayList<>(driver.entrySet());
+        words.sort(Map.Entry.comparingByValue());
+
+        // Keep the limit best rows; the head is the worst one kept. A row
+        // scores at least its driving word's score and loses ties to rows met
+        // earlier, so once the worst kept row is no worse than that score,
+        // nothing later can get in.
+        Comparator<Hit> best = Comparator.<Hit>comparingInt(h -> h.score)
+                .thenComparingLong(h -> h.order);
+        PriorityQueue<Hit> kept = new PriorityQueue<>(limit + 1, best.reversed());
+        Set<String> seen = new HashSet<>();
+        long met = 0;
+        for (Map.Entry<String, Integer> w : words) {
+            int floor = w.getValue();
+            for (String key : this.wordKeys.get(w.getKey())) {
+                if (kept.size() == limit && kept.peek().score <= floor) {
+                    break;
+                }
+                if (!seen.add(key)) {
+                    continue;
+                }
+                int total = this.score(key, floor, terms, driver, rows);
+                if (total >= 0) {
+                    kept.add(new Hit(key, total, met++));
+                    if (kept.size() > limit) {
+                        kept.poll();
+                    }
+                }
+            }
+        }
+        List<Hit> hits = new ArrayList<>(kept);
+        hits.sort(best);
+        return hits;
+    }
+
+    int vocabulary() {
+        return this.wordKeys.size();
+    }
+
+    // ====================== Helpers ======================
+
+    // Indexed words within k edits of term -> score. A whole-word match scores
+    // its distance; a prefix-only match is allowed one edit less (otherwise
+    // every long word sharing a stem would match) and scores one more.
+    private Map<String, Integer> matchWords(String term, int k) {
+        List<String> termGrams = grams(term, false);
+        Map<String, Integer> shared = new HashMap<>();
+        for (String g : termGrams) {
+            Set<String> ws = this.gramWords.get(g);
+            if (ws != null) {
+                for (String w : ws) {
+                    shared.merge(w, 1, Integer::sum);
+                }
+            }
+        }
+        int need = Math.max(1, termGrams.size() - 3 * k);
+        Map<String, Integer> out = new HashMap<>();
+        for (Map.Entry<String, Integer> e : shared.entrySet()) {
+            if (e.getValue() < need) {
+                continue;
+            }
+            String w = e.getKey();
+            int[] d = distances(term, w, k);
+            if (d[0] <= k) {
+                out.put(w, d[0]);
+            } else if (d[1] <= Math.max(0, k - 1)) {
+                out.put(w, d[1] + 1);
+            }
+        }
+        return out;
+    }
+
+    // Score of a row met through the driving term: its score there plus the
+    // best score of every other term, or -1 if some term has no word in it
+    private int score(String key, int total, List<Map<String, Integer>> terms,
+            Map<String, Integer> driver, Function<String, E> rows) {
+        Set<String> rowWords = null;
+        for (Map<String, Integer> t : terms) {
+            if (t == driver) {
+                continue;
+            }
+            int d;
+            if (t.size() <= FEW_WORDS) {
+                d = this.bestOf(t, key);
+            } else {
+                if (rowWords == null) {
+                    rowWords = this.words(rows.apply(key));
+                }
+                d = bestOf(t, rowWords);
+            }
+            if (d < 0) {
+                return -1;
+            }
+            total += d;
+        }
+        return total;
+    }
+
+    // Lowest score of term's words that the row (by key) contains, or -1
+    private int bestOf(Map<String, Integer> term, String key) {
+        int best = -1;
+        for (Map.Entry<String, Integer> w : term.entrySet()) {
+            if ((best < 0 || w.getValue() < best)
+                    && this.wordKeys.get(w.getKey()).contains(key)) {
+                best = w.getValue();
+            }
+        }
+        return best;
+    }
+
+    // Lowest score of term's words among rowWords, or -1
+    private static int bestOf(Map<String, Integer> term, Set<String> rowWords) {
+        int best = -1;
+        for (String w : rowWords) {
+            Integer d = term.get(w);
+            if (d != null && (best < 0 || d < best)) {
+                best = d;
+            }
+        }
+        return best;
+    }
+
+    // Default typo budget by word length: none for 2-3 letters, then 1, then 2
+    private static int editsFor(String term) {
+        return (term.length() <= 3) ? 0 : (term.length() <= 6) ? 1 : 2;
+    }
+
+    private Set<String> words(E row) {
+        Set<String> out = new LinkedHashSet<>();
+        for (Function<E, String> c : this.columns) {
+            out.addAll(tokens(c.apply(row)));
+        }
+        return out;
+    }
+
+    // Lower-case runs of letters / digits
+    static List<String> tokens(String s) {
+        List<String> out = new ArrayList<>();
+        if (s == null) {
+            return out;
+        }
+        String lower = s.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean word = i < lower.length()
+                    && Character.isLetterOrDigit(lower.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                out.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return out;
+    }
+
+    // Distinct trigrams of "$word$" (indexed words) or "$term" (query terms,
+    // which may be a prefix, so no end marker)
+    private static List<String> grams(String w, boolean indexed) {
+        String padded = indexed ? "$" + w + "$" : "$" + w;
+        Set<String> out = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            out.add(padded.substring(i, i + 3));
+        }
+        if (out.isEmpty()) {
+            out.add(padded); // one-letter indexed word: "$a$" is its only gram
+        }
+        return new ArrayList<>(out);
+    }
+
+    // Levenshtein distance of a and b, and of a and the closest prefix of b,
+    // each capped at max + 1 (computed together; stops once both exceed max)
+    static int[] distances(String a, String b, int max) {
+        int[] prev = new int[b.length() + 1];
+        int[] cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int sub = prev[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                cur[j] = Math.min(sub, Math.min(prev[j], cur[j - 1]) + 1);
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (rowMin > max) {
+                return new int[] { max + 1, max + 1 };
+            }
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        int prefix = prev[0];
+        for (int j = 1; j <= b.length(); j++) {
+            prefix = Math.min(prefix, prev[j]);
+        }
+        return new int[] { Math.min(prev[b.length()], max + 1), Math.min(prefix, max + 1) };
+    }
+}
@@ -0,0 +1,93 @@
+package repository;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * HashIndex - Secondary exact-match index: column value -> primary keys. -
+ * Lookups are O(1) plus the number of matching keys. - The owning repository
+ * keeps it current on every create/update/delete. - Null column values are
+ * indexed too, so lookups match equalsSafe() semantics.
+ */
+final class HashIndex<E> {
+    // Rough per-object costs on a 64-bit JVM with compressed oops, used only for
+    // the memory report: one HashMap node + table slot per distinct value (plus
+    // its LinkedHashSet), one LinkedHashMap entry + table slot per indexed row.
+    private static final long BYTES_PER_VALUE = 32 + 8 + 16 + 48 + 16;
+    private static final long BYTES_PER_ENTRY = 40 + 8;
+
+    private final String field;
+    private final Function<E, String> column;
+    private final Map<String, Set<String>> postings = new HashMap<>();
+    private long entries = 0;
+
+    HashIndex(String field, Function<E, String> column) {
+        this.field = field;
+        this.column = column;
+    }
+
+    String field() {
+        return this.field;
+    }
+
+    // --- Maintenance (called by the repository under its write lock) ---
+
+    void add(String key, E row) {
+        String value = this.column.apply(row);
+        Set<String> keys = this.postings.get(value);
+        if (keys == null) {
+            keys = new LinkedHashSet<>();
+            this.postings.put(value, keys);
+        }
+        if (keys.add(key)) {
+            this.entries++;
+        }
+    }
+
+    void remove(String key, E row) {
+        String value = this.column.apply(row);
+        Set<String> keys = this.postings.get(value);
+        if (keys != null && keys.remove(key)) {
+            this.entries--;
+            if (keys.isEmpty()) {
+                this.postings.remove(value);
+            }
+        }
+    }
+
+    // Replace old row by new row; untouched when the column value did not change,
+    // so the key keeps its position in the posting list.
+    void update(String key, E oldRow, E newRow) {
+        String a = this.column.apply(oldRow);
+        String b = this.column.apply(newRow);
+        if (a == null ? b == null : a.equals(b)) {
+            return;
+        }
+        this.remove(key, oldRow);
+        this.add(key, newRow);
+    }
+
+    // --- Lookup: keys whose column equals value (exact, case-sensitive) ---
+    Set<String> lookup(String value) {
+        Set<String> keys = this.postings.get(value);
+        return (keys == null) ? Collections.emptySet()
+                : Collections.unmodifiableSet(keys);
+    }
+
+    // --- Stats for the memory report ---
+    int distinctValues() {
+        return this.postings.size();
+    }
+
+    long entries() {
+        return this.entries;
+    }
+
+    long estimatedBytes() {
+        return this.postings.size() * BYTES_PER_VALUE + this.entries * BYTES_PER_ENTRY;
+    }
+}
@@ -0,0 +1,139 @@
+package repository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * HashJoin - Equi-join of a child table's reference column with its parent's
+ * primary key (order.custUserId = customer.userId, warehouse.managerSSN =
+ * employee.ssn), streamed as a JSON array of {"child":{...},"parent":{...}}
+ * objects. - A hash table is built on the smaller of the two snapshots and
+ * the larger one is streamed past it, so the cost is O(|child| + |parent|)
+ * with memory for the smaller side only, instead of one getById() per row.
+ * - Rows come in the order of the streamed side: child order when the parent
+ * table is the smaller one, parent order (children of one parent together)
+ * otherwise. - outer = true keeps child rows without a parent, with
+ * "parent":null (a left join); they come last when the child side was built.
+ * A null reference never matches.
+ *
+ * Both inputs are RowSnapshots taken together by the caller (see Database),
+ * so the join sees one point in time and holds no lock while it writes.
+ */
+final class HashJoin {
+    private HashJoin() {
+    }
+
+    // One input: its JSON name, rows, join column and row writer
+    static final class Side<E> {
+        final String name;
+        final RowSnapshot<E> rows;
+        final Function<E, String> key;
+        final QueryPlanner.Sink<E> json;
+
+        Side(String name, RowSnapshot<E> rows, Function<E, String> key,
+                QueryPlanner.Sink<E> json) {
+            this.name = name;
+            this.rows = rows;
+            this.key = key;
+            this.json = json;
+        }
+    }
+
+    // --- Join child.key = parent.key and write the pairs to out ---
+    static <C, P> void write(Side<C> child, Side<P> parent, boolean outer, Appendable out)
+            throws IOException {
+        Pairs<C, P> pairs = new Pairs<>(child, parent, out);
+        out.append('[');
+        if (parent.rows.size() <= child.rows.size()) {
+            // Build on the parents (unique keys), probe with every child
+            Map<String, P> byKey = new HashMap<>(capacity(parent.rows.size()));
+            for (P p : parent.rows) {
+                byKey.put(parent.key.apply(p), p);
+            }
+            for (C c : child.rows) {
+                String k = child.key.apply(c);
+                P p = (k == null) ? null : byKey.get(k);
+                if (p != null || outer) {
+                    pairs.write(c, p);
+                }
+            }
+        } else {
+            // Build on the children (key -> rows, first-seen order), probe
+            // with every parent; what is left never matched
+            Map<String, List<C>> byKey = new LinkedHashMap<>();
+            List<C> noKey = new ArrayList<>();
+            for (C c : child.rows) {
+                String k = child.key.apply(c);
+                if (k == null) {
+                    noKey.add(c);
+                } else {
+                    byKey.computeIfAbsent(k, x -> new ArrayList<>(1)).add(c);
+                }
+            }
+            for (P p : parent.rows) {
+                List<C> matches = byKey.remove(parent.key.apply(p));
+                if (matches != null) {
+                    for (C c : matches) {
+                        pairs.write(c, p);
+                    }
+                }
+            }
+            if (outer) {
+                for (List<C> rest : byKey.values()) {
+                    for (C c : rest) {
+                        pairs.write(c, null);
+                    }
+                }
+                for (C c : noKey) {
+                    pairs.write(c, null);
+                }
+            }
+        }
+        out.append(']');
+    }
+
+    // ====================== Helpers ======================
+
+    private static int capacity(int entries) {
+        return (int) Math.min(1 << 30, entries / 0.75f + 1);
+    }
+
+    // Writes {"child":..,"parent":..} objects, comma-separated
+    private static final class Pairs<C, P> {
+        private final Side<C> child;
+        private final Side<P> parent;
+        private final Appendable out;
+        private boolean first = true;
+
+        Pairs(Side<C> child, Side<P> parent, Appendable out) {
+            this.child = child;
+            this.parent = parent;
+            this.out = out;
+        }
+
+        void write(C c, P p) throws IOException {
+            if (!this.first) {
+                this.out.append(',');
+            }
+            this.out.append('{');
+            JsonWriter.string(this.out, this.child.name);
+            this.out.append(':');
+            this.child.json.accept(c);
+            this.out.append(',');
+            JsonWriter.string(this.out, this.parent.name);
+            this.out.append(':');
+            if (p == null) {
+                this.out.append("null");
+            } else {
+                this.parent.json.accept(p);
+            }
+            this.out.append('}');
+            this.first = false;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package repository;
+
+import java.util.Iterator;
+import java.util.List;
+
+import model.Order;
+
+/**
+ * HeapOrderStore - Orders as plain objects in a RowStore by orderId (keeps
+ * insertion order for predictable listing).
+ */
+final class HeapOrderStore implements OrderStore {
+    private final RowStore<Order> rows = new RowStore<>();
+
+    @Override
+    public Order get(String orderId) {
+        return this.rows.get(orderId);
+    }
+
+    @Override
+    public boolean contains(String orderId) {
+        return this.rows.containsKey(orderId);
+    }
+
+    @Override
+    public boolean accepts(String orderId) {
+        return orderId != null;
+    }
+
+    @Override
+    public void put(Order o) {
+        this.rows.put(o.getOrderId(), o);
+    }
+
+    @Override
+    public Order remove(String orderId) {
+        return this.rows.remove(orderId);
+    }
+
+    @Override
+    public int size() {
+        return this.rows.size();
+    }
+
+    // Copying references is cheap, so everything goes in one batch.
+    @Override
+    public int batch(int cursor, int max, List<Order> out) {
+        if (cursor == 0) {
+            out.addAll(this.rows.values());
+        }
+        return -1;
+    }
+
+    // RowStore compacts itself as rows are removed.
+    @Override
+    public void compact() {
+        // nothing to reclaim
+    }
+
+    // Orders are never modified in place, so sharing them is a snapshot.
+    @Override
+    public RowSnapshot<Order> snapshot() {
+        return RowSnapshot.of(this.rows.values().toArray(new Order[0]));
+    }
+
+    @Override
+    public Iterator<Order> iterator() {
+        return this.rows.iterator();
+    }
+
+    @Override
+    public int slots() {
+        return this.rows.slots();
+    }
+
+    @Override
+    public Order row(int slot) {
+        return this.rows.row(slot);
+    }
+
+    @Override
+    public long position(int slot) {
+        return this.rows.position(slot);
+    }
+
+    @Override
+    public int slotAt(long position) {
+        return this.rows.slotAt(position);
+    }
+
+    @Override
+    public int slotOf(String orderId) {
+        return this.rows.slotOf(orderId);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+}
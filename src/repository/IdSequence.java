@@ -0,0 +1,67 @@
+package repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdSequence - Hands out incremental numeric String ids for the repositories
+ * that auto-generate their primary key. - Backed by an AtomicLong, so next()
+ * is O(1) instead of scanning every existing key. - Kept past the highest
+ * existing key while a repository loads its rows (snapshot + log replay call
+ * observe() per row, O(1) each). - Can reserve a contiguous range of ids for
+ * batch creates.
+ */
+final class IdSequence {
+    // Next id to hand out
+    private final AtomicLong next = new AtomicLong(0);
+
+    // --- Next single id, e.g. "0", "1", "2", ... ---
+    String next() {
+        return String.valueOf(this.next.getAndIncrement());
+    }
+
+    // --- Reserve count consecutive ids; returns the first one of the range ---
+    long reserve(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must be non-negative");
+        }
+        return this.next.getAndAdd(count);
+    }
+
+    // --- Make sure a key that was inserted explicitly is never handed out again ---
+    void observe(String key) {
+        long v = parse(key);
+        if (v >= 0) {
+            this.next.accumulateAndGet(v + 1, Math::max);
+        }
+    }
+
+    // Canonical non-negative decimal ("0", "42"; not "042" or "+4") -> value,
+    // anything else -> -1. Only canonical forms print back unchanged.
+    static long canonical(String s) {
+        if (s == null || s.isEmpty() || s.length() > 18
+                || (s.length() > 1 && s.charAt(0) == '0')) {
+            return -1;
+        }
+        long v = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            v = v * 10 + (ch - '0');
+        }
+        return v;
+    }
+
+    // Numeric value of a key, or -1 if the key is not a non-negative number.
+    private static long parse(String key) {
+        if (key == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(key);
+        } catch (NumberFormatException ignore) {
+            return -1;
+        }
+    }
+}
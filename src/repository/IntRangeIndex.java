@@ -0,0 +1,145 @@
+package repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * IntRangeIndex - Sorted secondary index on an int column: a sorted int[] of
+ * distinct values with one posting list of primary keys per value. - Exact and
+ * range lookups binary-search the value array, so they cost O(log n + k). -
+ * Inserting a value not seen before shifts the arrays, which is O(distinct
+ * values); salaries and capacities have far fewer distinct values than rows. -
+ * The owning repository keeps it current on every create/update/delete.
+ */
+final class IntRangeIndex<E> {
+    private final String field;
+    private final ToIntFunction<E> column;
+
+    // Parallel arrays: values[i] is sorted ascending, postings[i] holds its keys
+    private int[] values = new int[16];
+    private Object[] postings = new Object[16];
+    private int size = 0;
+
+    IntRangeIndex(String field, ToIntFunction<E> column) {
+        this.field = field;
+        this.column = column;
+    }
+
+    String field() {
+        return this.field;
+    }
+
+    // --- Maintenance (called by the repository under its write lock) ---
+
+    void add(String key, E row) {
+        int v = this.column.applyAsInt(row);
+        int i = Arrays.binarySearch(this.values, 0, this.size, v);
+        if (i < 0) {
+            i = -(i + 1);
+            this.insertSlot(i, v);
+        }
+        this.keysAt(i).add(key);
+    }
+
+    void remove(String key, E row) {
+        int i = Arrays.binarySearch(this.values, 0, this.size,
+                this.column.applyAsInt(row));
+        if (i < 0) {
+            return;
+        }
+        Set<String> keys = this.keysAt(i);
+        keys.remove(key);
+        if (keys.isEmpty()) {
+            this.removeSlot(i);
+        }
+    }
+
+    // Replace old row by new row; untouched when the column value did not change.
+    void update(String key, E oldRow, E newRow) {
+        if (this.column.applyAsInt(oldRow) == this.column.applyAsInt(newRow)) {
+            return;
+        }
+        this.remove(key, oldRow);
+        this.add(key, newRow);
+    }
+
+    // --- Lookups ---
+
+    // Keys whose value equals v
+    Set<String> lookup(int v) {
+        int i = Arrays.binarySearch(this.values, 0, this.size, v);
+        return (i < 0) ? Collections.emptySet()
+                : Collections.unmodifiableSet(this.keysAt(i));
+    }
+
+    // Keys whose value lies in [minInclusive, maxInclusive], ascending by value
+    List<String> range(int minInclusive, int maxInclusive) {
+        List<String> out = new ArrayList<>();
+        for (int i = this.lowerBound(minInclusive); i < this.size
+                && this.values[i] <= maxInclusive; i++) {
+            out.addAll(this.keysAt(i));
+        }
+        return out;
+    }
+
+    // Number of keys range(minInclusive, maxInclusive) would return, without
+    // building the list
+    long count(int minInclusive, int maxInclusive) {
+        long n = 0;
+        for (int i = this.lowerBound(minInclusive); i < this.size
+                && this.values[i] <= maxInclusive; i++) {
+            n += this.keysAt(i).size();
+        }
+        return n;
+    }
+
+    int distinctValues() {
+        return this.size;
+    }
+
+    // ====================== Helpers ======================
+
+    // First slot whose value is >= v
+    private int lowerBound(int v) {
+        int lo = 0;
+        int hi = this.size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.values[mid] < v) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> keysAt(int i) {
+        return (Set<String>) this.postings[i];
+    }
+
+    private void insertSlot(int i, int v) {
+        if (this.size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+            this.postings = Arrays.copyOf(this.postings, this.size * 2);
+        }
+        System.arraycopy(this.values, i, this.values, i + 1, this.size - i);
+        System.arraycopy(this.postings, i, this.postings, i + 1, this.size - i);
+        this.values[i] = v;
+        this.postings[i] = new LinkedHashSet<String>();
+        this.size++;
+    }
+
+    private void removeSlot(int i) {
+        System.arraycopy(this.values, i + 1, this.values, i, this.size - i - 1);
+        System.arraycopy(this.postings, i + 1, this.postings, i, this.size - i - 1);
+        this.size--;
+        this.postings[this.size] = null;
+    }
+}
@@ -0,0 +1,155 @@
+package repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * JsonWriter - Shared, allocation-free JSON serializer used by every
+ * repository. - Writes straight into a caller-supplied Appendable (Writer,
+ * PrintStream, StringBuilder, ...); no per-row or per-field String is built. -
+ * string() scans a value once and appends it untouched when nothing needs
+ * escaping; otherwise only the dirty tail is escaped, control characters
+ * included. - render() adapts a streaming writer back to the String-returning
+ * API, reusing one StringBuilder per thread.
+ */
+final class JsonWriter {
+    // A piece of JSON that knows how to write itself
+    interface Body {
+        void writeTo(Appendable out) throws IOException;
+    }
+
+    // Builders that grew beyond this many chars (e.g. a full getAll()) are not
+    // kept for reuse, so one big dump does not pin its buffer forever.
+    private static final int MAX_REUSED_CAPACITY = 64 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal
+            .withInitial(() -> new StringBuilder(512));
+
+    private JsonWriter() {
+    }
+
+    // --- Run a streaming writer into this thread's buffer and return the text ---
+    static String render(Body body) {
+        StringBuilder sb = BUFFER.get();
+        BUFFER.remove(); // a nested render() gets a fresh builder
+        sb.setLength(0);
+        try {
+            body.writeTo(sb);
+            return sb.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
+        } finally {
+            if (sb.capacity() <= MAX_REUSED_CAPACITY) {
+                BUFFER.set(sb);
+            }
+        }
+    }
+
+    // --- Error object: {"error":code,"field":field,"value":value} ---
+    static String error(String code, String field, String value) {
+        return render(out -> {
+            out.append("{\"error\":");
+            string(out, code);
+            out.append(",\"field\":");
+            string(out, field);
+            out.append(",\"value\":");
+            string(out, value);
+            out.append('}');
+        });
+    }
+
+    // --- Batch write summary: {"count":count,"notFound":notFound} ---
+    static String summary(int count, int notFound) {
+        return render(out -> {
+            out.append("{\"count\":");
+            number(out, count);
+            out.append(",\"notFound\":");
+            number(out, notFound);
+            out.append('}');
+        });
+    }
+
+    // --- Quoted JSON string; null is written as "" (same as before) ---
+    static void string(Appendable out, String s) throws IOException {
+        out.append('"');
+        if (s != null) {
+            int n = s.length();
+            int i = 0;
+            while (i < n && !needsEscape(s.charAt(i))) {
+                i++;
+            }
+            if (i == n) {
+                out.append(s); // clean: no copy, no escaping
+            } else {
+                out.append(s, 0, i);
+                for (; i < n; i++) {
+                    escape(out, s.charAt(i));
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    // --- Decimal int without going through Integer.toString() ---
+    static void number(Appendable out, int v) throws IOException {
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(v);
+            return;
+        }
+        if (v == Integer.MIN_VALUE) {
+            out.append("-2147483648");
+            return;
+        }
+        if (v < 0) {
+            out.append('-');
+            v = -v;
+        }
+        int div = 1;
+        while (v / div >= 10) {
+            div *= 10;
+        }
+        for (; div > 0; div /= 10) {
+            out.append((char) ('0' + (v / div) % 10));
+        }
+    }
+
+    // ====================== Helpers ======================
+
+    private static boolean needsEscape(char c) {
+        return c < 0x20 || c == '"' || c == '\\';
+    }
+
+    private static void escape(Appendable out, char c) throws IOException {
+        switch (c) {
+            case '"':
+                out.append("\\\"");
+                break;
+            case '\\':
+                out.append("\\\\");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            case '\b':
+                out.append("\\b");
+                break;
+            case '\f':
+                out.append("\\f");
+                break;
+            default:
+                if (c < 0x20) {
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                } else {
+                    out.append(c);
+                }
+        }
+    }
+}
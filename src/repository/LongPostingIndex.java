@@ -0,0 +1,198 @@
+package repository;
+
+import java.util.Arrays;
+import java.util.function.ToLongFunction;
+
+/**
+ * LongPostingIndex - Hash index from a long column to the long primary keys of
+ * the rows holding it, built from primitive arrays only (no boxed keys, no
+ * per-entry objects). - Open addressing with linear probing; deletes shift the
+ * following entries back, so no tombstones pile up. - Each posting list is a
+ * long[] kept sorted ascending, so lookup() returns keys in creation order for
+ * sequence-generated ids and costs O(1 + k). - Rows whose column is negative
+ * (the column function's "not a number" answer) are not indexed. - The owning
+ * repository keeps it current on every create/update/delete.
+ */
+final class LongPostingIndex<E> {
+    private static final long FREE = Long.MIN_VALUE;
+    private static final long[] NONE = new long[0];
+
+    private final String field;
+    private final ToLongFunction<E> column;
+
+    // Parallel arrays: keys[i] is a column value, postings[i] / counts[i] its rows
+    private long[] keys;
+    private long[][] postings;
+    private int[] counts;
+    private int size = 0;
+
+    LongPostingIndex(String field, ToLongFunction<E> column) {
+        this.field = field;
+        this.column = column;
+        this.allocate(64);
+    }
+
+    String field() {
+        return this.field;
+    }
+
+    // --- Maintenance (called by the repository under its write lock) ---
+
+    void add(long id, E row) {
+        long v = this.column.applyAsLong(row);
+        if (v < 0) {
+            return;
+        }
+        int i = this.slot(v);
+        if (this.keys[i] == FREE) {
+            if ((this.size + 1) * 4 > this.keys.length * 3) {
+                this.rehash(this.keys.length * 2);
+                i = this.slot(v);
+            }
+            this.keys[i] = v;
+            this.postings[i] = new long[2];
+            this.size++;
+        }
+        this.insertSorted(i, id);
+    }
+
+    void remove(long id, E row) {
+        long v = this.column.applyAsLong(row);
+        if (v < 0) {
+            return;
+        }
+        int i = this.slot(v);
+        if (this.keys[i] == FREE) {
+            return;
+        }
+        long[] ids = this.postings[i];
+        int n = this.counts[i];
+        int at = Arrays.binarySearch(ids, 0, n, id);
+        if (at < 0) {
+            return;
+        }
+        System.arraycopy(ids, at + 1, ids, at, n - at - 1);
+        this.counts[i] = n - 1;
+        if (n == 1) {
+            this.deleteSlot(i);
+        }
+    }
+
+    // Replace old row by new row; untouched when the column value did not change.
+    void update(long id, E oldRow, E newRow) {
+        if (this.column.applyAsLong(oldRow) == this.column.applyAsLong(newRow)) {
+            return;
+        }
+        this.remove(id, oldRow);
+        this.add(id, newRow);
+    }
+
+    // --- Lookups ---
+
+    // Primary keys of the rows whose value equals v, ascending (a fresh copy)
+    long[] lookup(long v) {
+        if (v < 0) {
+            return NONE;
+        }
+        int i = this.slot(v);
+        return (this.keys[i] == FREE) ? NONE
+                : Arrays.copyOf(this.postings[i], this.counts[i]);
+    }
+
+    // Number of keys lookup(v) would return, without copying them
+    int count(long v) {
+        if (v < 0) {
+            return 0;
+        }
+        int i = this.slot(v);
+        return (this.keys[i] == FREE) ? 0 : this.counts[i];
+    }
+
+    int distinctValues() {
+        return this.size;
+    }
+
+    // ====================== Helpers ======================
+
+    // Slot holding v, or the free slot where v would go
+    private int slot(long v) {
+        int mask = this.keys.length - 1;
+        int i = mix(v) & mask;
+        while (this.keys[i] != FREE && this.keys[i] != v) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private static int mix(long v) {
+        long h = v * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void insertSorted(int i, long id) {
+        long[] ids = this.postings[i];
+        int n = this.counts[i];
+        int at = (n == 0 || ids[n - 1] < id) ? n : Arrays.binarySearch(ids, 0, n, id);
+        if (at < 0) {
+            at = -(at + 1);
+        } else if (at < n) {
+            return; // already present
+        }
+        if (n == ids.length) {
+            ids = Arrays.copyOf(ids, n * 2);
+            this.postings[i] = ids;
+        }
+        System.arraycopy(ids, at, ids, at + 1, n - at);
+        ids[at] = id;
+        this.counts[i] = n + 1;
+    }
+
+    // Backward-shift delete: pull later entries of the probe run into the gap
+    private void deleteSlot(int i) {
+        int mask = this.keys.length - 1;
+        int gap = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (this.keys[j] == FREE) {
+                break;
+            }
+            int home = mix(this.keys[j]) & mask;
+            // move j into the gap unless its home lies cyclically in (gap, j]
+            boolean stays = (gap <= j) ? (gap < home && home <= j)
+                    : (gap < home || home <= j);
+            if (!stays) {
+                this.keys[gap] = this.keys[j];
+                this.postings[gap] = this.postings[j];
+                this.counts[gap] = this.counts[j];
+                gap = j;
+            }
+        }
+        this.keys[gap] = FREE;
+        this.postings[gap] = null;
+        this.counts[gap] = 0;
+        this.size--;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        long[][] oldPostings = this.postings;
+        int[] oldCounts = this.counts;
+        this.allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int s = this.slot(oldKeys[i]);
+                this.keys[s] = oldKeys[i];
+                this.postings[s] = oldPostings[i];
+                this.counts[s] = oldCounts[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, FREE);
+        this.postings = new long[capacity][];
+        this.counts = new int[capacity];
+    }
+}
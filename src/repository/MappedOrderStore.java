@@ -0,0 +1,504 @@
+package repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import model.Order;
+
+/**
+ * MappedOrderStore - Orders as fixed-width columns in memory-mapped files, so
+ * order history lives in the OS page cache instead of the Java heap.
+ *
+ * One file per column, one slot per row (47 bytes/row):
+ * - orderId: long
+ * - orderStartDate, estimatedArrivalDate, actualArrivalDate, dueDate,
+ *   actualReturnDate: int epoch day each
+ * - formats: short, 3 bits per date telling how to print it back (see Dates)
+ * - custUserId: long
+ * - live: byte (0 once deleted)
+ * - position: long, the slot's paging position (see SlotStore)
+ * plus orderId.idx, an open-addressing table orderId -> slot + 1 (ints,
+ * linear probing, backward-shift deletes; 8 bytes/row at most half full), so
+ * lookups need nothing on the heap whatever order ids arrive in.
+ *
+ * Values without a fixed-width form (a date like "next week", a non-numeric
+ * custUserId) are kept as Strings in a small on-heap side table, so every
+ * value reads back exactly as it was written. orderIds must be canonical
+ * numbers (see accepts()); OrderRepository refuses other ids before they get
+ * here.
+ *
+ * Rows are appended in insertion order and updated in place; a delete clears
+ * the live flag. compact(), run by checkpoints, squeezes the deleted slots
+ * out in order once they are a quarter of the slots; positions move with
+ * their rows, so paging cursors stay valid and need nothing on the heap.
+ * row(slot) reads only that slot (parallel scans decode on their workers).
+ *
+ * The files are working storage, not a durable copy: open() starts them
+ * empty and Database rebuilds them from the snapshot + write-ahead log.
+ */
+final class MappedOrderStore implements OrderStore {
+    private static final int INITIAL_ROWS = 1 << 16;
+    private static final int DATES = 5;
+
+    // compact() does nothing below this many deleted slots
+    private static final int COMPACT_AT = 1024;
+
+    // custUserId column markers for values that are not a plain number
+    private static final long CUST_NULL = Long.MIN_VALUE;
+    private static final long CUST_RAW = Long.MIN_VALUE + 1;
+
+    // Column files and their widths in bytes, in the order of this.all
+    private static final String[] FILES = { "orderId.col", "orderStartDate.col",
+            "estimatedArrivalDate.col", "actualArrivalDate.col", "dueDate.col",
+            "actualReturnDate.col", "formats.col", "custUserId.col", "live.col",
+            "position.col" };
+    private static final int[] WIDTHS = { 8, 4, 4, 4, 4, 4, 2, 8, 1, 8 };
+    private static final String INDEX_FILE = "orderId.idx";
+
+    private final Path dir;
+    private final Column[] all = new Column[FILES.length];
+    private final Column ids;
+    private final Column[] days = new Column[DATES];
+    private final Column formats;
+    private final Column custs;
+    private final Column live;
+    private final Column positions;
+
+    // orderId -> slot + 1 (0 = free); 2 * capacity entries
+    private final Column index;
+
+    private int capacity;
+    private int slots; // used slots, live or not
+    private int size; // live rows
+    private long nextPosition = 0;
+
+    // slot -> original Strings of values with no fixed-width form
+    // (indexes 0-4 are the dates, 5 is custUserId; other entries are null)
+    private final Map<Integer, String[]> raw = new HashMap<>();
+
+    // --- Create (or empty) the column files under dir ---
+    static MappedOrderStore open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        return new MappedOrderStore(dir, INITIAL_ROWS);
+    }
+
+    private MappedOrderStore(Path dir, int capacity) throws IOException {
+        this.dir = dir;
+        this.capacity = capacity;
+        for (int i = 0; i < FILES.length; i++) {
+            this.all[i] = new Column(dir.resolve(FILES[i]), WIDTHS[i], capacity);
+        }
+        this.ids = this.all[0];
+        System.arraycopy(this.all, 1, this.days, 0, DATES);
+        this.formats = this.all[6];
+        this.custs = this.all[7];
+        this.live = this.all[8];
+        this.positions = this.all[9];
+        this.index = new Column(dir.resolve(INDEX_FILE), 4, 2 * capacity);
+    }
+
+    // Canonical numbers only: the orderId column and index hold longs
+    @Override
+    public boolean accepts(String orderId) {
+        return IdSequence.canonical(orderId) >= 0;
+    }
+
+    @Override
+    public Order get(String orderId) {
+        int slot = this.find(orderId);
+        return (slot < 0) ? null : this.read(slot);
+    }
+
+    @Override
+    public boolean contains(String orderId) {
+        return this.find(orderId) >= 0;
+    }
+
+    @Override
+    public void put(Order o) {
+        long id = IdSequence.canonical(o.getOrderId());
+        if (id < 0) {
+            throw new IllegalArgumentException(
+                    "mapped order store needs numeric orderIds: " + o.getOrderId());
+        }
+        int slot = this.find(id);
+        if (slot < 0) {
+            slot = this.append(id);
+        }
+        this.write(slot, o);
+    }
+
+    @Override
+    public Order remove(String orderId) {
+        long id = IdSequence.canonical(orderId);
+        int i = (id < 0) ? -1 : this.probe(id);
+        int entry = (i < 0) ? 0 : this.index.buf.getInt(i * 4);
+        if (entry == 0) {
+            return null;
+        }
+        int slot = entry - 1;
+        Order removed = this.read(slot);
+        this.deleteEntry(i);
+        this.live.buf.put(slot, (byte) 0);
+        this.raw.remove(slot);
+        this.size--;
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int batch(int cursor, int max, List<Order> out) {
+        int slot = cursor;
+        for (; slot < this.slots && max > 0; slot++) {
+            if (this.live.buf.get(slot) != 0) {
+                out.add(this.read(slot));
+                max--;
+            }
+        }
+        return (slot >= this.slots) ? -1 : slot;
+    }
+
+    // Once deleted slots are COMPACT_AT or more and a quarter of all slots,
+    // move the live rows down in order, keeping their positions, and rebuild
+    // the index; the freed tail is reused by later appends
+    @Override
+    public void compact() {
+        int empty = this.slots - this.size;
+        if (empty < COMPACT_AT || empty * 4 < this.slots) {
+            return;
+        }
+        Map<Integer, String[]> moved = new HashMap<>();
+        int to = 0;
+        for (int slot = 0; slot < this.slots; slot++) {
+            if (!this.isLive(slot)) {
+                continue;
+            }
+            if (slot != to) {
+                for (Column c : this.all) {
+                    c.copy(slot, to);
+                }
+            }
+            String[] rawRow = this.raw.get(slot);
+            if (rawRow != null) {
+                moved.put(to, rawRow);
+            }
+            to++;
+        }
+        for (int slot = to; slot < this.slots; slot++) {
+            this.live.buf.put(slot, (byte) 0);
+        }
+        this.raw.clear();
+        this.raw.putAll(moved);
+        this.slots = to;
+        this.rebuildIndex();
+    }
+
+    // Rows in insertion order, each read into a fresh Order
+    @Override
+    public Iterator<Order> iterator() {
+        return new Iterator<Order>() {
+            private int next = this.skip(0);
+
+            private int skip(int slot) {
+                while (slot < MappedOrderStore.this.slots
+                        && MappedOrderStore.this.live.buf.get(slot) == 0) {
+                    slot++;
+                }
+                return slot;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.next < MappedOrderStore.this.slots;
+            }
+
+            @Override
+            public Order next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Order o = MappedOrderStore.this.read(this.next);
+                this.next = this.skip(this.next + 1);
+                return o;
+            }
+        };
+    }
+
+    @Override
+    public int slots() {
+        return this.slots;
+    }
+
+    @Override
+    public Order row(int slot) {
+        return this.isLive(slot) ? this.read(slot) : null;
+    }
+
+    @Override
+    public long position(int slot) {
+        return this.positions.buf.getLong(slot * 8);
+    }
+
+    @Override
+    public int slotAt(long position) {
+        int lo = 0;
+        int hi = this.slots;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.position(mid) < position) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public int slotOf(String orderId) {
+        return this.find(orderId);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Column c : this.all) {
+            c.channel.close();
+        }
+        this.index.channel.close();
+    }
+
+    // Copies the used part of every column file into a scratch directory
+    // next to the live files (a memory copy of ~47 bytes per row, no heap) and
+    // reads the rows from there; closing the snapshot deletes the copy. The
+    // copy is only iterated, so its index stays empty. The raw side map is
+    // copied too: its String[] values are never modified, only replaced, so
+    // they can be shared.
+    @Override
+    public RowSnapshot<Order> snapshot() throws IOException {
+        Path copyDir = Files.createTempDirectory(this.dir, "snapshot-");
+        MappedOrderStore copy = new MappedOrderStore(copyDir, Math.max(1, this.slots));
+        for (int i = 0; i < FILES.length; i++) {
+            ByteBuffer from = this.all[i].buf.duplicate();
+            from.position(0).limit(this.slots * WIDTHS[i]);
+            copy.all[i].buf.duplicate().put(from);
+        }
+        copy.slots = this.slots;
+        copy.size = this.size;
+        copy.raw.putAll(this.raw);
+        return new RowSnapshot<Order>() {
+            @Override
+            public int size() {
+                return copy.size;
+            }
+
+            @Override
+            public Iterator<Order> iterator() {
+                return copy.iterator();
+            }
+
+            @Override
+            public void close() throws IOException {
+                copy.close();
+                for (String file : FILES) {
+                    Files.deleteIfExists(copyDir.resolve(file));
+                }
+                Files.deleteIfExists(copyDir.resolve(INDEX_FILE));
+                Files.deleteIfExists(copyDir);
+            }
+        };
+    }
+
+    // ====================== Helpers ======================
+
+    private int find(String orderId) {
+        return this.find(IdSequence.canonical(orderId));
+    }
+
+    // Live slot holding id, or -1 (only live rows are in the index)
+    private int find(long id) {
+        if (id < 0) {
+            return -1;
+        }
+        return this.index.buf.getInt(this.probe(id) * 4) - 1;
+    }
+
+    // Index entry holding id, or the free entry where id would go
+    private int probe(long id) {
+        int mask = 2 * this.capacity - 1;
+        int i = mix(id) & mask;
+        while (true) {
+            int entry = this.index.buf.getInt(i * 4);
+            if (entry == 0 || this.ids.buf.getLong((entry - 1) * 8) == id) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Backward-shift delete: pull later entries of the probe run into the gap
+    private void deleteEntry(int i) {
+        int mask = 2 * this.capacity - 1;
+        int gap = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            int entry = this.index.buf.getInt(j * 4);
+            if (entry == 0) {
+                break;
+            }
+            int home = mix(this.ids.buf.getLong((entry - 1) * 8)) & mask;
+            // move j into the gap unless its home lies cyclically in (gap, j]
+            boolean stays = (gap <= j) ? (gap < home && home <= j)
+                    : (gap < home || home <= j);
+            if (!stays) {
+                this.index.buf.putInt(gap * 4, entry);
+                gap = j;
+            }
+        }
+        this.index.buf.putInt(gap * 4, 0);
+    }
+
+    // Clear the index and enter every live slot again
+    private void rebuildIndex() {
+        for (int i = 0; i < 2 * this.capacity; i++) {
+            this.index.buf.putInt(i * 4, 0);
+        }
+        for (int slot = 0; slot < this.slots; slot++) {
+            if (this.isLive(slot)) {
+                this.index.buf.putInt(this.probe(this.ids.buf.getLong(slot * 8)) * 4,
+                        slot + 1);
+            }
+        }
+    }
+
+    // Take the next slot for a new id and return it
+    private int append(long id) {
+        if (this.slots == this.capacity) {
+            this.grow();
+        }
+        int slot = this.slots++;
+        this.ids.buf.putLong(slot * 8, id);
+        this.positions.buf.putLong(slot * 8, this.nextPosition++);
+        this.live.buf.put(slot, (byte) 1);
+        this.index.buf.putInt(this.probe(id) * 4, slot + 1);
+        this.size++;
+        return slot;
+    }
+
+    private void write(int slot, Order o) {
+        String[] dates = { o.getOrderStartDate(), o.getEstimatedArrivalDate(),
+                o.getActualArrivalDate(), o.getDueDate(), o.getActualReturnDate() };
+        String[] rawRow = null;
+        int packed = 0;
+        for (int i = 0; i < DATES; i++) {
+            int fmt = Dates.format(dates[i]);
+            int day = 0;
+            if (fmt == Dates.FMT_ISO || fmt == Dates.FMT_US) {
+                day = Dates.parse(dates[i]);
+            } else if (fmt == Dates.FMT_OTHER) {
+                rawRow = (rawRow == null) ? new String[DATES + 1] : rawRow;
+                rawRow[i] = dates[i];
+            }
+            this.days[i].buf.putInt(slot * 4, day);
+            packed |= fmt << (3 * i);
+        }
+        this.formats.buf.putShort(slot * 2, (short) packed);
+
+        String cust = o.getCustUserId();
+        long custId = (cust == null) ? CUST_NULL : IdSequence.canonical(cust);
+        if (custId == -1) {
+            custId = CUST_RAW;
+            rawRow = (rawRow == null) ? new String[DATES + 1] : rawRow;
+            rawRow[DATES] = cust;
+        }
+        this.custs.buf.putLong(slot * 8, custId);
+
+        if (rawRow == null) {
+            this.raw.remove(slot);
+        } else {
+            this.raw.put(slot, rawRow);
+        }
+    }
+
+    private Order read(int slot) {
+        String[] rawRow = this.raw.get(slot);
+        int packed = this.formats.buf.getShort(slot * 2) & 0xFFFF;
+        String[] dates = new String[DATES];
+        for (int i = 0; i < DATES; i++) {
+            int fmt = (packed >>> (3 * i)) & 7;
+            dates[i] = (fmt == Dates.FMT_OTHER) ? rawRow[i]
+                    : Dates.toString(this.days[i].buf.getInt(slot * 4), fmt);
+        }
+        long custId = this.custs.buf.getLong(slot * 8);
+        String cust = (custId == CUST_NULL) ? null
+                : (custId == CUST_RAW) ? rawRow[DATES] : Long.toString(custId);
+        return new Order(Long.toString(this.ids.buf.getLong(slot * 8)), dates[0],
+                dates[1], dates[2], dates[3], dates[4], cust);
+    }
+
+    private boolean isLive(int slot) {
+        return this.live.buf.get(slot) != 0;
+    }
+
+    // Double every column file and the index, remap them and rehash
+    private void grow() {
+        int next = this.capacity * 2;
+        try {
+            for (Column c : this.all) {
+                c.map(next);
+            }
+            this.index.map(2 * next);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.capacity = next;
+        this.rebuildIndex();
+    }
+
+    // One fixed-width column: a file mapped read-write in full
+    private static final class Column {
+        private final FileChannel channel;
+        private final int width;
+        private MappedByteBuffer buf;
+
+        Column(Path file, int width, int rows) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.width = width;
+            this.map(rows);
+        }
+
+        void map(int rows) throws IOException {
+            this.buf = this.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    (long) rows * this.width);
+        }
+
+        // Copy the value in slot from to slot to
+        void copy(int from, int to) {
+            for (int b = 0; b < this.width; b++) {
+                this.buf.put(to * this.width + b, this.buf.get(from * this.width + b));
+            }
+        }
+    }
+}
@@ -1,86 +1,676 @@
 // ========================= repository/OrderRepository.java =========================
 package repository;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import model.Order;
+import storage.LogRecord;
+import storage.SnapshotFile;
+import storage.WriteAheadLog;
 
 /**
- * OrderRepository - Stores Order entities in a Map<String orderId, Order>. -
+ * OrderRepository - Stores Order entities keyed by String orderId. -
  * Generates incremental String orderIds starting from "0". - Returns JSON
- * strings for convenience (same style as WarehouseRepository).
+ * strings for convenience (same style as WarehouseRepository). - Thread-safe:
+ * readers share a read lock and never block each other; writers are exclusive.
+ * - writeAll()/writeQuery() stream JSON to an Appendable one row at a time. -
+ * With a WriteAheadLog attached (see Database) every write is logged before
+ * the map changes. - createAll/updateAll/deleteAll apply a batch under one
+ * write-lock hold and one log append.
+ *
+ * Storage backends (see OrderStore): OrderRepository() keeps Order objects on
+ * the heap; OrderRepository(dir) keeps them in memory-mapped columns under dir
+ * (dates as epoch days, custUserId as a long), off the heap. The public API is
+ * the same for both.
+ *
+ * Secondary indexes: custUserId -> orderIds (LongPostingIndex), so
+ * queryByCustUserId costs O(matching orders) instead of a full scan. Only
+ * plain numeric custUserIds are indexed; a query for any other value scans.
+ * Each date column has a sorted DayRangeIndex of epoch days, which answers
+ * date-range queries (queryByDateRange, queryDueBetween, queryArrivedAfter)
+ * and exact date queries in O(log n + k).
+ *
+ * Overdue view: an OverdueOrdersView of open orders (actualReturnDate blank)
+ * by due day answers queryOverdue() in O(log n + k), and rolloverOverdue()
+ * reports only the orders that became overdue since it last ran.
+ *
+ * Multi-predicate queries: query(Query) combines predicates on any fields and
+ * QueryPlanner drives them from the most selective of the indexes above;
+ * explain(Query) shows the plan.
+ *
+ * Paging: getPage()/queryPage() return a page of rows plus next / prev
+ * cursors; the cursor is a slot position in the store, not an offset.
+ *
+ * References: linked by Database, custUserId must name an existing customer
+ * (see ForeignKey); create/update return an unknown_reference error instead.
+ * checkReferences() verifies every row in one pass after a bulk load.
+ *
+ * Transactions: changes are kept in Versions while a snapshot is open, and
+ * txTable() joins this table to transactions (see TransactionManager).
  */
 public class OrderRepository {
-    // Storage
-    private final Map<String, Order> store = new LinkedHashMap<>();
+    // Rows copied per read-lock hold while a checkpoint snapshots the store
+    private static final int SNAPSHOT_BATCH = 64 * 1024;
+
+    // Storage (insertion order, for predictable listing)
+    private final OrderStore store;
+
+    // Id allocation (O(1) counter)
+    private final IdSequence ids = new IdSequence();
+
+    // custUserId -> orderIds of that customer
+    private final LongPostingIndex<Order> custIndex = new LongPostingIndex<>("custUserId",
+            o -> IdSequence.canonical(o.getCustUserId()));
+
+    // Sorted epoch-day indexes, one per date column
+    private final DayRangeIndex<Order> orderStartIndex = new DayRangeIndex<>(
+            "orderStartDate", o -> Dates.parse(o.getOrderStartDate()));
+    private final DayRangeIndex<Order> estimatedArrivalIndex = new DayRangeIndex<>(
+            "estimatedArrivalDate", o -> Dates.parse(o.getEstimatedArrivalDate()));
+    private final DayRangeIndex<Order> actualArrivalIndex = new DayRangeIndex<>(
+            "actualArrivalDate", o -> Dates.parse(o.getActualArrivalDate()));
+    private final DayRangeIndex<Order> dueIndex = new DayRangeIndex<>("dueDate",
+            o -> Dates.parse(o.getDueDate()));
+    private final DayRangeIndex<Order> actualReturnIndex = new DayRangeIndex<>(
+            "actualReturnDate", o -> Dates.parse(o.getActualReturnDate()));
+    private final List<DayRangeIndex<Order>> dateIndexes = List.of(this.orderStartIndex,
+            this.estimatedArrivalIndex, this.actualArrivalIndex, this.dueIndex,
+            this.actualReturnIndex);
+
+    // Open orders by due day (see queryOverdue / rolloverOverdue)
+    private final OverdueOrdersView overdue = new OverdueOrdersView();
+
+    // Rows the indexes could not take because their orderId is not a plain
+    // number; while any exist, indexed queries fall back to a scan
+    private int unindexedRows = 0;
+
+    // Unindexed scans of at least this many rows use ParallelScan
+    private volatile int parallelThreshold = ParallelScan.DEFAULT_THRESHOLD;
+
+    // Plans query(Query) over the store and the indexes above
+    private final QueryPlanner<Order> planner = new QueryPlanner<>("order",
+            this.queryTable());
+
+    // Concurrency: queries share the read lock; create/update/delete take the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Write-ahead log (null = in-memory only); see Database
+    private volatile WriteAheadLog log;
+
+    // custUserId -> customer.userId (unlinked = unchecked); see Database
+    private volatile ForeignKey customerKey = ForeignKey.unlinked("custUserId", "userId");
+
+    // Row history for transactions' snapshot reads (see Versions)
+    private final Versions<Order> versions;
+
+    // --- Orders as objects on the heap ---
+    public OrderRepository() {
+        this.store = new HeapOrderStore();
+        this.versions = new Versions<>(this.lock, this.store::get);
+    }
+
+    // --- Orders in memory-mapped column files under columnDir (emptied first) ---
+    public OrderRepository(Path columnDir) throws IOException {
+        this.store = MappedOrderStore.open(columnDir);
+        this.versions = new Versions<>(this.lock, this.store::get);
+    }
 
     // ---------- Create ----------
     // orderId auto-increment; provide all other attributes
-    public synchronized String create(String orderStartDate, String estimatedArrivalDate,
+    public String create(String orderStartDate, String estimatedArrivalDate,
             String actualArrivalDate, String dueDate, String actualReturnDate,
             String custUserId) {
-        String id = this.nextId();
-        Order o = new Order(id, orderStartDate, estimatedArrivalDate, actualArrivalDate,
-                dueDate, actualReturnDate, custUserId);
-        this.store.put(id, o);
-        return this.toJson(o);
+        String json;
+        long lsn;
+        ForeignKey fk = this.customerKey;
+        fk.lockParent();
+        this.lock.writeLock().lock();
+        try {
+            if (!fk.accepts(custUserId)) {
+                return this.errorJson("unknown_reference", "custUserId", custUserId);
+            }
+            String id = this.ids.next();
+            Order o = new Order(id, orderStartDate, estimatedArrivalDate,
+                    actualArrivalDate, dueDate, actualReturnDate, custUserId);
+            lsn = this.logWrite(LogRecord.CREATE, o);
+            this.putRow(o);
+            json = this.toJson(o);
+        } finally {
+            this.lock.writeLock().unlock();
+            fk.unlockParent();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
     // ---------- Read one ----------
-    public synchronized String getById(String orderId) {
-        Order o = this.store.get(orderId);
-        return (o == null) ? this.errorJson("not_found", "orderId", orderId)
-                : this.toJson(o);
+    public String getById(String orderId) {
+        this.lock.readLock().lock();
+        try {
+            Order o = this.store.get(orderId);
+            return (o == null) ? this.errorJson("not_found", "orderId", orderId)
+                    : this.toJson(o);
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     // ---------- Read all ----------
-    public synchronized String getAll() {
-        String arr = this.store.values().stream().map(this::toJson)
-                .collect(Collectors.joining(","));
-        return "[" + arr + "]";
+    public String getAll() {
+        return JsonWriter.render(this::writeAll);
+    }
+
+    // ---------- Read all, streamed to out one row at a time ----------
+    public void writeAll(Appendable out) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            out.append('[');
+            boolean first = true;
+            for (Order o : this.store) {
+                if (!first) {
+                    out.append(',');
+                }
+                this.writeJson(o, out);
+                first = false;
+            }
+            out.append(']');
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     // ---------- Update (except id) ----------
-    public synchronized String update(String orderId, String orderStartDate,
+    public String update(String orderId, String orderStartDate,
             String estimatedArrivalDate, String actualArrivalDate, String dueDate,
             String actualReturnDate, String custUserId) {
-        Order existing = this.store.get(orderId);
-        if (existing == null) {
-            return this.errorJson("not_found", "orderId", orderId);
-        }
+        String json;
+        long lsn;
+        ForeignKey fk = this.customerKey;
+        fk.lockParent();
+        this.lock.writeLock().lock();
+        try {
+            if (!this.store.contains(orderId)) {
+                return this.errorJson("not_found", "orderId", orderId);
+            }
+            if (!fk.accepts(custUserId)) {
+                return this.errorJson("unknown_reference", "custUserId", custUserId);
+            }
 
-        Order updated = new Order(orderId, orderStartDate, estimatedArrivalDate,
-                actualArrivalDate, dueDate, actualReturnDate, custUserId);
-        this.store.put(orderId, updated);
-        return this.toJson(updated);
+            Order updated = new Order(orderId, orderStartDate, estimatedArrivalDate,
+                    actualArrivalDate, dueDate, actualReturnDate, custUserId);
+            lsn = this.logWrite(LogRecord.UPDATE, updated);
+            this.putRow(updated);
+            json = this.toJson(updated);
+        } finally {
+            this.lock.writeLock().unlock();
+            fk.unlockParent();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
     // ---------- Delete ----------
-    public synchronized String delete(String orderId) {
-        Order removed = this.store.remove(orderId);
-        return (removed == null) ? this.errorJson("not_found", "orderId", orderId)
-                : this.toJson(removed);
+    public String delete(String orderId) {
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            if (!this.store.contains(orderId)) {
+                return this.errorJson("not_found", "orderId", orderId);
+            }
+            lsn = this.logDelete(orderId);
+            json = this.toJson(this.removeRow(orderId));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
-    // ====================== Queries (exact match) ======================
+    // ================== Batch writes ==================
+    // createAll/updateAll/deleteAll take the write lock once per batch, hand
+    // the log all of their records in one append and wait for durability once.
+    // Rows are text, one String[] per row holding the single-row method's
+    // arguments in order (numbers as decimal strings). withResponse = true
+    // returns a JSON array with one entry per input (the row, or not_found);
+    // false skips building the rows and returns only {"count":n,"notFound":m}.
+    // A custUserId that names no customer fails the whole batch with an
+    // unknown_reference error before anything is logged.
 
-    public String queryByCustUserId(String custUserId) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Order o : this.store.values()) {
-            if (this.equalsSafe(o.getCustUserId(), custUserId)) {
-                if (!first) {
-                    sb.append(",");
+    // --- Batch create: orderIds are reserved as one contiguous range ---
+    // Every row is checked and built before anything is logged, so a
+    // malformed row fails the whole batch without changing the store.
+    public String createAll(List<String[]> rows, boolean withResponse) {
+        return this.createAll(rows, withResponse, true);
+    }
+
+    // checkReferences = false skips the custUserId check (bulk loads verify
+    // afterwards with checkReferences())
+    String createAll(List<String[]> rows, boolean withResponse, boolean checkReferences) {
+        List<Order> created = new ArrayList<>(rows.size());
+        String json;
+        long lsn;
+        ForeignKey fk = checkReferences ? this.customerKey
+                : ForeignKey.unlinked("custUserId", "userId");
+        fk.lockParent();
+        this.lock.writeLock().lock();
+        try {
+            for (String[] r : rows) {
+                checkWidth(r, 6);
+            }
+            for (String[] r : rows) {
+                if (!fk.accepts(r[5])) {
+                    return this.errorJson("unknown_reference", "custUserId", r[5]);
                 }
-                sb.append(this.toJson(o));
-                first = false;
+            }
+            long first = this.ids.reserve(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                String[] r = rows.get(i);
+                String id = String.valueOf(first + i);
+                created.add(new Order(id, r[0], r[1], r[2], r[3], r[4], r[5]));
+            }
+            lsn = this.logWriteAll(LogRecord.CREATE, created);
+            for (Order o : created) {
+                this.putRow(o);
+            }
+            json = this.batchJson(null, created, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
+            fk.unlockParent();
+        }
+        this.awaitDurable(lsn);
+        return json;
+    }
+
+    // --- Batch update: row[0] is the orderId, then update()'s other arguments ---
+    public String updateAll(List<String[]> rows, boolean withResponse) {
+        List<String> keys = new ArrayList<>(rows.size());
+        List<Order> updated = new ArrayList<>(rows.size());
+        String json;
+        long lsn;
+        ForeignKey fk = this.customerKey;
+        fk.lockParent();
+        this.lock.writeLock().lock();
+        try {
+            for (String[] r : rows) {
+                checkWidth(r, 7);
+            }
+            for (String[] r : rows) {
+                if (this.store.contains(r[0]) && !fk.accepts(r[6])) {
+                    return this.errorJson("unknown_reference", "custUserId", r[6]);
+                }
+            }
+            for (String[] r : rows) {
+                keys.add(r[0]);
+                updated.add(!this.store.contains(r[0]) ? null
+                        : new Order(r[0], r[1], r[2], r[3], r[4], r[5], r[6]));
+            }
+            lsn = this.logWriteAll(LogRecord.UPDATE, updated);
+            for (Order o : updated) {
+                if (o != null) {
+                    this.putRow(o);
+                }
+            }
+            json = this.batchJson(keys, updated, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
+            fk.unlockParent();
+        }
+        this.awaitDurable(lsn);
+        return json;
+    }
+
+    // --- Batch delete; an orderId listed twice is not_found the second time ---
+    public String deleteAll(List<String> orderIds, boolean withResponse) {
+        List<Order> removed = new ArrayList<>(orderIds.size());
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            Set<String> found = new LinkedHashSet<>();
+            for (String orderId : orderIds) {
+                if (this.store.contains(orderId)) {
+                    found.add(orderId);
+                }
+            }
+            lsn = this.logDeleteAll(found);
+            for (String orderId : orderIds) {
+                removed.add(this.removeRow(orderId));
+            }
+            json = this.batchJson(orderIds, removed, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(lsn);
+        return json;
+    }
+
+    // ====================== Referential integrity ======================
+
+    // Link custUserId to the customers table (see Database)
+    void attachCustomerKey(ForeignKey fk) {
+        this.customerKey = fk;
+    }
+
+    // The key checked by create / update (see Database)
+    ForeignKey customerKey() {
+        return this.customerKey;
+    }
+
+    // For ForeignKey: the lock guarding this table
+    ReentrantReadWriteLock lock() {
+        return this.lock;
+    }
+
+    // Number of orders referencing customer userId (caller holds the lock).
+    // O(1) through custIndex; a scan only while some orderId is unindexed.
+    int customerReferences(String userId) {
+        long custId = IdSequence.canonical(userId);
+        if (custId >= 0 && this.unindexedRows == 0) {
+            return this.custIndex.count(custId);
+        }
+        int n = 0;
+        for (Order o : this.store) {
+            if (this.equalsSafe(o.getCustUserId(), userId)) {
+                n++;
             }
         }
-        sb.append("]");
-        return sb.toString();
+        return n;
+    }
+
+    // --- One pass over every order: custUserIds naming no customer, as JSON ---
+    // For bulk loads that skipped the per-row check; nothing is changed.
+    public String checkReferences() {
+        ForeignKey fk = this.customerKey;
+        fk.lockParent();
+        this.lock.readLock().lock();
+        try {
+            return JsonWriter.render(out -> fk.check(this.store, "orderId",
+                    Order::getOrderId, Order::getCustUserId, out));
+        } finally {
+            this.lock.readLock().unlock();
+            fk.unlockParent();
+        }
+    }
+
+    // ====================== Transactions ======================
+
+    // This table as TransactionManager sees it (see Database)
+    TransactionManager.Table<Order> txTable() {
+        return new TransactionManager.Table<Order>() {
+            @Override
+            public String name() {
+                return "order";
+            }
+
+            @Override
+            public String keyField() {
+                return "orderId";
+            }
+
+            @Override
+            public ReentrantReadWriteLock lock() {
+                return OrderRepository.this.lock;
+            }
+
+            @Override
+            public Versions<Order> versions() {
+                return OrderRepository.this.versions;
+            }
+
+            @Override
+            public Order created(String[] r) {
+                checkWidth(r, 6);
+                return new Order(OrderRepository.this.ids.next(), r[0], r[1], r[2], r[3],
+                        r[4], r[5]);
+            }
+
+            @Override
+            public Order updated(String[] r) {
+                checkWidth(r, 7);
+                return new Order(r[0], r[1], r[2], r[3], r[4], r[5], r[6]);
+            }
+
+            @Override
+            public String key(Order o) {
+                return o.getOrderId();
+            }
+
+            @Override
+            public String normalizeKey(String key) {
+                return key;
+            }
+
+            @Override
+            public void writeJson(Order o, Appendable out) throws IOException {
+                OrderRepository.this.writeJson(o, out);
+            }
+
+            @Override
+            public LogRecord record(byte op, String key, Order o) {
+                return (o == null) ? new LogRecord(TABLE, LogRecord.DELETE, key)
+                        : OrderRepository.record(op, o);
+            }
+
+            @Override
+            public void apply(String key, Order o) {
+                if (o == null) {
+                    OrderRepository.this.removeRow(key);
+                } else {
+                    OrderRepository.this.putRow(o);
+                }
+            }
+        };
+    }
+
+    // ====================== Persistence (write-ahead log) ======================
+
+    // Table id of orders inside the write-ahead log
+    static final byte TABLE = 5;
+
+    // Attach a log: from now on every write is logged before it is applied.
+    void attachLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    // Re-apply one logged change during startup recovery (not logged again).
+    void replay(LogRecord r) {
+        this.lock.writeLock().lock();
+        try {
+            if (r.getOp() == LogRecord.DELETE) {
+                this.removeRow(r.getKey());
+            } else if (!this.store.accepts(r.getKey())) {
+                // e.g. an old log from the heap backend; skip the row, keep going
+                System.err.println("[OrderRepository] skipped logged order with an"
+                        + " orderId this store cannot hold: " + r.getKey());
+            } else {
+                this.putRow(new Order(r.getKey(), r.getString(0), r.getString(1),
+                        r.getString(2), r.getString(3), r.getString(4), r.getString(5)));
+                this.ids.observe(r.getKey());
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // Write every row as a CREATE record for a checkpoint. Rows are copied in
+    // batches under the read lock and encoded after it is released. A batch
+    // may see writes made after the checkpoint started; those are in the new
+    // log segment too, and replaying them over the snapshot is harmless.
+    void writeSnapshot(SnapshotFile.Writer out) throws IOException {
+        List<Order> rows = new ArrayList<>();
+        int cursor = 0;
+        while (cursor >= 0) {
+            rows.clear();
+            this.lock.readLock().lock();
+            try {
+                cursor = this.store.batch(cursor, SNAPSHOT_BATCH, rows);
+            } finally {
+                this.lock.readLock().unlock();
+            }
+            for (Order o : rows) {
+                out.write(record(LogRecord.CREATE, o));
+            }
+        }
+    }
+
+    // Reclaim deleted rows' space before a checkpoint walks the store
+    void compact() {
+        this.lock.writeLock().lock();
+        try {
+            this.store.compact();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // Point-in-time copy of every row for a long read such as an export; the
+    // read lock is held only while the store takes the copy (see OrderStore).
+    RowSnapshot<Order> snapshot() throws IOException {
+        this.lock.readLock().lock();
+        try {
+            return this.store.snapshot();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Release the store's files (mapped backend); called by Database.close()
+    void close() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.store.close();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // Append the new row to the log (before the map changes); returns the LSN.
+    private long logWrite(byte op, Order o) {
+        WriteAheadLog wal = this.log;
+        return (wal == null) ? 0 : wal.append(record(op, o));
+    }
+
+    private long logDelete(String orderId) {
+        WriteAheadLog wal = this.log;
+        return (wal == null) ? 0
+                : wal.append(new LogRecord(TABLE, LogRecord.DELETE, orderId));
+    }
+
+    // Append one record per non-null row in a single log call; returns the
+    // LSN of the last one (0 without a log or for an empty batch).
+    private long logWriteAll(byte op, List<Order> rows) {
+        WriteAheadLog wal = this.log;
+        if (wal == null) {
+            return 0;
+        }
+        List<LogRecord> records = new ArrayList<>(rows.size());
+        for (Order o : rows) {
+            if (o != null) {
+                records.add(record(op, o));
+            }
+        }
+        return wal.appendAll(records);
+    }
+
+    private long logDeleteAll(Collection<String> orderIds) {
+        WriteAheadLog wal = this.log;
+        if (wal == null) {
+            return 0;
+        }
+        List<LogRecord> records = new ArrayList<>(orderIds.size());
+        for (String orderId : orderIds) {
+            records.add(new LogRecord(TABLE, LogRecord.DELETE, orderId));
+        }
+        return wal.appendAll(records);
+    }
+
+    // The log / snapshot record for a row: its key plus every other column
+    private static LogRecord record(byte op, Order o) {
+        return new LogRecord(TABLE, op, o.getOrderId(), o.getOrderStartDate(),
+                o.getEstimatedArrivalDate(), o.getActualArrivalDate(), o.getDueDate(),
+                o.getActualReturnDate(), o.getCustUserId());
+    }
+
+    // Wait (outside the lock) until the logged change is durable.
+    private void awaitDurable(long lsn) {
+        WriteAheadLog wal = this.log;
+        if (wal != null) {
+            wal.sync(lsn);
+        }
+    }
+
+    // Apply a row to the store and every index (insert or replace)
+    private void putRow(Order o) {
+        Order old = this.store.get(o.getOrderId());
+        this.store.put(o);
+        this.versions.record(o.getOrderId(), old, o);
+        if (old == null) {
+            this.indexAdd(o);
+        } else {
+            this.indexUpdate(old, o);
+        }
+    }
+
+    // Remove a row from the store and the index; returns it (or null)
+    private Order removeRow(String orderId) {
+        Order removed = this.store.remove(orderId);
+        if (removed != null) {
+            this.versions.record(orderId, removed, null);
+            this.indexRemove(removed);
+        }
+        return removed;
+    }
+
+    private void indexAdd(Order o) {
+        long id = IdSequence.canonical(o.getOrderId());
+        if (id < 0) {
+            this.unindexedRows++;
+        } else {
+            this.custIndex.add(id, o);
+            for (DayRangeIndex<Order> index : this.dateIndexes) {
+                index.add(id, o);
+            }
+            this.overdue.add(id, o);
+        }
+    }
+
+    private void indexUpdate(Order old, Order o) {
+        long id = IdSequence.canonical(o.getOrderId());
+        if (id >= 0) {
+            this.custIndex.update(id, old, o);
+            for (DayRangeIndex<Order> index : this.dateIndexes) {
+                index.update(id, old, o);
+            }
+            this.overdue.update(id, old, o);
+        }
+    }
+
+    private void indexRemove(Order o) {
+        long id = IdSequence.canonical(o.getOrderId());
+        if (id < 0) {
+            this.unindexedRows--;
+        } else {
+            this.custIndex.remove(id, o);
+            for (DayRangeIndex<Order> index : this.dateIndexes) {
+                index.remove(id, o);
+            }
+            this.overdue.remove(id, o);
+        }
+    }
+
+    // ====================== Queries (exact match) ======================
+
+    public String queryByCustUserId(String custUserId) {
+        return this.queryByField("custUserId", custUserId);
     }
 
     public String queryByOrderStartDate(String orderStartDate) {
@@ -105,97 +695,435 @@ public class OrderRepository {
 
     // Generic helper to reduce repetition for String fields
     private String queryByField(String which, String value) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
+        return JsonWriter.render(out -> this.writeQuery(which, value, out));
+    }
+
+    // Streaming exact-match query; which is custUserId or one of the date fields.
+    // A date that parses is looked up in its day index, then compared as text
+    // ("2024-01-05" and "01/05/2024" are the same day but different values).
+    public void writeQuery(String which, String value, Appendable out)
+            throws IOException {
+        long custId = "custUserId".equals(which) ? IdSequence.canonical(value) : -1;
+        DayRangeIndex<Order> dates = this.dateIndex(which);
+        int day = (dates == null) ? Dates.NONE : Dates.parse(value);
+        this.lock.readLock().lock();
+        try {
+            if (custId >= 0 && this.unindexedRows == 0) {
+                this.writeIndexed(this.custIndex.lookup(custId), which, value, out);
+                return;
+            }
+            if (day != Dates.NONE && this.unindexedRows == 0) {
+                this.writeIndexed(dates.lookup(day), which, value, out);
+                return;
+            }
+            out.append('[');
+            boolean[] first = { true };
+            ParallelScan.scan(this.store, this.store.size(), this.parallelThreshold,
+                    o -> this.equalsSafe(column(o, which), value), o -> {
+                        if (!first[0]) {
+                            out.append(',');
+                        }
+                        this.writeJson(o, out);
+                        first[0] = false;
+                    });
+            out.append(']');
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ====================== Queries (date ranges) ======================
+    // Dates may be written yyyy-MM-dd or MM/dd/yyyy. Bounds are inclusive and a
+    // null or empty bound is open. Results come back in ascending date order;
+    // orders whose date is empty or not a calendar date never match.
+
+    public String queryByDateRange(String field, String from, String to) {
+        boolean openFrom = from == null || from.isEmpty();
+        int min = openFrom ? Integer.MIN_VALUE : Dates.parse(from);
+        int max = (to == null || to.isEmpty()) ? Integer.MAX_VALUE : Dates.parse(to);
+        if (!openFrom && min == Dates.NONE) {
+            return this.errorJson("invalid_date", field, from);
+        }
+        if (max == Dates.NONE) {
+            return this.errorJson("invalid_date", field, to);
+        }
+        return JsonWriter.render(out -> this.writeDateRange(field, min, max, out));
+    }
+
+    // e.g. "due between X and Y"
+    public String queryDueBetween(String from, String to) {
+        return this.queryByDateRange("dueDate", from, to);
+    }
+
+    // e.g. "arrived after X" (strictly after)
+    public String queryArrivedAfter(String date) {
+        int day = Dates.parse(date);
+        if (day == Dates.NONE) {
+            return this.errorJson("invalid_date", "actualArrivalDate", date);
+        }
+        return JsonWriter.render(out -> this.writeDateRange("actualArrivalDate",
+                day + 1, Integer.MAX_VALUE, out));
+    }
+
+    // --- Streaming date range query on epoch days (inclusive bounds) ---
+    // field: orderStartDate | estimatedArrivalDate | actualArrivalDate | dueDate
+    // | actualReturnDate
+    public void writeDateRange(String field, int minDay, int maxDay, Appendable out)
+            throws IOException {
+        DayRangeIndex<Order> index = this.dateIndex(field);
+        if (index == null) {
+            throw new IllegalArgumentException("unknown date field: " + field);
+        }
+        this.lock.readLock().lock();
+        try {
+            if (this.unindexedRows == 0) {
+                this.writeIndexed(index.range(minDay, maxDay), null, null, out);
+                return;
+            }
+            // Fallback scan: collect matches, then stable-sort them by day
+            List<Order> rows = new ArrayList<>();
+            for (Order o : this.store) {
+                int day = Dates.parse(column(o, field));
+                if (day != Dates.NONE && day >= minDay && day <= maxDay) {
+                    rows.add(o);
+                }
+            }
+            rows.sort((a, b) -> Integer.compare(Dates.parse(column(a, field)),
+                    Dates.parse(column(b, field))));
+            out.append('[');
+            for (int i = 0; i < rows.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                this.writeJson(rows.get(i), out);
+            }
+            out.append(']');
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ====================== Queries (multi-predicate) ======================
+    // Any field, combined with AND / OR; see Query and QueryPlanner. Date
+    // ranges compare as calendar days, date equality as text (like
+    // queryByDueDate). orderId, numeric custUserId equality and the date
+    // indexes can drive the plan, the latter two only while every row is
+    // indexed (see unindexedRows).
+
+    public String query(Query q) {
+        return JsonWriter.render(out -> this.writeQuery(q, out));
+    }
+
+    // Streaming query: writes the matching rows to out
+    public void writeQuery(Query q, Appendable out) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.planner.write(q, out, o -> this.writeJson(o, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // The plan query(q) would use, as JSON
+    public String explain(Query q) {
+        this.lock.readLock().lock();
+        try {
+            return this.planner.explain(q);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Tables of at least this many rows scan in parallel (<= 0: never) ---
+    public void setParallelScanThreshold(int rows) {
+        this.parallelThreshold = rows;
+    }
+
+    // ================== Keyset pagination ==================
+    // Pages of orders in insertion order with next / prev cursors (see
+    // CustomerRepository.getPage()); date queries page through Query.range on
+    // the date column, so a page of a year of orders reads only that page.
+
+    // --- One page of getAll(): up to limit rows from cursor (null = first page) ---
+    public String getPage(String cursor, int limit) {
+        return this.queryPage(null, cursor, limit);
+    }
+
+    // --- One page of query(q); a bad cursor returns an error JSON ---
+    public String queryPage(Query q, String cursor, int limit) {
+        return JsonWriter.render(out -> this.writePage(q, cursor, limit, out));
+    }
+
+    // --- Streaming page: writes one page of query(q) (q == null: all rows) ---
+    public void writePage(Query q, String cursor, int limit, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.planner.writePage(q, cursor, limit, out,
+                    o -> this.writeJson(o, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Columns and indexes as the planner sees them
+    private QueryPlanner.Table<Order> queryTable() {
+        return new QueryPlanner.Table<Order>() {
+            @Override
+            public QueryPlanner.Kind kind(String field) {
+                switch (field) {
+                    case "orderId":
+                    case "custUserId":
+                        return QueryPlanner.Kind.TEXT;
+                    default:
+                        return (OrderRepository.this.dateIndex(field) == null) ? null
+                                : QueryPlanner.Kind.DATE;
+                }
+            }
+
+            @Override
+            public String text(Order o, String field) {
+                return "orderId".equals(field) ? o.getOrderId() : column(o, field);
+            }
+
+            @Override
+            public int number(Order o, String field) {
+                throw new IllegalArgumentException("no numeric order field: " + field);
+            }
+
+            @Override
+            public int size() {
+                return OrderRepository.this.store.size();
+            }
+
+            @Override
+            public int parallelThreshold() {
+                return OrderRepository.this.parallelThreshold;
+            }
+
+            @Override
+            public SlotStore<Order> slots() {
+                return OrderRepository.this.store;
+            }
+
+            @Override
+            public Order get(String orderId) {
+                return OrderRepository.this.store.get(orderId);
+            }
+
+            @Override
+            public QueryPlanner.Index index(String field) {
+                if ("orderId".equals(field)) {
+                    return QueryPlanner.primaryKey(field, this);
+                }
+                if (OrderRepository.this.unindexedRows > 0) {
+                    return null;
+                }
+                if ("custUserId".equals(field)) {
+                    return QueryPlanner.longs(OrderRepository.this.custIndex);
+                }
+                DayRangeIndex<Order> dates = OrderRepository.this.dateIndex(field);
+                return (dates == null) ? null : QueryPlanner.days(dates);
+            }
+        };
+    }
+
+    // ====================== Queries (overdue orders) ======================
+    // Overdue = actualReturnDate blank and dueDate before today. today may be
+    // yyyy-MM-dd or MM/dd/yyyy; the no-argument forms use the system date.
+
+    public String queryOverdue() {
+        return this.queryOverdue(null);
+    }
+
+    // Every open order that is overdue on today, by due date
+    public String queryOverdue(String today) {
+        int day = today(today);
+        if (day == Dates.NONE) {
+            return this.errorJson("invalid_date", "today", today);
+        }
+        return JsonWriter.render(out -> this.writeOverdue(day, out));
+    }
+
+    public void writeOverdue(int todayDay, Appendable out) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            if (this.unindexedRows == 0) {
+                this.writeIndexed(this.overdue.overdue(todayDay), null, null, out);
+            } else {
+                this.writeOverdueScan(todayDay, out);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public String rolloverOverdue() {
+        return this.rolloverOverdue(null);
+    }
+
+    // Orders that became overdue since the previous rollover (the first call
+    // reports all of them); meant for a daily "new overdues" job
+    public String rolloverOverdue(String today) {
+        int day = today(today);
+        if (day == Dates.NONE) {
+            return this.errorJson("invalid_date", "today", today);
+        }
+        // The watermark moves, so this takes the write lock
+        this.lock.writeLock().lock();
+        try {
+            long[] ids = this.overdue.rollover(day);
+            return JsonWriter.render(out -> this.writeIndexed(ids, null, null, out));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // ====================== Helpers ======================
+
+    // Epoch day of a "today" argument; null or blank means the system date
+    private static int today(String today) {
+        return (today == null || today.isBlank()) ? (int) LocalDate.now().toEpochDay()
+                : Dates.parse(today);
+    }
+
+    // Overdue scan used while the indexes are incomplete (read lock held)
+    private void writeOverdueScan(int todayDay, Appendable out) throws IOException {
+        out.append('[');
         boolean first = true;
-        for (Order o : this.store.values()) {
-            boolean match = false;
-            if ("orderStartDate".equals(which)) {
-                match = this.equalsSafe(o.getOrderStartDate(), value);
-            } else if ("estimatedArrivalDate".equals(which)) {
-                match = this.equalsSafe(o.getEstimatedArrivalDate(), value);
-            } else if ("actualArrivalDate".equals(which)) {
-                match = this.equalsSafe(o.getActualArrivalDate(), value);
-            } else if ("dueDate".equals(which)) {
-                match = this.equalsSafe(o.getDueDate(), value);
-            } else if ("actualReturnDate".equals(which)) {
-                match = this.equalsSafe(o.getActualReturnDate(), value);
-            }
-
-            if (match) {
+        for (Order o : this.store) {
+            String ret = o.getActualReturnDate();
+            int due = Dates.parse(o.getDueDate());
+            if ((ret == null || ret.isBlank()) && due != Dates.NONE && due < todayDay) {
                 if (!first) {
-                    sb.append(",");
+                    out.append(',');
                 }
-                sb.append(this.toJson(o));
+                this.writeJson(o, out);
                 first = false;
             }
         }
-        sb.append("]");
-        return sb.toString();
+        out.append(']');
     }
 
-    // ====================== Helpers ======================
-
-    // Generate next numeric String id
-    private String nextId() {
-        if (this.store.isEmpty()) {
-            return "0";
+    // Day index of a date field, or null for any other field
+    private DayRangeIndex<Order> dateIndex(String field) {
+        for (DayRangeIndex<Order> index : this.dateIndexes) {
+            if (index.field().equals(field)) {
+                return index;
+            }
         }
-        int max = -1;
-        for (String k : this.store.keySet()) {
-            try {
-                int v = Integer.parseInt(k);
-                if (v > max) {
-                    max = v;
-                }
-            } catch (NumberFormatException ignore) {
-                // ignore non-numeric keys
+        return null;
+    }
+
+    // Rows for a list of orderIds from an index, as a JSON array (read lock
+    // held); with a field given, only rows whose value equals value are kept
+    private void writeIndexed(long[] orderIds, String which, String value,
+            Appendable out) throws IOException {
+        out.append('[');
+        boolean first = true;
+        for (long id : orderIds) {
+            Order o = this.store.get(Long.toString(id));
+            if (o == null
+                    || (which != null && !this.equalsSafe(column(o, which), value))) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
             }
+            this.writeJson(o, out);
+            first = false;
+        }
+        out.append(']');
+    }
+
+    // Value of one queryable column by field name
+    private static String column(Order o, String which) {
+        switch (which) {
+            case "custUserId":
+                return o.getCustUserId();
+            case "orderStartDate":
+                return o.getOrderStartDate();
+            case "estimatedArrivalDate":
+                return o.getEstimatedArrivalDate();
+            case "actualArrivalDate":
+                return o.getActualArrivalDate();
+            case "dueDate":
+                return o.getDueDate();
+            case "actualReturnDate":
+                return o.getActualReturnDate();
+            default:
+                throw new IllegalArgumentException("unknown order field: " + which);
         }
-        return String.valueOf(max + 1);
     }
 
     // JSON serialization
     private String toJson(Order o) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{").append("\"orderId\":\"").append(this.esc(o.getOrderId()))
-                .append("\",").append("\"orderStartDate\":\"")
-                .append(this.esc(o.getOrderStartDate())).append("\",")
-                .append("\"estimatedArrivalDate\":\"")
-                .append(this.esc(o.getEstimatedArrivalDate())).append("\",")
-                .append("\"actualArrivalDate\":\"")
-                .append(this.esc(o.getActualArrivalDate())).append("\",")
-                .append("\"dueDate\":\"").append(this.esc(o.getDueDate())).append("\",")
-                .append("\"actualReturnDate\":\"")
-                .append(this.esc(o.getActualReturnDate())).append("\",")
-                .append("\"custUserId\":\"").append(this.esc(o.getCustUserId()))
-                .append("\"").append("}");
-        return sb.toString();
+        return JsonWriter.render(out -> this.writeJson(o, out));
     }
 
-    // Error JSON
-    private String errorJson(String code, String field, String value) {
-        return "{" + "\"error\":\"" + this.esc(code) + "\"," + "\"field\":\""
-                + this.esc(field) + "\"," + "\"value\":\"" + this.esc(value) + "\"" + "}";
+    // Streamed JSON serialization, field by field (also used by BulkExporter)
+    void writeJson(Order o, Appendable out) throws IOException {
+        out.append("{\"orderId\":");
+        JsonWriter.string(out, o.getOrderId());
+        out.append(",\"orderStartDate\":");
+        JsonWriter.string(out, o.getOrderStartDate());
+        out.append(",\"estimatedArrivalDate\":");
+        JsonWriter.string(out, o.getEstimatedArrivalDate());
+        out.append(",\"actualArrivalDate\":");
+        JsonWriter.string(out, o.getActualArrivalDate());
+        out.append(",\"dueDate\":");
+        JsonWriter.string(out, o.getDueDate());
+        out.append(",\"actualReturnDate\":");
+        JsonWriter.string(out, o.getActualReturnDate());
+        out.append(",\"custUserId\":");
+        JsonWriter.string(out, o.getCustUserId());
+        out.append('}');
     }
 
-    // Minimal escaping for JSON strings
-    private String esc(String s) {
-        if (s == null) {
-            return "";
+    // Result of a batch write: rows.get(i) answers input i (null = not found,
+    // keys.get(i) says which key). Only the summary when !withResponse.
+    private String batchJson(List<String> keys, List<Order> rows,
+            boolean withResponse) {
+        int missing = 0;
+        for (Order o : rows) {
+            if (o == null) {
+                missing++;
+            }
         }
-        StringBuilder out = new StringBuilder(s.length() + 8);
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (c == '\\' || c == '\"') {
-                out.append('\\').append(c);
-            } else {
-                out.append(c);
+        if (!withResponse) {
+            return JsonWriter.summary(rows.size() - missing, missing);
+        }
+        return JsonWriter.render(out -> {
+            out.append('[');
+            for (int i = 0; i < rows.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                Order o = rows.get(i);
+                if (o == null) {
+                    out.append(this.errorJson("not_found", "orderId", keys.get(i)));
+                } else {
+                    this.writeJson(o, out);
+                }
             }
+            out.append(']');
+        });
+    }
+
+    // A batch row must carry exactly the expected number of values
+    private static void checkWidth(String[] row, int width) {
+        if (row == null || row.length != width) {
+            throw new IllegalArgumentException("order row needs " + width
+                    + " values, got " + (row == null ? 0 : row.length));
         }
-        return out.toString();
     }
 
+    // Error JSON
+    private String errorJson(String code, String field, String value) {
+        return JsonWriter.error(code, field, value);
+    }
+
+
     // Exact, case-sensitive equality with null-safety
     private boolean equalsSafe(String a, String b) {
         if (a == null && b == null) {
@@ -0,0 +1,49 @@
+package repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import model.Order;
+
+/**
+ * OrderStore - Where OrderRepository keeps its rows. - HeapOrderStore: a
+ * RowStore of Order objects (the default). - MappedOrderStore: fixed-width
+ * columns in memory-mapped files, off the Java heap.
+ *
+ * Both iterate in insertion order; put() of an existing id replaces the row in
+ * place. Paging cursors are positions of their slots and parallel scans
+ * split their slot range (see SlotStore), so neither needs a second
+ * structure per row or a copy of the rows. Not thread-safe on their own:
+ * OrderRepository's lock guards them.
+ */
+interface OrderStore extends Iterable<Order>, Closeable, SlotStore<Order> {
+    Order get(String orderId);
+
+    boolean contains(String orderId);
+
+    // Whether put() can store a row with this orderId (MappedOrderStore only
+    // takes canonical numbers; OrderRepository checks before put())
+    boolean accepts(String orderId);
+
+    // Insert a new row, or replace the row with the same orderId
+    void put(Order o);
+
+    // Remove a row; returns it (or null)
+    Order remove(String orderId);
+
+    int size();
+
+    // Copy up to max rows starting at cursor (0 = first call) into out and
+    // return the cursor to continue from, or -1 once every row was copied.
+    // Lets a checkpoint copy a large store in batches between lock holds.
+    int batch(int cursor, int max, List<Order> out);
+
+    // Reclaim the slots of deleted rows (called by checkpoints between
+    // batch() walks); positions, and so paging cursors, stay valid.
+    void compact();
+
+    // Point-in-time copy of every row that stays readable after the lock is
+    // released and the store moves on; the caller closes it.
+    RowSnapshot<Order> snapshot() throws IOException;
+}
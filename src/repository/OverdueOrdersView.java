@@ -0,0 +1,89 @@
+package repository;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import model.Order;
+
+/**
+ * OverdueOrdersView - Live set of open orders (actualReturnDate blank)
+ * bucketed by due day, kept current by OrderRepository on every
+ * create/update/delete. - overdue(today): every open order due before today,
+ * O(log n + k). - rollover(today): only the orders that became overdue since
+ * the previous rollover, so a daily job can report new overdues without
+ * rescanning. Orders whose dueDate is missing or not a calendar date never
+ * become overdue.
+ *
+ * The rollover watermark is not persisted: after a restart the first
+ * rollover() reports every overdue order once.
+ */
+final class OverdueOrdersView {
+    // Open orders by due day (returned orders and undated ones are left out)
+    private final DayRangeIndex<Order> openByDue = new DayRangeIndex<>("dueDate",
+            OverdueOrdersView::openDue);
+
+    // Day of the previous rollover; orders due before it were already reported
+    private int watermark = Integer.MIN_VALUE;
+
+    // Orders that were already overdue when they entered the view after the
+    // last rollover (e.g. a late update); the next rollover reports them. Their
+    // due day is below the watermark, so they never repeat in the fresh range.
+    private final Set<Long> late = new LinkedHashSet<>();
+
+    // --- Maintenance (called by the repository under its write lock) ---
+
+    void add(long id, Order o) {
+        this.openByDue.add(id, o);
+        int due = openDue(o);
+        if (due != Dates.NONE && due < this.watermark) {
+            this.late.add(id);
+        }
+    }
+
+    void update(long id, Order oldRow, Order newRow) {
+        if (openDue(oldRow) == openDue(newRow)) {
+            return;
+        }
+        this.remove(id, oldRow);
+        this.add(id, newRow);
+    }
+
+    void remove(long id, Order o) {
+        this.openByDue.remove(id, o);
+        this.late.remove(id);
+    }
+
+    // --- Queries ---
+
+    // Open orders due before today, by due day then orderId
+    long[] overdue(int today) {
+        return this.openByDue.range(Integer.MIN_VALUE, today - 1);
+    }
+
+    // Open orders that became overdue since the last rollover (late arrivals
+    // first, then by due day), and move the watermark to today
+    long[] rollover(int today) {
+        long[] fresh = this.openByDue.range(this.watermark, today - 1);
+        long[] out = new long[this.late.size() + fresh.length];
+        int at = 0;
+        for (long id : this.late) {
+            out[at++] = id;
+        }
+        System.arraycopy(fresh, 0, out, at, fresh.length);
+        this.late.clear();
+        this.watermark = Math.max(this.watermark, today);
+        return out;
+    }
+
+    // ====================== Helpers ======================
+
+    // Due day of an open order, or Dates.NONE if returned or undated
+    private static int openDue(Order o) {
+        return isOpen(o) ? Dates.parse(o.getDueDate()) : Dates.NONE;
+    }
+
+    private static boolean isOpen(Order o) {
+        String ret = o.getActualReturnDate();
+        return ret == null || ret.isBlank();
+    }
+}
@@ -0,0 +1,110 @@
+package repository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+/**
+ * ParallelScan - Full-table filter for queries no index can answer. - Tables
+ * smaller than the threshold are scanned on the calling thread, slot by slot.
+ * - Larger tables have their slot range [0, slots()) cut into chunks that are
+ * filtered on the common ForkJoinPool; each task reads its own rows through
+ * SlotStore.row(), so MappedOrderStore decodes rows on the workers and heap
+ * stores are not copied. Each chunk keeps its own matches, and the chunks are
+ * handed to the sink in order, so results keep insertion order.
+ *
+ * The caller holds its repository's read lock for the whole scan: no writer
+ * runs, so row() is safe from several threads, and the predicate must not
+ * touch the store.
+ */
+final class ParallelScan {
+    // Rows below which a scan stays sequential (see setParallelScanThreshold())
+    static final int DEFAULT_THRESHOLD = 50_000;
+
+    // Smallest chunk worth a task of its own
+    private static final int MIN_CHUNK = 4096;
+
+    private ParallelScan() {
+    }
+
+    // --- Every row that matches, in slot order, to sink ---
+    // threshold <= 0 never goes parallel.
+    static <E> void scan(SlotStore<E> rows, int size, int threshold, Predicate<E> match,
+            QueryPlanner.Sink<E> sink) throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int slots = rows.slots();
+        if (threshold <= 0 || size < threshold || pool.getParallelism() < 2) {
+            for (int slot = 0; slot < slots; slot++) {
+                E row = rows.row(slot);
+                if (row != null && match.test(row)) {
+                    sink.accept(row);
+                }
+            }
+            return;
+        }
+        int chunks = Math.max(1, Math.min(pool.getParallelism() * 4, slots / MIN_CHUNK));
+        List<List<E>> found = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            found.add(null);
+        }
+        pool.invoke(new Chunks<>(rows, slots, match, found, 0, chunks));
+        for (List<E> part : found) {
+            for (E row : part) {
+                sink.accept(row);
+            }
+        }
+    }
+
+    // ====================== Helpers ======================
+
+    // Filters chunks [from, to) of the slots, halving the range until one
+    // chunk is left; chunk i covers slots [i * n / chunks, (i + 1) * n / chunks).
+    private static final class Chunks<E> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SlotStore<E> rows;
+        private final int slots;
+        private final Predicate<E> match;
+        private final List<List<E>> found;
+        private final int from;
+        private final int to;
+
+        Chunks(SlotStore<E> rows, int slots, Predicate<E> match, List<List<E>> found,
+                int from, int to) {
+            this.rows = rows;
+            this.slots = slots;
+            this.match = match;
+            this.found = found;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > 1) {
+                int mid = (this.from + this.to) >>> 1;
+                invokeAll(this.part(this.from, mid), this.part(mid, this.to));
+                return;
+            }
+            int chunks = this.found.size();
+            long n = this.slots;
+            int start = (int) (this.from * n / chunks);
+            int end = (int) ((this.from + 1) * n / chunks);
+            List<E> part = new ArrayList<>();
+            for (int slot = start; slot < end; slot++) {
+                E row = this.rows.row(slot);
+                if (row != null && this.match.test(row)) {
+                    part.add(row);
+                }
+            }
+            this.found.set(this.from, part); // distinct slot per task
+        }
+
+        private Chunks<E> part(int from, int to) {
+            return new Chunks<>(this.rows, this.slots, this.match, this.found, from, to);
+        }
+    }
+}
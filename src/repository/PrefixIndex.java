@@ -0,0 +1,110 @@
+package repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * PrefixIndex - Sorted secondary index on a String column, keyed by the
+ * normalized value (lower case, Locale.ROOT): normalized value -> primary
+ * keys. - Case-insensitive exact lookups are one TreeMap probe; prefix lookups
+ * seek to the prefix and read forward while values still start with it, so
+ * both cost O(log n + prefix length + matches). - Results come back ordered
+ * by normalized value, then by insertion. - Null column values are not
+ * indexed and never match; a null search matches nothing. - The owning
+ * repository keeps it current on every create/update/delete.
+ */
+final class PrefixIndex<E> {
+    private final String field;
+    private final Function<E, String> column;
+    private final TreeMap<String, Set<String>> postings = new TreeMap<>();
+
+    PrefixIndex(String field, Function<E, String> column) {
+        this.field = field;
+        this.column = column;
+    }
+
+    String field() {
+        return this.field;
+    }
+
+    // --- The form values are indexed and searched by ---
+    static String normalize(String s) {
+        return (s == null) ? null : s.toLowerCase(Locale.ROOT);
+    }
+
+    // --- Whether a column value matches a search (same rules as the lookups) ---
+    static boolean matches(String value, String search, boolean prefix) {
+        String v = normalize(value);
+        String s = normalize(search);
+        return v != null && s != null && (prefix ? v.startsWith(s) : v.equals(s));
+    }
+
+    // --- Maintenance (called by the repository under its write lock) ---
+
+    void add(String key, E row) {
+        String value = normalize(this.column.apply(row));
+        if (value != null) {
+            this.postings.computeIfAbsent(value, v -> new LinkedHashSet<>()).add(key);
+        }
+    }
+
+    void remove(String key, E row) {
+        String value = normalize(this.column.apply(row));
+        Set<String> keys = (value == null) ? null : this.postings.get(value);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            this.postings.remove(value);
+        }
+    }
+
+    // Replace old row by new row; untouched when the normalized value did not
+    // change, so the key keeps its position
+    void update(String key, E oldRow, E newRow) {
+        String a = normalize(this.column.apply(oldRow));
+        String b = normalize(this.column.apply(newRow));
+        if (a == null ? b == null : a.equals(b)) {
+            return;
+        }
+        this.remove(key, oldRow);
+        this.add(key, newRow);
+    }
+
+    // --- Lookups ---
+
+    // Keys whose value equals value, ignoring case; none for null (see matches())
+    Set<String> lookupIgnoreCase(String value) {
+        if (value == null) {
+            return Collections.emptySet();
+        }
+        Set<String> keys = this.postings.get(normalize(value));
+        return (keys == null) ? Collections.emptySet()
+                : Collections.unmodifiableSet(keys);
+    }
+
+    // Keys whose value starts with prefix, ignoring case; none for null
+    List<String> prefix(String prefix) {
+        String p = normalize(prefix);
+        List<String> out = new ArrayList<>();
+        if (p == null) {
+            return out;
+        }
+        for (Map.Entry<String, Set<String>> e : this.postings.tailMap(p, true)
+                .entrySet()) {
+            if (!e.getKey().startsWith(p)) {
+                break;
+            }
+            out.addAll(e.getValue());
+        }
+        return out;
+    }
+
+    int distinctValues() {
+        return this.postings.size();
+    }
+}
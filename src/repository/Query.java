@@ -0,0 +1,161 @@
+package repository;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Query - A filter over one table, built from field predicates and passed to
+ * a repository's query(Query) / explain(Query).
+ * - eq(field, value): exact, case-sensitive match (same as the queryByX
+ *   methods).
+ * - range(field, min, max): inclusive bounds; null or blank leaves that end
+ *   open. Numeric fields compare as numbers, date fields as calendar days
+ *   (rows whose date is not a real date never match), other fields as text.
+ * - and(...) / or(...) combine predicates.
+ *
+ * Values are always text; the repository checks field names and parses the
+ * values for its own columns when the query runs. Immutable.
+ */
+public final class Query {
+    enum Op {
+        EQ, RANGE, AND, OR
+    }
+
+    final Op op;
+    final String field; // EQ / RANGE
+    final String value; // EQ
+    final String min; // RANGE, null = open
+    final String max; // RANGE, null = open
+    final List<Query> parts; // AND / OR
+
+    private Query(Op op, String field, String value, String min, String max,
+            List<Query> parts) {
+        this.op = op;
+        this.field = field;
+        this.value = value;
+        this.min = min;
+        this.max = max;
+        this.parts = parts;
+    }
+
+    // --- field == value ---
+    public static Query eq(String field, String value) {
+        return new Query(Op.EQ, checkField(field), value, null, null,
+                Collections.emptyList());
+    }
+
+    // --- minInclusive <= field <= maxInclusive (null / blank = open end) ---
+    public static Query range(String field, String minInclusive, String maxInclusive) {
+        return new Query(Op.RANGE, checkField(field), null, open(minInclusive),
+                open(maxInclusive), Collections.emptyList());
+    }
+
+    // --- Every part matches ---
+    public static Query and(Query... parts) {
+        return new Query(Op.AND, null, null, null, null, checkParts(parts));
+    }
+
+    // --- At least one part matches ---
+    public static Query or(Query... parts) {
+        return new Query(Op.OR, null, null, null, null, checkParts(parts));
+    }
+
+    // Readable form used by explain(), e.g. city = "X" AND salary BETWEEN 1 AND *
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        this.appendTo(sb);
+        return sb.toString();
+    }
+
+    // Exact form for QueryCache keys: every value is length-prefixed, so two
+    // different queries never share a key (toString() is for reading only)
+    String cacheKey() {
+        StringBuilder sb = new StringBuilder();
+        this.appendKey(sb);
+        return sb.toString();
+    }
+
+    // ====================== Helpers ======================
+
+    private void appendKey(StringBuilder sb) {
+        sb.append(this.op.name()).append('(');
+        if (this.op == Op.AND || this.op == Op.OR) {
+            for (Query p : this.parts) {
+                p.appendKey(sb);
+            }
+        } else {
+            keyPart(sb, this.field);
+            keyPart(sb, this.value);
+            keyPart(sb, this.min);
+            keyPart(sb, this.max);
+        }
+        sb.append(')');
+    }
+
+    // length:text, or - for null
+    private static void keyPart(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append('-');
+        } else {
+            sb.append(s.length()).append(':').append(s);
+        }
+    }
+
+    private void appendTo(StringBuilder sb) {
+        if (this.op == Op.EQ) {
+            sb.append(this.field).append(" = ");
+            quote(sb, this.value);
+        } else if (this.op == Op.RANGE) {
+            sb.append(this.field).append(" BETWEEN ");
+            quote(sb, this.min);
+            sb.append(" AND ");
+            quote(sb, this.max);
+        } else {
+            String joiner = (this.op == Op.AND) ? " AND " : " OR ";
+            for (int i = 0; i < this.parts.size(); i++) {
+                Query p = this.parts.get(i);
+                if (i > 0) {
+                    sb.append(joiner);
+                }
+                boolean nested = p.op == Op.AND || p.op == Op.OR;
+                sb.append(nested ? "(" : "");
+                p.appendTo(sb);
+                sb.append(nested ? ")" : "");
+            }
+        }
+    }
+
+    // "value", or * for an open range end / null
+    private static void quote(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append('*');
+        } else {
+            sb.append('"').append(s.replace("\"", "\\\"")).append('"');
+        }
+    }
+
+    private static String checkField(String field) {
+        if (field == null || field.isBlank()) {
+            throw new IllegalArgumentException("field cannot be null/blank");
+        }
+        return field;
+    }
+
+    private static String open(String bound) {
+        return (bound == null || bound.isBlank()) ? null : bound;
+    }
+
+    private static List<Query> checkParts(Query[] parts) {
+        if (parts == null || parts.length == 0) {
+            throw new IllegalArgumentException("and/or need at least one part");
+        }
+        for (Query p : parts) {
+            if (p == null) {
+                throw new IllegalArgumentException("query part cannot be null");
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(parts.clone()));
+    }
+}
@@ -0,0 +1,192 @@
+package repository;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * QueryCache - Bounded cache of serialized query results for one repository,
+ * keyed by method name and arguments (see key()).
+ * - Each entry remembers which rows it depends on: a predicate that is true
+ *   for every row that is, or would be, part of the result. A write passes
+ *   the old and new row to invalidate(), and only the entries whose
+ *   predicate matches either of them are dropped; unrelated results survive.
+ * - Bounded by entry count and by total characters; a result larger than a
+ *   quarter of the character budget is not cached at all.
+ * - Eviction: LRU drops the least recently used entry; LFU drops the entry
+ *   with the fewest hits, least recently used first among equals.
+ * - Hit / miss / eviction / invalidation counters are reported by statsJson().
+ *
+ * Consistency relies on the owning repository: results are computed and
+ * stored under its read lock, and invalidate() runs under its write lock, so
+ * a result can never be cached after a write it did not see. The cache's own
+ * monitor only protects its map from concurrent readers.
+ */
+public final class QueryCache<E> {
+    public enum Policy {
+        LRU, LFU
+    }
+
+    // Bounds every repository starts with (see configureCache())
+    static final int DEFAULT_ENTRIES = 256;
+    static final long DEFAULT_CHARS = 4L * 1024 * 1024;
+
+    // Batches with more rows than this clear the cache instead of checking
+    // every row against every entry
+    private static final int PRECISE_BATCH_ROWS = 64;
+
+    private final Policy policy;
+    private final int maxEntries; // 0 = disabled
+    private final long maxChars;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry<E>> entries = new LinkedHashMap<>(16,
+            0.75f, true);
+    private long chars;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    // One cached result and the rows it depends on
+    private static final class Entry<E> {
+        private final String json;
+        private final Predicate<E> dependsOn;
+        private long hits;
+
+        Entry(String json, Predicate<E> dependsOn) {
+            this.json = json;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    QueryCache(Policy policy, int maxEntries, long maxChars) {
+        if (maxEntries < 0 || maxChars < 0) {
+            throw new IllegalArgumentException("cache bounds must be non-negative");
+        }
+        this.policy = policy;
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+    }
+
+    // --- LRU cache with the default bounds ---
+    static <E> QueryCache<E> defaults() {
+        return new QueryCache<>(Policy.LRU, DEFAULT_ENTRIES, DEFAULT_CHARS);
+    }
+
+    // --- Key of one call: method name and arguments (null kept distinct) ---
+    static String key(String method, Object... args) {
+        StringBuilder sb = new StringBuilder(method);
+        for (Object a : args) {
+            sb.append('\u0000');
+            if (a == null) {
+                sb.append('\u0001');
+            } else {
+                sb.append(a);
+            }
+        }
+        return sb.toString();
+    }
+
+    // --- Cached result for key, or run body, cache and return its result ---
+    // Called under the repository's read lock; body runs outside this monitor,
+    // so concurrent readers of different keys are not serialized.
+    String get(String key, Predicate<E> dependsOn, JsonWriter.Body body) {
+        if (this.maxEntries == 0) {
+            return JsonWriter.render(body);
+        }
+        synchronized (this) {
+            Entry<E> e = this.entries.get(key);
+            if (e != null) {
+                e.hits++;
+                this.hits++;
+                return e.json;
+            }
+            this.misses++;
+        }
+        String json = JsonWriter.render(body);
+        this.put(key, json, dependsOn);
+        return json;
+    }
+
+    // --- Drop the entries that depend on either row (null = no such row) ---
+    // Called under the repository's write lock for every changed row.
+    synchronized void invalidate(E oldRow, E newRow) {
+        if (this.entries.isEmpty()) {
+            return;
+        }
+        Iterator<Entry<E>> it = this.entries.values().iterator();
+        while (it.hasNext()) {
+            Entry<E> e = it.next();
+            if ((oldRow != null && e.dependsOn.test(oldRow))
+                    || (newRow != null && e.dependsOn.test(newRow))) {
+                this.chars -= e.json.length();
+                it.remove();
+                this.invalidations++;
+            }
+        }
+    }
+
+    // --- Called once a batch is validated, before it changes rows rows ---
+    // Large batches clear everything; a rejected batch never gets here.
+    synchronized void beforeBatch(int rows) {
+        if (rows > PRECISE_BATCH_ROWS) {
+            this.invalidations += this.entries.size();
+            this.entries.clear();
+            this.chars = 0;
+        }
+    }
+
+    // --- Counters and bounds as JSON ---
+    synchronized String statsJson() {
+        return JsonWriter.render(out -> {
+            out.append("{\"policy\":");
+            JsonWriter.string(out, this.policy.name());
+            out.append(",\"maxEntries\":");
+            JsonWriter.number(out, this.maxEntries);
+            out.append(",\"maxChars\":").append(Long.toString(this.maxChars));
+            out.append(",\"entries\":");
+            JsonWriter.number(out, this.entries.size());
+            out.append(",\"chars\":").append(Long.toString(this.chars));
+            out.append(",\"hits\":").append(Long.toString(this.hits));
+            out.append(",\"misses\":").append(Long.toString(this.misses));
+            out.append(",\"evictions\":").append(Long.toString(this.evictions));
+            out.append(",\"invalidations\":").append(Long.toString(this.invalidations));
+            out.append('}');
+        });
+    }
+
+    // ====================== Helpers ======================
+
+    private synchronized void put(String key, String json, Predicate<E> dependsOn) {
+        if (json.length() > this.maxChars / 4) {
+            return;
+        }
+        Entry<E> old = this.entries.put(key, new Entry<>(json, dependsOn));
+        if (old != null) {
+            this.chars -= old.json.length(); // another reader got there first
+        }
+        this.chars += json.length();
+        while (this.entries.size() > this.maxEntries || this.chars > this.maxChars) {
+            this.evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry<E>>> it = this.entries.entrySet().iterator();
+        Map.Entry<String, Entry<E>> victim = it.next();
+        if (this.policy == Policy.LFU) {
+            while (it.hasNext()) {
+                Map.Entry<String, Entry<E>> e = it.next();
+                if (e.getValue().hits < victim.getValue().hits) {
+                    victim = e;
+                }
+            }
+        }
+        this.entries.remove(victim.getKey());
+        this.chars -= victim.getValue().json.length();
+        this.evictions++;
+    }
+}
@@ -0,0 +1,678 @@
+package repository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * QueryPlanner - Plans and runs a Query against one repository, which
+ * describes its columns and secondary indexes through Table.
+ *
+ * Planning, bottom-up:
+ * - a predicate on a field whose index can answer it costs the number of rows
+ *   the index returns (asked from the index, not guessed); anything else costs
+ *   a full scan;
+ * - AND takes its cheapest indexed part and checks the rest on each row;
+ * - OR can use indexes only if every part can, as a union of their rows (and
+ *   only if that is cheaper than a scan).
+ * Every candidate row is checked against the whole query, so an index only
+ * narrows the rows read, never changes the answer. Rows come back in the
+ * order of the chosen access path: insertion order for a scan, index order
+ * otherwise. A scan of a large table is split across the ForkJoinPool (see
+ * ParallelScan) and still returns rows in insertion order.
+ *
+ * explain() returns the chosen plan as JSON, with the estimated rows of each
+ * step and, for an AND, the alternatives that were considered.
+ *
+ * writePage() returns one page of the matches in insertion order, resuming
+ * from an opaque cursor (keyset paging on the store's slot positions, see
+ * SlotStore). A selective index plan reads its candidate rows and keeps the
+ * first page of them; otherwise the slots are walked from the cursor until the
+ * page is full, so no page pays for the rows before it.
+ *
+ * Not thread-safe on its own: the repository calls it under its read lock.
+ */
+final class QueryPlanner<E> {
+    // How a field's values compare in range predicates
+    enum Kind {
+        TEXT, INT, DATE
+    }
+
+    // What the planner needs from a repository
+    interface Table<E> {
+        // Kind of a field, or null if the table has no such field
+        Kind kind(String field);
+
+        String text(E row, String field);
+
+        // Value of an INT field
+        int number(E row, String field);
+
+        int size();
+
+        // The store's rows by slot, for scans and keyset paging
+        SlotStore<E> slots();
+
+        // Rows from which a scan runs on the ForkJoinPool (see ParallelScan)
+        int parallelThreshold();
+
+        E get(String key);
+
+        // Index usable for predicates on field, or null
+        Index index(String field);
+    }
+
+    // One secondary index as the planner sees it
+    interface Index {
+        // For explain(), e.g. "HashIndex(city)"
+        String name();
+
+        // Rows the index returns for a predicate, or -1 if it cannot answer it
+        long count(Node leaf);
+
+        // Keys of those rows (a superset of the matches)
+        Iterable<String> keys(Node leaf);
+    }
+
+    // Receives each matching row
+    interface Sink<E> {
+        void accept(E row) throws IOException;
+    }
+
+    private final String table;
+    private final Table<E> source;
+
+    QueryPlanner(String table, Table<E> source) {
+        this.table = table;
+        this.source = source;
+    }
+
+    // --- Stream the matching rows as a JSON array (or an error object) ---
+    void write(Query q, Appendable out, Sink<E> rowJson) throws IOException {
+        Node n;
+        try {
+            n = this.compile(q);
+        } catch (BadValue e) {
+            out.append(JsonWriter.error(e.code, e.field, e.value));
+            return;
+        }
+        out.append('[');
+        boolean[] first = { true };
+        this.run(n, this.plan(n), row -> {
+            if (!first[0]) {
+                out.append(',');
+            }
+            rowJson.accept(row);
+            first[0] = false;
+        });
+        out.append(']');
+    }
+
+    // --- The plan write() would use, as JSON ---
+    String explain(Query q) {
+        Node n;
+        try {
+            n = this.compile(q);
+        } catch (BadValue e) {
+            return JsonWriter.error(e.code, e.field, e.value);
+        }
+        Plan p = this.plan(n);
+        return JsonWriter.render(out -> {
+            out.append("{\"table\":");
+            JsonWriter.string(out, this.table);
+            out.append(",\"query\":");
+            JsonWriter.string(out, q.toString());
+            out.append(",\"tableRows\":");
+            JsonWriter.number(out, this.source.size());
+            out.append(",\"plan\":");
+            p.writeJson(out);
+            out.append('}');
+        });
+    }
+
+    // --- One page of the matches (q == null: every row) as JSON ---
+    // {"next":cursor,"prev":cursor,"rows":[...]}: cursor null starts at the
+    // first row; next / prev are null when there is nothing to page to (prev
+    // is offered whenever the page was reached through a cursor).
+    void writePage(Query q, String cursor, int limit, Appendable out, Sink<E> rowJson)
+            throws IOException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("page limit must be positive");
+        }
+        Node n;
+        long from;
+        try {
+            n = (q == null) ? null : this.compile(q);
+            from = parseCursor(cursor);
+        } catch (BadValue e) {
+            out.append(JsonWriter.error(e.code, e.field, e.value));
+            return;
+        }
+        boolean backward = cursor != null && cursor.charAt(0) == PREV;
+        SlotStore<E> slots = this.source.slots();
+        // First slot past the cursor: forward pages read slots >= start,
+        // backward pages slots < start
+        int start = (from < 0) ? 0 : slots.slotAt(backward ? from : from + 1);
+
+        // limit + 1 slots in paging direction; the extra one means "more"
+        Plan p = (n == null) ? null : this.plan(n);
+        List<Integer> page = (p != null && this.pageFromIndex(p, limit))
+                ? this.pageOfCandidates(n, p, start, backward, limit + 1)
+                : this.pageOfWalk(n, start, backward, limit + 1);
+        boolean more = page.size() > limit;
+        if (more) {
+            page.remove(limit);
+        }
+        if (backward) {
+            Collections.reverse(page);
+        }
+        boolean empty = page.isEmpty();
+        String next = null;
+        String prev = null;
+        if (!empty && (backward || more)) {
+            next = NEXT + Long.toString(slots.position(page.get(page.size() - 1)), 36);
+        }
+        if (!empty && (backward ? more : cursor != null)) {
+            prev = PREV + Long.toString(slots.position(page.get(0)), 36);
+        }
+
+        out.append("{\"next\":");
+        writeCursor(out, next);
+        out.append(",\"prev\":");
+        writeCursor(out, prev);
+        out.append(",\"rows\":[");
+        for (int i = 0; i < page.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            rowJson.accept(slots.row(page.get(i)));
+        }
+        out.append("]}");
+    }
+
+    // --- The rows results of q depend on, for QueryCache (q == null: all) ---
+    // A query with a bad value returns the same error whatever the rows.
+    Predicate<E> dependsOn(Query q) {
+        if (q == null) {
+            return row -> true;
+        }
+        try {
+            Node n = this.compile(q);
+            return row -> this.matches(n, row);
+        } catch (BadValue e) {
+            return row -> false;
+        }
+    }
+
+    // ====================== Compile ======================
+
+    // A Query checked against the table, with its values parsed
+    static final class Node {
+        final Query.Op op;
+        final String field;
+        final Kind kind;
+        final String value; // EQ
+        final String min; // RANGE (TEXT), null = open
+        final String max;
+        final int lo; // EQ / RANGE on INT or DATE: parsed bounds (EQ: lo == hi,
+        final int hi; // RANGE: MIN_VALUE / MAX_VALUE for an open end)
+        final boolean notDate; // DATE EQ on a value that is not a date
+        final Query source;
+        final List<Node> parts;
+
+        private Node(Query q, Kind kind, int lo, int hi, List<Node> parts) {
+            this.op = q.op;
+            this.field = q.field;
+            this.kind = kind;
+            this.value = q.value;
+            this.min = q.min;
+            this.max = q.max;
+            this.lo = lo;
+            this.hi = hi;
+            this.notDate = kind == Kind.DATE && q.op == Query.Op.EQ && lo == Dates.NONE;
+            this.source = q;
+            this.parts = parts;
+        }
+    }
+
+    // Bad value in a query, reported as {"error":code,"field":..,"value":..}
+    private static final class BadValue extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final String code;
+        private final String field;
+        private final String value;
+
+        BadValue(String code, String field, String value) {
+            super(code, null, false, false);
+            this.code = code;
+            this.field = field;
+            this.value = value;
+        }
+    }
+
+    private Node compile(Query q) throws BadValue {
+        if (q.op == Query.Op.AND || q.op == Query.Op.OR) {
+            List<Node> parts = new ArrayList<>(q.parts.size());
+            for (Query p : q.parts) {
+                parts.add(this.compile(p));
+            }
+            return new Node(q, null, 0, 0, parts);
+        }
+        Kind kind = this.source.kind(q.field);
+        if (kind == null) {
+            throw new IllegalArgumentException(
+                    "unknown " + this.table + " field: " + q.field);
+        }
+        int lo = Integer.MIN_VALUE;
+        int hi = Integer.MAX_VALUE;
+        if (q.op == Query.Op.EQ && kind == Kind.INT) {
+            lo = hi = parseInt(q.field, q.value);
+        } else if (q.op == Query.Op.EQ && kind == Kind.DATE) {
+            lo = hi = Dates.parse(q.value);
+        } else if (q.op == Query.Op.RANGE && kind == Kind.INT) {
+            lo = (q.min == null) ? lo : parseInt(q.field, q.min);
+            hi = (q.max == null) ? hi : parseInt(q.field, q.max);
+        } else if (q.op == Query.Op.RANGE && kind == Kind.DATE) {
+            lo = (q.min == null) ? lo : parseDay(q.field, q.min);
+            hi = (q.max == null) ? hi : parseDay(q.field, q.max);
+        }
+        return new Node(q, kind, lo, hi, Collections.emptyList());
+    }
+
+    private static int parseInt(String field, String s) throws BadValue {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new BadValue("invalid_number", field, s);
+        }
+    }
+
+    private static int parseDay(String field, String s) throws BadValue {
+        int day = Dates.parse(s);
+        if (day == Dates.NONE) {
+            throw new BadValue("invalid_date", field, s);
+        }
+        return day;
+    }
+
+    // ====================== Plan ======================
+
+    // One access path and the rows it is expected to read
+    private static final class Plan {
+        private final Index index; // null for scan / union
+        private final Node leaf;
+        private final List<Plan> branches; // union parts, or null
+        private final List<Plan> considered; // AND alternatives, or null
+        private final long rows;
+
+        private Plan(Index index, Node leaf, List<Plan> branches, List<Plan> considered,
+                long rows) {
+            this.index = index;
+            this.leaf = leaf;
+            this.branches = branches;
+            this.considered = considered;
+            this.rows = rows;
+        }
+
+        boolean isScan() {
+            return this.index == null && this.branches == null;
+        }
+
+        Plan considering(List<Plan> options) {
+            return new Plan(this.index, this.leaf, this.branches, options, this.rows);
+        }
+
+        void writeJson(Appendable out) throws IOException {
+            out.append("{\"access\":");
+            if (this.index != null) {
+                JsonWriter.string(out, "index");
+                out.append(",\"index\":");
+                JsonWriter.string(out, this.index.name());
+                out.append(",\"predicate\":");
+                JsonWriter.string(out, this.leaf.source.toString());
+            } else {
+                JsonWriter.string(out, this.isScan() ? "scan" : "union");
+            }
+            out.append(",\"estimatedRows\":").append(Long.toString(this.rows));
+            writeList(out, "branches", this.branches);
+            writeList(out, "considered", this.considered);
+            out.append('}');
+        }
+
+        private static void writeList(Appendable out, String name, List<Plan> plans)
+                throws IOException {
+            if (plans == null) {
+                return;
+            }
+            out.append(",\"").append(name).append("\":[");
+            for (int i = 0; i < plans.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                plans.get(i).writeJson(out);
+            }
+            out.append(']');
+        }
+    }
+
+    private Plan plan(Node n) {
+        long all = this.source.size();
+        if (n.op == Query.Op.AND) {
+            List<Plan> options = new ArrayList<>(n.parts.size());
+            Plan best = null;
+            for (Node p : n.parts) {
+                Plan option = this.plan(p);
+                options.add(option);
+                if (!option.isScan() && (best == null || option.rows < best.rows)) {
+                    best = option;
+                }
+            }
+            Plan chosen = (best == null) ? scan(all) : best;
+            return (options.size() > 1) ? chosen.considering(options) : chosen;
+        }
+        if (n.op == Query.Op.OR) {
+            List<Plan> branches = new ArrayList<>(n.parts.size());
+            long rows = 0;
+            for (Node p : n.parts) {
+                Plan branch = this.plan(p);
+                if (branch.isScan()) {
+                    return scan(all);
+                }
+                branches.add(branch);
+                rows += branch.rows;
+            }
+            return (rows >= all) ? scan(all) : new Plan(null, null, branches, null, rows);
+        }
+        Index index = this.source.index(n.field);
+        long rows = (index == null) ? -1 : index.count(n);
+        return (rows < 0) ? scan(all) : new Plan(index, n, null, null, rows);
+    }
+
+    private static Plan scan(long rows) {
+        return new Plan(null, null, null, null, rows);
+    }
+
+    // ====================== Run ======================
+
+    private void run(Node n, Plan p, Sink<E> sink) throws IOException {
+        if (p.isScan()) {
+            ParallelScan.scan(this.source.slots(), this.source.size(),
+                    this.source.parallelThreshold(), row -> this.matches(n, row), sink);
+            return;
+        }
+        for (String key : this.candidates(p)) {
+            E row = this.source.get(key);
+            if (row != null && this.matches(n, row)) {
+                sink.accept(row);
+            }
+        }
+    }
+
+    // Keys an index or union plan reads (a superset of the matches)
+    private Iterable<String> candidates(Plan p) {
+        if (p.index != null) {
+            return p.index.keys(p.leaf);
+        }
+        Set<String> union = new LinkedHashSet<>();
+        this.collect(p, union);
+        return union;
+    }
+
+    private void collect(Plan p, Set<String> out) {
+        if (p.index != null) {
+            for (String key : p.index.keys(p.leaf)) {
+                out.add(key);
+            }
+        } else {
+            for (Plan b : p.branches) {
+                this.collect(b, out);
+            }
+        }
+    }
+
+    private boolean matches(Node n, E row) {
+        switch (n.op) {
+            case AND:
+                for (Node p : n.parts) {
+                    if (!this.matches(p, row)) {
+                        return false;
+                    }
+                }
+                return true;
+            case OR:
+                for (Node p : n.parts) {
+                    if (this.matches(p, row)) {
+                        return true;
+                    }
+                }
+                return false;
+            case EQ:
+                if (n.kind == Kind.INT) {
+                    return this.source.number(row, n.field) == n.lo;
+                }
+                String s = this.source.text(row, n.field);
+                return (s == null) ? n.value == null : s.equals(n.value);
+            default:
+                if (n.kind == Kind.INT) {
+                    int v = this.source.number(row, n.field);
+                    return v >= n.lo && v <= n.hi;
+                }
+                String t = this.source.text(row, n.field);
+                if (n.kind == Kind.DATE) {
+                    int day = Dates.parse(t);
+                    return day != Dates.NONE && day >= n.lo && day <= n.hi;
+                }
+                return t != null && (n.min == null || t.compareTo(n.min) >= 0)
+                        && (n.max == null || t.compareTo(n.max) <= 0);
+        }
+    }
+
+    // ====================== Paging ======================
+
+    // Cursor prefixes: resume after / before the slot position that follows
+    private static final char NEXT = 'n';
+    private static final char PREV = 'p';
+
+    // Position a cursor resumes from; -1 for the first page
+    private static long parseCursor(String cursor) throws BadValue {
+        if (cursor == null) {
+            return -1;
+        }
+        if (cursor.length() < 2
+                || (cursor.charAt(0) != NEXT && cursor.charAt(0) != PREV)) {
+            throw new BadValue("invalid_cursor", "cursor", cursor);
+        }
+        try {
+            long position = Long.parseLong(cursor.substring(1), 36);
+            if (position < 0) {
+                throw new BadValue("invalid_cursor", "cursor", cursor);
+            }
+            return position;
+        } catch (NumberFormatException e) {
+            throw new BadValue("invalid_cursor", "cursor", cursor);
+        }
+    }
+
+    private static void writeCursor(Appendable out, String cursor) throws IOException {
+        if (cursor == null) {
+            out.append("null");
+        } else {
+            JsonWriter.string(out, cursor);
+        }
+    }
+
+    // Read an index plan's candidates rather than walk the table when that is
+    // cheaper: a walk reads about size / matches rows per row it returns.
+    private boolean pageFromIndex(Plan p, int limit) {
+        double walk = (double) (limit + 1) * this.source.size();
+        return !p.isScan() && (double) p.rows * p.rows < walk;
+    }
+
+    // Walk the slots from start until want matches are found
+    private List<Integer> pageOfWalk(Node n, int start, boolean backward, int want) {
+        SlotStore<E> slots = this.source.slots();
+        List<Integer> page = new ArrayList<>(want);
+        int step = backward ? -1 : 1;
+        for (int slot = backward ? start - 1 : start; slot >= 0 && slot < slots.slots();
+                slot += step) {
+            E row = slots.row(slot);
+            if (row != null && (n == null || this.matches(n, row))) {
+                page.add(slot);
+                if (page.size() == want) {
+                    break;
+                }
+            }
+        }
+        return page;
+    }
+
+    // The want matches nearest to start among an index plan's candidates
+    private List<Integer> pageOfCandidates(Node n, Plan p, int start, boolean backward,
+            int want) {
+        SlotStore<E> slots = this.source.slots();
+        // Keeps the want nearest; its head is the farthest one kept
+        Comparator<Integer> nearestFirst = backward ? Comparator.reverseOrder()
+                : Comparator.naturalOrder();
+        PriorityQueue<Integer> kept = new PriorityQueue<>(want + 1, nearestFirst.reversed());
+        for (String key : this.candidates(p)) {
+            int slot = slots.slotOf(key);
+            boolean ahead = backward ? slot < start : slot >= start;
+            if (slot < 0 || !ahead || (kept.size() == want
+                    && nearestFirst.compare(slot, kept.peek()) >= 0)) {
+                continue;
+            }
+            E row = slots.row(slot);
+            if (row != null && this.matches(n, row)) {
+                kept.add(slot);
+                if (kept.size() > want) {
+                    kept.poll();
+                }
+            }
+        }
+        List<Integer> page = new ArrayList<>(kept);
+        page.sort(nearestFirst);
+        return page;
+    }
+
+    // ====================== Index adapters ======================
+
+    // The table's own key lookup (EQ on the primary key)
+    static <E> Index primaryKey(String field, Table<E> table) {
+        return new Index() {
+            @Override
+            public String name() {
+                return "primaryKey(" + field + ")";
+            }
+
+            @Override
+            public long count(Node leaf) {
+                if (leaf.op != Query.Op.EQ) {
+                    return -1;
+                }
+                return (leaf.value != null && table.get(leaf.value) != null) ? 1 : 0;
+            }
+
+            @Override
+            public Iterable<String> keys(Node leaf) {
+                return (leaf.value == null) ? Collections.emptyList()
+                        : Collections.singletonList(leaf.value);
+            }
+        };
+    }
+
+    // Exact-match hash index on a text column (EQ only)
+    static Index hash(HashIndex<?> index) {
+        return new Index() {
+            @Override
+            public String name() {
+                return "HashIndex(" + index.field() + ")";
+            }
+
+            @Override
+            public long count(Node leaf) {
+                return (leaf.op == Query.Op.EQ) ? index.lookup(leaf.value).size() : -1;
+            }
+
+            @Override
+            public Iterable<String> keys(Node leaf) {
+                return index.lookup(leaf.value);
+            }
+        };
+    }
+
+    // Sorted index on an int column (EQ and RANGE)
+    static Index ints(IntRangeIndex<?> index) {
+        return new Index() {
+            @Override
+            public String name() {
+                return "IntRangeIndex(" + index.field() + ")";
+            }
+
+            @Override
+            public long count(Node leaf) {
+                return index.count(leaf.lo, leaf.hi);
+            }
+
+            @Override
+            public Iterable<String> keys(Node leaf) {
+                return index.range(leaf.lo, leaf.hi);
+            }
+        };
+    }
+
+    // Sorted epoch-day index on a date column (EQ on a real date, RANGE)
+    static Index days(DayRangeIndex<?> index) {
+        return new Index() {
+            @Override
+            public String name() {
+                return "DayRangeIndex(" + index.field() + ")";
+            }
+
+            @Override
+            public long count(Node leaf) {
+                return leaf.notDate ? -1 : index.count(leaf.lo, leaf.hi);
+            }
+
+            @Override
+            public Iterable<String> keys(Node leaf) {
+                return toStrings(index.range(leaf.lo, leaf.hi));
+            }
+        };
+    }
+
+    // Hash index on a column of plain numbers (EQ on a canonical number)
+    static Index longs(LongPostingIndex<?> index) {
+        return new Index() {
+            @Override
+            public String name() {
+                return "LongPostingIndex(" + index.field() + ")";
+            }
+
+            @Override
+            public long count(Node leaf) {
+                long v = IdSequence.canonical(leaf.value);
+                return (leaf.op != Query.Op.EQ || v < 0) ? -1 : index.count(v);
+            }
+
+            @Override
+            public Iterable<String> keys(Node leaf) {
+                return toStrings(index.lookup(IdSequence.canonical(leaf.value)));
+            }
+        };
+    }
+
+    private static List<String> toStrings(long[] ids) {
+        List<String> out = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            out.add(Long.toString(id));
+        }
+        return out;
+    }
+}
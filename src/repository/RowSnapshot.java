@@ -0,0 +1,40 @@
+package repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * RowSnapshot - A point-in-time set of rows that can be read for as long as
+ * needed without holding the repository lock (see BulkExporter). - Heap
+ * tables never modify a stored row (updates put a new object), so their
+ * snapshot is just an array of the row references. - The mapped order store
+ * snapshots into a copy of its column files; close() deletes it.
+ */
+interface RowSnapshot<E> extends Iterable<E>, Closeable {
+    int size();
+
+    @Override
+    void close() throws IOException;
+
+    // --- Snapshot over an array of immutable rows (nothing to release) ---
+    static <E> RowSnapshot<E> of(E[] rows) {
+        return new RowSnapshot<E>() {
+            @Override
+            public int size() {
+                return rows.length;
+            }
+
+            @Override
+            public Iterator<E> iterator() {
+                return Arrays.asList(rows).iterator();
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+        };
+    }
+}
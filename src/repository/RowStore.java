@@ -0,0 +1,269 @@
+package repository;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * RowStore - The rows of a heap table by primary key, in insertion order,
+ * kept in plain arrays: slot -> key, slot -> row and slot -> position, plus an
+ * open-addressing table from key to slot (linear probing, backward-shift
+ * deletes, as in LongPostingIndex). About 24-32 bytes per row and no
+ * per-row objects, less than the LinkedHashMap it replaces. - put() of a new
+ * key appends a slot; put() of a known key replaces the row in its slot, so
+ * the row keeps its place. - remove() empties the slot; once empty slots
+ * outnumber the rows they are squeezed out, in order. Positions move with
+ * their rows, so cursors stay valid (see SlotStore). - get() of a null key
+ * finds nothing; null keys cannot be stored.
+ *
+ * Not thread-safe on its own: the repository keeps it under its lock.
+ */
+final class RowStore<E> implements SlotStore<E>, Iterable<E> {
+    // Empty slots are squeezed out once there are this many and more than rows
+    private static final int COMPACT_AT = 1024;
+    private static final int MIN_SLOTS = 16;
+
+    // Parallel arrays over slots [0, slots); a null key and row = deleted
+    private String[] keys = new String[MIN_SLOTS];
+    private Object[] rows = new Object[MIN_SLOTS];
+    private long[] positions = new long[MIN_SLOTS];
+    private int slots = 0;
+    private int size = 0;
+    private long nextPosition = 0;
+
+    // key -> slot + 1 (0 = free); a power of two, at most half full
+    private int[] table = new int[2 * MIN_SLOTS];
+
+    // --- Map-like access by primary key ---
+
+    E get(String key) {
+        int slot = this.slotOf(key);
+        return (slot < 0) ? null : this.row(slot);
+    }
+
+    boolean containsKey(String key) {
+        return this.slotOf(key) >= 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    // Insert a row, or replace the row of a known key in place; returns the
+    // row it replaced, or null
+    E put(String key, E row) {
+        if (key == null) {
+            throw new IllegalArgumentException("key cannot be null");
+        }
+        int i = this.find(key);
+        if (this.table[i] != 0) {
+            int slot = this.table[i] - 1;
+            E old = this.row(slot);
+            this.rows[slot] = row;
+            return old;
+        }
+        if ((this.size + 1) * 2 > this.table.length) {
+            this.rehash(this.table.length * 2);
+            i = this.find(key);
+        }
+        if (this.slots == this.keys.length) {
+            this.resize(this.slots * 2);
+        }
+        int slot = this.slots++;
+        this.keys[slot] = key;
+        this.rows[slot] = row;
+        this.positions[slot] = this.nextPosition++;
+        this.table[i] = slot + 1;
+        this.size++;
+        return null;
+    }
+
+    // Remove the row of key; returns it, or null
+    E remove(String key) {
+        if (key == null) {
+            return null;
+        }
+        int i = this.find(key);
+        if (this.table[i] == 0) {
+            return null;
+        }
+        int slot = this.table[i] - 1;
+        E removed = this.row(slot);
+        this.keys[slot] = null;
+        this.rows[slot] = null;
+        this.deleteEntry(i);
+        this.size--;
+        int empty = this.slots - this.size;
+        if (empty >= COMPACT_AT && empty > this.size) {
+            this.compact();
+        }
+        return removed;
+    }
+
+    // Live rows in insertion order (a view; valid until the next write)
+    Collection<E> values() {
+        return new AbstractCollection<E>() {
+            @Override
+            public Iterator<E> iterator() {
+                return RowStore.this.iterator();
+            }
+
+            @Override
+            public int size() {
+                return RowStore.this.size;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int next = this.skip(0);
+
+            private int skip(int slot) {
+                while (slot < RowStore.this.slots && RowStore.this.rows[slot] == null) {
+                    slot++;
+                }
+                return slot;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.next < RowStore.this.slots;
+            }
+
+            @Override
+            public E next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                E row = RowStore.this.row(this.next);
+                this.next = this.skip(this.next + 1);
+                return row;
+            }
+        };
+    }
+
+    // --- SlotStore ---
+
+    @Override
+    public int slots() {
+        return this.slots;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E row(int slot) {
+        return (E) this.rows[slot];
+    }
+
+    @Override
+    public long position(int slot) {
+        return this.positions[slot];
+    }
+
+    @Override
+    public int slotAt(long position) {
+        int lo = 0;
+        int hi = this.slots;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.positions[mid] < position) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public int slotOf(String key) {
+        if (key == null) {
+            return -1;
+        }
+        return this.table[this.find(key)] - 1;
+    }
+
+    // ====================== Helpers ======================
+
+    // Table index holding key, or the free index where key would go
+    private int find(String key) {
+        int mask = this.table.length - 1;
+        int i = mix(key.hashCode()) & mask;
+        while (this.table[i] != 0 && !this.keys[this.table[i] - 1].equals(key)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private int home(int entry) {
+        return mix(this.keys[entry - 1].hashCode()) & (this.table.length - 1);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Backward-shift delete: pull later entries of the probe run into the gap
+    private void deleteEntry(int i) {
+        int mask = this.table.length - 1;
+        int gap = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (this.table[j] == 0) {
+                break;
+            }
+            int home = this.home(this.table[j]);
+            // move j into the gap unless its home lies cyclically in (gap, j]
+            boolean stays = (gap <= j) ? (gap < home && home <= j)
+                    : (gap < home || home <= j);
+            if (!stays) {
+                this.table[gap] = this.table[j];
+                gap = j;
+            }
+        }
+        this.table[gap] = 0;
+    }
+
+    // Drop the empty slots, keeping order and positions, and rebuild the table
+    private void compact() {
+        int to = 0;
+        for (int slot = 0; slot < this.slots; slot++) {
+            if (this.keys[slot] != null) {
+                this.keys[to] = this.keys[slot];
+                this.rows[to] = this.rows[slot];
+                this.positions[to] = this.positions[slot];
+                to++;
+            }
+        }
+        Arrays.fill(this.keys, to, this.slots, null);
+        Arrays.fill(this.rows, to, this.slots, null);
+        this.slots = to;
+        this.resize(Math.max(MIN_SLOTS, to * 2));
+        int capacity = 2 * MIN_SLOTS;
+        while (capacity < 2 * (to + 1)) {
+            capacity *= 2;
+        }
+        this.rehash(capacity);
+    }
+
+    private void resize(int capacity) {
+        this.keys = Arrays.copyOf(this.keys, capacity);
+        this.rows = Arrays.copyOf(this.rows, capacity);
+        this.positions = Arrays.copyOf(this.positions, capacity);
+    }
+
+    private void rehash(int capacity) {
+        this.table = new int[capacity];
+        for (int slot = 0; slot < this.slots; slot++) {
+            if (this.keys[slot] != null) {
+                this.table[this.find(this.keys[slot])] = slot + 1;
+            }
+        }
+    }
+}
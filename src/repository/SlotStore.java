@@ -0,0 +1,30 @@
+package repository;
+
+/**
+ * SlotStore - A table's rows as its store lays them out: one slot per row, in
+ * insertion order (the order of getAll()), each slot with a position that
+ * never changes while the row exists and is never reused. - Keyset paging
+ * resumes from a position (QueryPlanner.writePage()), so a cursor costs a
+ * seek, not a walk from the first row. - Parallel scans cut [0, slots()) into
+ * ranges and read each range on its own worker (ParallelScan). - RowStore
+ * (heap tables) and MappedOrderStore implement it.
+ *
+ * Not thread-safe: callers hold the repository's lock. While no writer runs,
+ * row() may be called from several threads at once.
+ */
+interface SlotStore<E> {
+    // Slots in use, live or deleted; rows sit in slots [0, slots())
+    int slots();
+
+    // Row in a slot, or null once deleted
+    E row(int slot);
+
+    // Position of a slot; increases with the slot
+    long position(int slot);
+
+    // First slot whose position is >= position, or slots() if none
+    int slotAt(long position);
+
+    // Slot of a live row, or -1
+    int slotOf(String key);
+}
@@ -0,0 +1,160 @@
+package repository;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Transaction - A unit of work over any of the Database's tables ("customer",
+ * "order", "employee", "warehouse", "equipment"), started by Database.begin().
+ * - Reads see the database as of begin(), plus this transaction's own
+ * writes, however long it runs and whatever commits meanwhile. - Writes are
+ * kept here until commit(), which applies all of them or none (see
+ * TransactionManager); abort() or close() drops them. - Rows are text in
+ * the shape the batch methods take: create() a createAll() row, update() an
+ * updateAll() row (key first). Equipment rows are {id, name}. - Results are
+ * JSON, as in the repositories: the row, or a not_found error (invalid_id
+ * for an equipment id that is not a number).
+ *
+ * Generated keys (userId, orderId, warehouse id) are reserved by create(),
+ * so an aborted transaction leaves a gap. One transaction belongs to one
+ * thread; any number may run at once.
+ */
+public final class Transaction implements AutoCloseable {
+    private final TransactionManager manager;
+    private final long snapshot;
+
+    // table -> key -> new row (null = delete), in write order
+    private final Map<TransactionManager.Table<?>, Map<String, ?>> writes =
+            new IdentityHashMap<>();
+    private boolean closed;
+
+    Transaction(TransactionManager manager, long snapshot) {
+        this.manager = manager;
+        this.snapshot = snapshot;
+    }
+
+    // --- Version of the snapshot this transaction reads ---
+    public long snapshot() {
+        return this.snapshot;
+    }
+
+    // --- Read one row by key as JSON ---
+    public String get(String table, String key) {
+        return this.get(this.manager.table(table), key);
+    }
+
+    // --- Create a row; returns it as JSON, with its generated key ---
+    public String create(String table, String[] row) {
+        return this.create(this.manager.table(table), row);
+    }
+
+    // --- Replace a row (row[0] is the key); not_found if it does not exist ---
+    public String update(String table, String[] row) {
+        return this.update(this.manager.table(table), row);
+    }
+
+    // --- Delete a row; returns the row as it was, or not_found ---
+    public String delete(String table, String key) {
+        return this.delete(this.manager.table(table), key);
+    }
+
+    // --- Apply every write at once, or none; see TransactionManager.commit() ---
+    public String commit() {
+        this.checkOpen();
+        this.closed = true;
+        return this.manager.commit(this);
+    }
+
+    // --- Drop every write (no-op once committed or aborted) ---
+    public void abort() {
+        if (!this.closed) {
+            this.closed = true;
+            this.manager.abort(this);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.abort();
+    }
+
+    // ====================== Helpers ======================
+
+    // Rows this transaction writes to table t, or null if none
+    @SuppressWarnings("unchecked")
+    <E> Map<String, E> rows(TransactionManager.Table<E> t) {
+        return (Map<String, E>) this.writes.get(t);
+    }
+
+    // key must already be normalized (see TransactionManager.Table.normalizeKey())
+    private <E> E read(TransactionManager.Table<E> t, String key) {
+        Map<String, E> rows = this.rows(t);
+        if (rows != null && rows.containsKey(key)) {
+            return rows.get(key);
+        }
+        return t.versions().read(key, this.snapshot);
+    }
+
+    private <E> void write(TransactionManager.Table<E> t, String key, E row) {
+        Map<String, E> rows = this.rows(t);
+        if (rows == null) {
+            rows = new LinkedHashMap<>();
+            this.writes.put(t, rows);
+        }
+        rows.put(key, row);
+    }
+
+    private <E> String get(TransactionManager.Table<E> t, String rawKey) {
+        this.checkOpen();
+        String key = t.normalizeKey(rawKey);
+        E row = this.read(t, key);
+        return (row == null) ? JsonWriter.error("not_found", t.keyField(), key)
+                : this.toJson(t, row);
+    }
+
+    private <E> String create(TransactionManager.Table<E> t, String[] row) {
+        this.checkOpen();
+        E created = t.created(row);
+        if (created == null) {
+            return JsonWriter.error("invalid_id", t.keyField(), row[0]);
+        }
+        this.write(t, t.key(created), created);
+        return this.toJson(t, created);
+    }
+
+    private <E> String update(TransactionManager.Table<E> t, String[] row) {
+        this.checkOpen();
+        E updated = t.updated(row);
+        if (updated == null) {
+            return JsonWriter.error("invalid_id", t.keyField(), row[0]);
+        }
+        String key = t.key(updated);
+        if (this.read(t, key) == null) {
+            return JsonWriter.error("not_found", t.keyField(), key);
+        }
+        this.write(t, key, updated);
+        return this.toJson(t, updated);
+    }
+
+    private <E> String delete(TransactionManager.Table<E> t, String rawKey) {
+        this.checkOpen();
+        String key = t.normalizeKey(rawKey);
+        E old = this.read(t, key);
+        if (old == null) {
+            return JsonWriter.error("not_found", t.keyField(), key);
+        }
+        this.write(t, key, null);
+        return this.toJson(t, old);
+    }
+
+    private <E> String toJson(TransactionManager.Table<E> t, E row) {
+        return JsonWriter.render(out -> t.writeJson(row, out));
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("transaction is closed");
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package repository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+import storage.LogRecord;
+import storage.WriteAheadLog;
+
+/**
+ * TransactionManager - Snapshot-isolated transactions across the tables of a
+ * Database (see Transaction). - Versions: every commit, and every plain
+ * repository write, gets the next number of one commit clock. begin() takes
+ * a snapshot at the newest published number; its reads see exactly the
+ * commits up to it (see Versions), without waiting for writers. - Writes are
+ * buffered in the transaction and applied by commit() all at once:
+ * first-committer-wins (a key changed by anyone since the snapshot fails the
+ * commit with a conflict error), references checked as by ForeignKey, then
+ * one atomic log frame (WriteAheadLog.appendAtomic()), then every row is
+ * applied under one commit number, published in a single step.
+ *
+ * Locking: commit() holds the write locks of the tables it writes, and the
+ * read lock of a parent whose child it writes, taken in registration order
+ * (parents before children, as ForeignKey requires) and released after the
+ * commit is published. Readers never take a lock for rows changed since the
+ * oldest open snapshot; others are read under the table's read lock for the
+ * one map lookup.
+ *
+ * The isolation level is snapshot isolation: two transactions that read
+ * overlapping rows and write disjoint ones both commit (write skew is
+ * possible). Open transactions keep row history alive, so close them.
+ */
+final class TransactionManager {
+    // Version of a commit not yet published
+    static final long PENDING = Long.MAX_VALUE;
+
+    // A repository as transactions see it (see CustomerRepository.txTable())
+    interface Table<E> {
+        // Name used by Transaction, e.g. "customer"
+        String name();
+
+        // Primary-key field, for error JSON
+        String keyField();
+
+        ReentrantReadWriteLock lock();
+
+        Versions<E> versions();
+
+        // A new row from a createAll() row (generated ids are reserved now);
+        // null if the row's key is not a valid key (equipment ids are numbers)
+        E created(String[] row);
+
+        // A replacement row from an updateAll() row (row[0] is the key); null
+        // if the key is not valid
+        E updated(String[] row);
+
+        String key(E row);
+
+        // The form key(row) would give for a key from the caller, so reads,
+        // writes and conflict checks of one row share a key ("07" -> "7" for
+        // equipment); keys without another form come back unchanged
+        String normalizeKey(String key);
+
+        void writeJson(E row, Appendable out) throws IOException;
+
+        // The log record of a change; row is null for DELETE
+        LogRecord record(byte op, String key, E row);
+
+        // Apply a change to the store (write lock held); row null = delete
+        void apply(String key, E row);
+    }
+
+    // One commit; every row it changes points at the same instance
+    static final class Commit {
+        private volatile long version = PENDING;
+
+        long version() {
+            return this.version;
+        }
+    }
+
+    // A child column referencing a parent's primary key
+    private static final class Reference<P, C> {
+        final ForeignKey key;
+        final Table<P> parent;
+        final Table<C> child;
+        final Function<C, String> column;
+
+        Reference(ForeignKey key, Table<P> parent, Table<C> child,
+                Function<C, String> column) {
+            this.key = key;
+            this.parent = parent;
+            this.child = child;
+            this.column = column;
+        }
+    }
+
+    // Tables in lock order, and by name
+    private final List<Table<?>> tables = new ArrayList<>();
+    private final Map<String, Table<?>> byName = new LinkedHashMap<>();
+    private final List<Reference<?, ?>> references = new ArrayList<>();
+
+    private volatile WriteAheadLog log; // null = in-memory only
+
+    // Commit clock and open snapshots (snapshot -> transactions), guarded by this
+    private long last;
+    private final TreeMap<Long, Integer> open = new TreeMap<>();
+    private volatile int openCount;
+
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong aborted = new AtomicLong();
+
+    // --- Setup (Database): register tables parents first; that is the lock order ---
+    <E> Table<E> add(Table<E> table) {
+        if (this.byName.containsKey(table.name())) {
+            throw new IllegalArgumentException("table registered twice: " + table.name());
+        }
+        this.tables.add(table);
+        this.byName.put(table.name(), table);
+        table.versions().attach(this);
+        return table;
+    }
+
+    // child.column must name a parent row (see ForeignKey)
+    <P, C> void reference(ForeignKey key, Table<P> parent, Table<C> child,
+            Function<C, String> column) {
+        if (this.tables.indexOf(parent) > this.tables.indexOf(child)) {
+            throw new IllegalArgumentException("parent must be registered before child");
+        }
+        this.references.add(new Reference<>(key, parent, child, column));
+    }
+
+    void attachLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    Table<?> table(String name) {
+        Table<?> t = this.byName.get(name);
+        if (t == null) {
+            throw new IllegalArgumentException("unknown table: " + name);
+        }
+        return t;
+    }
+
+    // --- Start a transaction reading the newest published commit ---
+    Transaction begin() {
+        long snapshot;
+        synchronized (this) {
+            snapshot = this.last;
+            this.open.merge(snapshot, 1, Integer::sum);
+            this.openCount++;
+        }
+        return new Transaction(this, snapshot);
+    }
+
+    // --- Commit clock (used by Versions) ---
+
+    boolean snapshotsOpen() {
+        return this.openCount > 0;
+    }
+
+    synchronized void publish(Commit c) {
+        c.version = ++this.last;
+    }
+
+    // Oldest version an open snapshot can read (the newest one when none is open)
+    synchronized long horizon() {
+        return this.open.isEmpty() ? this.last : this.open.firstKey();
+    }
+
+    // --- Commit: validate, log and apply tx's writes; result as JSON ---
+    // {"committed":true,"version":v,"writes":n}, or a conflict /
+    // unknown_reference / referenced error, after which nothing was applied.
+    String commit(Transaction tx) {
+        List<Lock> held = new ArrayList<>();
+        String error = null;
+        long version = tx.snapshot();
+        long lsn = 0;
+        int writes = 0;
+        try {
+            for (Table<?> t : this.tables) {
+                Lock l = this.lockFor(t, tx);
+                if (l != null) {
+                    l.lock();
+                    held.add(l);
+                }
+            }
+            for (Table<?> t : this.tables) {
+                if (error == null) {
+                    error = conflict(t, tx);
+                }
+            }
+            if (error != null) {
+                this.conflicts.incrementAndGet();
+            } else {
+                for (Reference<?, ?> r : this.references) {
+                    if (error == null) {
+                        error = check(r, tx);
+                    }
+                }
+                if (error != null) {
+                    this.rejected.incrementAndGet();
+                }
+            }
+            if (error == null && !held.isEmpty()) {
+                lsn = this.log(tx);
+                Commit c = new Commit();
+                try {
+                    for (Table<?> t : this.tables) {
+                        writes += apply(t, tx, c);
+                    }
+                } finally {
+                    this.publish(c);
+                }
+                version = c.version();
+            }
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+            this.end(tx);
+        }
+        if (error != null) {
+            return error;
+        }
+        this.committed.incrementAndGet();
+        WriteAheadLog wal = this.log;
+        if (wal != null) {
+            wal.sync(lsn);
+        }
+        String v = Long.toString(version);
+        String n = Integer.toString(writes);
+        return JsonWriter.render(out -> out.append("{\"committed\":true,\"version\":")
+                .append(v).append(",\"writes\":").append(n).append('}'));
+    }
+
+    // --- Drop tx's writes and close its snapshot ---
+    void abort(Transaction tx) {
+        this.aborted.incrementAndGet();
+        this.end(tx);
+    }
+
+    // --- Counters and version history as JSON ---
+    String stats() {
+        long version;
+        int openSnapshots;
+        long oldest;
+        synchronized (this) {
+            version = this.last;
+            openSnapshots = this.openCount;
+            oldest = this.open.isEmpty() ? version : this.open.firstKey();
+        }
+        long chains = 0;
+        for (Table<?> t : this.tables) {
+            chains += t.versions().chains();
+        }
+        return "{\"version\":" + version + ",\"open\":" + openSnapshots
+                + ",\"oldestSnapshot\":" + oldest
+                + ",\"committed\":" + this.committed.get()
+                + ",\"conflicts\":" + this.conflicts.get()
+                + ",\"rejected\":" + this.rejected.get()
+                + ",\"aborted\":" + this.aborted.get()
+                + ",\"versionChains\":" + chains + "}";
+    }
+
+    // ====================== Helpers ======================
+
+    private synchronized void end(Transaction tx) {
+        Integer n = this.open.get(tx.snapshot());
+        if (n == null) {
+            return;
+        }
+        if (n == 1) {
+            this.open.remove(tx.snapshot());
+        } else {
+            this.open.put(tx.snapshot(), n - 1);
+        }
+        this.openCount--;
+    }
+
+    // Write lock for a written table, read lock for the parent of a written
+    // child (its rows must stay put while references are checked)
+    private Lock lockFor(Table<?> t, Transaction tx) {
+        if (tx.rows(t) != null) {
+            return t.lock().writeLock();
+        }
+        for (Reference<?, ?> r : this.references) {
+            if (r.parent == t && tx.rows(r.child) != null) {
+                return t.lock().readLock();
+            }
+        }
+        return null;
+    }
+
+    // First committer wins: a key committed by anyone after tx's snapshot
+    private static <E> String conflict(Table<E> t, Transaction tx) {
+        Map<String, E> rows = tx.rows(t);
+        if (rows != null) {
+            for (String key : rows.keySet()) {
+                if (t.versions().lastCommit(key) > tx.snapshot()) {
+                    return JsonWriter.error("conflict", t.keyField(), key);
+                }
+            }
+        }
+        return null;
+    }
+
+    // References as they will be after the commit: a written child must name
+    // a parent that exists and is not deleted by tx, or that tx writes; a
+    // parent tx deletes must be left with no child row pointing at it
+    private static <P, C> String check(Reference<P, C> r, Transaction tx) {
+        Map<String, P> parents = tx.rows(r.parent);
+        Map<String, C> children = tx.rows(r.child);
+        if (children != null) {
+            for (C row : children.values()) {
+                if (row == null) {
+                    continue;
+                }
+                String value = r.column.apply(row);
+                boolean ok = (parents != null && parents.containsKey(value))
+                        ? parents.get(value) != null
+                        : r.key.accepts(value);
+                if (!ok) {
+                    return JsonWriter.error("unknown_reference", r.key.field(), value);
+                }
+            }
+        }
+        if (parents != null) {
+            for (Map.Entry<String, P> p : parents.entrySet()) {
+                if (p.getValue() != null) {
+                    continue;
+                }
+                String key = p.getKey();
+                int left = r.key.references(key);
+                if (children != null) {
+                    for (Map.Entry<String, C> c : children.entrySet()) {
+                        C before = r.child.versions().live(c.getKey());
+                        if (before != null && key.equals(r.column.apply(before))) {
+                            left--;
+                        }
+                        C after = c.getValue();
+                        if (after != null && key.equals(r.column.apply(after))) {
+                            left++;
+                        }
+                    }
+                }
+                if (left > 0) {
+                    return JsonWriter.error("referenced", r.key.parentField(), key);
+                }
+            }
+        }
+        return null;
+    }
+
+    // One atomic frame holding every change of tx; returns its LSN
+    private long log(Transaction tx) {
+        WriteAheadLog wal = this.log;
+        if (wal == null) {
+            return 0;
+        }
+        List<LogRecord> records = new ArrayList<>();
+        for (Table<?> t : this.tables) {
+            addRecords(t, tx, records);
+        }
+        return wal.appendAtomic(records);
+    }
+
+    private static <E> void addRecords(Table<E> t, Transaction tx, List<LogRecord> out) {
+        Map<String, E> rows = tx.rows(t);
+        if (rows == null) {
+            return;
+        }
+        for (Map.Entry<String, E> e : rows.entrySet()) {
+            byte op = (e.getValue() == null) ? LogRecord.DELETE
+                    : (t.versions().live(e.getKey()) == null) ? LogRecord.CREATE
+                            : LogRecord.UPDATE;
+            out.add(t.record(op, e.getKey(), e.getValue()));
+        }
+    }
+
+    // Apply tx's rows of one table under commit c; returns how many
+    private static <E> int apply(Table<E> t, Transaction tx, Commit c) {
+        Map<String, E> rows = tx.rows(t);
+        if (rows == null) {
+            return 0;
+        }
+        t.versions().beginBatch(c);
+        try {
+            for (Map.Entry<String, E> e : rows.entrySet()) {
+                t.apply(e.getKey(), e.getValue());
+            }
+        } finally {
+            t.versions().endBatch();
+        }
+        return rows.size();
+    }
+}
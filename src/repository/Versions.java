@@ -0,0 +1,165 @@
+package repository;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Versions - Row history of one repository for the snapshot reads of
+ * transactions (see TransactionManager). - While any snapshot is open, every
+ * change the repository applies is also pushed onto its key's version chain:
+ * the row before, the row after and the commit that made the change. - A
+ * snapshot at version s reads, per key, the newest change committed at or
+ * before s. Chains are read without any lock. - A key with no chain has not
+ * changed since the oldest open snapshot, so its live row is the version
+ * every snapshot sees; it is read from the store under a brief read lock
+ * (the stores are plain maps and cannot be read during a write). - Chains
+ * that no open snapshot needs any more are pruned as writes go on, so the
+ * history is bounded by what changed since the oldest open snapshot.
+ *
+ * The owning repository calls record() after every store change, under its
+ * write lock. Unattached (a repository used on its own) nothing is kept.
+ */
+final class Versions<E> {
+    // Chains are pruned once there are this many, then at twice the survivors
+    private static final int PRUNE_AT = 1024;
+
+    // One change of one key; prev is the change before it (cut once no
+    // snapshot can reach it)
+    private static final class Version<E> {
+        final TransactionManager.Commit commit;
+        final E before;
+        final E after;
+        volatile Version<E> prev;
+
+        Version(TransactionManager.Commit commit, E before, E after, Version<E> prev) {
+            this.commit = commit;
+            this.before = before;
+            this.after = after;
+            this.prev = prev;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock;
+    private final Function<String, E> live;
+
+    // key -> newest change; written under the repository's write lock only
+    private final ConcurrentHashMap<String, Version<E>> chains =
+            new ConcurrentHashMap<>();
+    private volatile TransactionManager manager; // null = nothing recorded
+
+    // Commit of the transaction being applied (write lock), null otherwise
+    private TransactionManager.Commit batch;
+    private int pruneAt = PRUNE_AT;
+
+    // live reads the store's current row, or null (called under lock)
+    Versions(ReentrantReadWriteLock lock, Function<String, E> live) {
+        this.lock = lock;
+        this.live = live;
+    }
+
+    void attach(TransactionManager manager) {
+        this.manager = manager;
+    }
+
+    // --- Maintenance (called by the repository under its write lock) ---
+
+    // The store just changed key from before to after (null = no row). A
+    // change outside a transaction is its own commit, published at once.
+    void record(String key, E before, E after) {
+        TransactionManager m = this.manager;
+        if (m == null) {
+            return;
+        }
+        Version<E> head = this.chains.get(key);
+        if (head == null && !m.snapshotsOpen()) {
+            return; // no snapshot can need the old row
+        }
+        TransactionManager.Commit c = (this.batch != null) ? this.batch
+                : new TransactionManager.Commit();
+        this.chains.put(key, new Version<>(c, before, after, head));
+        if (this.batch == null) {
+            m.publish(c);
+        }
+        if (this.chains.size() >= this.pruneAt) {
+            this.prune(m.horizon());
+        }
+    }
+
+    // --- Changes recorded between beginBatch() and endBatch() share commit c ---
+    void beginBatch(TransactionManager.Commit c) {
+        this.batch = c;
+    }
+
+    void endBatch() {
+        this.batch = null;
+    }
+
+    // --- Reading ---
+
+    // The row a snapshot at version snapshot sees, or null
+    E read(String key, long snapshot) {
+        Version<E> v = this.chains.get(key);
+        if (v == null) {
+            E row;
+            this.lock.readLock().lock();
+            try {
+                row = this.live.apply(key);
+                v = this.chains.get(key);
+            } finally {
+                this.lock.readLock().unlock();
+            }
+            if (v == null) {
+                return row;
+            }
+        }
+        while (v.commit.version() > snapshot) {
+            Version<E> prev = v.prev;
+            if (prev == null) {
+                return v.before;
+            }
+            v = prev;
+        }
+        return v.after;
+    }
+
+    // The current row (caller holds the lock)
+    E live(String key) {
+        return this.live.apply(key);
+    }
+
+    // Version of the newest committed change of key, or 0 if it has not
+    // changed since the oldest open snapshot (caller holds the write lock)
+    long lastCommit(String key) {
+        Version<E> v = this.chains.get(key);
+        return (v == null) ? 0 : v.commit.version();
+    }
+
+    // Keys with a version chain
+    int chains() {
+        return this.chains.size();
+    }
+
+    // ====================== Helpers ======================
+
+    // Drop every change no snapshot at or after horizon can read: whole
+    // chains whose newest change is that old, and the tail of the others
+    private void prune(long horizon) {
+        Iterator<Version<E>> it = this.chains.values().iterator();
+        while (it.hasNext()) {
+            Version<E> v = it.next();
+            if (v.commit.version() <= horizon) {
+                it.remove();
+                continue;
+            }
+            for (Version<E> p = v.prev; p != null; p = p.prev) {
+                if (p.commit.version() <= horizon) {
+                    p.prev = null;
+                    break;
+                }
+            }
+        }
+        this.pruneAt = Math.max(PRUNE_AT, 2 * this.chains.size());
+    }
+}
@@ -1,284 +1,983 @@
 package repository;
 
-import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import model.Warehouse;
+import storage.LogRecord;
+import storage.SnapshotFile;
+import storage.WriteAheadLog;
 
 /**
  * WarehouseRepository - Stores Warehouse entities in a Map<String id,
  * Warehouse>. - Generates incremental String ids starting from "0". - All
- * public methods return JSON-formatted strings for convenience.
+ * public methods return JSON-formatted strings for convenience. - Capacity
+ * queries use sorted IntRangeIndexes kept current by create/update/delete. -
+ * Thread-safe: readers share a read lock and never block each other; writers
+ * are exclusive, so every read sees a consistent store + index state. -
+ * writeAll()/writeQuery()/writeCapacityRange() stream JSON to an Appendable one
+ * row at a time. - With a WriteAheadLog attached (see Database) every write is
+ * logged before the map changes. - createAll/updateAll/deleteAll apply a batch
+ * under one write-lock hold and one log append. - query(Query) combines
+ * predicates on any fields; explain(Query) shows which index QueryPlanner used.
+ * - getPage()/queryPage() page through getAll() / query(q) with keyset cursors.
+ * - queryByX results are kept in a QueryCache; a write drops only the results
+ * its old or new row belongs to (configureCache(), cacheStats()). -
+ * aggregate(groupBy, column) reports count / sum / min / max / avg per group;
+ * registered aggregates are maintained on every write. - Linked by Database,
+ * managerSSN must name an existing employee (see ForeignKey); a managerSSN
+ * index lets an employee delete check for managed warehouses in O(1). -
+ * Changes are kept in Versions while a snapshot is open, and txTable() joins
+ * this table to transactions (see TransactionManager).
  */
 public class WarehouseRepository {
     // --- Storage (keeps insertion order for predictable listing) ---
-    private final Map<String, Warehouse> store = new LinkedHashMap<>();
+    private final RowStore<Warehouse> store = new RowStore<>();
+
+    // --- Id allocation: O(1) counter instead of scanning keys ---
+    private final IdSequence ids = new IdSequence();
+
+    // --- Concurrency: queries share the read lock; writes take the write lock ---
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Write-ahead log (null = in-memory only); see Database
+    private volatile WriteAheadLog log;
+
+    // --- Sorted capacity indexes for equality / range queries (O(log n + k)) ---
+    private final IntRangeIndex<Warehouse> equipmentCapacityIndex = new IntRangeIndex<>(
+            "equipmentCapacity", Warehouse::getEquipmentCapacity);
+    private final IntRangeIndex<Warehouse> droneCapacityIndex = new IntRangeIndex<>(
+            "droneCapacity", Warehouse::getDroneCapacity);
+
+    // --- managerSSN -> warehouse ids, so an employee delete finds its warehouses in O(1) ---
+    private final HashIndex<Warehouse> managerIndex = new HashIndex<>("managerSSN",
+            Warehouse::getManagerSSN);
+
+    // --- managerSSN -> employee.ssn (unlinked = unchecked); see Database ---
+    private volatile ForeignKey employeeKey = ForeignKey.unlinked("managerSSN", "ssn");
+
+    // --- Row history for transactions' snapshot reads (see Versions) ---
+    private final Versions<Warehouse> versions = new Versions<>(this.lock,
+            this.store::get);
+
+    // --- Unindexed scans of at least this many rows use ParallelScan ---
+    private volatile int parallelThreshold = ParallelScan.DEFAULT_THRESHOLD;
+
+    // --- Plans query(Query) over the store and the capacity indexes ---
+    private final QueryPlanner<Warehouse> planner = new QueryPlanner<>("warehouse",
+            this.queryTable());
+
+    // --- Serialized queryByX results; guarded by lock like the store ---
+    private QueryCache<Warehouse> cache = QueryCache.defaults();
+
+    // --- Registered group-by aggregates, kept current by putRow / removeRow ---
+    private final Aggregates<Warehouse> aggregates = new Aggregates<>("warehouse",
+            this.queryTable());
 
     // --- Create: add a new Warehouse with auto-increment id (as String) ---
-    // The id is generated from existing numeric ids, starting at "0".
-    public synchronized String create(String phoneNumber, String city, String zipCode,
+    // The id comes from the shared O(1) IdSequence, starting at "0".
+    public String create(String phoneNumber, String city, String zipCode,
             String street, int equipmentCapacity, int droneCapacity, String managerSSN) {
-        String id = this.nextId();
-        Warehouse w = new Warehouse(id, phoneNumber, city, zipCode, street,
-                equipmentCapacity, droneCapacity, managerSSN);
-        this.store.put(id, w);
-        return this.toJson(w);
+        String json;
+        long lsn;
+        ForeignKey fk = this.employeeKey;
+        fk.lockParent();
+        this.lock.writeLock().lock();
+        try {
+            if (!fk.accepts(managerSSN)) {
+                return this.errorJson("unknown_reference", "managerSSN", managerSSN);
+            }
+            String id = this.ids.next();
+            Warehouse w = new Warehouse(id, phoneNumber, city, zipCode, street,
+                    equipmentCapacity, droneCapacity, managerSSN);
+            lsn = this.logWrite(LogRecord.CREATE, w);
+            this.putRow(w);
+            json = this.toJson(w);
+        } finally {
+            this.lock.writeLock().unlock();
+            fk.unlockParent();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
     // --- Read one: get a warehouse by id as JSON ---
-    public synchronized String getById(String id) {
-        Warehouse w = this.store.get(id);
-        return (w == null) ? this.errorJson("not_found", "id", id) : this.toJson(w);
+    public String getById(String id) {
+        this.lock.readLock().lock();
+        try {
+            Warehouse w = this.store.get(id);
+            return (w == null) ? this.errorJson("not_found", "id", id) : this.toJson(w);
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     // --- Read all: return all warehouses as a JSON array ---
-    public synchronized String getAll() {
-        String arr = this.store.values().stream().map(this::toJson)
-                .collect(Collectors.joining(","));
-        return "[" + arr + "]";
+    public String getAll() {
+        return JsonWriter.render(this::writeAll);
+    }
+
+    // --- Streaming read all: writes the JSON array to out one row at a time ---
+    public void writeAll(Appendable out) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.writeArray(this.store.values(), out);
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
     // --- Update: set all attributes (except id) for the warehouse with the given id ---
     // Returns the updated warehouse as JSON; if not found, returns an error JSON.
-    public synchronized String update(String id, String phoneNumber, String city,
+    public String update(String id, String phoneNumber, String city,
             String zipCode, String street, int equipmentCapacity, int droneCapacity,
             String managerSSN) {
-        Warehouse existing = this.store.get(id);
-        if (existing == null) {
-            return this.errorJson("not_found", "id", id);
-        }
+        String json;
+        long lsn;
+        ForeignKey fk = this.employeeKey;
+        fk.lockParent();
+        this.lock.writeLock().lock();
+        try {
+            Warehouse existing = this.store.get(id);
+            if (existing == null) {
+                return this.errorJson("not_found", "id", id);
+            }
+            if (!fk.accepts(managerSSN)) {
+                return this.errorJson("unknown_reference", "managerSSN", managerSSN);
+            }
 
-        Warehouse updated = new Warehouse(id, phoneNumber, city, zipCode, street,
-                equipmentCapacity, droneCapacity, managerSSN);
-        this.store.put(id, updated);
-        return this.toJson(updated);
+            Warehouse updated = new Warehouse(id, phoneNumber, city, zipCode, street,
+                    equipmentCapacity, droneCapacity, managerSSN);
+            lsn = this.logWrite(LogRecord.UPDATE, updated);
+            this.putRow(updated);
+            json = this.toJson(updated);
+        } finally {
+            this.lock.writeLock().unlock();
+            fk.unlockParent();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
     // --- Delete: remove by id and return the deleted entity as JSON ---
-    public synchronized String delete(String id) {
-        Warehouse removed = this.store.remove(id);
-        return (removed == null) ? this.errorJson("not_found", "id", id)
-                : this.toJson(removed);
+    public String delete(String id) {
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            if (!this.store.containsKey(id)) {
+                return this.errorJson("not_found", "id", id);
+            }
+            lsn = this.logDelete(id);
+            json = this.toJson(this.removeRow(id));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
-    // ====================== Helpers ======================
+    // ================== Batch writes ==================
+    // createAll/updateAll/deleteAll take the write lock once per batch, hand
+    // the log all of their records in one append and wait for durability once.
+    // Rows are text, one String[] per row holding the single-row method's
+    // arguments in order (numbers as decimal strings). withResponse = true
+    // returns a JSON array with one entry per input (the row, or not_found);
+    // false skips building the rows and returns only {"count":n,"notFound":m}.
+    // A managerSSN that names no employee fails the whole batch with an
+    // unknown_reference error before anything is logged.
+
+    // --- Batch create: ids are reserved as one contiguous range ---
+    // Every row is checked and built before anything is logged, so a
+    // malformed row fails the whole batch without changing the store.
+    public String createAll(List<String[]> rows, boolean withResponse) {
+        return this.createAll(rows, withResponse, true);
+    }
 
-    // Generate the next numeric String id based on current keys.
-    // If store is empty -> "0"; otherwise max(existing) + 1.
-    private String nextId() {
-        if (this.store.isEmpty()) {
-            return "0";
-        }
-        int max = -1;
-        for (String k : this.store.keySet()) {
-            // Try to parse numeric ids; ignore non-numeric keys if any appear.
-            try {
-                int v = Integer.parseInt(k);
-                if (v > max) {
-                    max = v;
+    // checkReferences = false skips the managerSSN check (bulk loads verify
+    // afterwards with checkReferences())
+    String createAll(List<String[]> rows, boolean withResponse, boolean checkReferences) {
+        List<Warehouse> created = new ArrayList<>(rows.size());
+        String json;
+        long lsn;
+        ForeignKey fk = checkReferences ? this.employeeKey
+                : ForeignKey.unlinked("managerSSN", "ssn");
+        fk.lockParent();
+        this.lock.writeLock().lock();
+        try {
+            for (String[] r : rows) {
+                checkWidth(r, 7);
+            }
+            for (String[] r : rows) {
+                if (!fk.accepts(r[6])) {
+                    return this.errorJson("unknown_reference", "managerSSN", r[6]);
                 }
-            } catch (NumberFormatException ignore) {
-                // If a non-numeric id exists, ignore it.
             }
+            long first = this.ids.reserve(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                String[] r = rows.get(i);
+                String id = String.valueOf(first + i);
+                created.add(new Warehouse(id, r[0], r[1], r[2], r[3],
+                        Integer.parseInt(r[4]), Integer.parseInt(r[5]), r[6]));
+            }
+            lsn = this.logWriteAll(LogRecord.CREATE, created);
+            this.cache.beforeBatch(created.size());
+            for (Warehouse w : created) {
+                this.putRow(w);
+            }
+            json = this.batchJson(null, created, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
+            fk.unlockParent();
         }
-        return String.valueOf(max + 1);
+        this.awaitDurable(lsn);
+        return json;
     }
 
-    // Convert one Warehouse to a JSON object string.
-    private String toJson(Warehouse w) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{").append("\"id\":\"").append(this.esc(w.getId())).append("\",")
-                .append("\"phoneNumber\":\"").append(this.esc(w.getPhoneNumber()))
-                .append("\",").append("\"city\":\"").append(this.esc(w.getCity()))
-                .append("\",").append("\"zipCode\":\"").append(this.esc(w.getZipCode()))
-                .append("\",").append("\"street\":\"").append(this.esc(w.getStreet()))
-                .append("\",").append("\"equipmentCapacity\":")
-                .append(w.getEquipmentCapacity()).append(",").append("\"droneCapacity\":")
-                .append(w.getDroneCapacity()).append(",").append("\"managerSSN\":\"")
-                .append(this.esc(w.getManagerSSN())).append("\"").append("}");
-        return sb.toString();
+    // --- Batch update: row[0] is the id, then update()'s other arguments ---
+    public String updateAll(List<String[]> rows, boolean withResponse) {
+        List<String> keys = new ArrayList<>(rows.size());
+        List<Warehouse> updated = new ArrayList<>(rows.size());
+        String json;
+        long lsn;
+        ForeignKey fk = this.employeeKey;
+        fk.lockParent();
+        this.lock.writeLock().lock();
+        try {
+            for (String[] r : rows) {
+                checkWidth(r, 8);
+            }
+            for (String[] r : rows) {
+                if (this.store.containsKey(r[0]) && !fk.accepts(r[7])) {
+                    return this.errorJson("unknown_reference", "managerSSN", r[7]);
+                }
+            }
+            for (String[] r : rows) {
+                keys.add(r[0]);
+                updated.add(!this.store.containsKey(r[0]) ? null
+                        : new Warehouse(r[0], r[1], r[2], r[3], r[4],
+                                Integer.parseInt(r[5]), Integer.parseInt(r[6]), r[7]));
+            }
+            lsn = this.logWriteAll(LogRecord.UPDATE, updated);
+            this.cache.beforeBatch(updated.size() - Collections.frequency(updated, null));
+            for (Warehouse w : updated) {
+                if (w != null) {
+                    this.putRow(w);
+                }
+            }
+            json = this.batchJson(keys, updated, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
+            fk.unlockParent();
+        }
+        this.awaitDurable(lsn);
+        return json;
     }
 
-    // Simple error JSON helper
-    private String errorJson(String code, String field, String value) {
-        return "{" + "\"error\":\"" + this.esc(code) + "\"," + "\"field\":\""
-                + this.esc(field) + "\"," + "\"value\":\"" + this.esc(value) + "\"" + "}";
+    // --- Batch delete; an id listed twice is not_found the second time ---
+    public String deleteAll(List<String> ids, boolean withResponse) {
+        List<Warehouse> removed = new ArrayList<>(ids.size());
+        String json;
+        long lsn;
+        this.lock.writeLock().lock();
+        try {
+            Set<String> found = new LinkedHashSet<>();
+            for (String id : ids) {
+                if (this.store.containsKey(id)) {
+                    found.add(id);
+                }
+            }
+            lsn = this.logDeleteAll(found);
+            this.cache.beforeBatch(found.size());
+            for (String id : ids) {
+                removed.add(this.removeRow(id));
+            }
+            json = this.batchJson(ids, removed, withResponse);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(lsn);
+        return json;
+    }
+
+    // ================== Referential integrity ==================
+
+    // --- Link managerSSN to the employees table (see Database) ---
+    void attachEmployeeKey(ForeignKey fk) {
+        this.employeeKey = fk;
+    }
+
+    // --- For ForeignKey: the lock guarding this table ---
+    ReentrantReadWriteLock lock() {
+        return this.lock;
+    }
+
+    // --- The key checked by create / update (see Database) ---
+    ForeignKey employeeKey() {
+        return this.employeeKey;
+    }
+
+    // --- Number of warehouses managed by ssn (caller holds the lock) ---
+    int managerReferences(String ssn) {
+        return this.managerIndex.lookup(ssn).size();
     }
 
-    // Minimal JSON string escape
-    private String esc(String s) {
-        if (s == null) {
-            return "";
+    // --- One pass over every warehouse: managerSSNs naming no employee, as JSON ---
+    // For bulk loads that skipped the per-row check; nothing is changed.
+    public String checkReferences() {
+        ForeignKey fk = this.employeeKey;
+        fk.lockParent();
+        this.lock.readLock().lock();
+        try {
+            return JsonWriter.render(out -> fk.check(this.store.values(), "id",
+                    Warehouse::getId, Warehouse::getManagerSSN, out));
+        } finally {
+            this.lock.readLock().unlock();
+            fk.unlockParent();
         }
-        StringBuilder out = new StringBuilder(s.length() + 8);
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (c == '\\' || c == '\"') {
-                out.append('\\').append(c);
+    }
+
+    // ================== Transactions ==================
+
+    // --- This table as TransactionManager sees it (see Database) ---
+    TransactionManager.Table<Warehouse> txTable() {
+        return new TransactionManager.Table<Warehouse>() {
+            @Override
+            public String name() {
+                return "warehouse";
+            }
+
+            @Override
+            public String keyField() {
+                return "id";
+            }
+
+            @Override
+            public ReentrantReadWriteLock lock() {
+                return WarehouseRepository.this.lock;
+            }
+
+            @Override
+            public Versions<Warehouse> versions() {
+                return WarehouseRepository.this.versions;
+            }
+
+            @Override
+            public Warehouse created(String[] r) {
+                checkWidth(r, 7);
+                String id = WarehouseRepository.this.ids.next();
+                return new Warehouse(id, r[0], r[1], r[2], r[3], Integer.parseInt(r[4]),
+                        Integer.parseInt(r[5]), r[6]);
+            }
+
+            @Override
+            public Warehouse updated(String[] r) {
+                checkWidth(r, 8);
+                return new Warehouse(r[0], r[1], r[2], r[3], r[4], Integer.parseInt(r[5]),
+                        Integer.parseInt(r[6]), r[7]);
+            }
+
+            @Override
+            public String key(Warehouse w) {
+                return w.getId();
+            }
+
+            @Override
+            public String normalizeKey(String key) {
+                return key;
+            }
+
+            @Override
+            public void writeJson(Warehouse w, Appendable out) throws IOException {
+                WarehouseRepository.this.writeJson(w, out);
+            }
+
+            @Override
+            public LogRecord record(byte op, String key, Warehouse w) {
+                return (w == null) ? new LogRecord(TABLE, LogRecord.DELETE, key)
+                        : WarehouseRepository.record(op, w);
+            }
+
+            @Override
+            public void apply(String key, Warehouse w) {
+                if (w == null) {
+                    WarehouseRepository.this.removeRow(key);
+                } else {
+                    WarehouseRepository.this.putRow(w);
+                }
+            }
+        };
+    }
+
+    // ================== Persistence (write-ahead log) ==================
+
+    // Table id of warehouses inside the write-ahead log
+    static final byte TABLE = 1;
+
+    // Attach a log: from now on every write is logged before it is applied.
+    void attachLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    // Re-apply one logged change during startup recovery (not logged again).
+    void replay(LogRecord r) {
+        this.lock.writeLock().lock();
+        try {
+            if (r.getOp() == LogRecord.DELETE) {
+                this.removeRow(r.getKey());
             } else {
-                out.append(c);
+                this.putRow(new Warehouse(r.getKey(), r.getString(0), r.getString(1),
+                        r.getString(2), r.getString(3), r.getInt(4), r.getInt(5),
+                        r.getString(6)));
+                this.ids.observe(r.getKey());
             }
+        } finally {
+            this.lock.writeLock().unlock();
         }
-        return out.toString();
     }
 
-    // ================== Single-attribute query methods ==================
+    // Write every row as a CREATE record for a checkpoint. Only the copy of the
+    // row references happens under the read lock; encoding runs after it.
+    void writeSnapshot(SnapshotFile.Writer out) throws IOException {
+        for (Warehouse w : this.snapshot()) {
+            out.write(record(LogRecord.CREATE, w));
+        }
+    }
 
-    public String queryByCity(String city) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Warehouse w : this.store.values()) {
-            if (this.equalsSafe(w.getCity(), city)) {
-                if (!first) {
-                    sb.append(",");
-                }
-                sb.append(this.toJson(w));
-                first = false;
-            }
+    // Point-in-time copy of every row for a long read (checkpoint, export).
+    // Rows are never modified in place, so copying the references is enough
+    // and the read lock is held only for that copy.
+    RowSnapshot<Warehouse> snapshot() {
+        this.lock.readLock().lock();
+        try {
+            return RowSnapshot.of(this.store.values().toArray(new Warehouse[0]));
+        } finally {
+            this.lock.readLock().unlock();
         }
-        sb.append("]");
-        return sb.toString();
     }
 
-    public String queryByZipCode(String zipCode) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Warehouse w : this.store.values()) {
-            if (this.equalsSafe(w.getZipCode(), zipCode)) {
-                if (!first) {
-                    sb.append(",");
-                }
-                sb.append(this.toJson(w));
-                first = false;
+    // Append the new row to the log (before the map changes); returns the LSN.
+    private long logWrite(byte op, Warehouse w) {
+        WriteAheadLog wal = this.log;
+        return (wal == null) ? 0 : wal.append(record(op, w));
+    }
+
+    private long logDelete(String id) {
+        WriteAheadLog wal = this.log;
+        return (wal == null) ? 0 : wal.append(new LogRecord(TABLE, LogRecord.DELETE, id));
+    }
+
+    // Append one record per non-null row in a single log call; returns the
+    // LSN of the last one (0 without a log or for an empty batch).
+    private long logWriteAll(byte op, List<Warehouse> rows) {
+        WriteAheadLog wal = this.log;
+        if (wal == null) {
+            return 0;
+        }
+        List<LogRecord> records = new ArrayList<>(rows.size());
+        for (Warehouse w : rows) {
+            if (w != null) {
+                records.add(record(op, w));
             }
         }
-        sb.append("]");
-        return sb.toString();
+        return wal.appendAll(records);
     }
 
-    public String queryByManagerSSN(String managerSSN) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Warehouse w : this.store.values()) {
-            if (this.equalsSafe(w.getManagerSSN(), managerSSN)) {
-                if (!first) {
-                    sb.append(",");
-                }
-                sb.append(this.toJson(w));
-                first = false;
-            }
+    private long logDeleteAll(Collection<String> ids) {
+        WriteAheadLog wal = this.log;
+        if (wal == null) {
+            return 0;
         }
-        sb.append("]");
-        return sb.toString();
+        List<LogRecord> records = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            records.add(new LogRecord(TABLE, LogRecord.DELETE, id));
+        }
+        return wal.appendAll(records);
     }
 
-    public String queryByPhoneNumber(String phoneNumber) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Warehouse w : this.store.values()) {
-            if (this.equalsSafe(w.getPhoneNumber(), phoneNumber)) {
-                if (!first) {
-                    sb.append(",");
-                }
-                sb.append(this.toJson(w));
-                first = false;
-            }
+    // The log / snapshot record for a row: its key plus every other column
+    private static LogRecord record(byte op, Warehouse w) {
+        return new LogRecord(TABLE, op, w.getId(), w.getPhoneNumber(), w.getCity(),
+                w.getZipCode(), w.getStreet(), w.getEquipmentCapacity(),
+                w.getDroneCapacity(), w.getManagerSSN());
+    }
+
+    // Wait (outside the lock) until the logged change is durable.
+    private void awaitDurable(long lsn) {
+        WriteAheadLog wal = this.log;
+        if (wal != null) {
+            wal.sync(lsn);
         }
-        sb.append("]");
-        return sb.toString();
     }
 
-    public String queryByStreet(String street) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Warehouse w : this.store.values()) {
-            if (this.equalsSafe(w.getStreet(), street)) {
-                if (!first) {
-                    sb.append(",");
-                }
-                sb.append(this.toJson(w));
-                first = false;
-            }
+    // --- Apply a row to the store and the capacity indexes (insert or replace) ---
+    private void putRow(Warehouse w) {
+        Warehouse old = this.store.put(w.getId(), w);
+        this.versions.record(w.getId(), old, w);
+        this.cache.invalidate(old, w);
+        if (old == null) {
+            this.equipmentCapacityIndex.add(w.getId(), w);
+            this.droneCapacityIndex.add(w.getId(), w);
+            this.managerIndex.add(w.getId(), w);
+            this.aggregates.add(w);
+        } else {
+            this.equipmentCapacityIndex.update(w.getId(), old, w);
+            this.droneCapacityIndex.update(w.getId(), old, w);
+            this.managerIndex.update(w.getId(), old, w);
+            this.aggregates.update(old, w);
         }
-        sb.append("]");
-        return sb.toString();
     }
 
-    // Capacity equals / ranges
+    // --- Remove a row from the store and the capacity indexes; returns it ---
+    private Warehouse removeRow(String id) {
+        Warehouse removed = this.store.remove(id);
+        if (removed != null) {
+            this.versions.record(id, removed, null);
+            this.cache.invalidate(removed, null);
+            this.equipmentCapacityIndex.remove(id, removed);
+            this.droneCapacityIndex.remove(id, removed);
+            this.managerIndex.remove(id, removed);
+            this.aggregates.remove(removed);
+        }
+        return removed;
+    }
 
-    public String queryByEquipmentCapacity(int capacity) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
+    // ====================== Helpers ======================
+
+    // Convert one Warehouse to a JSON object string.
+    private String toJson(Warehouse w) {
+        return JsonWriter.render(out -> this.writeJson(w, out));
+    }
+
+    // Stream one Warehouse as a JSON object, field by field (also BulkExporter).
+    void writeJson(Warehouse w, Appendable out) throws IOException {
+        out.append("{\"id\":");
+        JsonWriter.string(out, w.getId());
+        out.append(",\"phoneNumber\":");
+        JsonWriter.string(out, w.getPhoneNumber());
+        out.append(",\"city\":");
+        JsonWriter.string(out, w.getCity());
+        out.append(",\"zipCode\":");
+        JsonWriter.string(out, w.getZipCode());
+        out.append(",\"street\":");
+        JsonWriter.string(out, w.getStreet());
+        out.append(",\"equipmentCapacity\":");
+        JsonWriter.number(out, w.getEquipmentCapacity());
+        out.append(",\"droneCapacity\":");
+        JsonWriter.number(out, w.getDroneCapacity());
+        out.append(",\"managerSSN\":");
+        JsonWriter.string(out, w.getManagerSSN());
+        out.append('}');
+    }
+
+    // Stream a JSON array of the given warehouses, in the given order.
+    private void writeArray(Iterable<Warehouse> rows, Appendable out)
+            throws IOException {
+        out.append('[');
         boolean first = true;
-        for (Warehouse w : this.store.values()) {
-            if (w.getEquipmentCapacity() == capacity) {
-                if (!first) {
-                    sb.append(",");
-                }
-                sb.append(this.toJson(w));
-                first = false;
+        for (Warehouse w : rows) {
+            if (!first) {
+                out.append(',');
             }
+            this.writeJson(w, out);
+            first = false;
         }
-        sb.append("]");
-        return sb.toString();
+        out.append(']');
     }
 
-    public String queryByEquipmentCapacityRange(int minInclusive, int maxInclusive) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Warehouse w : this.store.values()) {
-            int v = w.getEquipmentCapacity();
-            if (v >= minInclusive && v <= maxInclusive) {
-                if (!first) {
-                    sb.append(",");
+    // Result of a batch write: rows.get(i) answers input i (null = not found,
+    // keys.get(i) says which key). Only the summary when !withResponse.
+    private String batchJson(List<String> keys, List<Warehouse> rows,
+            boolean withResponse) {
+        int missing = 0;
+        for (Warehouse w : rows) {
+            if (w == null) {
+                missing++;
+            }
+        }
+        if (!withResponse) {
+            return JsonWriter.summary(rows.size() - missing, missing);
+        }
+        return JsonWriter.render(out -> {
+            out.append('[');
+            for (int i = 0; i < rows.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                Warehouse w = rows.get(i);
+                if (w == null) {
+                    out.append(this.errorJson("not_found", "id", keys.get(i)));
+                } else {
+                    this.writeJson(w, out);
                 }
-                sb.append(this.toJson(w));
-                first = false;
             }
+            out.append(']');
+        });
+    }
+
+    // A batch row must carry exactly the expected number of values
+    private static void checkWidth(String[] row, int width) {
+        if (row == null || row.length != width) {
+            throw new IllegalArgumentException("warehouse row needs " + width
+                    + " values, got " + (row == null ? 0 : row.length));
         }
-        sb.append("]");
-        return sb.toString();
+    }
+
+    // Simple error JSON helper
+    private String errorJson(String code, String field, String value) {
+        return JsonWriter.error(code, field, value);
+    }
+
+
+    // ================== Single-attribute query methods ==================
+
+    public String queryByCity(String city) {
+        return this.queryByField("city", city);
+    }
+
+    public String queryByZipCode(String zipCode) {
+        return this.queryByField("zipCode", zipCode);
+    }
+
+    public String queryByManagerSSN(String managerSSN) {
+        return this.queryByField("managerSSN", managerSSN);
+    }
+
+    public String queryByPhoneNumber(String phoneNumber) {
+        return this.queryByField("phoneNumber", phoneNumber);
+    }
+
+    public String queryByStreet(String street) {
+        return this.queryByField("street", street);
+    }
+
+    // Capacity equals / ranges (answered from the sorted capacity indexes;
+    // range results come back in ascending capacity order)
+
+    public String queryByEquipmentCapacity(int capacity) {
+        return this.queryByCapacity("equipmentCapacity", capacity, capacity);
+    }
+
+    public String queryByEquipmentCapacityRange(int minInclusive, int maxInclusive) {
+        return this.queryByCapacity("equipmentCapacity", minInclusive, maxInclusive);
     }
 
     public String queryByDroneCapacity(int capacity) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Warehouse w : this.store.values()) {
-            if (w.getDroneCapacity() == capacity) {
-                if (!first) {
-                    sb.append(",");
-                }
-                sb.append(this.toJson(w));
-                first = false;
+        return this.queryByCapacity("droneCapacity", capacity, capacity);
+    }
+
+    public String queryByDroneCapacityRange(int minInclusive, int maxInclusive) {
+        return this.queryByCapacity("droneCapacity", minInclusive, maxInclusive);
+    }
+
+    private String queryByCapacity(String field, int minInclusive, int maxInclusive) {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.get(QueryCache.key(field, minInclusive, maxInclusive),
+                    w -> {
+                        int v = "equipmentCapacity".equals(field)
+                                ? w.getEquipmentCapacity() : w.getDroneCapacity();
+                        return v >= minInclusive && v <= maxInclusive;
+                    }, out -> this.writeCapacityRange(field, minInclusive, maxInclusive,
+                            out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Exact-match helper behind the String queryByX methods (cached) ---
+    private String queryByField(String field, String value) {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.get(QueryCache.key(field, value),
+                    w -> this.equalsSafe(column(w, field), value),
+                    out -> this.writeQuery(field, value, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Streaming exact-match query on a String field ---
+    // field: city | zipCode | managerSSN | phoneNumber | street
+    public void writeQuery(String field, String value, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            out.append('[');
+            boolean[] first = { true };
+            ParallelScan.scan(this.store, this.store.size(),
+                    this.parallelThreshold, w -> this.equalsSafe(column(w, field), value),
+                    w -> {
+                        if (!first[0]) {
+                            out.append(',');
+                        }
+                        this.writeJson(w, out);
+                        first[0] = false;
+                    });
+            out.append(']');
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Streaming capacity range query (inclusive bounds) ---
+    // field: equipmentCapacity | droneCapacity
+    public void writeCapacityRange(String field, int minInclusive, int maxInclusive,
+            Appendable out) throws IOException {
+        IntRangeIndex<Warehouse> index;
+        if ("equipmentCapacity".equals(field)) {
+            index = this.equipmentCapacityIndex;
+        } else if ("droneCapacity".equals(field)) {
+            index = this.droneCapacityIndex;
+        } else {
+            throw new IllegalArgumentException("unknown capacity field: " + field);
+        }
+        this.lock.readLock().lock();
+        try {
+            List<Warehouse> rows = new ArrayList<>();
+            for (String id : index.range(minInclusive, maxInclusive)) {
+                rows.add(this.store.get(id));
             }
+            this.writeArray(rows, out);
+        } finally {
+            this.lock.readLock().unlock();
         }
-        sb.append("]");
-        return sb.toString();
     }
 
-    public String queryByDroneCapacityRange(int minInclusive, int maxInclusive) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (Warehouse w : this.store.values()) {
-            int v = w.getDroneCapacity();
-            if (v >= minInclusive && v <= maxInclusive) {
-                if (!first) {
-                    sb.append(",");
+    // --- Tables of at least this many rows scan in parallel (<= 0: never) ---
+    public void setParallelScanThreshold(int rows) {
+        this.parallelThreshold = rows;
+    }
+
+    // ================== Query cache ==================
+
+    // --- Replace the query cache (maxEntries = 0 disables it); drops its results ---
+    public void configureCache(QueryCache.Policy policy, int maxEntries, long maxChars) {
+        QueryCache<Warehouse> fresh = new QueryCache<>(policy, maxEntries, maxChars);
+        this.lock.writeLock().lock();
+        try {
+            this.cache = fresh;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // --- Cache policy, bounds and hit / miss / eviction counters as JSON ---
+    public String cacheStats() {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.statsJson();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ================== Multi-predicate queries ==================
+    // Any field, combined with AND / OR; see Query and QueryPlanner. id
+    // equality and capacity equality / ranges can drive the plan; capacities
+    // compare as numbers, the other fields as text.
+
+    public String query(Query q) {
+        return JsonWriter.render(out -> this.writeQuery(q, out));
+    }
+
+    // --- Streaming query: writes the matching rows to out ---
+    public void writeQuery(Query q, Appendable out) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.planner.write(q, out, w -> this.writeJson(w, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- The plan query(q) would use, as JSON ---
+    public String explain(Query q) {
+        this.lock.readLock().lock();
+        try {
+            return this.planner.explain(q);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ================== Group-by aggregates ==================
+    // count per value of groupBy, plus sum / min / max / avg of an INT column
+    // (column null: count only); see Aggregates.
+    // "total drone capacity per city" is aggregate("city", "droneCapacity").
+
+    // --- Maintain (groupBy, column) on every write from now on ---
+    public void registerAggregate(String groupBy, String column) {
+        this.lock.writeLock().lock();
+        try {
+            this.aggregates.register(groupBy, column);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public boolean dropAggregate(String groupBy, String column) {
+        this.lock.writeLock().lock();
+        try {
+            return this.aggregates.unregister(groupBy, column);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // --- Groups as JSON: O(groups) when registered, one table scan otherwise ---
+    public String aggregate(String groupBy, String column) {
+        return JsonWriter.render(out -> this.writeAggregate(groupBy, column, out));
+    }
+
+    public void writeAggregate(String groupBy, String column, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.aggregates.write(groupBy, column, out);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Registered aggregates and their group counts as JSON ---
+    public String aggregateStats() {
+        this.lock.readLock().lock();
+        try {
+            return JsonWriter.render(this.aggregates::writeRegistered);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // ================== Keyset pagination ==================
+    // Pages in getAll() order, {"next":..,"prev":..,"rows":[...]}; the
+    // capacity queries page as queryPage(Query.range("droneCapacity", ..)).
+
+    // --- One page of getAll(): up to limit rows from cursor (null = first page) ---
+    public String getPage(String cursor, int limit) {
+        return this.queryPage(null, cursor, limit);
+    }
+
+    // --- One page of query(q); a bad cursor returns an error JSON ---
+    // Cached like the queryByX methods: a page depends on the rows q matches
+    // (their positions never change), so only writes to those drop it.
+    public String queryPage(Query q, String cursor, int limit) {
+        this.lock.readLock().lock();
+        try {
+            return this.cache.get(
+                    QueryCache.key("queryPage", (q == null) ? null : q.cacheKey(), cursor,
+                            limit),
+                    this.planner.dependsOn(q), out -> this.writePage(q, cursor, limit, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // --- Streaming page: writes one page of query(q) (q == null: all rows) ---
+    public void writePage(Query q, String cursor, int limit, Appendable out)
+            throws IOException {
+        this.lock.readLock().lock();
+        try {
+            this.planner.writePage(q, cursor, limit, out,
+                    w -> this.writeJson(w, out));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // Columns and indexes as the planner sees them
+    private QueryPlanner.Table<Warehouse> queryTable() {
+        return new QueryPlanner.Table<Warehouse>() {
+            @Override
+            public QueryPlanner.Kind kind(String field) {
+                switch (field) {
+                    case "id":
+                    case "phoneNumber":
+                    case "city":
+                    case "zipCode":
+                    case "street":
+                    case "managerSSN":
+                        return QueryPlanner.Kind.TEXT;
+                    case "equipmentCapacity":
+                    case "droneCapacity":
+                        return QueryPlanner.Kind.INT;
+                    default:
+                        return null;
+                }
+            }
+
+            @Override
+            public String text(Warehouse w, String field) {
+                return "id".equals(field) ? w.getId() : column(w, field);
+            }
+
+            @Override
+            public int number(Warehouse w, String field) {
+                return "equipmentCapacity".equals(field) ? w.getEquipmentCapacity()
+                        : w.getDroneCapacity();
+            }
+
+            @Override
+            public int size() {
+                return WarehouseRepository.this.store.size();
+            }
+
+            @Override
+            public int parallelThreshold() {
+                return WarehouseRepository.this.parallelThreshold;
+            }
+
+            @Override
+            public SlotStore<Warehouse> slots() {
+                return WarehouseRepository.this.store;
+            }
+
+            @Override
+            public Warehouse get(String id) {
+                return WarehouseRepository.this.store.get(id);
+            }
+
+            @Override
+            public QueryPlanner.Index index(String field) {
+                switch (field) {
+                    case "id":
+                        return QueryPlanner.primaryKey(field, this);
+                    case "equipmentCapacity":
+                        return QueryPlanner
+                                .ints(WarehouseRepository.this.equipmentCapacityIndex);
+                    case "droneCapacity":
+                        return QueryPlanner
+                                .ints(WarehouseRepository.this.droneCapacityIndex);
+                    default:
+                        return null;
                 }
-                sb.append(this.toJson(w));
-                first = false;
             }
+        };
+    }
+
+    // Value of one String column by field name
+    private static String column(Warehouse w, String field) {
+        switch (field) {
+            case "city":
+                return w.getCity();
+            case "zipCode":
+                return w.getZipCode();
+            case "managerSSN":
+                return w.getManagerSSN();
+            case "phoneNumber":
+                return w.getPhoneNumber();
+            case "street":
+                return w.getStreet();
+            default:
+                throw new IllegalArgumentException("unknown warehouse field: " + field);
         }
-        sb.append("]");
-        return sb.toString();
     }
 
     // ================== String helper ==================
@@ -0,0 +1,271 @@
+package storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * LogRecord - One logged change: which table, which operation, the primary key
+ * and (for create/update) every column value of the new row. - Values are
+ * String, Integer or null. - Encoded as a compact binary payload: varint
+ * lengths, UTF-8 strings, 4-byte ints, one tag byte per value. - Several
+ * records can be encoded as one group payload (see encodeGroup()), which the
+ * write-ahead log frames and checksums as a unit.
+ */
+public final class LogRecord {
+    // --- Operation codes ---
+    public static final byte CREATE = 1;
+    public static final byte UPDATE = 2;
+    public static final byte DELETE = 3;
+
+    // --- Value tags ---
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+
+    // First byte of a group payload; no table uses id 0
+    private static final byte GROUP = 0;
+
+    private final byte table;
+    private final byte op;
+    private final String key;
+    private final Object[] values;
+
+    // --- Constructor: values must be String, Integer or null ---
+    public LogRecord(byte table, byte op, String key, Object... values) {
+        if (key == null) {
+            throw new IllegalArgumentException("key cannot be null");
+        }
+        this.table = table;
+        this.op = op;
+        this.key = key;
+        this.values = values;
+    }
+
+    // --- Getters ---
+    public byte getTable() {
+        return this.table;
+    }
+
+    public byte getOp() {
+        return this.op;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public int size() {
+        return this.values.length;
+    }
+
+    public String getString(int i) {
+        return (String) this.values[i];
+    }
+
+    public int getInt(int i) {
+        return (Integer) this.values[i];
+    }
+
+    // --- Binary encoding ---
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(this.table);
+            out.writeByte(this.op);
+            writeString(out, this.key);
+            writeVarint(out, this.values.length);
+            for (Object v : this.values) {
+                if (v == null) {
+                    out.writeByte(NULL);
+                } else if (v instanceof String) {
+                    out.writeByte(STRING);
+                    writeString(out, (String) v);
+                } else if (v instanceof Integer) {
+                    out.writeByte(INT);
+                    out.writeInt((Integer) v);
+                } else {
+                    throw new IllegalArgumentException(
+                            "unsupported value type: " + v.getClass().getName());
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // in-memory stream never throws
+        }
+    }
+
+    // Parses the payload in place: strings are decoded straight from the array,
+    // no stream or per-value byte[] is created (replay decodes millions of rows).
+    public static LogRecord decode(byte[] payload) throws IOException {
+        Cursor in = new Cursor(payload);
+        byte table = in.readByte();
+        byte op = in.readByte();
+        String key = in.readString();
+        Object[] values = new Object[in.readVarint()];
+        for (int i = 0; i < values.length; i++) {
+            byte tag = in.readByte();
+            if (tag == STRING) {
+                values[i] = in.readString();
+            } else if (tag == INT) {
+                values[i] = in.readInt();
+            } else if (tag != NULL) {
+                throw new IOException("bad value tag: " + tag);
+            }
+        }
+        return new LogRecord(table, op, key, values);
+    }
+
+    // --- Group payload: [0][varint n][n x (varint length, record payload)] ---
+    public static byte[] encodeGroup(List<LogRecord> records) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    64 * records.size() + 8);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(GROUP);
+            writeVarint(out, records.size());
+            for (LogRecord r : records) {
+                if (r.table == GROUP) {
+                    throw new IllegalArgumentException("table id 0 is reserved");
+                }
+                byte[] payload = r.encode();
+                writeVarint(out, payload.length);
+                out.write(payload);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // in-memory stream never throws
+        }
+    }
+
+    public static boolean isGroup(byte[] payload) {
+        return payload.length > 0 && payload[0] == GROUP;
+    }
+
+    public static List<LogRecord> decodeGroup(byte[] payload) throws IOException {
+        Cursor in = new Cursor(payload);
+        if (in.readByte() != GROUP) {
+            throw new IOException("not a record group");
+        }
+        int n = in.readVarint();
+        List<LogRecord> out = new ArrayList<>(Math.max(0, Math.min(n, 1024)));
+        for (int i = 0; i < n; i++) {
+            out.add(decode(in.readBytes(in.readVarint())));
+        }
+        return out;
+    }
+
+    // --- Framed form used by snapshots: [int length][int crc32][payload] ---
+    public void writeFramed(DataOutputStream out) throws IOException {
+        byte[] payload = this.encode();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    // Reads one framed record; returns null at a length of -1 (end marker).
+    public static LogRecord readFramed(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        int checksum = in.readInt();
+        if (length < 0) {
+            throw new IOException("bad record length: " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("record checksum mismatch");
+        }
+        return decode(payload);
+    }
+
+    @Override
+    public String toString() {
+        return "LogRecord{" + "table=" + this.table + ", op=" + this.op + ", key='"
+                + this.key + '\'' + ", values=" + Arrays.toString(this.values) + '}';
+    }
+
+    // ====================== Helpers ======================
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, b.length);
+        out.write(b);
+    }
+
+    private static void writeVarint(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    // Read position over an encoded payload
+    private static final class Cursor {
+        private final byte[] buf;
+        private int pos;
+
+        Cursor(byte[] buf) {
+            this.buf = buf;
+        }
+
+        byte readByte() throws IOException {
+            if (this.pos >= this.buf.length) {
+                throw new IOException("truncated record");
+            }
+            return this.buf[this.pos++];
+        }
+
+        int readInt() throws IOException {
+            return (this.readByte() & 0xFF) << 24 | (this.readByte() & 0xFF) << 16
+                    | (this.readByte() & 0xFF) << 8 | (this.readByte() & 0xFF);
+        }
+
+        int readVarint() throws IOException {
+            int v = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = this.readByte() & 0xFF;
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        byte[] readBytes(int n) throws IOException {
+            if (n < 0 || n > this.buf.length - this.pos) {
+                throw new IOException("truncated record");
+            }
+            byte[] b = Arrays.copyOfRange(this.buf, this.pos, this.pos + n);
+            this.pos += n;
+            return b;
+        }
+
+        String readString() throws IOException {
+            int n = this.readVarint();
+            if (n < 0 || n > this.buf.length - this.pos) {
+                throw new IOException("truncated record");
+            }
+            String s = new String(this.buf, this.pos, n, StandardCharsets.UTF_8);
+            this.pos += n;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * SnapshotFile - Point-in-time image of every repository, written by a
+ * checkpoint so startup does not have to replay the whole write-ahead log.
+ *
+ * A snapshot is tagged with a log segment number N: it holds every change in
+ * segments before N, so recovery loads it and replays segments >= N only.
+ *
+ * Layout: 4-byte magic, 8-byte segment number, then one framed CREATE record
+ * per row (same encoding as the log) and an int -1 end marker. The file is
+ * written as snapshot-N.tmp, fsynced, then atomically renamed to
+ * snapshot-N.snap, so a crash mid-checkpoint never leaves a half snapshot;
+ * the directory is fsynced after the rename, so once write() returns the
+ * snapshot survives a crash and older segments may be deleted.
+ */
+public final class SnapshotFile {
+    // Receives the rows of one snapshot, table by table
+    public interface Source {
+        void writeTo(Writer out) throws IOException;
+    }
+
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private SnapshotFile() {
+    }
+
+    // --- Write a complete snapshot tagged with segment, then publish it ---
+    public static void write(Path dir, long segment, Source source) throws IOException {
+        Path tmp = dir.resolve(name(segment) + TEMP_SUFFIX);
+        try (OutputStream file = Files.newOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(file, 256 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeLong(segment);
+            source.writeTo(new Writer(out));
+            out.writeInt(-1);
+        }
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve(name(segment) + SUFFIX),
+                StandardCopyOption.ATOMIC_MOVE);
+        // The rename lives in the directory: make it durable before the
+        // caller deletes the log segments the snapshot replaces
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        }
+    }
+
+    // --- Segment number of the newest published snapshot, or 0 if none ---
+    public static long latest(Path dir) throws IOException {
+        long best = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                PREFIX + "*" + SUFFIX)) {
+            for (Path p : files) {
+                best = Math.max(best, segmentOf(p));
+            }
+        }
+        return best;
+    }
+
+    // --- Feed every row of snapshot-segment to sink ---
+    public static void read(Path dir, long segment, Consumer<LogRecord> sink)
+            throws IOException {
+        Path file = dir.resolve(name(segment) + SUFFIX);
+        try (InputStream raw = Files.newInputStream(file);
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(raw, 256 * 1024))) {
+            if (in.readInt() != MAGIC || in.readLong() != segment) {
+                throw new IOException("not a snapshot for segment " + segment
+                        + ": " + file);
+            }
+            LogRecord r;
+            while ((r = LogRecord.readFramed(in)) != null) {
+                sink.accept(r);
+            }
+        }
+    }
+
+    // --- Remove published snapshots older than segment and stray temp files ---
+    public static void deleteOlderThan(Path dir, long segment) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*")) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)
+                        || (name.endsWith(SUFFIX) && segmentOf(p) < segment)) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    // ====================== Writer ======================
+
+    // Handed to Source.writeTo(); appends one row per call
+    public static final class Writer {
+        private final DataOutputStream out;
+
+        private Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void write(LogRecord row) throws IOException {
+            row.writeFramed(this.out);
+        }
+    }
+
+    // ====================== Helpers ======================
+
+    private static String name(long segment) {
+        return String.format("%s%016d", PREFIX, segment);
+    }
+
+    private static long segmentOf(Path p) {
+        String name = p.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(),
+                    name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0; // not one of ours
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * WriteAheadLog - Append-only binary log of LogRecords. Every repository write
+ * is appended here before the in-memory map changes; startup replays the log
+ * to rebuild the maps.
+ *
+ * The log is a directory of numbered segments (wal-0000000000000001.log, ...).
+ * rotate() closes the current segment and starts the next one, so a checkpoint
+ * can snapshot the repositories and then drop every segment before the cut.
+ *
+ * Segment layout: 4-byte magic, then records of [int length][int crc32][payload].
+ * A torn or corrupt tail of the newest segment (crash mid-write) is cut off
+ * during replay. appendAtomic() puts several records in one frame (a
+ * LogRecord group payload), so replay applies all of them or none.
+ *
+ * Durability is controlled by a SyncPolicy: - EVERY_WRITE: sync() returns only
+ * after fsync; concurrent writers share one fsync (group commit). - INTERVAL: a
+ * background thread writes and fsyncs every intervalMillis. - OS: each record is
+ * handed to the OS immediately; the OS decides when it reaches disk.
+ */
+public final class WriteAheadLog implements Closeable {
+    public enum SyncPolicy {
+        EVERY_WRITE, INTERVAL, OS
+    }
+
+    private static final int MAGIC = 0x57414C31; // "WAL1"
+    private static final int HEADER_BYTES = 4;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final String LEGACY_FILE = "wal.log";
+
+    private final Path dir;
+    private final SyncPolicy policy;
+
+    // Current segment (guarded by this; swapped only by rotate())
+    private long segment;
+    private FileChannel channel;
+
+    // Records appended but not yet written to the channel (guarded by this)
+    private final PendingBuffer pending = new PendingBuffer();
+    private final DataOutputStream pendingOut = new DataOutputStream(this.pending);
+
+    // Log sequence numbers (guarded by this)
+    private long appendedLsn = 0;
+    private long syncedLsn = 0;
+    private boolean syncing = false;
+
+    private final Thread flusher;
+    private volatile boolean closed = false;
+
+    // ---------- Open ----------
+    // Opens (or creates) the log directory and its newest segment; call
+    // replay() before the first append(). A single-file log from before
+    // segmenting (dir/wal.log) has the same layout and becomes segment 1.
+    public static WriteAheadLog open(Path dir, SyncPolicy policy, long intervalMillis)
+            throws IOException {
+        Files.createDirectories(dir);
+        Path legacy = dir.resolve(LEGACY_FILE);
+        if (Files.exists(legacy) && listSegments(dir).isEmpty()) {
+            Files.move(legacy, dir.resolve(segmentName(1)),
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        return new WriteAheadLog(dir, policy, intervalMillis);
+    }
+
+    private WriteAheadLog(Path dir, SyncPolicy policy, long intervalMillis)
+            throws IOException {
+        this.dir = dir;
+        this.policy = policy;
+        List<Long> segments = listSegments(dir);
+        this.segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+        this.channel = this.openSegment(this.segment);
+
+        if (policy == SyncPolicy.INTERVAL) {
+            this.flusher = new Thread(() -> this.flushLoop(intervalMillis),
+                    "wal-flusher");
+            this.flusher.setDaemon(true);
+            this.flusher.start();
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    public Path getDir() {
+        return this.dir;
+    }
+
+    public SyncPolicy getPolicy() {
+        return this.policy;
+    }
+
+    // Number of the segment new records go to
+    public synchronized long currentSegment() {
+        return this.segment;
+    }
+
+    // ---------- Replay ----------
+    // Feeds every intact record of segments >= fromSegment, in log order, to
+    // sink. A torn tail of the newest segment is truncated so new records are
+    // appended right after the last good one; damage anywhere else is an error.
+    public synchronized void replay(long fromSegment, Consumer<LogRecord> sink)
+            throws IOException {
+        for (long seg : listSegments(this.dir)) {
+            if (seg < fromSegment) {
+                continue;
+            }
+            if (seg == this.segment) {
+                long end = replaySegment(this.channel, sink);
+                if (end < this.channel.size()) {
+                    this.channel.truncate(end);
+                    this.channel.force(true);
+                }
+                this.channel.position(end);
+            } else {
+                try (FileChannel ch = FileChannel.open(this.segmentPath(seg),
+                        StandardOpenOption.READ)) {
+                    if (replaySegment(ch, sink) < ch.size()) {
+                        throw new IOException(
+                                "corrupt log segment: " + this.segmentPath(seg));
+                    }
+                }
+            }
+        }
+    }
+
+    // ---------- Append ----------
+    // Buffers the record and returns its log sequence number. Pass the LSN to
+    // sync() to wait until the record is durable under this log's policy.
+    public long append(LogRecord record) {
+        return this.appendFrame(record.encode());
+    }
+
+    // Buffers several records as one frame under one checksum and returns its
+    // LSN, or 0 for an empty list. A crash can tear the frame but not split
+    // it: replay sees every record of it or none (used by transactions).
+    public long appendAtomic(List<LogRecord> records) {
+        return records.isEmpty() ? 0 : this.appendFrame(LogRecord.encodeGroup(records));
+    }
+
+    // Buffers several records under one monitor acquisition (encoding and
+    // checksums happen outside it) and returns the LSN of the last one, or 0
+    // for an empty list. Syncing that LSN makes the whole batch durable.
+    public long appendAll(List<LogRecord> records) {
+        byte[][] payloads = new byte[records.size()][];
+        int[] crcs = new int[payloads.length];
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = records.get(i).encode();
+            crc.reset();
+            crc.update(payloads[i], 0, payloads[i].length);
+            crcs[i] = (int) crc.getValue();
+        }
+        if (payloads.length == 0) {
+            return 0;
+        }
+        synchronized (this) {
+            if (this.closed) {
+                throw new IllegalStateException("write-ahead log is closed");
+            }
+            try {
+                for (int i = 0; i < payloads.length; i++) {
+                    this.pendingOut.writeInt(payloads[i].length);
+                    this.pendingOut.writeInt(crcs[i]);
+                    this.pendingOut.write(payloads[i]);
+                }
+                this.appendedLsn += payloads.length;
+                if (this.policy == SyncPolicy.OS) {
+                    this.drain();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this.appendedLsn;
+        }
+    }
+
+    // ---------- Sync ----------
+    // EVERY_WRITE: blocks until lsn is fsynced. The first waiter becomes the
+    // leader and fsyncs everything appended so far; the others ride along.
+    // INTERVAL / OS: returns immediately (the background thread / OS syncs).
+    public void sync(long lsn) {
+        if (this.policy != SyncPolicy.EVERY_WRITE || lsn <= 0) {
+            return;
+        }
+        this.syncUpTo(lsn);
+    }
+
+    // Write and fsync everything appended so far, whatever the policy.
+    public void flush() {
+        long lsn;
+        synchronized (this) {
+            lsn = this.appendedLsn;
+        }
+        this.syncUpTo(lsn);
+    }
+
+    // ---------- Rotate ----------
+    // Makes everything appended so far durable in the current segment, then
+    // starts a new one. Returns the new segment number: every record appended
+    // before this call lives in a lower-numbered segment.
+    public synchronized long rotate() throws IOException {
+        while (this.syncing) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for fsync", e);
+            }
+        }
+        this.drain();
+        this.channel.force(false);
+        this.syncedLsn = this.appendedLsn;
+        FileChannel next = this.openSegment(this.segment + 1);
+        this.channel.close();
+        this.channel = next;
+        this.segment++;
+        this.notifyAll();
+        return this.segment;
+    }
+
+    // Deletes every segment numbered below segment (already in a snapshot).
+    public void deleteSegmentsBefore(long segment) throws IOException {
+        for (long seg : listSegments(this.dir)) {
+            if (seg < segment) {
+                Files.deleteIfExists(this.segmentPath(seg));
+            }
+        }
+    }
+
+    // Refuses appends from here on and makes every accepted one durable: the
+    // flag and the final drain + fsync share one monitor section, so no
+    // append can slip in between them.
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            while (this.syncing) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting for fsync", e);
+                }
+            }
+            this.drain();
+            this.channel.force(false);
+            this.syncedLsn = this.appendedLsn;
+            this.channel.close();
+            this.notifyAll();
+        }
+        if (this.flusher != null) {
+            this.flusher.interrupt();
+        }
+    }
+
+    // ====================== Helpers ======================
+
+    // Buffer one framed payload; returns its LSN
+    private long appendFrame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        synchronized (this) {
+            if (this.closed) {
+                throw new IllegalStateException("write-ahead log is closed");
+            }
+            try {
+                this.pendingOut.writeInt(payload.length);
+                this.pendingOut.writeInt((int) crc.getValue());
+                this.pendingOut.write(payload);
+                this.appendedLsn++;
+                if (this.policy == SyncPolicy.OS) {
+                    this.drain();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this.appendedLsn;
+        }
+    }
+
+    private void syncUpTo(long lsn) {
+        long target;
+        FileChannel ch;
+        synchronized (this) {
+            while (this.syncedLsn < lsn && this.syncing) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted waiting for fsync", e);
+                }
+            }
+            if (this.syncedLsn >= lsn) {
+                return;
+            }
+            this.syncing = true;
+            target = this.appendedLsn;
+            ch = this.channel; // rotate() waits for !syncing before swapping it
+            try {
+                this.drain();
+            } catch (IOException e) {
+                this.syncing = false;
+                this.notifyAll();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // fsync outside the monitor so other writers can keep appending
+        boolean ok = false;
+        try {
+            ch.force(false);
+            ok = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            synchronized (this) {
+                this.syncing = false;
+                if (ok && target > this.syncedLsn) {
+                    this.syncedLsn = target;
+                }
+                this.notifyAll();
+            }
+        }
+    }
+
+    // Move buffered records to the channel (caller holds the monitor).
+    private void drain() throws IOException {
+        if (this.pending.size() == 0) {
+            return;
+        }
+        this.pendingOut.flush();
+        ByteBuffer buf = this.pending.view();
+        while (buf.hasRemaining()) {
+            this.channel.write(buf);
+        }
+        this.pending.reset();
+    }
+
+    private void flushLoop(long intervalMillis) {
+        while (!this.closed) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                this.flush();
+            } catch (RuntimeException e) {
+                if (!this.closed) {
+                    System.err.println("[WAL] background flush failed: " + e);
+                }
+            }
+        }
+    }
+
+    // Open a segment for appending, writing the header if it is new.
+    private FileChannel openSegment(long seg) throws IOException {
+        FileChannel ch = FileChannel.open(this.segmentPath(seg),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (ch.size() < HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC);
+            header.flip();
+            ch.truncate(0);
+            ch.write(header, 0);
+            ch.force(true);
+        }
+        ch.position(ch.size());
+        return ch;
+    }
+
+    // Replays one segment; returns the offset just past its last good record.
+    private static long replaySegment(FileChannel ch, Consumer<LogRecord> sink)
+            throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(ch, magic, 0);
+        magic.flip();
+        if (magic.getInt() != MAGIC) {
+            throw new IOException("not a write-ahead log segment");
+        }
+
+        long pos = HEADER_BYTES;
+        long size = ch.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        while (pos + RECORD_HEADER_BYTES <= size) {
+            header.clear();
+            readFully(ch, header, pos);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 0 || pos + RECORD_HEADER_BYTES + length > size) {
+                break; // torn tail
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(ch, payload, pos + RECORD_HEADER_BYTES);
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break; // corrupt tail
+            }
+            if (LogRecord.isGroup(payload.array())) {
+                for (LogRecord r : LogRecord.decodeGroup(payload.array())) {
+                    sink.accept(r);
+                }
+            } else {
+                sink.accept(LogRecord.decode(payload.array()));
+            }
+            pos += RECORD_HEADER_BYTES + length;
+        }
+        return pos;
+    }
+
+    private Path segmentPath(long seg) {
+        return this.dir.resolve(segmentName(seg));
+    }
+
+    private static String segmentName(long seg) {
+        return String.format("%s%016d%s", PREFIX, seg, SUFFIX);
+    }
+
+    // Segment numbers present in dir, ascending
+    private static List<Long> listSegments(Path dir) throws IOException {
+        List<Long> out = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                PREFIX + "*" + SUFFIX)) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                try {
+                    out.add(Long.parseLong(name.substring(PREFIX.length(),
+                            name.length() - SUFFIX.length())));
+                } catch (NumberFormatException ignore) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) {
+                throw new IOException("unexpected end of log");
+            }
+            pos += n;
+        }
+    }
+
+    // Growable byte buffer whose contents can be written without copying
+    private static final class PendingBuffer extends ByteArrayOutputStream {
+        PendingBuffer() {
+            super(64 * 1024);
+        }
+
+        ByteBuffer view() {
+            return ByteBuffer.wrap(this.buf, 0, this.count);
+        }
+    }
+}